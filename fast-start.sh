@@ -0,0 +1,54 @@
+#!/bin/bash
+# Fast-startup profile for the API.
+#
+#   ./fast-start.sh archive      build the runnable jar and record an AppCDS archive from a training run
+#   ./fast-start.sh run [args]   start the API from the archive (extra JVM args are passed through,
+#                                e.g. -Dsocialmedia.warmup.iterations=20 to warm up before the port opens)
+#   ./fast-start.sh bench [runs] report time to first successful response with and without the archive
+#
+# The archive is tied to the exact jar and JDK it was recorded with; rerun "archive" after rebuilding.
+set -e
+cd "$(dirname "$0")"
+
+JAR=target/Challenges-1.1.jar
+ARCHIVE=target/app-cds.jsa
+
+wait_for_api() {
+    for i in $(seq 1 300); do
+        if curl -s -o /dev/null -w "%{http_code}" http://localhost:8080/messages/1 | grep -q 200; then
+            return 0
+        fi
+        sleep 0.1
+    done
+    echo "API did not start" >&2
+    return 1
+}
+
+case "$1" in
+    archive)
+        mvn -B -q -Pfast-startup package -DskipTests
+        rm -f "$ARCHIVE"
+        # Training run: serve a few requests so the request path is loaded, then exit so the JVM dumps the archive
+        java -XX:ArchiveClassesAtExit="$ARCHIVE" -Dsocialmedia.warmup.iterations=20 -jar "$JAR" > target/cds-training.log 2>&1 &
+        pid=$!
+        wait_for_api
+        curl -s -o /dev/null http://localhost:8080/messages
+        curl -s -o /dev/null -X POST -H "Content-Type: application/json" -d '{"username":"","password":""}' http://localhost:8080/login
+        kill -TERM $pid
+        wait $pid || true
+        ls -l "$ARCHIVE"
+        ;;
+    run)
+        shift
+        exec java -XX:SharedArchiveFile="$ARCHIVE" -Xshare:auto "$@" -jar "$JAR"
+        ;;
+    bench)
+        shift
+        mvn -B -q test-compile dependency:build-classpath -Dmdep.outputFile=target/test-classpath.txt
+        java -cp target/test-classes:$(cat target/test-classpath.txt) StartupBenchmark "$@"
+        ;;
+    *)
+        echo "usage: $0 archive | run [jvm args] | bench [runs]" >&2
+        exit 1
+        ;;
+esac
@@ -0,0 +1,87 @@
+package Controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import Util.AppConfig;
+import Util.ConcurrencyLimiter;
+import Util.Span;
+import Util.Tracer;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+/**
+ * Admission control in front of the database. Routes are registered through one of three bulkheads
+ * so a flood of one kind of request cannot take the capacity of another:
+ *   - read:  GET routes answered with short queries or from memory
+ *   - write: routes that insert, update or delete
+ *   - bulk:  long running exports, imports and rebuilds, held to a small fixed limit that their
+ *            latency does not adjust
+ * A request that cannot get a slot within the queue-time budget is answered 503 right away.
+ */
+public class AdmissionControl {
+
+    private final ConcurrencyLimiter reads = limiter("read");
+    private final ConcurrencyLimiter writes = limiter("write");
+    private final ConcurrencyLimiter bulk = limiter("bulk");
+
+    private static ConcurrencyLimiter limiter(String bulkhead) {
+        int initial = AppConfig.admissionInitialLimit(bulkhead);
+        int max = Math.max(initial, AppConfig.admissionMaxLimit(bulkhead));
+        return new ConcurrencyLimiter(bulkhead, initial, 1, max,
+                AppConfig.admissionTargetLatencyMillis(bulkhead), AppConfig.admissionQueueBudgetMillis());
+    }
+
+    public Handler read(Handler handler) {
+        return guard(reads, handler);
+    }
+
+    public Handler write(Handler handler) {
+        return guard(writes, handler);
+    }
+
+    public Handler bulk(Handler handler) {
+        return guard(bulk, handler);
+    }
+
+    private Handler guard(ConcurrencyLimiter limiter, Handler handler) {
+        return ctx -> {
+            boolean admitted;
+            try (Span span = Tracer.start("AdmissionControl." + limiter.getName())) {
+                admitted = limiter.acquire();
+            }
+            if (!admitted) {
+                reject(ctx, limiter);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                handler.handle(ctx);
+            } finally {
+                limiter.release(System.nanoTime() - start);
+            }
+        };
+    }
+
+    private void reject(Context ctx, ConcurrencyLimiter limiter) {
+        ctx.status(503);
+        ctx.header("Retry-After", "1");
+        System.out.println("Rejected by " + limiter.getName() + " bulkhead, limit " + limiter.getLimit());
+    }
+
+    /**
+     * @return current limit, in-flight count and accepted/rejected totals per bulkhead
+     */
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (ConcurrencyLimiter limiter : new ConcurrencyLimiter[] {reads, writes, bulk}) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("limit", limiter.getLimit());
+            entry.put("in_flight", limiter.getInFlight());
+            entry.put("accepted", limiter.getAccepted());
+            entry.put("rejected", limiter.getRejected());
+            stats.put(limiter.getName(), entry);
+        }
+        return stats;
+    }
+}
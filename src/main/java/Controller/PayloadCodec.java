@@ -0,0 +1,101 @@
+package Controller;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import Util.Span;
+import Util.Tracer;
+import io.javalin.http.Context;
+
+/**
+ * Content negotiation for request and response bodies. JSON stays the default; clients can send and
+ * ask for Smile (application/x-jackson-smile) or CBOR (application/cbor) through Content-Type and
+ * Accept, which are smaller and cheaper to encode for large message lists.
+ *
+ * The mappers are shared: ObjectMapper is thread-safe once configured and expensive to create.
+ */
+public class PayloadCodec {
+
+    public static final String JSON = "application/json";
+    public static final String SMILE = "application/x-jackson-smile";
+    public static final String CBOR = "application/cbor";
+
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+    private static final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    private static final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+    /**
+     * Binds the request body to type using the format named by Content-Type.
+     */
+    public static <T> T read(Context ctx, Class<T> type) throws IOException {
+        try (Span span = Tracer.start("PayloadCodec.read")) {
+            return mapperFor(ctx.contentType()).readValue(ctx.bodyAsBytes(), type);
+        }
+    }
+
+    /**
+     * Parses the request body into a tree using the format named by Content-Type.
+     */
+    public static JsonNode readTree(Context ctx) throws IOException {
+        try (Span span = Tracer.start("PayloadCodec.readTree")) {
+            return mapperFor(ctx.contentType()).readTree(ctx.bodyAsBytes());
+        }
+    }
+
+    /**
+     * Writes body in the first supported format listed in Accept, JSON if none is.
+     */
+    public static void write(Context ctx, Object body) throws IOException {
+        try (Span span = Tracer.start("PayloadCodec.write")) {
+            String format = responseFormat(ctx);
+            if (format.equals(JSON)) {
+                ctx.json(body);
+            } else {
+                ctx.contentType(format).result(mapperFor(format).writeValueAsBytes(body));
+            }
+        }
+    }
+
+    /**
+     * @return the media type the response will use: the earliest of SMILE, CBOR or JSON listed in Accept
+     */
+    public static String responseFormat(Context ctx) {
+        String accept = ctx.header("Accept");
+        if (accept == null) {
+            return JSON;
+        }
+        int smile = accept.indexOf(SMILE);
+        int cbor = accept.indexOf(CBOR);
+        int json = accept.indexOf(JSON);
+        int best = Integer.MAX_VALUE;
+        String format = JSON;
+        if (smile >= 0 && smile < best) {
+            best = smile;
+            format = SMILE;
+        }
+        if (cbor >= 0 && cbor < best) {
+            best = cbor;
+            format = CBOR;
+        }
+        if (json >= 0 && json < best) {
+            format = JSON;
+        }
+        return format;
+    }
+
+    /**
+     * @return the mapper for a media type, JSON for anything unrecognized
+     */
+    public static ObjectMapper mapperFor(String mediaType) {
+        if (mediaType != null && mediaType.startsWith(SMILE)) {
+            return smileMapper;
+        } else if (mediaType != null && mediaType.startsWith(CBOR)) {
+            return cborMapper;
+        }
+        return jsonMapper;
+    }
+}
@@ -0,0 +1,202 @@
+package Controller;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import Model.Message;
+import Util.Span;
+import Util.Tracer;
+import io.javalin.http.Context;
+
+/**
+ * Streaming validation of the message write bodies. The body is read from the request input stream
+ * through Jackson's JsonParser (or the Smile/CBOR parser named by Content-Type) one token at a time,
+ * and the request is rejected as soon as something is wrong: the body grows past the route's cap, a
+ * field is unknown or has the wrong type, or message_text is longer than its limit. The text's length
+ * is checked from the parser's buffer before a String is made, so an oversized or malicious body costs
+ * no more than the bytes read up to the point where it fails.
+ */
+public class PayloadValidator {
+
+    public static final int MAX_MESSAGE_TEXT_LENGTH = 255;
+
+    /**
+     * The body was rejected; status is the HTTP status to answer with.
+     */
+    public static class RejectedPayloadException extends IOException {
+        private final int status;
+
+        RejectedPayloadException(int status, String reason) {
+            super(reason);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Reads a message for POST /messages. posted_by and message_text are required; message_id and
+     * time_posted_epoch are optional. message_text may not be empty or over MAX_MESSAGE_TEXT_LENGTH.
+     */
+    public static Message readMessage(Context ctx, int maxBytes) throws IOException {
+        try (Span span = Tracer.start("PayloadValidator.readMessage"); JsonParser parser = open(ctx, maxBytes)) {
+            return bindMessage(parser);
+        } catch (JsonProcessingException e) {
+            throw new RejectedPayloadException(400, e.getOriginalMessage());
+        }
+    }
+
+    private static Message bindMessage(JsonParser parser) throws IOException {
+        Message message = new Message();
+        boolean hasPostedBy = false;
+        startObject(parser);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "message_id":
+                    message.setMessage_id(intValue(parser, field));
+                    break;
+                case "posted_by":
+                    message.setPosted_by(intValue(parser, field));
+                    hasPostedBy = true;
+                    break;
+                case "message_text":
+                    message.setMessage_text(messageText(parser));
+                    break;
+                case "time_posted_epoch":
+                    message.setTime_posted_epoch(longValue(parser, field));
+                    break;
+                default:
+                    throw new RejectedPayloadException(400, "unknown field " + field);
+            }
+        }
+        endObject(parser);
+        if (!hasPostedBy || message.getMessage_text() == null) {
+            throw new RejectedPayloadException(400, "posted_by and message_text are required");
+        }
+        return message;
+    }
+
+    /**
+     * Reads the new message_text for PATCH /messages/{message_id}. Other fields are skipped without being
+     * bound; message_text is required and may not be empty or over MAX_MESSAGE_TEXT_LENGTH.
+     */
+    public static String readMessageText(Context ctx, int maxBytes) throws IOException {
+        try (Span span = Tracer.start("PayloadValidator.readMessageText"); JsonParser parser = open(ctx, maxBytes)) {
+            return bindMessageText(parser);
+        } catch (JsonProcessingException e) {
+            throw new RejectedPayloadException(400, e.getOriginalMessage());
+        }
+    }
+
+    private static String bindMessageText(JsonParser parser) throws IOException {
+        String text = null;
+        startObject(parser);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals("message_text")) {
+                text = messageText(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        endObject(parser);
+        if (text == null) {
+            throw new RejectedPayloadException(400, "message_text is required");
+        }
+        return text;
+    }
+
+    private static JsonParser open(Context ctx, int maxBytes) throws IOException {
+        if (ctx.req().getContentLengthLong() > maxBytes) {
+            throw new RejectedPayloadException(413, "body larger than " + maxBytes + " bytes");
+        }
+        InputStream body = new CappedInputStream(ctx.req().getInputStream(), maxBytes);
+        return PayloadCodec.mapperFor(ctx.contentType()).getFactory().createParser(body);
+    }
+
+    private static void startObject(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new RejectedPayloadException(400, "body is not an object");
+        }
+    }
+
+    private static void endObject(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.END_OBJECT || parser.nextToken() != null) {
+            throw new RejectedPayloadException(400, "body is not a single object");
+        }
+    }
+
+    private static String messageText(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            throw new RejectedPayloadException(400, "message_text must be a string");
+        }
+        // Length in UTF-16 units, like String.length(), checked before the String exists
+        int length = parser.getTextLength();
+        if (length == 0 || length > MAX_MESSAGE_TEXT_LENGTH) {
+            throw new RejectedPayloadException(400, "message_text must be 1 to " + MAX_MESSAGE_TEXT_LENGTH + " characters");
+        }
+        return parser.getText();
+    }
+
+    private static int intValue(JsonParser parser, String field) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_NUMBER_INT || parser.getNumberType() != JsonParser.NumberType.INT) {
+            throw new RejectedPayloadException(400, field + " must be an integer");
+        }
+        return parser.getIntValue();
+    }
+
+    private static long longValue(JsonParser parser, String field) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_NUMBER_INT || parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+            throw new RejectedPayloadException(400, field + " must be an integer");
+        }
+        return parser.getLongValue();
+    }
+
+    /**
+     * Fails the read once more than maxBytes have come through, whatever Content-Length claimed.
+     */
+    private static class CappedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long read;
+
+        CappedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws IOException {
+            read += n;
+            if (read > maxBytes) {
+                throw new RejectedPayloadException(413, "body larger than " + maxBytes + " bytes");
+            }
+        }
+    }
+}
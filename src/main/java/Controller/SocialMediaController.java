@@ -1,43 +1,213 @@
 package Controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import org.h2.tools.Server;
+
+import DAO.ChangeLogDAO;
 import Model.Account;
+import Model.AccountDeletion;
+import Model.AccountStats;
+import Model.BulkDeleteJob;
+import Model.ImportResult;
+import Service.AnalyticsService;
+import Service.BulkDeleteJobs;
+import Service.BulkImportService;
 import Model.Message;
+import Service.ExportService;
+import Service.MessageColumns;
 import Service.SocialMediaService;
+import Util.AppConfig;
+import Util.ChangeStreamServer;
 import Util.ConnectionUtil;
+import Util.HotKeyTracker;
+import Util.InvalidationBus;
+import Util.Replicator;
+import Util.ShardRouter;
+import Util.SlowQueryLog;
+import Util.Tracer;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 
 public class SocialMediaController {
 
     SocialMediaService smService = new SocialMediaService();
+    ExportService exportService = new ExportService();
+    AnalyticsService analyticsService = new AnalyticsService();
+    // Request counts of the read paths per message and per account, for /debug/hotkeys
+    HotKeyTracker messageHotKeys = newHotKeyTracker();
+    HotKeyTracker accountHotKeys = newHotKeyTracker();
+    AdmissionControl admission = new AdmissionControl();
+    // Streams committed changes to follower nodes; null unless a stream port is configured
+    ChangeStreamServer changeStream;
+    // Keeps the caches of other instances sharing the database current; null unless a port is configured
+    InvalidationBus invalidationBus;
+    private static final String TRACE_ATTRIBUTE = "trace";
     /**
      * Javalin app initialization and endpoint path definitions.
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        ConnectionUtil.resetTestDatabase();
+        // Only the test suite starts from a freshly seeded database; otherwise apply pending migrations
+        if (AppConfig.testMode()) {
+            ConnectionUtil.resetTestDatabase();
+        } else {
+            ConnectionUtil.migrateDatabase();
+        }
         Javalin app = Javalin.create(config -> {
             // Some QOL configs from our configuration lesson.
             config.routing.ignoreTrailingSlashes = true; // treat '/path' and '/path/' as the same path
             config.routing.treatMultipleSlashesAsSingleSlash = true; // treat '/path//subpath' and '/path/subpath' as the same path    
         });        
-        app.post("/login", this::loginHandler);
-        app.post("/register", this::registrationHandler);
-        app.post("/messages", this::messageCreationHandler);
-        app.get("/messages", this::retrieveAllMessagesHandler);
-        app.get("/messages/{message_id}", this::retrieveMessageByIdHandler);
-        app.delete("/messages/{message_id}", this::deleteMessageHandler);
-        app.patch("/messages/{message_id}", this::updateMessageHandler);
-        app.get("/accounts/{account_id}/messages", this::retrieveMessagesByUser);
+
+        // Optional TCP access to this instance's embedded database, for other instances sharing it
+        if (AppConfig.databaseServerPort() > 0) {
+            Server databaseServer;
+            try {
+                databaseServer = ConnectionUtil.startDatabaseServer(AppConfig.databaseServerPort());
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not open the database server port", e);
+            }
+            app.events(event -> event.serverStopped(databaseServer::stop));
+        }
+
+        // Read/write splitting: reads go to replicas (when configured), writes and the writing client stay on the primary
+        ConnectionUtil.configureReplicas(AppConfig.replicaCount());
+        Replicator replicator = new Replicator();
+        if (ConnectionUtil.getReplicaCount() > 0) {
+            replicator.start();
+        }
+        app.events(event -> event.serverStopped(replicator::stop));
+
+        // Optional sharded mode: message rows split across shard databases by posted_by
+        ShardRouter.configure(AppConfig.shardCount(), AppConfig.shardUrlPrefix());
+
+        // Optional change stream for follower nodes on another process (see ReplicationFollower)
+        if (AppConfig.replicationStreamPort() > 0) {
+            changeStream = new ChangeStreamServer(AppConfig.replicationStreamPort());
+            try {
+                changeStream.start();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the change stream port", e);
+            }
+            app.events(event -> event.serverStopped(changeStream::stop));
+        }
+
+        // Optional invalidation bus for several instances sharing one database
+        if (AppConfig.invalidationPort() > 0) {
+            invalidationBus = new InvalidationBus(AppConfig.invalidationPort(), InvalidationBus.parsePeers(AppConfig.invalidationPeers()),
+                    AppConfig.invalidationBatchMillis(), smService.invalidationListener());
+            try {
+                invalidationBus.start();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the invalidation port", e);
+            }
+            ChangeLogDAO.setInvalidationBus(invalidationBus);
+            app.events(event -> event.serverStopped(() -> {
+                ChangeLogDAO.setInvalidationBus(null);
+                invalidationBus.stop();
+            }));
+        }
+
+        // Background work owned by the service (statistics checkpoints)
+        smService.start();
+        app.events(event -> event.serverStopped(smService::stop));
+        analyticsService.start();
+        app.events(event -> event.serverStopped(analyticsService::stop));
+
+        app.before(ctx -> ConnectionUtil.setCurrentClient(clientId(ctx)));
+        app.after(ctx -> ConnectionUtil.setCurrentClient(null));
+
+        // Sampled requests (or any sent with X-Trace: true) are traced from here until the response is written
+        app.before(ctx -> ctx.attribute(TRACE_ATTRIBUTE,
+                Tracer.startRequest(ctx.method() + " " + ctx.path(), "true".equalsIgnoreCase(ctx.header("X-Trace")))));
+        app.after(ctx -> Tracer.finishRequest(ctx.attribute(TRACE_ATTRIBUTE)));
+
+        // Every route goes through a read, write or bulk bulkhead; overload is answered with 503
+        app.post("/login", admission.read(this::loginHandler));
+        app.post("/register", admission.write(this::registrationHandler));
+        app.post("/messages", admission.write(this::messageCreationHandler));
+        app.get("/messages", admission.read(this::retrieveAllMessagesHandler));
+        app.get("/messages/{message_id}", admission.read(this::retrieveMessageByIdHandler));
+        app.post("/messages/lookup", admission.read(this::lookupMessagesHandler));
+        app.delete("/messages/{message_id}", admission.write(this::deleteMessageHandler));
+        app.patch("/messages/{message_id}", admission.write(this::updateMessageHandler));
+        app.post("/messages/bulk-delete", admission.write(this::bulkDeleteHandler));
+        app.get("/messages/bulk-delete/{job_id}", admission.read(this::retrieveBulkDeleteJobHandler));
+        app.get("/accounts/{account_id}/messages", admission.read(this::retrieveMessagesByUser));
+        app.get("/accounts/{account_id}/stats", admission.read(this::retrieveAccountStatsHandler));
+        app.delete("/accounts/{account_id}", admission.bulk(this::deleteAccountHandler));
+        app.get("/accounts/{account_id}/deletion", admission.read(this::retrieveAccountDeletionHandler));
+        app.get("/changes", admission.read(this::retrieveChangesHandler));
+        app.get("/export/messages", admission.bulk(this::exportMessagesHandler));
+        app.get("/export/accounts", admission.bulk(this::exportAccountsHandler));
+        app.post("/import/messages", admission.bulk(this::importMessagesHandler));
+        app.get("/analytics/posts-per-hour", admission.read(this::postsPerHourHandler));
+        app.get("/analytics/top-posters", admission.read(this::topPostersHandler));
+        app.get("/analytics/text-lengths", admission.read(this::textLengthsHandler));
+        app.post("/analytics/refresh", admission.bulk(this::analyticsRefreshHandler));
+        app.get("/debug/admission", ctx -> ctx.json(admission.stats()));
+        app.get("/debug/traces", this::tracesHandler);
+        app.post("/debug/traces/sampling", this::traceSamplingHandler);
+        app.get("/debug/slow-queries", this::slowQueriesHandler);
+        app.get("/debug/hotkeys", this::hotKeysHandler);
+        app.get("/debug/purge", ctx -> ctx.json(smService.purgeMetrics()));
+        app.get("/debug/message-cache", ctx -> ctx.json(smService.messageCacheMetrics()));
+        app.get("/debug/single-flight", ctx -> ctx.json(smService.singleFlightMetrics()));
+        app.get("/debug/timeline-cache", ctx -> ctx.json(smService.timelineCacheMetrics()));
+        app.get("/debug/replication-stream", ctx -> ctx.json(changeStream == null ? Map.of() : changeStream.metrics()));
+        app.get("/debug/invalidation-bus", ctx -> ctx.json(invalidationBus == null ? Map.of() : invalidationBus.metrics()));
         return app;   
     }
 
+    /**
+     * Optional warm-up before the port opens: runs synthetic messages and accounts through every payload
+     * format and the read-only service/DAO paths so class loading and the first JIT compilations happen
+     * before real traffic arrives. Nothing is written to the database.
+     * @param iterations number of rounds; a few dozen load the classes, more mostly buys JIT time
+     */
+    public void warmUp(int iterations) throws IOException {
+        long start = System.nanoTime();
+        Message message = new Message(1, 1, "warm-up message", 1669947792);
+        Account account = new Account(1, "warmup", "warmup");
+        for (int i = 0; i < iterations; i++) {
+            for (String format : new String[] {PayloadCodec.JSON, PayloadCodec.SMILE, PayloadCodec.CBOR}) {
+                ObjectMapper mapper = PayloadCodec.mapperFor(format);
+                mapper.readValue(mapper.writeValueAsBytes(message), Message.class);
+                mapper.readValue(mapper.writeValueAsBytes(account), Account.class);
+                mapper.writeValueAsBytes(List.of(message, message));
+            }
+            smService.retrieveMessageById(1);
+            smService.retrieveLatestMessages(20);
+            smService.retrieveAccountById(1);
+            smService.userLogin(account);
+        }
+        System.out.println("Warm-up of " + iterations + " rounds took " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Identifies the client for read-your-writes stickiness: an explicit X-Client-Id header if sent, else the remote address.
+     */
+    private String clientId(Context ctx) {
+        String clientId = ctx.header("X-Client-Id");
+        return clientId != null ? clientId : ctx.ip();
+    }
+
  
     /*##1: Process New User Registrations
      * As a user, I should be able to create a new Account on the endpoint POST localhost:8080/register. 
@@ -46,12 +216,9 @@ public class SocialMediaController {
         - The new account should be persisted to the database.
         - If the registration is not successful, the response status should be 400. (Client error)
      */
-    private void registrationHandler(Context ctx) throws JsonProcessingException {
-        // Jackson JSON mapper to convert JSON body to Account.class object
-        ObjectMapper om = new ObjectMapper();
-
-        // New account object to hold the account from the post body        
-        Account account = om.readValue(ctx.body(), Account.class);        
+    private void registrationHandler(Context ctx) throws IOException {
+        // New account object to hold the account from the post body (JSON, Smile or CBOR per Content-Type)
+        Account account = PayloadCodec.read(ctx, Account.class);        
 
         // Attemp to add account, validation checks in service layer
         Account newAccount = smService.addAccount(account);
@@ -60,7 +227,7 @@ public class SocialMediaController {
         if (newAccount == null) {
             ctx.status(400);
         } else {
-            ctx.json(newAccount);
+            PayloadCodec.write(ctx, newAccount);
             System.out.println("New Account: " +  newAccount);
         }
         
@@ -76,9 +243,8 @@ public class SocialMediaController {
         - The response status should be 200 OK, which is the default.
         - If the login is not successful, the response status should be 401. (Unauthorized)
      */
-    private void loginHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper om = new ObjectMapper();
-        Account account = om.readValue(ctx.body(), Account.class);
+    private void loginHandler(Context ctx) throws IOException {
+        Account account = PayloadCodec.read(ctx, Account.class);
 
         // Try to verify account
         Account verifiedAccount = smService.userLogin(account);
@@ -86,7 +252,7 @@ public class SocialMediaController {
         if (verifiedAccount == null) {
             ctx.status(401);
         } else {
-            ctx.json(verifiedAccount);            
+            PayloadCodec.write(ctx, verifiedAccount);            
             System.out.println("Verified Account: " + verifiedAccount);
         }
         
@@ -102,19 +268,41 @@ public class SocialMediaController {
 
       - The response status should be 200, which is the default. The new message should be persisted to the database.
       - If the creation of the message is not successful, the response status should be 400. (Client error)
+      - A body larger than socialmedia.maxBody.messageBytes is rejected with 413 before it is fully read.
+      - An Idempotency-Key already used with a different body is rejected with 422.
     */
-    private void messageCreationHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper om = new ObjectMapper();
-        // Map http body to Message class object
-        Message message = om.readValue(ctx.body(), Message.class);        
+    private void messageCreationHandler(Context ctx) throws IOException {
+        // Map http body to Message class object, rejecting oversized or invalid bodies while they are read
+        Message message;
+        try {
+            message = PayloadValidator.readMessage(ctx, AppConfig.maxMessageBodyBytes());
+        } catch (PayloadValidator.RejectedPayloadException e) {
+            ctx.status(e.getStatus());
+            System.out.println("Rejected Message: " + e.getMessage());
+            return;
+        }
         
+        // A client retrying a post sends the same Idempotency-Key, and gets the original message back
+        String idempotencyKey = ctx.header("Idempotency-Key");
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > 255)) {
+            ctx.status(400);
+            return;
+        }
+
         // Attempt to post Message
-        Message postedMessage = smService.postMessage(message);
+        Message postedMessage;
+        try {
+            postedMessage = smService.postMessage(message, idempotencyKey);
+        } catch (SocialMediaService.IdempotencyKeyReusedException e) {
+            ctx.status(422);
+            System.out.println("Rejected Message: " + e.getMessage());
+            return;
+        }
 
         if (postedMessage == null) {
             ctx.status(400);
         } else {
-            ctx.json(postedMessage);
+            PayloadCodec.write(ctx, postedMessage);
             System.out.println("Posted Message: " + postedMessage);
         }
         
@@ -129,11 +317,40 @@ public class SocialMediaController {
       - The response body should contain a JSON representation of a list containing all messages retrieved from the database. 
       - It is expected for the list to simply be empty if there are no messages. 
       - The response status should always be 200, which is the default.
+
+      Optional query parameters narrow the list, newest first, using the time_posted_epoch index:
+      - ?from=&to= (epoch seconds, inclusive, either may be omitted) with an optional &limit= (default 1000)
+      - ?latest=N returns the N most recent messages
+      - Invalid values or a limit over 10000 return 400.
+      - ?ids=1,2,3 returns those messages instead, see ##14.
     */
 
-    private void retrieveAllMessagesHandler(Context ctx) {        
+    private void retrieveAllMessagesHandler(Context ctx) throws IOException {        
+        String ids = ctx.queryParam("ids");
+        if (ids != null) {
+            List<Integer> messageIds = new ArrayList<>();
+            try {
+                for (String id : ids.split(",")) {
+                    messageIds.add(Integer.parseInt(id.trim()));
+                }
+            } catch (NumberFormatException nfe) {
+                ctx.status(400);
+                return;
+            }
+            writeMessagesByIds(ctx, messageIds);
+            return;
+        }
+
+        String from = ctx.queryParam("from");
+        String to = ctx.queryParam("to");
+        String latest = ctx.queryParam("latest");
+        if (from != null || to != null || latest != null) {
+            retrieveMessagesByTimeHandler(ctx, from, to, latest);
+            return;
+        }
+
         List<Message> messageList = smService.retrieveAllMessages();
-        ctx.json(messageList);
+        PayloadCodec.write(ctx, messageList);
         System.out.println("Messages List: ");
         for (Message message : messageList) {
             System.out.println(message);
@@ -144,6 +361,32 @@ public class SocialMediaController {
 
 
 
+    private void retrieveMessagesByTimeHandler(Context ctx, String from, String to, String latest) throws IOException {
+        List<Message> messageList;
+        try {
+            if (latest != null) {
+                messageList = smService.retrieveLatestMessages(Integer.parseInt(latest));
+            } else {
+                String limit = ctx.queryParam("limit");
+                messageList = smService.retrieveMessagesInTimeRange(
+                        from == null ? Long.MIN_VALUE : Long.parseLong(from),
+                        to == null ? Long.MAX_VALUE : Long.parseLong(to),
+                        limit == null ? 1000 : Integer.parseInt(limit));
+            }
+        } catch (NumberFormatException nfe) {
+            messageList = null;
+        }
+
+        if (messageList == null) {
+            ctx.status(400);
+        } else {
+            PayloadCodec.write(ctx, messageList);
+        }
+        System.out.println("Retrieve Messages by Time Status: " + ctx.status());
+    }
+
+
+
     /*##5: Retrieve a message by its id
      * As a user, I should be able to submit a GET request on the endpoint GET localhost:8080/messages/{message_id}.
 
@@ -152,10 +395,11 @@ public class SocialMediaController {
         - The response status should always be 200, which is the default.
      */
 
-    private void retrieveMessageByIdHandler(Context ctx) throws JsonProcessingException{
+    private void retrieveMessageByIdHandler(Context ctx) throws IOException {
        
         // Retrieve message ID from api path parameter
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));        
+        messageHotKeys.record(message_id);
 
         Message retrievedMessage = smService.retrieveMessageById(message_id);
 
@@ -164,7 +408,7 @@ public class SocialMediaController {
             ctx.status(200);
         // Else return the Message object 
         } else {
-            ctx.json(retrievedMessage);
+            PayloadCodec.write(ctx, retrievedMessage);
             System.out.println("Retrieved Message: " + retrievedMessage);
         }
         
@@ -182,23 +426,19 @@ public class SocialMediaController {
         - If the message did not exist, the response status should be 200, but the response body should be empty.         
       */
 
-    private void deleteMessageHandler(Context ctx) throws JsonProcessingException {
+    private void deleteMessageHandler(Context ctx) throws IOException {
         
         // Retrieve message ID
         int messageId = Integer.parseInt(ctx.pathParam("message_id"));
-        if (smService.retrieveMessageById(messageId) == null) {
+
+        // Delete message, the service returns what was deleted
+        Message message = smService.deleteMessagebyId(messageId);
+        if (message == null) {
             // If message id doesn't exist, return 200 to keep delete idempotent
             ctx.status(200);            
         } else {
-
-            // Retrieve message
-            Message message = smService.retrieveMessageById(messageId);
-            
             // return deleted message in body 
-            ctx.json(message);
-
-            // Delete message
-            smService.deleteMessagebyId(messageId);
+            PayloadCodec.write(ctx, message);
             System.out.println("Deleted Message: " + message);            
         }
         System.out.println("Delete Message by ID Status: " + ctx.status());
@@ -216,13 +456,19 @@ public class SocialMediaController {
         - The response status should be 200, which is the default. The message existing on the database should have the updated message_text.
 
         If the update of the message is not successful for any reason, the response status should be 400. (Client error)
+        A body larger than socialmedia.maxBody.messageBytes is rejected with 413 before it is fully read.
        */
-    private void updateMessageHandler(Context ctx) throws JsonProcessingException{
+    private void updateMessageHandler(Context ctx) throws IOException {
         // Retrieve message ID
         int messageId = Integer.parseInt(ctx.pathParam("message_id"));
-        ObjectMapper om = new ObjectMapper();
-        JsonNode jsonNode = om.readTree(ctx.body());
-        String newMessageText = jsonNode.get("message_text").asText();
+        String newMessageText;
+        try {
+            newMessageText = PayloadValidator.readMessageText(ctx, AppConfig.maxMessageBodyBytes());
+        } catch (PayloadValidator.RejectedPayloadException e) {
+            ctx.status(e.getStatus());
+            System.out.println("Rejected Message Update: " + e.getMessage());
+            return;
+        }
         
         // Attempt to update message
         Message updatedMessage = smService.updateMessageById(newMessageText, messageId);
@@ -233,7 +479,7 @@ public class SocialMediaController {
         } else {                       
 
             // return updated message in body 
-            ctx.json(updatedMessage);
+            PayloadCodec.write(ctx, updatedMessage);
             ctx.status(200);
             System.out.println("Updated Message: " + updatedMessage);            
         }
@@ -251,19 +497,456 @@ public class SocialMediaController {
       - The response status should always be 200, which is the default.
      */
 
-    private void retrieveMessagesByUser(Context ctx) {
+    private void retrieveMessagesByUser(Context ctx) throws IOException {
         // Retrieve account ID
         int accountID = Integer.parseInt(ctx.pathParam("account_id"));
+        accountHotKeys.record(accountID);
 
-        // Retrieve list of messages
-        List<Message> messageList = smService.retrieveMessagesByUser(accountID);
-        System.out.println("Message list received: ");
-        for (Message message : messageList) {
-            System.out.println(message);
-        }
-        ctx.json(messageList);
+        // Retrieve the list already encoded in the response format, usually from the timeline cache
+        String format = PayloadCodec.responseFormat(ctx);
+        byte[] body = smService.retrieveSerializedMessagesByUser(accountID, format,
+                messageList -> PayloadCodec.mapperFor(format).writeValueAsBytes(messageList));
+        ctx.contentType(format).result(body);
         ctx.status(200);
         System.out.println("Retrieve messages by user Status: " + ctx.status());
 
     }
-}
\ No newline at end of file
+
+
+    /*##9: Retrieve message statistics for a particular user
+      * GET localhost:8080/accounts/{account_id}/stats
+
+      - The response body should contain the account's message count, first and last post time and total characters,
+        served from counters maintained on every post, update and delete instead of a scan.
+      - It is expected for the response body to simply be empty if there is no such account.
+      - The response status should always be 200, which is the default.
+     */
+
+    private void retrieveAccountStatsHandler(Context ctx) throws IOException {
+        int accountID = Integer.parseInt(ctx.pathParam("account_id"));
+        accountHotKeys.record(accountID);
+
+        AccountStats stats = smService.retrieveAccountStats(accountID);
+        if (stats != null) {
+            PayloadCodec.write(ctx, stats);
+        }
+        System.out.println("Retrieve account stats Status: " + ctx.status());
+    }
+
+
+    /*##10: Bulk export of messages and accounts
+      * GET localhost:8080/export/messages and GET localhost:8080/export/accounts
+
+      - The response body streams every row as NDJSON (default) or CSV (?format=csv) straight from the database cursor.
+      - The body is gzip compressed when the client sends Accept-Encoding: gzip or ?gzip=true.
+      - Account exports never include passwords.
+      - An unknown format returns 400.
+     */
+
+    private void exportMessagesHandler(Context ctx) throws IOException, SQLException {
+        ExportService.Format format = exportFormat(ctx);
+        if (format == null) {
+            ctx.status(400);
+            return;
+        }
+        OutputStream out = exportStream(ctx, format);
+        long rows = exportService.exportMessages(out, format);
+        finishExport(out);
+        System.out.println("Export Messages: " + rows + " rows");
+    }
+
+    private void exportAccountsHandler(Context ctx) throws IOException, SQLException {
+        ExportService.Format format = exportFormat(ctx);
+        if (format == null) {
+            ctx.status(400);
+            return;
+        }
+        OutputStream out = exportStream(ctx, format);
+        long rows = exportService.exportAccounts(out, format);
+        finishExport(out);
+        System.out.println("Export Accounts: " + rows + " rows");
+    }
+
+    private ExportService.Format exportFormat(Context ctx) {
+        String format = ctx.queryParam("format");
+        if (format == null || format.equalsIgnoreCase("ndjson")) {
+            return ExportService.Format.NDJSON;
+        } else if (format.equalsIgnoreCase("csv")) {
+            return ExportService.Format.CSV;
+        }
+        return null;
+    }
+
+    /**
+     * Sets the export headers and returns the raw servlet stream, gzip wrapped if requested. Writing to the
+     * servlet stream directly keeps Javalin from buffering the response.
+     */
+    private OutputStream exportStream(Context ctx, ExportService.Format format) throws IOException {
+        ctx.contentType(format == ExportService.Format.CSV ? "text/csv; charset=utf-8" : "application/x-ndjson");
+        String acceptEncoding = ctx.header("Accept-Encoding");
+        boolean gzip = "true".equals(ctx.queryParam("gzip")) || (acceptEncoding != null && acceptEncoding.contains("gzip"));
+        if (gzip) {
+            ctx.header("Content-Encoding", "gzip");
+            return new GZIPOutputStream(ctx.res().getOutputStream(), 64 * 1024);
+        }
+        return ctx.res().getOutputStream();
+    }
+
+    private void finishExport(OutputStream out) throws IOException {
+        if (out instanceof GZIPOutputStream) {
+            ((GZIPOutputStream) out).finish();
+        }
+        out.flush();
+    }
+
+
+    /*##11: Bulk import of messages
+      * POST localhost:8080/import/messages?format=ndjson|csv with the file as the request body.
+
+      - The body is spooled to a temporary file and loaded by the parallel bulk importer.
+      - Rows are validated like POST /messages; invalid rows are skipped and counted.
+      - The response body contains the number of imported and rejected rows, the elapsed time and the first errors.
+      - An unknown format returns 400.
+     */
+
+    private void importMessagesHandler(Context ctx) throws IOException, SQLException {
+        BulkImportService.Format format;
+        try {
+            format = BulkImportService.Format.valueOf(ctx.queryParamAsClass("format", String.class).getOrDefault("ndjson").toUpperCase());
+        } catch (IllegalArgumentException iae) {
+            ctx.status(400);
+            return;
+        }
+
+        Path upload = Files.createTempFile("message-import", "." + format.name().toLowerCase());
+        try {
+            Files.copy(ctx.bodyInputStream(), upload, StandardCopyOption.REPLACE_EXISTING);
+            ImportResult result = smService.importMessages(upload, format);
+            PayloadCodec.write(ctx, result);
+        } catch (IllegalStateException ise) {
+            ctx.status(400);
+        } finally {
+            Files.deleteIfExists(upload);
+        }
+        System.out.println("Import Messages Status: " + ctx.status());
+    }
+
+    /*##12: Inspect Request Traces
+     * GET localhost:8080/debug/traces returns finished request traces, each a tree of spans for the
+     * service calls, payload (de)serialization and SQL statements of one request.
+        - ?slowest=N returns the N slowest traces kept in the buffer, otherwise ?limit=N (default 50) the newest.
+        - POST localhost:8080/debug/traces/sampling?rate=R sets the fraction of requests traced (0 turns it off)
+          and returns the new rate.
+     */
+    private void tracesHandler(Context ctx) {
+        String slowest = ctx.queryParam("slowest");
+        String limit = ctx.queryParam("limit");
+        try {
+            if (slowest != null) {
+                ctx.json(Tracer.slowest(Integer.parseInt(slowest)));
+            } else {
+                ctx.json(Tracer.recent(limit == null ? 50 : Integer.parseInt(limit)));
+            }
+        } catch (NumberFormatException nfe) {
+            ctx.status(400);
+        }
+    }
+
+    private void traceSamplingHandler(Context ctx) {
+        String rate = ctx.queryParam("rate");
+        if (rate != null) {
+            try {
+                Tracer.setSampleRate(Double.parseDouble(rate));
+            } catch (NumberFormatException nfe) {
+                ctx.status(400);
+                return;
+            }
+        }
+        ctx.json(Map.of("sample_rate", Tracer.getSampleRate()));
+        System.out.println("Trace Sampling Rate: " + Tracer.getSampleRate());
+    }
+
+    /*##13: Inspect the Slow-Query Log
+     * GET localhost:8080/debug/slow-queries returns the statements that ran longer than the slow-query
+     * threshold, grouped by statement shape, the most total slow time first.
+        - ?limit=N caps the number of entries (default 20).
+        - Each entry has the slowest execution's SQL, redacted bind parameters and query plan.
+     */
+    private void slowQueriesHandler(Context ctx) {
+        String limit = ctx.queryParam("limit");
+        try {
+            ctx.json(SlowQueryLog.top(limit == null ? 20 : Integer.parseInt(limit)));
+        } catch (NumberFormatException nfe) {
+            ctx.status(400);
+        }
+    }
+
+
+
+    /*##14: Retrieve many messages by id
+     * GET localhost:8080/messages?ids=1,2,3 or, for lists too long for a URL, POST localhost:8080/messages/lookup
+       with a JSON array of ids as the body.
+
+      - The response body contains the messages in the order their ids were requested; ids without a message
+        are left out and repeated ids are returned once.
+      - Cached messages are served from memory and the rest are fetched with one query.
+      - An empty list, an id that is not a number or more than 1000 ids return 400.
+     */
+    private void lookupMessagesHandler(Context ctx) throws IOException {
+        JsonNode body = PayloadCodec.readTree(ctx);
+        if (!body.isArray()) {
+            ctx.status(400);
+            return;
+        }
+        List<Integer> messageIds = new ArrayList<>(body.size());
+        for (JsonNode id : body) {
+            if (!id.canConvertToInt() || !id.isIntegralNumber()) {
+                ctx.status(400);
+                return;
+            }
+            messageIds.add(id.intValue());
+        }
+        writeMessagesByIds(ctx, messageIds);
+    }
+
+    private void writeMessagesByIds(Context ctx, List<Integer> messageIds) throws IOException {
+        for (Integer messageId : messageIds) {
+            messageHotKeys.record(messageId);
+        }
+        List<Message> messageList = smService.retrieveMessagesByIds(messageIds);
+        if (messageList == null) {
+            ctx.status(400);
+        } else {
+            PayloadCodec.write(ctx, messageList);
+        }
+        System.out.println("Retrieve Messages by IDs Status: " + ctx.status());
+    }
+
+
+
+    /*##15: Reporting queries
+     * Answered from a columnar snapshot of the message table that is rebuilt in the background, never from the
+     * database. Every response carries snapshot_epoch_millis and snapshot_rows.
+        - GET localhost:8080/analytics/posts-per-hour?from=&to= (epoch seconds, default the last 24 hours)
+          returns the number of messages posted in each hour of the range; more than a year returns 400.
+        - GET localhost:8080/analytics/top-posters?limit=N (default 10) returns the accounts with the most messages.
+        - GET localhost:8080/analytics/text-lengths?bucket=N (default 16) returns message counts per text length bucket.
+        - POST localhost:8080/analytics/refresh rebuilds the snapshot now and returns its row count and build time.
+     */
+    private void postsPerHourHandler(Context ctx) {
+        try {
+            String to = ctx.queryParam("to");
+            long end = to == null ? System.currentTimeMillis() / 1000 : Long.parseLong(to);
+            String from = ctx.queryParam("from");
+            long start = from == null ? end - 24 * 3600 + 1 : Long.parseLong(from);
+            analyticsResult(ctx, analyticsService.postsPerHour(start, end));
+        } catch (NumberFormatException nfe) {
+            ctx.status(400);
+        }
+    }
+
+    private void topPostersHandler(Context ctx) {
+        try {
+            String limit = ctx.queryParam("limit");
+            analyticsResult(ctx, analyticsService.topPosters(limit == null ? 10 : Integer.parseInt(limit)));
+        } catch (NumberFormatException nfe) {
+            ctx.status(400);
+        }
+    }
+
+    private void textLengthsHandler(Context ctx) {
+        try {
+            String bucket = ctx.queryParam("bucket");
+            analyticsResult(ctx, analyticsService.textLengths(bucket == null ? 16 : Integer.parseInt(bucket)));
+        } catch (NumberFormatException nfe) {
+            ctx.status(400);
+        }
+    }
+
+    private void analyticsRefreshHandler(Context ctx) {
+        MessageColumns snapshot = analyticsService.refresh();
+        if (snapshot == null) {
+            ctx.status(500);
+            return;
+        }
+        ctx.json(Map.of("snapshot_epoch_millis", snapshot.getBuiltEpochMillis(),
+                "snapshot_rows", snapshot.getRows(),
+                "build_millis", snapshot.getBuildMillis()));
+    }
+
+    private void analyticsResult(Context ctx, Map<String, Object> result) {
+        if (result == null) {
+            ctx.status(400);
+        } else {
+            ctx.json(result);
+        }
+    }
+
+
+
+    /*##16: Inspect hot keys
+     * GET localhost:8080/debug/hotkeys returns the messages and accounts requested most by the read endpoints
+     * over the last minute, with their estimated request counts and rates.
+        - ?limit=K caps each list (default 10, at most the number of tracked candidates).
+     */
+    private void hotKeysHandler(Context ctx) {
+        int limit;
+        try {
+            String limitParam = ctx.queryParam("limit");
+            limit = limitParam == null ? 10 : Integer.parseInt(limitParam);
+        } catch (NumberFormatException nfe) {
+            limit = 0;
+        }
+        if (limit < 1) {
+            ctx.status(400);
+            return;
+        }
+        Map<String, Object> hotKeys = new LinkedHashMap<>();
+        hotKeys.put("window_seconds", messageHotKeys.getWindowSeconds());
+        hotKeys.put("messages", messageHotKeys.top(limit));
+        hotKeys.put("accounts", accountHotKeys.top(limit));
+        hotKeys.put("requests_recorded", messageHotKeys.getRecorded() + accountHotKeys.getRecorded());
+        hotKeys.put("sketch_bytes", messageHotKeys.getSketchBytes() + accountHotKeys.getSketchBytes());
+        ctx.json(hotKeys);
+    }
+
+
+
+
+    /*##17: Retrieve message changes for incremental sync
+     * GET localhost:8080/changes?since=S&limit=N returns the message inserts, updates and deletes numbered
+     * above S, oldest first, so a client that synced up to S only downloads what changed since.
+        - since defaults to 0, the start of the log; limit defaults to 1000 and is at most 10000.
+        - The response body holds the changes, next_since (the since of the next call) and has_more.
+        - The response status is 400 if since or limit is invalid.
+     */
+    private void retrieveChangesHandler(Context ctx) throws IOException {
+        Map<String, Object> changes;
+        try {
+            String since = ctx.queryParam("since");
+            String limit = ctx.queryParam("limit");
+            changes = smService.retrieveChanges(since == null ? 0 : Long.parseLong(since),
+                    limit == null ? 1000 : Integer.parseInt(limit));
+        } catch (NumberFormatException nfe) {
+            changes = null;
+        }
+        if (changes == null) {
+            ctx.status(400);
+            return;
+        }
+        PayloadCodec.write(ctx, changes);
+    }
+
+    /*##18: Delete an account and all of its messages
+     * DELETE localhost:8080/accounts/{account_id} deletes the account's messages in chunks through the posted_by
+       index, each chunk committed on its own so posting elsewhere is never blocked for long, then the account.
+        - The response body holds the finished deletion: messages_deleted, chunks and start and finish times.
+        - If the account does not exist the response status is 404.
+        - If a deletion of the account is already running, the response status is 202 with its progress.
+     * GET localhost:8080/accounts/{account_id}/deletion returns the progress of a running deletion, or 404 if none is running.
+     */
+    private void deleteAccountHandler(Context ctx) throws IOException {
+        int accountId = Integer.parseInt(ctx.pathParam("account_id"));
+        AccountDeletion deletion = smService.deleteAccountById(accountId);
+        if (deletion == null) {
+            ctx.status(404);
+            return;
+        }
+        if (deletion.getFinished_epoch_millis() == 0) {
+            ctx.status(202);
+        }
+        PayloadCodec.write(ctx, deletion);
+        System.out.println("Delete Account Status: " + ctx.status() + " " + deletion);
+    }
+
+    private void retrieveAccountDeletionHandler(Context ctx) throws IOException {
+        AccountDeletion deletion = smService.retrieveAccountDeletion(Integer.parseInt(ctx.pathParam("account_id")));
+        if (deletion == null) {
+            ctx.status(404);
+            return;
+        }
+        PayloadCodec.write(ctx, deletion);
+    }
+
+    /*##19: Bulk delete messages by author and time range
+     * POST localhost:8080/messages/bulk-delete with a body such as {"posted_by":2,"from":1669940000,"to":1669950000}
+       starts a background job deleting every message matching all the filters given, from and to being an
+       inclusive time_posted_epoch range. At least one filter is required; "max_rows_per_second" optionally
+       overrides the job's rate limit.
+        - The response status is 202 and the body holds the queued job, with the job_id to poll.
+        - The response status is 400 if no filter is given, a field is unknown or not an integer, or from is after to.
+        - The response status is 429, with Retry-After, while socialmedia.bulkDelete.maxPendingJobs jobs are queued or running.
+     * GET localhost:8080/messages/bulk-delete/{job_id} returns the job: status (queued, running, finished or failed),
+       matched_at_start, messages_deleted and batches. An unknown job id returns 404.
+     */
+    private void bulkDeleteHandler(Context ctx) throws IOException {
+        JsonNode body = PayloadCodec.readTree(ctx);
+        if (!body.isObject()) {
+            ctx.status(400);
+            return;
+        }
+        Integer postedBy = null;
+        Long from = null;
+        Long to = null;
+        Integer maxRowsPerSecond = null;
+        Iterator<Map.Entry<String, JsonNode>> fields = body.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String name = field.getKey();
+            JsonNode value = field.getValue();
+            boolean intField = name.equals("posted_by") || name.equals("max_rows_per_second");
+            boolean longField = name.equals("from") || name.equals("to");
+            if (!(intField || longField) || !value.isIntegralNumber() || !(intField ? value.canConvertToInt() : value.canConvertToLong())) {
+                ctx.status(400);
+                return;
+            }
+            switch (name) {
+                case "posted_by":
+                    postedBy = value.intValue();
+                    break;
+                case "max_rows_per_second":
+                    maxRowsPerSecond = value.intValue();
+                    break;
+                case "from":
+                    from = value.longValue();
+                    break;
+                default:
+                    to = value.longValue();
+            }
+        }
+        BulkDeleteJob job;
+        try {
+            job = smService.startBulkDelete(postedBy, from, to, maxRowsPerSecond);
+        } catch (BulkDeleteJobs.TooManyJobsException e) {
+            ctx.status(429);
+            ctx.header("Retry-After", "1");
+            System.out.println("Rejected bulk delete: " + e.getMessage());
+            return;
+        }
+        if (job == null) {
+            ctx.status(400);
+            return;
+        }
+        ctx.status(202);
+        PayloadCodec.write(ctx, job);
+        System.out.println("Bulk delete queued: " + job);
+    }
+
+    private void retrieveBulkDeleteJobHandler(Context ctx) throws IOException {
+        BulkDeleteJob job;
+        try {
+            job = smService.retrieveBulkDeleteJob(Long.parseLong(ctx.pathParam("job_id")));
+        } catch (NumberFormatException nfe) {
+            job = null;
+        }
+        if (job == null) {
+            ctx.status(404);
+            return;
+        }
+        PayloadCodec.write(ctx, job);
+    }
+
+    private static HotKeyTracker newHotKeyTracker() {
+        return new HotKeyTracker(AppConfig.hotKeysSketchWidth(), 4, AppConfig.hotKeysCandidates(), AppConfig.hotKeysWindowMillis(), 6);
+    }
+}
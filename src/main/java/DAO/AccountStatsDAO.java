@@ -0,0 +1,159 @@
+package DAO;
+
+import java.sql.*;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import Model.AccountStats;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+
+/**
+ * Reads and writes the account_stats summary table, and recomputes statistics from the message
+ * table when the in-memory counters have nothing to start from.
+ */
+public class AccountStatsDAO {
+
+    private static final String AGGREGATE_SQL = "SELECT posted_by, COUNT(*), MIN(time_posted_epoch), MAX(time_posted_epoch), " +
+            "SUM(LENGTH(message_text)) FROM message WHERE deleted_epoch IS NULL";
+
+    /*
+     *                          ***** LOAD CHECKPOINTED STATISTICS *****
+     */
+    public static Map<Integer, AccountStats> loadAll() {
+        Connection conn = ConnectionUtil.getConnection();
+        Map<Integer, AccountStats> statsMap = new HashMap<>();
+        try {
+            String sql = "SELECT account_id, message_count, first_post_epoch, last_post_epoch, total_characters FROM account_stats;";
+            ResultSet rs = conn.createStatement().executeQuery(sql);
+            while (rs.next()) {
+                statsMap.put(rs.getInt(1), new AccountStats(rs.getInt(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)));
+            }
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return statsMap;
+    }
+
+    /*
+     *                          ***** CHECKPOINT STATISTICS *****
+     */
+    public static void saveAll(Collection<AccountStats> statsList) {
+        if (statsList.isEmpty()) {
+            return;
+        }
+        Connection conn = ConnectionUtil.getConnection();
+        try {
+            String sql = "MERGE INTO account_stats (account_id, message_count, first_post_epoch, last_post_epoch, total_characters) " +
+                    "KEY (account_id) VALUES (?, ?, ?, ?, ?);";
+            PreparedStatement ps = conn.prepareStatement(sql);
+            for (AccountStats stats : statsList) {
+                ps.setInt(1, stats.getAccount_id());
+                ps.setLong(2, stats.getMessage_count());
+                ps.setLong(3, stats.getFirst_post_epoch());
+                ps.setLong(4, stats.getLast_post_epoch());
+                ps.setLong(5, stats.getTotal_characters());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+    }
+
+    /*
+     *                          ***** CHANGE NUMBER OF THE LAST CHECKPOINT *****
+     * Returns null if no checkpoint was ever completed.
+     */
+    public static Long loadCheckpointSequence() {
+        Connection conn = ConnectionUtil.getConnection();
+        try {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT change_seq FROM stats_checkpoint WHERE id=0;");
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return null;
+    }
+
+    /*
+     *                          ***** RECORD A COMPLETED CHECKPOINT *****
+     * Written after the statistics it covers, so a crash in between leaves the older number behind.
+     */
+    public static void saveCheckpointSequence(long changeSeq) {
+        Connection conn = ConnectionUtil.getConnection();
+        try {
+            PreparedStatement ps = conn.prepareStatement("MERGE INTO stats_checkpoint (id, change_seq) KEY (id) VALUES (0, ?);");
+            ps.setLong(1, changeSeq);
+            ps.executeUpdate();
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+    }
+
+    /*
+     *                          ***** DELETE AN ACCOUNT'S STATISTICS *****
+     */
+    public static void delete(int accountId) {
+        Connection conn = ConnectionUtil.getConnection();
+        try {
+            PreparedStatement ps = conn.prepareStatement("DELETE FROM account_stats WHERE account_id=?;");
+            ps.setInt(1, accountId);
+            ps.executeUpdate();
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+    }
+
+    /*
+     *                          ***** RECOMPUTE ALL STATISTICS ( FULL SCAN ) *****
+     */
+    public static Map<Integer, AccountStats> computeAll() {
+        Map<Integer, AccountStats> statsMap = new HashMap<>();
+        if (ShardRouter.isEnabled()) {
+            // An account's messages all live on one shard, so per-shard groups never overlap
+            for (int shard = 0; shard < ShardRouter.getShardCount(); shard++) {
+                aggregate(ShardRouter.getConnection(shard), AGGREGATE_SQL + " GROUP BY posted_by;", null, statsMap);
+            }
+        } else {
+            aggregate(ConnectionUtil.getConnection(), AGGREGATE_SQL + " GROUP BY posted_by;", null, statsMap);
+        }
+        return statsMap;
+    }
+
+    /*
+     *                          ***** RECOMPUTE ONE ACCOUNT ( posted_by INDEX ) *****
+     */
+    public static AccountStats compute(int accountId) {
+        Map<Integer, AccountStats> statsMap = new HashMap<>();
+        Connection conn = ShardRouter.isEnabled()
+                ? ShardRouter.getConnection(ShardRouter.shardFor(accountId))
+                : ConnectionUtil.getConnection();
+        aggregate(conn, AGGREGATE_SQL + " AND posted_by=? GROUP BY posted_by;", accountId, statsMap);
+        return statsMap.getOrDefault(accountId, new AccountStats(accountId));
+    }
+
+    private static void aggregate(Connection conn, String sql, Integer accountId, Map<Integer, AccountStats> statsMap) {
+        try {
+            PreparedStatement ps = conn.prepareStatement(sql);
+            if (accountId != null) {
+                ps.setInt(1, accountId);
+            }
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                statsMap.put(rs.getInt(1), new AccountStats(rs.getInt(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)));
+            }
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package DAO;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import Model.Message;
+import Util.CachedClock;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+
+/**
+ * SQL for bulk message deletion jobs. Like the purge, every method takes a store index: the shard
+ * number in sharded mode, otherwise 0 for the primary database. Matching messages are walked in
+ * (time_posted_epoch, message_id) order, through the (posted_by, time_posted_epoch) index when an
+ * author is given and the time index otherwise, so each batch starts where the last one ended instead
+ * of scanning past the tombstones it left.
+ */
+public class BulkDeleteDAO {
+
+    /**
+     * @return the stores that can hold matching messages: the author's shard, or every store
+     */
+    public static int[] storesFor(Integer postedBy) {
+        if (!ShardRouter.isEnabled()) {
+            return new int[] {0};
+        }
+        if (postedBy != null) {
+            return new int[] {ShardRouter.shardFor(postedBy)};
+        }
+        int[] stores = new int[ShardRouter.getShardCount()];
+        for (int shard = 0; shard < stores.length; shard++) {
+            stores[shard] = shard;
+        }
+        return stores;
+    }
+
+    /*
+     *                          ***** COUNT MATCHING MESSAGES *****
+     * Live messages posted from from to to (inclusive), by postedBy unless it is null.
+     */
+    public static long countMatching(int store, Integer postedBy, long from, long to) throws SQLException {
+        Connection conn = connection(store);
+        try {
+            PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM message WHERE time_posted_epoch BETWEEN ? AND ?" +
+                    (postedBy == null ? "" : " AND posted_by=?") + " AND deleted_epoch IS NULL;");
+            ps.setLong(1, from);
+            ps.setLong(2, to);
+            if (postedBy != null) {
+                ps.setInt(3, postedBy);
+            }
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            close(conn);
+        }
+    }
+
+    /*
+     *                          ***** DELETE ONE BATCH OF MATCHING MESSAGES *****
+     * Tombstones up to limit live matching messages that come after (afterTime, afterId) in
+     * (time_posted_epoch, message_id) order, logs them as deleted and commits. Returns them in that
+     * order; the last one is where the next batch starts.
+     */
+    public static List<Message> deleteBatch(int store, Integer postedBy, long afterTime, int afterId, long to, int limit) throws SQLException {
+        Connection conn = connection(store);
+        try {
+            conn.setAutoCommit(false);
+            // Locking the rows keeps a concurrent single delete from logging one of them a second time
+            PreparedStatement select = conn.prepareStatement("SELECT message_id, posted_by, message_text, time_posted_epoch FROM message " +
+                    "WHERE time_posted_epoch BETWEEN ? AND ?" + (postedBy == null ? "" : " AND posted_by=?") +
+                    " AND (time_posted_epoch > ? OR message_id > ?) AND deleted_epoch IS NULL " +
+                    "ORDER BY time_posted_epoch, message_id LIMIT ? FOR UPDATE;");
+            int i = 1;
+            select.setLong(i++, afterTime);
+            select.setLong(i++, to);
+            if (postedBy != null) {
+                select.setInt(i++, postedBy);
+            }
+            select.setLong(i++, afterTime);
+            select.setInt(i++, afterId);
+            select.setInt(i, limit);
+            ResultSet rs = select.executeQuery();
+            List<Message> batch = new ArrayList<>();
+            while (rs.next()) {
+                batch.add(new Message(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4)));
+            }
+            if (batch.isEmpty()) {
+                conn.rollback();
+                return batch;
+            }
+            Integer[] ids = new Integer[batch.size()];
+            for (int m = 0; m < ids.length; m++) {
+                ids[m] = batch.get(m).getMessage_id();
+            }
+            PreparedStatement delete = conn.prepareStatement("UPDATE message SET deleted_epoch=? WHERE message_id = ANY(?);");
+            delete.setLong(1, CachedClock.nowSeconds());
+            delete.setArray(2, conn.createArrayOf("INTEGER", ids));
+            delete.executeUpdate();
+            ChangeLogDAO.commitWithChanges(conn, ChangeLogDAO.DELETE, batch);
+            ConnectionUtil.markWrite();
+            return batch;
+        } catch (SQLException sqle) {
+            ChangeLogDAO.rollback(conn);
+            throw sqle;
+        } finally {
+            close(conn);
+        }
+    }
+
+    private static Connection connection(int store) {
+        return ShardRouter.isEnabled() ? ShardRouter.getConnection(store) : ConnectionUtil.getConnection();
+    }
+
+    private static void close(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
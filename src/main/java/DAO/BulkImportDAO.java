@@ -0,0 +1,94 @@
+package DAO;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import Model.Message;
+
+import Util.ConnectionUtil;
+
+/**
+ * SQL for bulk message imports: the account id set used for validation, batched inserts, and, for
+ * offline imports only, switching the message foreign key off for the load and back on (re-checked)
+ * afterwards.
+ */
+public class BulkImportDAO {
+
+    /*
+     *                          ***** LOAD ALL ACCOUNT IDS ( FOR VALIDATION ) *****
+     */
+    public static BitSet retrieveAccountIds() {
+        Connection conn = ConnectionUtil.getConnection();
+        BitSet accountIds = new BitSet();
+        try {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT account_id FROM account;");
+            while (rs.next()) {
+                accountIds.set(rs.getInt(1));
+            }
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return accountIds;
+    }
+
+    /*
+     *                          ***** INSERT ONE CHUNK OF MESSAGES *****
+     * The chunk is committed as a unit on its own connection so chunks can load in parallel, together
+     * with its change log entries.
+     */
+    public static void insertMessages(int[] postedBy, String[] messageText, long[] timePosted, int count) throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            PreparedStatement ps = conn.prepareStatement("INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);",
+                    Statement.RETURN_GENERATED_KEYS);
+            List<Message> inserted = new ArrayList<>(count);
+            int batchStart = 0;
+            for (int i = 0; i < count; i++) {
+                ps.setInt(1, postedBy[i]);
+                ps.setString(2, messageText[i]);
+                ps.setLong(3, timePosted[i]);
+                ps.addBatch();
+                if ((i + 1) % 1000 == 0 || i == count - 1) {
+                    ps.executeBatch();
+                    ResultSet keys = ps.getGeneratedKeys();
+                    for (int row = batchStart; row <= i && keys.next(); row++) {
+                        inserted.add(new Message(keys.getInt(1), postedBy[row], messageText[row], timePosted[row]));
+                    }
+                    batchStart = i + 1;
+                }
+            }
+            ChangeLogDAO.commitWithChanges(conn, ChangeLogDAO.INSERT, inserted);
+            ConnectionUtil.markWrite();
+        } catch (SQLException sqle) {
+            conn.rollback();
+            throw sqle;
+        } finally {
+            conn.close();
+        }
+    }
+
+    /*
+     *                          ***** SUSPEND / RESTORE THE MESSAGE FOREIGN KEY *****
+     * Restoring re-checks every row so a bad load cannot leave orphaned messages behind. Offline only: it
+     * turns the key off for every writer, and the re-check holds the table.
+     */
+    public static void setReferentialIntegrity(boolean enabled) throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        conn.createStatement().execute(enabled
+                ? "ALTER TABLE message SET REFERENTIAL_INTEGRITY TRUE CHECK;"
+                : "ALTER TABLE message SET REFERENTIAL_INTEGRITY FALSE;");
+    }
+
+    /*
+     *                          ***** INVALIDATE CHECKPOINTED STATISTICS *****
+     * Used by offline imports so the next startup rebuilds the per-account counters.
+     */
+    public static void clearAccountStats() throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        conn.createStatement().executeUpdate("DELETE FROM account_stats;");
+    }
+}
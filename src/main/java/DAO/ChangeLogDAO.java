@@ -0,0 +1,377 @@
+package DAO;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import Model.Account;
+import Model.AccountChange;
+import Model.Message;
+import Model.MessageChange;
+import Util.AppConfig;
+import Util.CachedClock;
+import Util.ConnectionUtil;
+import Util.InvalidationBus;
+import Util.ShardRouter;
+
+/**
+ * The change log. Every message write appends its change to the message_change table of the
+ * database holding the message (the primary, or the message's shard) in the same transaction as the
+ * write itself, so a change is logged if and only if it commits.
+ *
+ * Changes are numbered by the primary database, so instances sharing it never hand out the same
+ * number: a commit first reserves its numbers by advancing the change_counter row and recording the
+ * reservation in change_reservation, both in one short transaction of their own, and releases the
+ * reservation when its write has committed or failed. Commits themselves run concurrently, so they
+ * may become visible out of number order. Readers therefore only go up to the watermark: the last
+ * number handed out if nothing is reserved, otherwise the number just below the oldest reservation.
+ * Everything up to the watermark is committed or was never used, so a reader can move its cursor
+ * past everything it was given without ever skipping a change that was still committing, on one
+ * database or across shards. A reservation older than the timeout is taken to belong to a crashed
+ * instance whose write was rolled back, and stops holding readers back.
+ *
+ * Account inserts are logged to account_change in the primary, numbered from the same counter, so
+ * replication can replay accounts and messages in one order.
+ *
+ * When other instances share the database, every committed change is also published to the
+ * invalidation bus with its number as the version, so their caches drop the written rows.
+ */
+public class ChangeLogDAO {
+
+    public static final String INSERT = "insert";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+
+    private static final String INSERT_SQL = "INSERT INTO message_change " +
+            "(change_seq, operation, message_id, posted_by, message_text, time_posted_epoch, changed_epoch) VALUES (?, ?, ?, ?, ?, ?, ?);";
+    private static final String INSERT_ACCOUNT_SQL = "INSERT INTO account_change " +
+            "(change_seq, operation, account_id, username, password, changed_epoch) VALUES (?, ?, ?, ?, ?, ?);";
+    private static final String WATERMARK_SQL = "SELECT COALESCE(" +
+            "(SELECT MIN(first_seq) FROM change_reservation WHERE reserved_epoch >= ?) - 1, " +
+            "(SELECT last_seq FROM change_counter WHERE id = 0));";
+
+    // How long awaitCommit sleeps between looks at the watermark when no local commit wakes it
+    private static final long POLL_MILLIS = 50;
+
+    // Woken on every local commit so awaitCommit does not have to wait for its next poll
+    private static final Object commitSignal = new Object();
+    // Whether the counter has been moved past the numbers already in the shards' logs
+    private static volatile boolean counterChecked;
+    // When reserve next drops the reservations of crashed instances, in epoch seconds
+    private static volatile long nextExpiryEpoch;
+
+    // Peers' caches to invalidate on commit; null when the instance runs alone
+    private static volatile InvalidationBus invalidationBus;
+
+    public static void setInvalidationBus(InvalidationBus bus) {
+        invalidationBus = bus;
+    }
+
+    /*
+     *                          ***** LOG A CHANGE AND COMMIT *****
+     * conn has autocommit off and holds the uncommitted write of message. For a delete the text is
+     * not logged.
+     */
+    static void commitWithChange(Connection conn, String operation, Message message) throws SQLException {
+        List<Message> messages = new ArrayList<>(1);
+        messages.add(message);
+        commitWithChanges(conn, operation, messages);
+    }
+
+    static void commitWithChanges(Connection conn, String operation, List<Message> messages) throws SQLException {
+        // Without shards the log lives next to the reservation, which is then released by the write itself
+        boolean onPrimary = !ShardRouter.isEnabled();
+        long first = reserve(messages.size());
+        try {
+            PreparedStatement ps = conn.prepareStatement(INSERT_SQL);
+            long seq = first;
+            long now = CachedClock.nowSeconds();
+            for (Message message : messages) {
+                ps.setLong(1, seq++);
+                ps.setString(2, operation);
+                ps.setInt(3, message.getMessage_id());
+                ps.setInt(4, message.getPosted_by());
+                ps.setString(5, operation.equals(DELETE) ? null : message.getMessage_text());
+                ps.setLong(6, message.getTime_posted_epoch());
+                ps.setLong(7, now);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            commit(conn, first, onPrimary);
+        } catch (SQLException sqle) {
+            abandon(conn, first);
+            throw sqle;
+        }
+        InvalidationBus bus = invalidationBus;
+        if (bus != null) {
+            long version = first;
+            for (Message message : messages) {
+                bus.publish(InvalidationBus.MESSAGE, message.getMessage_id(), version);
+                bus.publish(InvalidationBus.ACCOUNT, message.getPosted_by(), version++);
+            }
+        }
+    }
+
+    /*
+     *                          ***** LOG AN ACCOUNT CHANGE AND COMMIT *****
+     * conn has autocommit off and holds the uncommitted write of account. For a delete only the id is logged.
+     */
+    static void commitWithAccountChange(Connection conn, String operation, Account account) throws SQLException {
+        long seq = reserve(1);
+        try {
+            boolean delete = operation.equals(DELETE);
+            PreparedStatement ps = conn.prepareStatement(INSERT_ACCOUNT_SQL);
+            ps.setLong(1, seq);
+            ps.setString(2, operation);
+            ps.setInt(3, account.getAccount_id());
+            ps.setString(4, delete ? null : account.getUsername());
+            ps.setString(5, delete ? null : account.getPassword());
+            ps.setLong(6, CachedClock.nowSeconds());
+            ps.executeUpdate();
+            commit(conn, seq, true);
+        } catch (SQLException sqle) {
+            abandon(conn, seq);
+            throw sqle;
+        }
+        InvalidationBus bus = invalidationBus;
+        if (bus != null) {
+            bus.publish(InvalidationBus.ACCOUNT, account.getAccount_id(), seq);
+        }
+    }
+
+    // Reserves count consecutive numbers in a transaction of its own and returns the first
+    private static long reserve(int count) throws SQLException {
+        Connection primary = ConnectionUtil.getConnection();
+        try {
+            if (!counterChecked) {
+                catchUpCounter(primary);
+            }
+            primary.setAutoCommit(false);
+            long now = CachedClock.nowSeconds();
+            if (now >= nextExpiryEpoch) {
+                long timeout = AppConfig.changeReservationTimeoutSeconds();
+                PreparedStatement expire = primary.prepareStatement("DELETE FROM change_reservation WHERE reserved_epoch < ?;");
+                expire.setLong(1, now - timeout);
+                expire.executeUpdate();
+                nextExpiryEpoch = now + timeout;
+            }
+            PreparedStatement advance = primary.prepareStatement(
+                    "SELECT last_seq FROM FINAL TABLE (UPDATE change_counter SET last_seq = last_seq + ? WHERE id = 0);");
+            advance.setInt(1, count);
+            ResultSet rs = advance.executeQuery();
+            rs.next();
+            long first = rs.getLong(1) - count + 1;
+            PreparedStatement record = primary.prepareStatement("INSERT INTO change_reservation (first_seq, reserved_epoch) VALUES (?, ?);");
+            record.setLong(1, first);
+            record.setLong(2, now);
+            record.executeUpdate();
+            primary.commit();
+            return first;
+        } catch (SQLException sqle) {
+            rollback(primary);
+            throw sqle;
+        } finally {
+            close(primary);
+        }
+    }
+
+    // Commits conn and releases its reservation, inside the same transaction when conn is the primary
+    private static void commit(Connection conn, long first, boolean onPrimary) throws SQLException {
+        if (onPrimary) {
+            release(conn, first);
+            conn.commit();
+        } else {
+            conn.commit();
+            release(first);
+        }
+        synchronized (commitSignal) {
+            commitSignal.notifyAll();
+        }
+    }
+
+    // Rolls conn back first, since a release in its transaction would block the one on the primary
+    private static void abandon(Connection conn, long first) {
+        rollback(conn);
+        release(first);
+    }
+
+    // Releases a reservation on a connection of its own; if that fails the reservation times out instead
+    private static void release(long first) {
+        Connection primary = ConnectionUtil.getConnection();
+        try {
+            release(primary, first);
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        } finally {
+            close(primary);
+        }
+    }
+
+    private static void release(Connection conn, long first) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("DELETE FROM change_reservation WHERE first_seq = ?;");
+        ps.setLong(1, first);
+        ps.executeUpdate();
+    }
+
+    // Moves the counter past the highest change already in the shards' logs, e.g. ones written before it existed
+    private static void catchUpCounter(Connection primary) throws SQLException {
+        long max = 0;
+        for (int shard = 0; shard < ShardRouter.getShardCount(); shard++) {
+            Connection conn = ShardRouter.getConnection(shard);
+            try {
+                ResultSet rs = conn.createStatement().executeQuery("SELECT COALESCE(MAX(change_seq), 0) FROM message_change;");
+                rs.next();
+                max = Math.max(max, rs.getLong(1));
+            } finally {
+                close(conn);
+            }
+        }
+        PreparedStatement ps = primary.prepareStatement("UPDATE change_counter SET last_seq = GREATEST(last_seq, ?) WHERE id = 0;");
+        ps.setLong(1, max);
+        ps.executeUpdate();
+        counterChecked = true;
+    }
+
+    /**
+     * Waits until a change numbered above seq has committed, or millis have passed. Commits of this
+     * instance wake the wait at once, those of instances sharing the database are seen on the next poll.
+     * @return the number of the last committed change
+     */
+    public static long awaitCommit(long seq, long millis) throws SQLException, InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        long latest = latestSequence();
+        while (latest <= seq) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            synchronized (commitSignal) {
+                commitSignal.wait(Math.min(remaining, POLL_MILLIS));
+            }
+            latest = latestSequence();
+        }
+        return latest;
+    }
+
+    /**
+     * Starts conn's snapshot transaction at a point where every change up to the returned number has
+     * committed. Later changes may be in the snapshot too.
+     */
+    static long pinSnapshot(Connection conn) throws SQLException {
+        long watermark = latestSequence();
+        // The first read fixes what a snapshot transaction sees
+        conn.createStatement().executeQuery("SELECT COUNT(*) FROM account_change;").next();
+        return watermark;
+    }
+
+    /**
+     * Rolls back conn's transaction after a failed write, reporting but not throwing a failed rollback.
+     */
+    static void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+    }
+
+    private static void close(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * @return the watermark: every change numbered up to it has committed or never will; 0 if there is none
+     */
+    public static long latestSequence() throws SQLException {
+        Connection primary = ConnectionUtil.getConnection();
+        try {
+            PreparedStatement ps = primary.prepareStatement(WATERMARK_SQL);
+            ps.setLong(1, CachedClock.nowSeconds() - AppConfig.changeReservationTimeoutSeconds());
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            close(primary);
+        }
+    }
+
+    /*
+     *                          ***** RETRIEVE CHANGES AFTER A SEQUENCE NUMBER *****
+     * Up to limit changes numbered above since, oldest first.
+     */
+    public static List<MessageChange> retrieveChanges(long since, int limit) {
+        try {
+            return retrieveChanges(since, latestSequence(), limit);
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    /*
+     * The changes numbered above since and up to upTo, which must not be above latestSequence().
+     */
+    public static List<MessageChange> retrieveChanges(long since, long upTo, int limit) {
+        List<MessageChange> changes = new ArrayList<>();
+        try {
+            if (!ShardRouter.isEnabled()) {
+                return queryChanges(ConnectionUtil.getConnection(), since, upTo, limit);
+            }
+            // Each shard's first limit changes; together they hold the first limit overall
+            for (int shard = 0; shard < ShardRouter.getShardCount(); shard++) {
+                changes.addAll(queryChanges(ShardRouter.getConnection(shard), since, upTo, limit));
+            }
+            changes.sort(Comparator.comparingLong(MessageChange::getChange_seq));
+            return changes.size() > limit ? new ArrayList<>(changes.subList(0, limit)) : changes;
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return changes;
+    }
+
+    /*
+     *                          ***** RETRIEVE ACCOUNT CHANGES AFTER A SEQUENCE NUMBER *****
+     * Up to limit account changes numbered above since and up to upTo, oldest first.
+     */
+    public static List<AccountChange> retrieveAccountChanges(long since, long upTo, int limit) {
+        List<AccountChange> changes = new ArrayList<>();
+        try {
+            PreparedStatement ps = ConnectionUtil.getConnection().prepareStatement("SELECT change_seq, operation, account_id, username, password, changed_epoch " +
+                    "FROM account_change WHERE change_seq > ? AND change_seq <= ? ORDER BY change_seq LIMIT ?;");
+            ps.setLong(1, since);
+            ps.setLong(2, upTo);
+            ps.setInt(3, limit);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                changes.add(new AccountChange(rs.getLong(1), rs.getString(2), rs.getInt(3), rs.getString(4), rs.getString(5), rs.getLong(6)));
+            }
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return changes;
+    }
+
+    private static List<MessageChange> queryChanges(Connection conn, long since, long upTo, int limit) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("SELECT change_seq, operation, message_id, posted_by, message_text, time_posted_epoch, changed_epoch " +
+                "FROM message_change WHERE change_seq > ? AND change_seq <= ? ORDER BY change_seq LIMIT ?;");
+        ps.setLong(1, since);
+        ps.setLong(2, upTo);
+        ps.setInt(3, limit);
+        ResultSet rs = ps.executeQuery();
+        List<MessageChange> changes = new ArrayList<>();
+        while (rs.next()) {
+            changes.add(new MessageChange(rs.getLong(1), rs.getString(2), rs.getInt(3), rs.getInt(4), rs.getString(5),
+                    rs.getLong(6), rs.getLong(7)));
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,86 @@
+package DAO;
+
+import java.io.IOException;
+import java.sql.*;
+
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+
+/**
+ * Streams whole tables row by row for bulk export. The query runs lazily on a forward-only,
+ * read-only cursor with a bounded fetch size, so no more than one fetch of rows is held in memory
+ * no matter how big the table is.
+ */
+public class ExportDAO {
+
+    /**
+     * Receives one row at a time; the ResultSet is positioned on the row and must not be advanced.
+     */
+    public interface RowHandler {
+        void handle(ResultSet row) throws SQLException, IOException;
+    }
+
+    /*
+     *                          ***** STREAM ALL MESSAGES *****
+     * In sharded mode the shards are streamed one after another.
+     */
+    public static long streamMessages(RowHandler handler) throws SQLException, IOException {
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message WHERE deleted_epoch IS NULL;";
+        if (!ShardRouter.isEnabled()) {
+            return stream(ConnectionUtil.getReadConnection(), sql, handler);
+        }
+        long rows = 0;
+        for (int shard = 0; shard < ShardRouter.getShardCount(); shard++) {
+            rows += stream(ShardRouter.getConnection(shard), sql, handler);
+        }
+        return rows;
+    }
+
+    /*
+     *                          ***** STREAM THE COLUMNS OF ALL MESSAGES FOR ANALYTICS *****
+     * message_id, posted_by, time_posted_epoch and the length of message_text; the text itself is not read.
+     */
+    public static long streamMessageColumns(RowHandler handler) throws SQLException, IOException {
+        String sql = "SELECT message_id, posted_by, time_posted_epoch, CHAR_LENGTH(message_text) FROM message WHERE deleted_epoch IS NULL;";
+        if (!ShardRouter.isEnabled()) {
+            return stream(ConnectionUtil.getReadConnection(), sql, handler);
+        }
+        long rows = 0;
+        for (int shard = 0; shard < ShardRouter.getShardCount(); shard++) {
+            rows += stream(ShardRouter.getConnection(shard), sql, handler);
+        }
+        return rows;
+    }
+
+    /*
+     *                          ***** STREAM ALL ACCOUNTS *****
+     * Passwords are never exported.
+     */
+    public static long streamAccounts(RowHandler handler) throws SQLException, IOException {
+        return stream(ConnectionUtil.getReadConnection(), "SELECT account_id, username FROM account;", handler);
+    }
+
+    static long stream(Connection conn, String sql, RowHandler handler) throws SQLException, IOException {
+        Statement st = null;
+        try {
+            // Let H2 produce rows as they are fetched instead of materializing the whole result
+            conn.createStatement().execute("SET LAZY_QUERY_EXECUTION TRUE;");
+            st = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            st.setFetchSize(AppConfig.exportFetchSize());
+            ResultSet rs = st.executeQuery(sql);
+            long rows = 0;
+            while (rs.next()) {
+                handler.handle(rs);
+                rows++;
+            }
+            return rows;
+        } finally {
+            // This connection's session settings were changed, so it is closed rather than left open
+            if (st != null) {
+                st.close();
+            }
+            conn.close();
+        }
+    }
+}
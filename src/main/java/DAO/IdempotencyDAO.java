@@ -0,0 +1,145 @@
+package DAO;
+
+import java.sql.*;
+
+import Model.Message;
+import Util.CachedClock;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+
+/**
+ * Durable idempotency keys for message creation, scoped to the posting account. A key is first
+ * reserved (a row without a message) together with a hash of the request body, then completed with
+ * the message it created in the same transaction as the message insert, so a retry that arrives after
+ * a crash, a restart or on another instance finds either the original message or no message at all.
+ *
+ * Keys live in the database holding the account's messages: the primary, or in sharded mode the
+ * account's shard, which is what lets the completion commit together with the insert.
+ */
+public class IdempotencyDAO {
+
+    /**
+     * A completed key: the message it created and the hash of the request body that created it.
+     */
+    public static class Record {
+        private final Message message;
+        private final String requestHash;
+
+        Record(Message message, String requestHash) {
+            this.message = message;
+            this.requestHash = requestHash;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public String getRequestHash() {
+            return requestHash;
+        }
+    }
+
+    /*
+     *                          ***** FIND THE MESSAGE A KEY CREATED *****
+     * Returns null if the key is unknown or still reserved by a request in flight.
+     */
+    public static Record find(int postedBy, String key) {
+        try (Connection conn = connection(postedBy)) {
+            PreparedStatement ps = conn.prepareStatement("SELECT message_id, message_text, time_posted_epoch, request_hash FROM idempotency_key " +
+                    "WHERE posted_by=? AND idempotency_key=? AND message_id IS NOT NULL;");
+            ps.setInt(1, postedBy);
+            ps.setString(2, key);
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                return new Record(new Message(rs.getInt(1), postedBy, rs.getString(2), rs.getLong(3)), rs.getString(4));
+            }
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return null;
+    }
+
+    /*
+     *                          ***** RESERVE A KEY *****
+     * Returns false if the key already exists, completed or in flight.
+     */
+    public static boolean reserve(int postedBy, String key, String requestHash) {
+        try (Connection conn = connection(postedBy)) {
+            PreparedStatement ps = conn.prepareStatement("INSERT INTO idempotency_key (posted_by, idempotency_key, created_epoch, request_hash) VALUES (?, ?, ?, ?);");
+            ps.setInt(1, postedBy);
+            ps.setString(2, key);
+            ps.setLong(3, CachedClock.nowSeconds());
+            ps.setString(4, requestHash);
+            ps.executeUpdate();
+            return true;
+        } catch (SQLException sqle) {
+            // 23505: unique constraint violation, the key is taken
+            if (!"23505".equals(sqle.getSQLState())) {
+                System.out.println("Error: " + sqle.getMessage());
+                sqle.printStackTrace();
+            }
+            return false;
+        }
+    }
+
+    /*
+     *                          ***** COMPLETE A RESERVED KEY *****
+     * Runs inside the transaction inserting message, on the connection to the account's database.
+     * Returns false if the reservation is gone (released as abandoned and possibly taken over), in
+     * which case the insert must be rolled back.
+     */
+    static boolean complete(Connection conn, String key, Message message) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("UPDATE idempotency_key SET message_id=?, message_text=?, time_posted_epoch=? " +
+                "WHERE posted_by=? AND idempotency_key=? AND message_id IS NULL;");
+        ps.setInt(1, message.getMessage_id());
+        ps.setString(2, message.getMessage_text());
+        ps.setLong(3, message.getTime_posted_epoch());
+        ps.setInt(4, message.getPosted_by());
+        ps.setString(5, key);
+        return ps.executeUpdate() == 1;
+    }
+
+    /*
+     *                          ***** RELEASE A RESERVATION *****
+     * Used when the request failed, so a retry may try again. With createdBefore > 0 only a reservation
+     * older than that epoch second is released (one abandoned by a crashed instance).
+     */
+    public static void release(int postedBy, String key, long createdBefore) {
+        try (Connection conn = connection(postedBy)) {
+            PreparedStatement ps = conn.prepareStatement("DELETE FROM idempotency_key " +
+                    "WHERE posted_by=? AND idempotency_key=? AND message_id IS NULL AND (? = 0 OR created_epoch < ?);");
+            ps.setInt(1, postedBy);
+            ps.setString(2, key);
+            ps.setLong(3, createdBefore);
+            ps.setLong(4, createdBefore);
+            ps.executeUpdate();
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+    }
+
+    /*
+     *                          ***** EXPIRE OLD KEYS *****
+     */
+    public static int deleteOlderThan(long epochSeconds) {
+        int deleted = 0;
+        int stores = ShardRouter.isEnabled() ? ShardRouter.getShardCount() : 1;
+        for (int store = 0; store < stores; store++) {
+            try (Connection conn = ShardRouter.isEnabled() ? ShardRouter.getConnection(store) : ConnectionUtil.getConnection()) {
+                PreparedStatement ps = conn.prepareStatement("DELETE FROM idempotency_key WHERE created_epoch < ?;");
+                ps.setLong(1, epochSeconds);
+                deleted += ps.executeUpdate();
+            } catch (SQLException sqle) {
+                System.out.println("Error: " + sqle.getMessage());
+                sqle.printStackTrace();
+            }
+        }
+        return deleted;
+    }
+
+    private static Connection connection(int postedBy) {
+        return ShardRouter.isEnabled() ? ShardRouter.getConnection(ShardRouter.shardFor(postedBy)) : ConnectionUtil.getConnection();
+    }
+}
@@ -0,0 +1,74 @@
+package DAO;
+
+import java.sql.*;
+
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+
+/**
+ * SQL for the background purge of soft-deleted messages. Every method takes a store index:
+ * the shard number in sharded mode, otherwise 0 for the primary database.
+ */
+public class MessagePurgeDAO {
+
+    /**
+     * @return number of databases holding message rows
+     */
+    public static int storeCount() {
+        return ShardRouter.isEnabled() ? ShardRouter.getShardCount() : 1;
+    }
+
+    /*
+     *                          ***** PURGE ONE BATCH OF TOMBSTONED MESSAGES *****
+     * Returns the number of rows removed; fewer than limit means the store has no backlog left.
+     */
+    public static int purgeBatch(int store, int limit) {
+        Connection conn = connection(store);
+        try {
+            PreparedStatement ps = conn.prepareStatement("DELETE FROM message WHERE deleted_epoch IS NOT NULL FETCH FIRST ? ROWS ONLY;");
+            ps.setInt(1, limit);
+            int purged = ps.executeUpdate();
+            if (purged > 0 && !ShardRouter.isEnabled()) {
+                ConnectionUtil.markWrite();
+            }
+            return purged;
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+            return 0;
+        } finally {
+            close(conn);
+        }
+    }
+
+    /*
+     *                          ***** COUNT THE PURGE BACKLOG *****
+     * Returns {tombstoned rows, oldest deleted_epoch (0 if none)}, read from the deleted_epoch index.
+     */
+    public static long[] backlog(int store) {
+        Connection conn = connection(store);
+        try {
+            ResultSet rs = conn.createStatement().executeQuery(
+                    "SELECT COUNT(*), COALESCE(MIN(deleted_epoch), 0) FROM message WHERE deleted_epoch IS NOT NULL;");
+            rs.next();
+            return new long[] {rs.getLong(1), rs.getLong(2)};
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+            return new long[] {0, 0};
+        } finally {
+            close(conn);
+        }
+    }
+
+    private static Connection connection(int store) {
+        return ShardRouter.isEnabled() ? ShardRouter.getConnection(store) : ConnectionUtil.getConnection();
+    }
+
+    private static void close(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
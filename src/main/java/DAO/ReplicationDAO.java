@@ -0,0 +1,182 @@
+package DAO;
+
+import java.io.IOException;
+import java.sql.*;
+
+import Model.AccountChange;
+import Model.MessageChange;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+
+/**
+ * SQL for change-data-capture replication. The primary side streams the account and message tables
+ * for a follower's initial snapshot; the follower side applies snapshot rows and logged changes to
+ * the follower's own database, on a connection the caller owns and commits.
+ *
+ * Applying is idempotent (rows are merged by id, deletes remove the row), so a follower may replay
+ * changes its snapshot already contains. That is what lets the snapshot be read without stopping
+ * writes: it starts at a log position, may pick up later changes along the way, and replaying the
+ * log from that position brings it to a consistent state.
+ */
+public class ReplicationDAO {
+
+    /**
+     * A consistent read of the primary as of a change log position, held open while it is streamed.
+     */
+    public static class Snapshot {
+        final Connection conn;
+        private final long position;
+
+        Snapshot(Connection conn, long position) {
+            this.conn = conn;
+            this.position = position;
+        }
+
+        /**
+         * @return the last change the snapshot contains; a follower replays the log from here
+         */
+        public long getPosition() {
+            return position;
+        }
+    }
+
+    /*
+     *                          ***** OPEN A SNAPSHOT (PRIMARY) *****
+     * The snapshot transaction sees every change of the primary up to its position, and possibly some
+     * later ones. Shards are separate databases and are read as they are when streamed; the idempotent
+     * apply makes up for both.
+     */
+    public static Snapshot openSnapshot() throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        conn.setAutoCommit(false);
+        conn.createStatement().execute("SET SESSION CHARACTERISTICS AS TRANSACTION ISOLATION LEVEL SNAPSHOT;");
+        conn.createStatement().execute("SET LAZY_QUERY_EXECUTION TRUE;");
+        return new Snapshot(conn, ChangeLogDAO.pinSnapshot(conn));
+    }
+
+    public static void closeSnapshot(Snapshot snapshot) {
+        try {
+            snapshot.conn.rollback();
+            snapshot.conn.close();
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+    }
+
+    /*
+     *                          ***** STREAM THE SNAPSHOT (PRIMARY) *****
+     * Accounts with their passwords, then live messages from the primary or every shard.
+     */
+    public static long streamAccounts(Snapshot snapshot, ExportDAO.RowHandler handler) throws SQLException, IOException {
+        return streamRows(snapshot.conn, "SELECT account_id, username, password FROM account;", handler);
+    }
+
+    public static long streamMessages(Snapshot snapshot, ExportDAO.RowHandler handler) throws SQLException, IOException {
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message WHERE deleted_epoch IS NULL;";
+        if (!ShardRouter.isEnabled()) {
+            return streamRows(snapshot.conn, sql, handler);
+        }
+        long rows = 0;
+        for (int shard = 0; shard < ShardRouter.getShardCount(); shard++) {
+            rows += ExportDAO.stream(ShardRouter.getConnection(shard), sql, handler);
+        }
+        return rows;
+    }
+
+    // Like ExportDAO.stream, but the connection stays open for the next table of the snapshot
+    private static long streamRows(Connection conn, String sql, ExportDAO.RowHandler handler) throws SQLException, IOException {
+        Statement st = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            st.setFetchSize(AppConfig.exportFetchSize());
+            ResultSet rs = st.executeQuery(sql);
+            long rows = 0;
+            while (rs.next()) {
+                handler.handle(rs);
+                rows++;
+            }
+            return rows;
+        } finally {
+            st.close();
+        }
+    }
+
+    /*
+     *                          ***** PREPARE A FOLLOWER DATABASE *****
+     * Run after the schema migrations. The follower trusts the primary's foreign keys: while a snapshot
+     * from shards is replayed, a message may briefly arrive before its account.
+     */
+    public static void prepareFollower(Connection conn) throws SQLException {
+        Statement st = conn.createStatement();
+        st.execute("CREATE TABLE IF NOT EXISTS replication_state (id INT PRIMARY KEY, position BIGINT);");
+        st.execute("ALTER TABLE message SET REFERENTIAL_INTEGRITY FALSE;");
+    }
+
+    /*
+     *                          ***** REPLICATION POSITION (FOLLOWER) *****
+     * The last change applied, kept in the same database and transaction as the data. -1 when the
+     * follower has never completed a snapshot.
+     */
+    public static long readPosition(Connection conn) throws SQLException {
+        ResultSet rs = conn.createStatement().executeQuery("SELECT position FROM replication_state WHERE id = 1;");
+        return rs.next() ? rs.getLong(1) : -1;
+    }
+
+    public static void savePosition(Connection conn, long position) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("MERGE INTO replication_state (id, position) KEY(id) VALUES (1, ?);");
+        ps.setLong(1, position);
+        ps.executeUpdate();
+    }
+
+    /*
+     *                          ***** APPLY A SNAPSHOT (FOLLOWER) *****
+     */
+    public static void clearTables(Connection conn) throws SQLException {
+        Statement st = conn.createStatement();
+        st.executeUpdate("DELETE FROM message;");
+        st.executeUpdate("DELETE FROM account;");
+    }
+
+    public static void upsertAccount(Connection conn, int accountId, String username, String password) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("MERGE INTO account (account_id, username, password) KEY(account_id) VALUES (?, ?, ?);");
+        ps.setInt(1, accountId);
+        ps.setString(2, username);
+        ps.setString(3, password);
+        ps.executeUpdate();
+    }
+
+    public static void upsertMessage(Connection conn, int messageId, int postedBy, String messageText, long timePosted) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("MERGE INTO message (message_id, posted_by, message_text, time_posted_epoch, deleted_epoch) " +
+                "KEY(message_id) VALUES (?, ?, ?, ?, NULL);");
+        ps.setInt(1, messageId);
+        ps.setInt(2, postedBy);
+        ps.setString(3, messageText);
+        ps.setLong(4, timePosted);
+        ps.executeUpdate();
+    }
+
+    /*
+     *                          ***** APPLY LOGGED CHANGES (FOLLOWER) *****
+     */
+    public static void applyAccountChange(Connection conn, AccountChange change) throws SQLException {
+        if (change.getOperation().equals(ChangeLogDAO.DELETE)) {
+            PreparedStatement ps = conn.prepareStatement("DELETE FROM account WHERE account_id=?;");
+            ps.setInt(1, change.getAccount_id());
+            ps.executeUpdate();
+        } else {
+            upsertAccount(conn, change.getAccount_id(), change.getUsername(), change.getPassword());
+        }
+    }
+
+    public static void applyMessageChange(Connection conn, MessageChange change) throws SQLException {
+        if (change.getOperation().equals(ChangeLogDAO.DELETE)) {
+            // The primary keeps a tombstone for its purge; the follower has no purge, so the row goes now
+            PreparedStatement ps = conn.prepareStatement("DELETE FROM message WHERE message_id=?;");
+            ps.setInt(1, change.getMessage_id());
+            ps.executeUpdate();
+        } else {
+            upsertMessage(conn, change.getMessage_id(), change.getPosted_by(), change.getMessage_text(), change.getTime_posted_epoch());
+        }
+    }
+}
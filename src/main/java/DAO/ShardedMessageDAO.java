@@ -0,0 +1,361 @@
+package DAO;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import Model.Message;
+import Util.CachedClock;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+
+/**
+ * Message queries for the sharded mode. Queries keyed by posted_by go to exactly one shard;
+ * everything else is sent to all shards in parallel and the per-shard results are merged.
+ */
+public class ShardedMessageDAO {
+
+    private static final ExecutorService scatterPool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "shard-scatter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /*
+     *                          ***** POST A NEW MESSAGE *******
+     * With an idempotency key, the key's reservation on the same shard is completed in the same transaction.
+     */
+    public static Message postMessage(Message message, long timePosted, String idempotencyKey) {
+        int shard = ShardRouter.shardFor(message.getPosted_by());
+        Connection conn = ShardRouter.getConnection(shard);
+
+        try {
+            conn.setAutoCommit(false);
+            ResultSet seq = conn.createStatement().executeQuery("SELECT NEXT VALUE FOR message_seq;");
+            seq.next();
+            int messageId = ShardRouter.encodeId(seq.getLong(1), shard);
+
+            String sql = "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) VALUES(?, ?, ?, ?);";
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setInt(1, messageId);
+            ps.setInt(2, message.getPosted_by());
+            ps.setString(3, message.getMessage_text());
+            ps.setLong(4, timePosted);
+            ps.executeUpdate();
+            Message postedMessage = new Message(messageId, message.getPosted_by(), message.getMessage_text(), timePosted);
+            if (idempotencyKey != null && !IdempotencyDAO.complete(conn, idempotencyKey, postedMessage)) {
+                ChangeLogDAO.rollback(conn);
+                return null;
+            }
+            ChangeLogDAO.commitWithChange(conn, ChangeLogDAO.INSERT, postedMessage);
+            ConnectionUtil.markWrite();
+
+            return postedMessage;
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+            ChangeLogDAO.rollback(conn);
+        }
+        return null;
+    }
+
+    /*
+     *                          ***** RETRIEVE ALL MESSAGES *****
+     * Every shard returns its rows in message_id order; the lists are k-way merged.
+     */
+    public static List<Message> retrieveAllMessages() {
+        List<List<Message>> perShard = scatter(shard -> queryShard(shard, "SELECT * FROM message WHERE deleted_epoch IS NULL ORDER BY message_id;"));
+        return merge(perShard, BY_ID);
+    }
+
+    /*
+     *                          ***** RETRIEVE MESSAGES POSTED IN A TIME RANGE *****
+     * Each shard returns its newest rows in the range; the lists are merged newest first.
+     */
+    public static List<Message> retrieveMessagesInTimeRange(long from, long to, int limit) {
+        List<List<Message>> perShard = scatter(shard -> {
+            Connection conn = ShardRouter.getConnection(shard);
+            List<Message> messageList = new ArrayList<>();
+            try {
+                PreparedStatement ps = conn.prepareStatement("SELECT * FROM message " +
+                        "WHERE time_posted_epoch BETWEEN ? AND ? AND deleted_epoch IS NULL ORDER BY time_posted_epoch DESC LIMIT ?;");
+                ps.setLong(1, from);
+                ps.setLong(2, to);
+                ps.setInt(3, limit);
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    messageList.add(new Message(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4)));
+                }
+            } catch (SQLException sqle) {
+                System.out.println("Error: " + sqle.getMessage());
+                sqle.printStackTrace();
+            }
+            return messageList;
+        });
+        List<Message> merged = merge(perShard, NEWEST_FIRST);
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    /*
+     *                          ***** RETRIEVE MESSAGE BY ID *****
+     * The shard encoded in the id is asked first; rows moved by a rebalance are found by asking every shard.
+     */
+    public static Message retrieveMessageById(int message_id) {
+        int home = ShardRouter.shardOfId(message_id);
+        if (home < ShardRouter.getShardCount()) {
+            Message message = findOnShard(home, message_id);
+            if (message != null) {
+                return message;
+            }
+        }
+        List<List<Message>> perShard = scatter(shard -> {
+            Message message = shard == home ? null : findOnShard(shard, message_id);
+            List<Message> found = new ArrayList<>();
+            if (message != null) {
+                found.add(message);
+            }
+            return found;
+        });
+        for (List<Message> found : perShard) {
+            if (!found.isEmpty()) {
+                return found.get(0);
+            }
+        }
+        return null;
+    }
+
+    /*
+     *                          ***** RETRIEVE MESSAGES BY A LIST OF IDS *****
+     * Every shard gets the whole list, so rows moved by a rebalance are found without a second round.
+     */
+    public static List<Message> retrieveMessagesByIds(Integer[] message_ids) {
+        List<List<Message>> perShard = scatter(shard -> {
+            Connection conn = ShardRouter.getConnection(shard);
+            List<Message> messageList = new ArrayList<>();
+            try {
+                PreparedStatement ps = conn.prepareStatement("SELECT * FROM message WHERE message_id = ANY(?) AND deleted_epoch IS NULL;");
+                ps.setArray(1, conn.createArrayOf("INTEGER", message_ids));
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    messageList.add(new Message(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4)));
+                }
+            } catch (SQLException sqle) {
+                System.out.println("Error: " + sqle.getMessage());
+                sqle.printStackTrace();
+            }
+            return messageList;
+        });
+        List<Message> found = new ArrayList<>();
+        perShard.forEach(found::addAll);
+        return found;
+    }
+
+    /*
+     *                          ***** RETRIEVE ALL MESSAGES FROM A SINGLE USER *****
+     */
+    public static List<Message> retrieveMessagesByUser(int accountID) {
+        Connection conn = ShardRouter.getConnection(ShardRouter.shardFor(accountID));
+        List<Message> messageList = new ArrayList<>();
+        try {
+            PreparedStatement ps = conn.prepareStatement("SELECT * FROM message WHERE posted_by=? AND deleted_epoch IS NULL ORDER BY message_id;");
+            ps.setInt(1, accountID);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                messageList.add(new Message(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4)));
+            }
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return messageList;
+    }
+
+    /*
+     *                          ***** DELETE MESSAGE BY ID *****
+     * Soft delete, like the unsharded path. Returns the message as this call deleted it, or null.
+     */
+    public static Message deleteMessageById(int message_id) {
+        Message message = retrieveMessageById(message_id);
+        if (message == null) {
+            return null;
+        }
+        // posted_by never changes, so the unlocked read is only used to find the shard
+        Connection conn = ShardRouter.getConnection(ShardRouter.shardFor(message.getPosted_by()));
+        try {
+            conn.setAutoCommit(false);
+            Message deletedMessage = SocialMediaDAO.lockLiveMessageRow(conn, message_id);
+            if (deletedMessage == null) {
+                ChangeLogDAO.rollback(conn);
+                return null;
+            }
+            PreparedStatement ps = conn.prepareStatement("UPDATE message SET deleted_epoch=? WHERE message_id=?;");
+            ps.setLong(1, CachedClock.nowSeconds());
+            ps.setInt(2, message_id);
+            ps.executeUpdate();
+            ChangeLogDAO.commitWithChange(conn, ChangeLogDAO.DELETE, deletedMessage);
+            ConnectionUtil.markWrite();
+            return deletedMessage;
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+            ChangeLogDAO.rollback(conn);
+        }
+        return null;
+    }
+
+    /*
+     *                          ***** UPDATE MESSAGE BY ID *****
+     * Like the unsharded path, returns the message as it was before this update, or null.
+     */
+    public static Message updateMessageById(String message_text, int message_id) {
+        Message message = retrieveMessageById(message_id);
+        if (message == null) {
+            return null;
+        }
+        Connection conn = ShardRouter.getConnection(ShardRouter.shardFor(message.getPosted_by()));
+        try {
+            conn.setAutoCommit(false);
+            Message previousMessage = SocialMediaDAO.lockLiveMessageRow(conn, message_id);
+            if (previousMessage == null) {
+                ChangeLogDAO.rollback(conn);
+                return null;
+            }
+            PreparedStatement ps = conn.prepareStatement("UPDATE message SET message_text=? WHERE message_id=?;");
+            ps.setString(1, message_text);
+            ps.setInt(2, message_id);
+            ps.executeUpdate();
+            Message updatedMessage = new Message(message_id, previousMessage.getPosted_by(), message_text, previousMessage.getTime_posted_epoch());
+            ChangeLogDAO.commitWithChange(conn, ChangeLogDAO.UPDATE, updatedMessage);
+            ConnectionUtil.markWrite();
+            return previousMessage;
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+            ChangeLogDAO.rollback(conn);
+        }
+        return null;
+    }
+
+    /*
+     *                          ***** DELETE A CHUNK OF AN ACCOUNT'S MESSAGES *****
+     * All of an account's messages live on its shard, so the chunk runs there like the unsharded one.
+     */
+    public static List<Message> deleteMessagesByUser(int account_id, int limit) {
+        Connection conn = ShardRouter.getConnection(ShardRouter.shardFor(account_id));
+        try {
+            conn.setAutoCommit(false);
+            List<Message> removed = SocialMediaDAO.deleteMessageChunk(conn, account_id, limit);
+            if (!removed.isEmpty()) {
+                ConnectionUtil.markWrite();
+            }
+            return removed;
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+            ChangeLogDAO.rollback(conn);
+        }
+        return new ArrayList<>();
+    }
+
+    private static Message findOnShard(int shard, int message_id) {
+        Connection conn = ShardRouter.getConnection(shard);
+        try {
+            PreparedStatement ps = conn.prepareStatement("SELECT * FROM message WHERE message_id=? AND deleted_epoch IS NULL;");
+            ps.setInt(1, message_id);
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                return new Message(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4));
+            }
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return null;
+    }
+
+    private static List<Message> queryShard(int shard, String sql) {
+        Connection conn = ShardRouter.getConnection(shard);
+        List<Message> messageList = new ArrayList<>();
+        try {
+            ResultSet rs = conn.createStatement().executeQuery(sql);
+            while (rs.next()) {
+                messageList.add(new Message(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4)));
+            }
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return messageList;
+    }
+
+    /**
+     * Runs query against every shard in parallel and waits for all of them.
+     */
+    static List<List<Message>> scatter(IntFunction<List<Message>> query) {
+        int shardCount = ShardRouter.getShardCount();
+        List<Future<List<Message>>> futures = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            final int target = shard;
+            futures.add(scatterPool.submit(() -> query.apply(target)));
+        }
+        List<List<Message>> results = new ArrayList<>(shardCount);
+        for (Future<List<Message>> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(new ArrayList<>());
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+                results.add(new ArrayList<>());
+            }
+        }
+        return results;
+    }
+
+    private static final Comparator<Message> BY_ID = Comparator.comparingInt(Message::getMessage_id);
+    private static final Comparator<Message> NEWEST_FIRST = Comparator.comparingLong(Message::getTime_posted_epoch).reversed();
+
+    /**
+     * K-way merge of lists that are each sorted by order.
+     */
+    static List<Message> merge(List<List<Message>> sortedLists, Comparator<Message> order) {
+        PriorityQueue<MergeCursor> heap = new PriorityQueue<>((a, b) -> order.compare(a.head, b.head));
+        int total = 0;
+        for (List<Message> list : sortedLists) {
+            total += list.size();
+            Iterator<Message> it = list.iterator();
+            if (it.hasNext()) {
+                heap.add(new MergeCursor(it.next(), it));
+            }
+        }
+        List<Message> merged = new ArrayList<>(total);
+        while (!heap.isEmpty()) {
+            MergeCursor cursor = heap.poll();
+            merged.add(cursor.head);
+            if (cursor.rest.hasNext()) {
+                cursor.head = cursor.rest.next();
+                heap.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    private static class MergeCursor {
+        Message head;
+        final Iterator<Message> rest;
+
+        MergeCursor(Message head, Iterator<Message> rest) {
+            this.head = head;
+            this.rest = rest;
+        }
+    }
+}
@@ -1,19 +1,19 @@
 package DAO;
 
 import java.sql.*;
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 
 import Model.Account;
 import Model.Message;
+import Util.CachedClock;
 import Util.ConnectionUtil;
+import Util.ShardRouter;
 
 public class SocialMediaDAO {
     
     // Instance variables
     private static SocialMediaDAO smDAO = null;
-    private static long epochSeconds = Instant.now().getEpochSecond();
 
     // Default constructor
     public SocialMediaDAO() {        
@@ -34,6 +34,8 @@ public class SocialMediaDAO {
         Connection conn = ConnectionUtil.getConnection();      
 
         try {
+            // The insert and its change log entry commit together
+            conn.setAutoCommit(false);
             String sql = "INSERT INTO account (username, password) VALUES (?, ?);";
 
             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
@@ -48,12 +50,17 @@ public class SocialMediaDAO {
             ResultSet keys = ps.getGeneratedKeys();
             if (keys.next()) {
                 int newAccountId = keys.getInt(1);
-                return new Account(newAccountId, account.getUsername(), account.getPassword());
+                Account addedAccount = new Account(newAccountId, account.getUsername(), account.getPassword());
+                ChangeLogDAO.commitWithAccountChange(conn, ChangeLogDAO.INSERT, addedAccount);
+                ConnectionUtil.markWrite();
+                return addedAccount;
             }
+            ChangeLogDAO.rollback(conn);
         }
         catch (SQLException sqle) {
             System.out.println("Error: " + sqle.getMessage());
             sqle.printStackTrace();
+            ChangeLogDAO.rollback(conn);
         }
         // If failed to add account return null
         return null;
@@ -76,7 +83,7 @@ public class SocialMediaDAO {
             ResultSet rs = ps.executeQuery();
 
             if (rs.next()) {            
-                Account retrievedAccount = new Account(account_id, rs.getString(1), rs.getString(2));
+                Account retrievedAccount = new Account(account_id, rs.getString("username"), rs.getString("password"));
                 return retrievedAccount;
             }
             
@@ -141,18 +148,26 @@ public class SocialMediaDAO {
 
     /*
      *                          ***** POST A NEW MESSAGE *******
+     * With an idempotency key, the key's reservation is completed in the same transaction as the insert.
      */
 
-    public static Message postMessage(Message message) {
+    public static Message postMessage(Message message, String idempotencyKey) {
+        // Keep a time supplied by the client, otherwise stamp the message with the server clock
+        long timePosted = message.getTime_posted_epoch() > 0 ? message.getTime_posted_epoch() : CachedClock.nowSeconds();
+        if (ShardRouter.isEnabled()) {
+            return ShardedMessageDAO.postMessage(message, timePosted, idempotencyKey);
+        }
         Connection conn = ConnectionUtil.getConnection();
 
         try {
+            // The insert and its change log entry commit together
+            conn.setAutoCommit(false);
             String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES(?, ?, ?);";
             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
 
             ps.setInt(1, message.getPosted_by());            
             ps.setString(2, message.getMessage_text());
-            ps.setLong(3, epochSeconds);
+            ps.setLong(3, timePosted);
             
             int rowsAffected = ps.executeUpdate();
             System.out.printf("%d rows affected!\n Message added: \n", rowsAffected);
@@ -161,12 +176,19 @@ public class SocialMediaDAO {
             ResultSet keys = ps.getGeneratedKeys();
             if (keys.next()) {
                 int newMessageID = keys.getInt(1);
-                return new Message(newMessageID, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+                Message postedMessage = new Message(newMessageID, message.getPosted_by(), message.getMessage_text(), timePosted);
+                if (idempotencyKey == null || IdempotencyDAO.complete(conn, idempotencyKey, postedMessage)) {
+                    ChangeLogDAO.commitWithChange(conn, ChangeLogDAO.INSERT, postedMessage);
+                    ConnectionUtil.markWrite();
+                    return postedMessage;
+                }
             }             
+            ChangeLogDAO.rollback(conn);
 
         } catch (SQLException sqle) {
             System.out.println("Error: " + sqle.getMessage());
             sqle.printStackTrace();
+            ChangeLogDAO.rollback(conn);
         }
 
         // If failed to insert message return null
@@ -178,11 +200,14 @@ public class SocialMediaDAO {
      */
 
     public static List<Message> retrieveAllMessages() {
-        Connection conn = ConnectionUtil.getConnection();
+        if (ShardRouter.isEnabled()) {
+            return ShardedMessageDAO.retrieveAllMessages();
+        }
+        Connection conn = ConnectionUtil.getReadConnection();
 
         List<Message> messageList = new ArrayList<>();
         try {
-            String sql = "SELECT * FROM message;";
+            String sql = "SELECT * FROM message WHERE deleted_epoch IS NULL;";
             Statement st = conn.createStatement();
             ResultSet rs = st.executeQuery(sql);
 
@@ -203,10 +228,21 @@ public class SocialMediaDAO {
      */
 
     public static Message retrieveMessageById(int message_id) {
-        Connection conn = ConnectionUtil.getConnection();
+        return retrieveMessageById(message_id, false);
+    }
+
+    /*
+     * fromPrimary reads from the primary instead of a replica, for a message that goes into the message cache,
+     * where a lagging replica's row would outlive the write that made it out of date.
+     */
+    public static Message retrieveMessageById(int message_id, boolean fromPrimary) {
+        if (ShardRouter.isEnabled()) {
+            return ShardedMessageDAO.retrieveMessageById(message_id);
+        }
+        Connection conn = fromPrimary ? ConnectionUtil.getConnection() : ConnectionUtil.getReadConnection();
         
         try {
-            String sql = "SELECT posted_by, message_text, time_posted_epoch FROM message WHERE message_id=?;";
+            String sql = "SELECT posted_by, message_text, time_posted_epoch FROM message WHERE message_id=? AND deleted_epoch IS NULL;";
 
             PreparedStatement ps = conn.prepareStatement(sql);
             ps.setInt(1, message_id);
@@ -226,37 +262,96 @@ public class SocialMediaDAO {
         return null;
     }
 
+
+    /*
+     *                          ***** RETRIEVE MESSAGES BY A LIST OF IDS *****
+     * One round trip for the whole list. Rows come back in no particular order and unknown or deleted
+     * ids are left out. Read from the primary, because the results go into the message cache and a
+     * lagging replica could put back a message that a write has just invalidated.
+     */
+    public static List<Message> retrieveMessagesByIds(Integer[] message_ids) {
+        if (ShardRouter.isEnabled()) {
+            return ShardedMessageDAO.retrieveMessagesByIds(message_ids);
+        }
+        Connection conn = ConnectionUtil.getConnection();
+        List<Message> messageList = new ArrayList<>();
+
+        try {
+            String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message " +
+                    "WHERE message_id = ANY(?) AND deleted_epoch IS NULL;";
+
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setArray(1, conn.createArrayOf("INTEGER", message_ids));
+
+            ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                messageList.add(new Message(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4)));
+            }
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return messageList;
+    }
     
     /*
      *                          ***** DELETE MESSAGE BY ID *****
+     * Soft delete: the row is tombstoned and left for the background purge, so the request does not
+     * wait on index maintenance. Returns the message as this call deleted it, read under a row lock in
+     * the same transaction, or null if there was no live message to delete.
      */
-    public static void deleteMessageById(int message_id) {
+    public static Message deleteMessageById(int message_id) {
+        if (ShardRouter.isEnabled()) {
+            return ShardedMessageDAO.deleteMessageById(message_id);
+        }
         Connection conn = ConnectionUtil.getConnection();
 
         try {
-            
-            String sql = "DELETE FROM message WHERE message_id=?;";
+            conn.setAutoCommit(false);
+            Message deletedMessage = lockLiveMessageRow(conn, message_id);
+            if (deletedMessage == null) {
+                ChangeLogDAO.rollback(conn);
+                return null;
+            }
+            String sql = "UPDATE message SET deleted_epoch=? WHERE message_id=?;";
 
             PreparedStatement ps = conn.prepareStatement(sql);
-            ps.setInt(1, message_id);
+            ps.setLong(1, CachedClock.nowSeconds());
+            ps.setInt(2, message_id);
 
             int rowsAffected = ps.executeUpdate();
-            System.out.printf("%d rows affected!\n Message deleted: \n", rowsAffected);            
+            System.out.printf("%d rows affected!\n Message deleted: \n", rowsAffected);
+            ChangeLogDAO.commitWithChange(conn, ChangeLogDAO.DELETE, deletedMessage);
+            ConnectionUtil.markWrite();
+            return deletedMessage;
 
         } catch (SQLException sqle) {
             System.out.println("Error: " + sqle.getMessage());
             sqle.printStackTrace();
+            ChangeLogDAO.rollback(conn);
         }
+        return null;
     }
 
     /*
-     *                          ***** UPDATE MESSAGE BY ID *****    
+     *                          ***** UPDATE MESSAGE BY ID *****
+     * Returns the message as it was before this update, read under a row lock in the same transaction,
+     * so concurrent updates each see the text the previous one left; null if there is no live message.
      */
     public static Message updateMessageById(String message_text, int message_id) {
+        if (ShardRouter.isEnabled()) {
+            return ShardedMessageDAO.updateMessageById(message_text, message_id);
+        }
         Connection conn = ConnectionUtil.getConnection();
 
         try {
-            
+            conn.setAutoCommit(false);
+            Message previousMessage = lockLiveMessageRow(conn, message_id);
+            if (previousMessage == null) {
+                ChangeLogDAO.rollback(conn);
+                return null;
+            }
             String sql = "UPDATE message SET message_text=? WHERE message_id=?;";
 
             PreparedStatement ps = conn.prepareStatement(sql);
@@ -266,28 +361,49 @@ public class SocialMediaDAO {
             int rowsAffected = ps.executeUpdate();
             System.out.printf("%d rows affected!\n Message updated: \n", rowsAffected);
 
-            
-            
-            // Return updated message            
-            return retrieveMessageById(message_id);
+            Message updatedMessage = new Message(message_id, previousMessage.getPosted_by(), message_text, previousMessage.getTime_posted_epoch());
+            ChangeLogDAO.commitWithChange(conn, ChangeLogDAO.UPDATE, updatedMessage);
+            ConnectionUtil.markWrite();
+            return previousMessage;
 
         } catch (SQLException sqle) {
             System.out.println("Error: " + sqle.getMessage());
             sqle.printStackTrace();
+            ChangeLogDAO.rollback(conn);
         }
         // If update fails, return null
         return null;
     }
 
+    // The live message row, locked until conn's transaction ends; null if it is missing or tombstoned
+    static Message lockLiveMessageRow(Connection conn, int message_id) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("SELECT message_id, posted_by, message_text, time_posted_epoch FROM message " +
+                "WHERE message_id=? AND deleted_epoch IS NULL FOR UPDATE;");
+        ps.setInt(1, message_id);
+        ResultSet rs = ps.executeQuery();
+        return rs.next() ? new Message(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4)) : null;
+    }
+
     /*
      *                          ***** RETRIEVE ALL MESSAGES FROM A SINGLE USER *****
      */
     public static List<Message> retrieveMessagesByUser(int accountID) {
-        Connection conn = ConnectionUtil.getConnection();
+        return retrieveMessagesByUser(accountID, false);
+    }
+
+    /*
+     * fromPrimary reads from the primary instead of a replica, for lists that go into the timeline cache,
+     * where a lagging replica's list would outlive the write that made it out of date.
+     */
+    public static List<Message> retrieveMessagesByUser(int accountID, boolean fromPrimary) {
+        if (ShardRouter.isEnabled()) {
+            return ShardedMessageDAO.retrieveMessagesByUser(accountID);
+        }
+        Connection conn = fromPrimary ? ConnectionUtil.getConnection() : ConnectionUtil.getReadConnection();
         List<Message> messageList = new ArrayList<>();
 
         try {
-            String sql = "SELECT * FROM message INNER JOIN account ON message.posted_by = account.account_id where message.posted_by=?;";
+            String sql = "SELECT * FROM message INNER JOIN account ON message.posted_by = account.account_id where message.posted_by=? AND message.deleted_epoch IS NULL;";
 
             PreparedStatement ps = conn.prepareStatement(sql);
             ps.setInt(1, accountID);
@@ -307,4 +423,151 @@ public class SocialMediaDAO {
         }        
     }
 
+    /*
+     *                          ***** RETRIEVE MESSAGES POSTED IN A TIME RANGE *****
+     * Newest first; served by a range scan on the descending time_posted_epoch index.
+     */
+    public static List<Message> retrieveMessagesInTimeRange(long from, long to, int limit) {
+        if (ShardRouter.isEnabled()) {
+            return ShardedMessageDAO.retrieveMessagesInTimeRange(from, to, limit);
+        }
+        Connection conn = ConnectionUtil.getReadConnection();
+        List<Message> messageList = new ArrayList<>();
+
+        try {
+            String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message " +
+                    "WHERE time_posted_epoch BETWEEN ? AND ? AND deleted_epoch IS NULL ORDER BY time_posted_epoch DESC LIMIT ?;";
+
+            PreparedStatement ps = conn.prepareStatement(sql);
+            ps.setLong(1, from);
+            ps.setLong(2, to);
+            ps.setInt(3, limit);
+
+            ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                messageList.add(new Message(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4)));
+            }
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+        }
+        return messageList;
+    }
+
+    /*
+     *                          ***** RETRIEVE THE LATEST N MESSAGES *****
+     */
+    public static List<Message> retrieveLatestMessages(int limit) {
+        return retrieveMessagesInTimeRange(Long.MIN_VALUE, Long.MAX_VALUE, limit);
+    }
+
+    /*
+     *                          ***** DELETE A CHUNK OF AN ACCOUNT'S MESSAGES *****
+     * Removes up to limit of the account's message rows, live or tombstoned, found through the posted_by
+     * index, and commits on its own so no lock is held between chunks. The live ones are logged as
+     * deleted. Returns the removed rows; an empty list means the account has no messages left (or the
+     * chunk failed and was rolled back).
+     */
+    public static List<Message> deleteMessagesByUser(int account_id, int limit) {
+        if (ShardRouter.isEnabled()) {
+            return ShardedMessageDAO.deleteMessagesByUser(account_id, limit);
+        }
+        Connection conn = ConnectionUtil.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            List<Message> removed = deleteMessageChunk(conn, account_id, limit);
+            if (!removed.isEmpty()) {
+                ConnectionUtil.markWrite();
+            }
+            return removed;
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+            ChangeLogDAO.rollback(conn);
+        }
+        return new ArrayList<>();
+    }
+
+    // One chunk on the database holding the account's messages; conn has autocommit off
+    static List<Message> deleteMessageChunk(Connection conn, int account_id, int limit) throws SQLException {
+        // Locking the rows keeps a concurrent single delete from logging one of them a second time
+        PreparedStatement select = conn.prepareStatement("SELECT message_id, posted_by, message_text, time_posted_epoch, deleted_epoch " +
+                "FROM message WHERE posted_by=? ORDER BY message_id LIMIT ? FOR UPDATE;");
+        select.setInt(1, account_id);
+        select.setInt(2, limit);
+        ResultSet rs = select.executeQuery();
+        List<Message> removed = new ArrayList<>();
+        List<Message> live = new ArrayList<>();
+        while (rs.next()) {
+            Message message = new Message(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4));
+            removed.add(message);
+            if (rs.getObject(5) == null) {
+                live.add(message);
+            }
+        }
+        if (removed.isEmpty()) {
+            ChangeLogDAO.rollback(conn);
+            return removed;
+        }
+        Integer[] ids = new Integer[removed.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = removed.get(i).getMessage_id();
+        }
+        PreparedStatement delete = conn.prepareStatement("DELETE FROM message WHERE message_id = ANY(?);");
+        delete.setArray(1, conn.createArrayOf("INTEGER", ids));
+        delete.executeUpdate();
+        if (live.isEmpty()) {
+            conn.commit();
+        } else {
+            ChangeLogDAO.commitWithChanges(conn, ChangeLogDAO.DELETE, live);
+        }
+        return removed;
+    }
+
+    /*
+     *                          ***** DELETE ACCOUNT BY ID *****
+     * Removes the account row once it has no messages left; deleteMessagesByUser empties it first.
+     * Returns the deleted account, or null if there was no such account or a message was posted in the
+     * meantime, in which case the caller deletes that one and tries again.
+     */
+    public static Account deleteAccountById(int account_id) {
+        Connection conn = ConnectionUtil.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            if (hasMessages(conn, account_id)) {
+                ChangeLogDAO.rollback(conn);
+                return null;
+            }
+            PreparedStatement select = conn.prepareStatement("SELECT account_id, username, password FROM account WHERE account_id=? FOR UPDATE;");
+            select.setInt(1, account_id);
+            ResultSet rs = select.executeQuery();
+            if (!rs.next()) {
+                ChangeLogDAO.rollback(conn);
+                return null;
+            }
+            Account deletedAccount = new Account(rs.getInt(1), rs.getString(2), rs.getString(3));
+            PreparedStatement delete = conn.prepareStatement("DELETE FROM account WHERE account_id=?;");
+            delete.setInt(1, account_id);
+            delete.executeUpdate();
+            ChangeLogDAO.commitWithAccountChange(conn, ChangeLogDAO.DELETE, deletedAccount);
+            ConnectionUtil.markWrite();
+            return deletedAccount;
+        } catch (SQLException sqle) {
+            // Also where a message committed after the check lands: its foreign key blocks the delete
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+            ChangeLogDAO.rollback(conn);
+        }
+        return null;
+    }
+
+    // Whether any message row, live or tombstoned, still names the account; primary is the account's connection
+    private static boolean hasMessages(Connection primary, int account_id) throws SQLException {
+        Connection conn = ShardRouter.isEnabled() ? ShardRouter.getConnection(ShardRouter.shardFor(account_id)) : primary;
+        PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM message WHERE posted_by=? LIMIT 1;");
+        ps.setInt(1, account_id);
+        return ps.executeQuery().next();
+    }
+
 }
@@ -1,14 +1,26 @@
+import java.io.IOException;
+
 import Controller.SocialMediaController;
+import Util.AppConfig;
 import io.javalin.Javalin;
 
 /**
  * This class is provided with a main method to allow you to manually run and test your application. This class will not
  * affect your program in any way and you may write whatever code you like here.
+ *
+ * For fast startup of new instances see fast-start.sh, which runs this class from a class-data sharing archive and
+ * can warm up with -Dsocialmedia.warmup.iterations before the port opens.
  */
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
         SocialMediaController controller = new SocialMediaController();
         Javalin app = controller.startAPI();
-        app.start(8080);
+        int warmupIterations = AppConfig.warmupIterations();
+        if (warmupIterations > 0) {
+            controller.warmUp(warmupIterations);
+        }
+        app.start(AppConfig.httpPort());
+        System.out.println("Listening on " + AppConfig.httpPort() + " " + (System.nanoTime() - start) / 1_000_000 + " ms after main()");
     }
 }
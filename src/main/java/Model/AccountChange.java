@@ -0,0 +1,140 @@
+package Model;
+/**
+ * This is a class that models one entry of the account change log, numbered in the same sequence as
+ * the message changes. Only replication reads it; it is never served to clients.
+ */
+public class AccountChange {
+    /**
+     * Position of this change in the log, shared with the message changes.
+     */
+    public long change_seq;
+    /**
+     * "insert" or "delete".
+     */
+    public String operation;
+    /**
+     * The id of the changed account.
+     */
+    public int account_id;
+    /**
+     * The account's username, null for a delete.
+     */
+    public String username;
+    /**
+     * The account's password, null for a delete.
+     */
+    public String password;
+    /**
+     * When the change was committed, in epoch seconds.
+     */
+    public long changed_epoch;
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public AccountChange() {
+    }
+    /**
+     * When retrieving a change from the database, all fields will be needed.
+     * @param change_seq
+     * @param operation
+     * @param account_id
+     * @param username
+     * @param password
+     * @param changed_epoch
+     */
+    public AccountChange(long change_seq, String operation, int account_id, String username, String password, long changed_epoch) {
+        this.change_seq = change_seq;
+        this.operation = operation;
+        this.account_id = account_id;
+        this.username = username;
+        this.password = password;
+        this.changed_epoch = changed_epoch;
+    }
+    /**
+     * @return change_seq
+     */
+    public long getChange_seq() {
+        return change_seq;
+    }
+    /**
+     * @param change_seq
+     */
+    public void setChange_seq(long change_seq) {
+        this.change_seq = change_seq;
+    }
+    /**
+     * @return operation
+     */
+    public String getOperation() {
+        return operation;
+    }
+    /**
+     * @param operation
+     */
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+    /**
+     * @return account_id
+     */
+    public int getAccount_id() {
+        return account_id;
+    }
+    /**
+     * @param account_id
+     */
+    public void setAccount_id(int account_id) {
+        this.account_id = account_id;
+    }
+    /**
+     * @return username
+     */
+    public String getUsername() {
+        return username;
+    }
+    /**
+     * @param username
+     */
+    public void setUsername(String username) {
+        this.username = username;
+    }
+    /**
+     * @return password
+     */
+    public String getPassword() {
+        return password;
+    }
+    /**
+     * @param password
+     */
+    public void setPassword(String password) {
+        this.password = password;
+    }
+    /**
+     * @return changed_epoch
+     */
+    public long getChanged_epoch() {
+        return changed_epoch;
+    }
+    /**
+     * @param changed_epoch
+     */
+    public void setChanged_epoch(long changed_epoch) {
+        this.changed_epoch = changed_epoch;
+    }
+    /**
+     * Overriding the default toString() method allows for easy debugging. The password is left out.
+     * @return a String representation of this class.
+     */
+    @Override
+    public String toString() {
+        return "AccountChange{" +
+                "change_seq=" + change_seq +
+                ", operation='" + operation + '\'' +
+                ", account_id=" + account_id +
+                ", username='" + username + '\'' +
+                ", changed_epoch=" + changed_epoch +
+                '}';
+    }
+}
@@ -0,0 +1,153 @@
+package Model;
+/**
+ * This is a class that models the progress of deleting an Account and its messages. The deleting
+ * thread updates it chunk by chunk while other requests read it.
+ */
+public class AccountDeletion {
+    /**
+     * The id of the Account being deleted.
+     */
+    public int account_id;
+    /**
+     * The username of the Account being deleted.
+     */
+    public String username;
+    /**
+     * Live messages the account had when the deletion started, from the per-account counters.
+     */
+    public long messages_at_start;
+    /**
+     * Message rows removed so far, including tombstoned ones that were still waiting for the purge.
+     */
+    public volatile long messages_deleted;
+    /**
+     * Chunks committed so far.
+     */
+    public volatile long chunks;
+    /**
+     * When the deletion started, in epoch milliseconds.
+     */
+    public long started_epoch_millis;
+    /**
+     * When the account row was removed, in epoch milliseconds; 0 while the deletion is running.
+     */
+    public volatile long finished_epoch_millis;
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public AccountDeletion() {
+    }
+    /**
+     * A deletion that is starting now.
+     * @param account_id
+     * @param username
+     * @param messages_at_start
+     */
+    public AccountDeletion(int account_id, String username, long messages_at_start) {
+        this.account_id = account_id;
+        this.username = username;
+        this.messages_at_start = messages_at_start;
+        this.started_epoch_millis = System.currentTimeMillis();
+    }
+    /**
+     * @return account_id
+     */
+    public int getAccount_id() {
+        return account_id;
+    }
+    /**
+     * @param account_id
+     */
+    public void setAccount_id(int account_id) {
+        this.account_id = account_id;
+    }
+    /**
+     * @return username
+     */
+    public String getUsername() {
+        return username;
+    }
+    /**
+     * @param username
+     */
+    public void setUsername(String username) {
+        this.username = username;
+    }
+    /**
+     * @return messages_at_start
+     */
+    public long getMessages_at_start() {
+        return messages_at_start;
+    }
+    /**
+     * @param messages_at_start
+     */
+    public void setMessages_at_start(long messages_at_start) {
+        this.messages_at_start = messages_at_start;
+    }
+    /**
+     * @return messages_deleted
+     */
+    public long getMessages_deleted() {
+        return messages_deleted;
+    }
+    /**
+     * @param messages_deleted
+     */
+    public void setMessages_deleted(long messages_deleted) {
+        this.messages_deleted = messages_deleted;
+    }
+    /**
+     * @return chunks
+     */
+    public long getChunks() {
+        return chunks;
+    }
+    /**
+     * @param chunks
+     */
+    public void setChunks(long chunks) {
+        this.chunks = chunks;
+    }
+    /**
+     * @return started_epoch_millis
+     */
+    public long getStarted_epoch_millis() {
+        return started_epoch_millis;
+    }
+    /**
+     * @param started_epoch_millis
+     */
+    public void setStarted_epoch_millis(long started_epoch_millis) {
+        this.started_epoch_millis = started_epoch_millis;
+    }
+    /**
+     * @return finished_epoch_millis
+     */
+    public long getFinished_epoch_millis() {
+        return finished_epoch_millis;
+    }
+    /**
+     * @param finished_epoch_millis
+     */
+    public void setFinished_epoch_millis(long finished_epoch_millis) {
+        this.finished_epoch_millis = finished_epoch_millis;
+    }
+    /**
+     * Overriding the default toString() method allows for easy debugging.
+     * @return a String representation of this class.
+     */
+    @Override
+    public String toString() {
+        return "AccountDeletion{" +
+                "account_id=" + account_id +
+                ", username='" + username + '\'' +
+                ", messages_at_start=" + messages_at_start +
+                ", messages_deleted=" + messages_deleted +
+                ", chunks=" + chunks +
+                ", started_epoch_millis=" + started_epoch_millis +
+                ", finished_epoch_millis=" + finished_epoch_millis +
+                '}';
+    }
+}
@@ -0,0 +1,148 @@
+package Model;
+/**
+ * This is a class that models the posting statistics of an Account.
+ */
+public class AccountStats {
+    /**
+     * The id of the Account these statistics describe.
+     */
+    public int account_id;
+    /**
+     * Number of messages currently posted by the account.
+     */
+    public long message_count;
+    /**
+     * time_posted_epoch of the account's oldest message, 0 if it has none.
+     */
+    public long first_post_epoch;
+    /**
+     * time_posted_epoch of the account's newest message, 0 if it has none.
+     */
+    public long last_post_epoch;
+    /**
+     * Sum of the message_text lengths of all the account's messages.
+     */
+    public long total_characters;
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public AccountStats() {
+    }
+    /**
+     * Statistics for an account without any messages.
+     * @param account_id
+     */
+    public AccountStats(int account_id) {
+        this.account_id = account_id;
+    }
+    /**
+     * When retrieving statistics from the database, all fields will be needed.
+     * @param account_id
+     * @param message_count
+     * @param first_post_epoch
+     * @param last_post_epoch
+     * @param total_characters
+     */
+    public AccountStats(int account_id, long message_count, long first_post_epoch, long last_post_epoch, long total_characters) {
+        this.account_id = account_id;
+        this.message_count = message_count;
+        this.first_post_epoch = first_post_epoch;
+        this.last_post_epoch = last_post_epoch;
+        this.total_characters = total_characters;
+    }
+    /**
+     * @return a copy that is safe to hand out while the original keeps changing.
+     */
+    public AccountStats copy() {
+        return new AccountStats(account_id, message_count, first_post_epoch, last_post_epoch, total_characters);
+    }
+    /**
+     * @return account_id
+     */
+    public int getAccount_id() {
+        return account_id;
+    }
+    /**
+     * @param account_id
+     */
+    public void setAccount_id(int account_id) {
+        this.account_id = account_id;
+    }
+    /**
+     * @return message_count
+     */
+    public long getMessage_count() {
+        return message_count;
+    }
+    /**
+     * @param message_count
+     */
+    public void setMessage_count(long message_count) {
+        this.message_count = message_count;
+    }
+    /**
+     * @return first_post_epoch
+     */
+    public long getFirst_post_epoch() {
+        return first_post_epoch;
+    }
+    /**
+     * @param first_post_epoch
+     */
+    public void setFirst_post_epoch(long first_post_epoch) {
+        this.first_post_epoch = first_post_epoch;
+    }
+    /**
+     * @return last_post_epoch
+     */
+    public long getLast_post_epoch() {
+        return last_post_epoch;
+    }
+    /**
+     * @param last_post_epoch
+     */
+    public void setLast_post_epoch(long last_post_epoch) {
+        this.last_post_epoch = last_post_epoch;
+    }
+    /**
+     * @return total_characters
+     */
+    public long getTotal_characters() {
+        return total_characters;
+    }
+    /**
+     * @param total_characters
+     */
+    public void setTotal_characters(long total_characters) {
+        this.total_characters = total_characters;
+    }
+    /**
+     * Overriding the default equals() method allows Assert.assertEquals to compare statistics.
+     * @param o the other object.
+     * @return true if o is equal to this object.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AccountStats stats = (AccountStats) o;
+        return account_id == stats.account_id && message_count == stats.message_count
+                && first_post_epoch == stats.first_post_epoch && last_post_epoch == stats.last_post_epoch
+                && total_characters == stats.total_characters;
+    }
+    /**
+     * Overriding the default toString() method allows for easy debugging.
+     * @return a String representation of this class.
+     */
+    @Override
+    public String toString() {
+        return "AccountStats{" +
+                "account_id=" + account_id +
+                ", message_count=" + message_count +
+                ", first_post_epoch=" + first_post_epoch +
+                ", last_post_epoch=" + last_post_epoch +
+                ", total_characters=" + total_characters +
+                '}';
+    }
+}
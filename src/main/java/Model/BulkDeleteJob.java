@@ -0,0 +1,257 @@
+package Model;
+/**
+ * This is a class that models a background job deleting the messages that match an author and/or a
+ * time_posted_epoch range. The job's thread updates it batch by batch while requests read it.
+ */
+public class BulkDeleteJob {
+    /**
+     * The id clients poll the job by.
+     */
+    public long job_id;
+    /**
+     * Only messages posted by this account are deleted; null for any author.
+     */
+    public Integer posted_by;
+    /**
+     * Only messages with a time_posted_epoch at or after this are deleted; null for no lower bound.
+     */
+    public Long from;
+    /**
+     * Only messages with a time_posted_epoch at or before this are deleted; null for no upper bound.
+     */
+    public Long to;
+    /**
+     * Most messages the job deletes per second.
+     */
+    public int max_rows_per_second;
+    /**
+     * queued, running, finished or failed.
+     */
+    public volatile String status;
+    /**
+     * Live messages matching the filters when the job started running.
+     */
+    public volatile long matched_at_start;
+    /**
+     * Messages deleted so far.
+     */
+    public volatile long messages_deleted;
+    /**
+     * Batches committed so far.
+     */
+    public volatile long batches;
+    /**
+     * When the job was submitted, in epoch milliseconds.
+     */
+    public long created_epoch_millis;
+    /**
+     * When the job started running, in epoch milliseconds; 0 while it is queued.
+     */
+    public volatile long started_epoch_millis;
+    /**
+     * When the job finished or failed, in epoch milliseconds; 0 until then.
+     */
+    public volatile long finished_epoch_millis;
+    /**
+     * Why the job failed; null unless it did.
+     */
+    public volatile String error;
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public BulkDeleteJob() {
+    }
+    /**
+     * A job that is being submitted now.
+     * @param job_id
+     * @param posted_by
+     * @param from
+     * @param to
+     * @param max_rows_per_second
+     */
+    public BulkDeleteJob(long job_id, Integer posted_by, Long from, Long to, int max_rows_per_second) {
+        this.job_id = job_id;
+        this.posted_by = posted_by;
+        this.from = from;
+        this.to = to;
+        this.max_rows_per_second = max_rows_per_second;
+        this.status = "queued";
+        this.created_epoch_millis = System.currentTimeMillis();
+    }
+    /**
+     * @return job_id
+     */
+    public long getJob_id() {
+        return job_id;
+    }
+    /**
+     * @param job_id
+     */
+    public void setJob_id(long job_id) {
+        this.job_id = job_id;
+    }
+    /**
+     * @return posted_by
+     */
+    public Integer getPosted_by() {
+        return posted_by;
+    }
+    /**
+     * @param posted_by
+     */
+    public void setPosted_by(Integer posted_by) {
+        this.posted_by = posted_by;
+    }
+    /**
+     * @return from
+     */
+    public Long getFrom() {
+        return from;
+    }
+    /**
+     * @param from
+     */
+    public void setFrom(Long from) {
+        this.from = from;
+    }
+    /**
+     * @return to
+     */
+    public Long getTo() {
+        return to;
+    }
+    /**
+     * @param to
+     */
+    public void setTo(Long to) {
+        this.to = to;
+    }
+    /**
+     * @return max_rows_per_second
+     */
+    public int getMax_rows_per_second() {
+        return max_rows_per_second;
+    }
+    /**
+     * @param max_rows_per_second
+     */
+    public void setMax_rows_per_second(int max_rows_per_second) {
+        this.max_rows_per_second = max_rows_per_second;
+    }
+    /**
+     * @return status
+     */
+    public String getStatus() {
+        return status;
+    }
+    /**
+     * @param status
+     */
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    /**
+     * @return matched_at_start
+     */
+    public long getMatched_at_start() {
+        return matched_at_start;
+    }
+    /**
+     * @param matched_at_start
+     */
+    public void setMatched_at_start(long matched_at_start) {
+        this.matched_at_start = matched_at_start;
+    }
+    /**
+     * @return messages_deleted
+     */
+    public long getMessages_deleted() {
+        return messages_deleted;
+    }
+    /**
+     * @param messages_deleted
+     */
+    public void setMessages_deleted(long messages_deleted) {
+        this.messages_deleted = messages_deleted;
+    }
+    /**
+     * @return batches
+     */
+    public long getBatches() {
+        return batches;
+    }
+    /**
+     * @param batches
+     */
+    public void setBatches(long batches) {
+        this.batches = batches;
+    }
+    /**
+     * @return created_epoch_millis
+     */
+    public long getCreated_epoch_millis() {
+        return created_epoch_millis;
+    }
+    /**
+     * @param created_epoch_millis
+     */
+    public void setCreated_epoch_millis(long created_epoch_millis) {
+        this.created_epoch_millis = created_epoch_millis;
+    }
+    /**
+     * @return started_epoch_millis
+     */
+    public long getStarted_epoch_millis() {
+        return started_epoch_millis;
+    }
+    /**
+     * @param started_epoch_millis
+     */
+    public void setStarted_epoch_millis(long started_epoch_millis) {
+        this.started_epoch_millis = started_epoch_millis;
+    }
+    /**
+     * @return finished_epoch_millis
+     */
+    public long getFinished_epoch_millis() {
+        return finished_epoch_millis;
+    }
+    /**
+     * @param finished_epoch_millis
+     */
+    public void setFinished_epoch_millis(long finished_epoch_millis) {
+        this.finished_epoch_millis = finished_epoch_millis;
+    }
+    /**
+     * @return error
+     */
+    public String getError() {
+        return error;
+    }
+    /**
+     * @param error
+     */
+    public void setError(String error) {
+        this.error = error;
+    }
+    /**
+     * Overriding the default toString() method allows for easy debugging.
+     * @return a String representation of this class.
+     */
+    @Override
+    public String toString() {
+        return "BulkDeleteJob{" +
+                "job_id=" + job_id +
+                ", posted_by=" + posted_by +
+                ", from=" + from +
+                ", to=" + to +
+                ", max_rows_per_second=" + max_rows_per_second +
+                ", status='" + status + '\'' +
+                ", matched_at_start=" + matched_at_start +
+                ", messages_deleted=" + messages_deleted +
+                ", batches=" + batches +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,85 @@
+package Model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is a class that models the outcome of a bulk message import.
+ */
+public class ImportResult {
+    /**
+     * Number of messages inserted.
+     */
+    public long imported;
+    /**
+     * Number of rows skipped because they failed validation or could not be parsed.
+     */
+    public long rejected;
+    /**
+     * Wall clock time of the import in milliseconds.
+     */
+    public long millis;
+    /**
+     * The first few rejection reasons, for troubleshooting the input file.
+     */
+    public List<String> errors = new ArrayList<>();
+
+    public ImportResult() {
+    }
+
+    public ImportResult(long imported, long rejected, long millis, List<String> errors) {
+        this.imported = imported;
+        this.rejected = rejected;
+        this.millis = millis;
+        this.errors = errors;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public void setImported(long imported) {
+        this.imported = imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public void setMillis(long millis) {
+        this.millis = millis;
+    }
+
+    /**
+     * @return imported rows per minute
+     */
+    public long getRows_per_minute() {
+        return imported * 60_000 / Math.max(1, millis);
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportResult{" +
+                "imported=" + imported +
+                ", rejected=" + rejected +
+                ", millis=" + millis +
+                ", rows_per_minute=" + getRows_per_minute() +
+                '}';
+    }
+}
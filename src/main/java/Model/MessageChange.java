@@ -0,0 +1,161 @@
+package Model;
+/**
+ * This is a class that models one entry of the message change log: an insert, update or delete of a
+ * message, numbered in the order the changes were committed.
+ */
+public class MessageChange {
+    /**
+     * Position of this change in the log. Later changes always have higher numbers, with gaps possible.
+     */
+    public long change_seq;
+    /**
+     * "insert", "update" or "delete".
+     */
+    public String operation;
+    /**
+     * The id of the changed message.
+     */
+    public int message_id;
+    /**
+     * The account that posted the message.
+     */
+    public int posted_by;
+    /**
+     * The message_text after the change, null for a delete.
+     */
+    public String message_text;
+    /**
+     * The message's time_posted_epoch.
+     */
+    public long time_posted_epoch;
+    /**
+     * When the change was committed, in epoch seconds.
+     */
+    public long changed_epoch;
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public MessageChange() {
+    }
+    /**
+     * When retrieving a change from the database, all fields will be needed.
+     * @param change_seq
+     * @param operation
+     * @param message_id
+     * @param posted_by
+     * @param message_text
+     * @param time_posted_epoch
+     * @param changed_epoch
+     */
+    public MessageChange(long change_seq, String operation, int message_id, int posted_by, String message_text,
+            long time_posted_epoch, long changed_epoch) {
+        this.change_seq = change_seq;
+        this.operation = operation;
+        this.message_id = message_id;
+        this.posted_by = posted_by;
+        this.message_text = message_text;
+        this.time_posted_epoch = time_posted_epoch;
+        this.changed_epoch = changed_epoch;
+    }
+    /**
+     * @return change_seq
+     */
+    public long getChange_seq() {
+        return change_seq;
+    }
+    /**
+     * @param change_seq
+     */
+    public void setChange_seq(long change_seq) {
+        this.change_seq = change_seq;
+    }
+    /**
+     * @return operation
+     */
+    public String getOperation() {
+        return operation;
+    }
+    /**
+     * @param operation
+     */
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+    /**
+     * @return message_id
+     */
+    public int getMessage_id() {
+        return message_id;
+    }
+    /**
+     * @param message_id
+     */
+    public void setMessage_id(int message_id) {
+        this.message_id = message_id;
+    }
+    /**
+     * @return posted_by
+     */
+    public int getPosted_by() {
+        return posted_by;
+    }
+    /**
+     * @param posted_by
+     */
+    public void setPosted_by(int posted_by) {
+        this.posted_by = posted_by;
+    }
+    /**
+     * @return message_text
+     */
+    public String getMessage_text() {
+        return message_text;
+    }
+    /**
+     * @param message_text
+     */
+    public void setMessage_text(String message_text) {
+        this.message_text = message_text;
+    }
+    /**
+     * @return time_posted_epoch
+     */
+    public long getTime_posted_epoch() {
+        return time_posted_epoch;
+    }
+    /**
+     * @param time_posted_epoch
+     */
+    public void setTime_posted_epoch(long time_posted_epoch) {
+        this.time_posted_epoch = time_posted_epoch;
+    }
+    /**
+     * @return changed_epoch
+     */
+    public long getChanged_epoch() {
+        return changed_epoch;
+    }
+    /**
+     * @param changed_epoch
+     */
+    public void setChanged_epoch(long changed_epoch) {
+        this.changed_epoch = changed_epoch;
+    }
+    /**
+     * Overriding the default toString() method allows for easy debugging.
+     * @return a String representation of this class.
+     */
+    @Override
+    public String toString() {
+        return "MessageChange{" +
+                "change_seq=" + change_seq +
+                ", operation='" + operation + '\'' +
+                ", message_id=" + message_id +
+                ", posted_by=" + posted_by +
+                ", message_text='" + message_text + '\'' +
+                ", time_posted_epoch=" + time_posted_epoch +
+                ", changed_epoch=" + changed_epoch +
+                '}';
+    }
+}
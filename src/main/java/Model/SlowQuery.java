@@ -0,0 +1,103 @@
+package Model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is a class that models one entry of the slow-query log: every slow execution of statements
+ * with the same shape (the SQL with literals replaced by ?) is counted against the same entry.
+ */
+public class SlowQuery {
+    /**
+     * Normalized statement text shared by every execution counted here.
+     */
+    public String shape;
+    /**
+     * Number of executions over the slow-query threshold.
+     */
+    public long count;
+    /**
+     * Combined and worst execution time of those executions, in milliseconds.
+     */
+    public double total_millis;
+    public double max_millis;
+    /**
+     * SQL and bind parameters of the slowest execution, with passwords redacted.
+     */
+    public String sql;
+    public List<String> parameters = new ArrayList<>();
+    /**
+     * H2 EXPLAIN ANALYZE output for the slowest execution (plain EXPLAIN for statements that change data),
+     * filled in asynchronously after it was logged.
+     */
+    public String plan;
+    /**
+     * When the statement was last slow, in epoch milliseconds.
+     */
+    public long last_seen_epoch_millis;
+
+    public SlowQuery() {
+    }
+
+    public SlowQuery(String shape) {
+        this.shape = shape;
+    }
+
+    public SlowQuery copy() {
+        SlowQuery copy = new SlowQuery(shape);
+        copy.count = count;
+        copy.total_millis = total_millis;
+        copy.max_millis = max_millis;
+        copy.sql = sql;
+        copy.parameters = new ArrayList<>(parameters);
+        copy.plan = plan;
+        copy.last_seen_epoch_millis = last_seen_epoch_millis;
+        return copy;
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getTotal_millis() {
+        return total_millis;
+    }
+
+    public double getMax_millis() {
+        return max_millis;
+    }
+
+    public double getMean_millis() {
+        return count == 0 ? 0 : total_millis / count;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    public String getPlan() {
+        return plan;
+    }
+
+    public long getLast_seen_epoch_millis() {
+        return last_seen_epoch_millis;
+    }
+
+    @Override
+    public String toString() {
+        return "SlowQuery{" +
+                "shape='" + shape + '\'' +
+                ", count=" + count +
+                ", total_millis=" + total_millis +
+                ", max_millis=" + max_millis +
+                '}';
+    }
+}
@@ -0,0 +1,379 @@
+package Service;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import DAO.AccountStatsDAO;
+import DAO.ChangeLogDAO;
+import Model.AccountStats;
+import Model.Message;
+import Util.AppConfig;
+
+/**
+ * In-memory per-account message statistics, kept current by the message write paths so reading
+ * them is a map lookup instead of a scan. Updates for one account are serialized on one of
+ * STRIPES locks chosen by account id, so unrelated accounts rarely contend on the same lock.
+ *
+ * Changed accounts are remembered and written to the account_stats table by checkpoint(), which
+ * then records the change number the table is complete up to. On startup the counters are loaded
+ * from that table only if the change log has not moved past that number; after a crash, or writes by
+ * another instance or an offline import, they are recounted from the message table instead.
+ * Loading happens off the startup path: whichever comes first, the background load or a request that
+ * needs the counters, does it, and everything else waits for it to finish.
+ *
+ * A message write and the onPost, onUpdate or onDelete applying it run inside writing(accountId),
+ * which holds the account's lock from before the commit until the counters are updated. Recounts
+ * of one account take that lock too, and full recounts and checkpoints wait for every write in
+ * progress and hold new ones back, so every write is either in a recount's snapshot or applied
+ * after it, never both.
+ *
+ * Instances sharing the database each keep counters, and only see their own writes. When the
+ * invalidation bus reports that another instance changed an account's messages, the account is
+ * marked stale and recounted through the posted_by index the next time it is used, so no instance
+ * keeps, or checkpoints, counters that miss the others' writes. A flush of the bus marks every account
+ * stale at once, without touching the database.
+ * Such instances never record a checkpoint's change number, so whoever starts next recounts.
+ */
+public class AccountStatsTracker {
+
+    private static final int STRIPES = 64;
+
+    private final Map<Integer, AccountStats> statsByAccount = new ConcurrentHashMap<>();
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+    // Accounts another instance has written to since they were last counted here
+    private final Set<Integer> stale = ConcurrentHashMap.newKeySet();
+    // Bumped by invalidateAll(); an account last counted before the current generation is stale too
+    private final AtomicLong flushGeneration = new AtomicLong();
+    private final Map<Integer, Long> countedGeneration = new ConcurrentHashMap<>();
+    private final Object loadLock = new Object();
+    private volatile boolean loaded;
+    // Shared by message writes, exclusive for recounts and checkpoints
+    private final ReentrantReadWriteLock snapshotGate = new ReentrantReadWriteLock();
+    private final Object checkpointLock = new Object();
+    private long checkpointedSeq = -1;
+    // With other instances writing, a checkpoint cannot vouch for changes this one has not counted yet
+    private final boolean shared = AppConfig.invalidationPort() > 0;
+
+    public AccountStatsTracker() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Loads the last checkpoint, or recounts with one aggregate query if there is none or changes were
+     * made after it. Only the first call does any work; concurrent callers wait for it.
+     */
+    public void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (loadLock) {
+            if (loaded) {
+                return;
+            }
+            snapshotGate.writeLock().lock();
+            try {
+                statsByAccount.clear();
+                statsByAccount.putAll(AccountStatsDAO.loadAll());
+                Long checkpointed = AccountStatsDAO.loadCheckpointSequence();
+                if (checkpointed == null || checkpointed != changeWatermark()) {
+                    recountAll();
+                } else {
+                    checkpointedSeq = checkpointed;
+                }
+                loaded = true;
+            } finally {
+                snapshotGate.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Recounts every account from the message table, for writes that bypassed the per-message paths.
+     * Message writes wait while it runs.
+     */
+    public void rebuild() {
+        load();
+        snapshotGate.writeLock().lock();
+        try {
+            recountAll();
+        } finally {
+            snapshotGate.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Opens a write to the account's messages. The write and the onPost, onUpdate or onDelete applying
+     * it go inside the returned scope, which is closed once they are done.
+     */
+    public Write writing(int accountId) {
+        load();
+        snapshotGate.readLock().lock();
+        ReentrantLock lock = lockFor(accountId);
+        lock.lock();
+        return new Write(lock);
+    }
+
+    /**
+     * Opens a write that may change messages of many accounts, such as a bulk delete batch. Like
+     * writing(accountId) it holds back full recounts and checkpoints; the accounts it changed are
+     * brought up to date with recount() before it is closed.
+     */
+    public Write writingMany() {
+        load();
+        snapshotGate.readLock().lock();
+        return new Write(null);
+    }
+
+    public class Write implements AutoCloseable {
+        private final ReentrantLock lock;
+
+        private Write(ReentrantLock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public void close() {
+            if (lock != null) {
+                lock.unlock();
+            }
+            snapshotGate.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a snapshot of the account's statistics, or null if the account has never posted
+     */
+    public AccountStats get(int accountId) {
+        load();
+        ReentrantLock lock = lockFor(accountId);
+        lock.lock();
+        try {
+            refresh(accountId);
+            AccountStats stats = statsByAccount.get(accountId);
+            return stats == null ? null : stats.copy();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onPost(Message message) {
+        load();
+        int accountId = message.getPosted_by();
+        ReentrantLock lock = lockFor(accountId);
+        lock.lock();
+        try {
+            if (refresh(accountId)) {
+                return;
+            }
+            AccountStats stats = statsByAccount.computeIfAbsent(accountId, AccountStats::new);
+            long time = message.getTime_posted_epoch();
+            if (stats.message_count == 0) {
+                stats.first_post_epoch = time;
+                stats.last_post_epoch = time;
+            } else {
+                stats.first_post_epoch = Math.min(stats.first_post_epoch, time);
+                stats.last_post_epoch = Math.max(stats.last_post_epoch, time);
+            }
+            stats.message_count++;
+            stats.total_characters += message.getMessage_text().length();
+            dirty.add(accountId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onUpdate(Message before, String newMessageText) {
+        load();
+        int accountId = before.getPosted_by();
+        ReentrantLock lock = lockFor(accountId);
+        lock.lock();
+        try {
+            if (refresh(accountId)) {
+                return;
+            }
+            AccountStats stats = statsByAccount.get(accountId);
+            if (stats != null) {
+                stats.total_characters += newMessageText.length() - before.getMessage_text().length();
+                dirty.add(accountId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onDelete(Message message) {
+        load();
+        int accountId = message.getPosted_by();
+        ReentrantLock lock = lockFor(accountId);
+        lock.lock();
+        try {
+            if (refresh(accountId)) {
+                return;
+            }
+            AccountStats stats = statsByAccount.get(accountId);
+            if (stats == null) {
+                return;
+            }
+            long time = message.getTime_posted_epoch();
+            if (stats.message_count <= 1) {
+                statsByAccount.put(accountId, new AccountStats(accountId));
+            } else if (time == stats.first_post_epoch || time == stats.last_post_epoch) {
+                // Min and max cannot be decremented; recount this one account through the posted_by index
+                statsByAccount.put(accountId, AccountStatsDAO.compute(accountId));
+            } else {
+                stats.message_count--;
+                stats.total_characters -= message.getMessage_text().length();
+            }
+            dirty.add(accountId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Recounts the given accounts through the posted_by index, after a write that changed many of their
+     * messages at once and would cost a recount per message through onDelete. Called inside writingMany().
+     */
+    public void recount(Collection<Integer> accountIds) {
+        load();
+        for (Integer accountId : accountIds) {
+            ReentrantLock lock = lockFor(accountId);
+            lock.lock();
+            try {
+                stale.remove(accountId);
+                countedGeneration.put(accountId, flushGeneration.get());
+                statsByAccount.put(accountId, AccountStatsDAO.compute(accountId));
+                dirty.add(accountId);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Forgets a deleted account, in memory and in the account_stats table.
+     */
+    public void onAccountDeleted(int accountId) {
+        load();
+        ReentrantLock lock = lockFor(accountId);
+        lock.lock();
+        try {
+            statsByAccount.remove(accountId);
+            dirty.remove(accountId);
+            stale.remove(accountId);
+        } finally {
+            lock.unlock();
+        }
+        AccountStatsDAO.delete(accountId);
+    }
+
+    /**
+     * Another instance changed the account's messages; its counters are recounted before they are next used.
+     */
+    public void invalidate(int accountId) {
+        stale.add(accountId);
+    }
+
+    /**
+     * Another instance may have changed any account (the invalidation bus lost track); every account is
+     * recounted before it is next used. Returns right away, so the bus receiver is never held up.
+     */
+    public void invalidateAll() {
+        flushGeneration.incrementAndGet();
+    }
+
+    /**
+     * Writes every account changed since the last checkpoint to the account_stats table, then the
+     * change number the table is now complete up to.
+     */
+    public void checkpoint() {
+        load();
+        synchronized (checkpointLock) {
+            // Recount what other instances changed first; get() does it for stale accounts
+            for (Integer accountId : stale) {
+                get(accountId);
+            }
+            List<AccountStats> changed = new ArrayList<>();
+            long seq;
+            snapshotGate.writeLock().lock();
+            try {
+                seq = changeWatermark();
+                for (Integer accountId : dirty) {
+                    dirty.remove(accountId);
+                    AccountStats stats = get(accountId);
+                    if (stats != null) {
+                        changed.add(stats);
+                    }
+                }
+            } finally {
+                snapshotGate.writeLock().unlock();
+            }
+            AccountStatsDAO.saveAll(changed);
+            if (!shared && seq >= 0 && seq != checkpointedSeq) {
+                AccountStatsDAO.saveCheckpointSequence(seq);
+                checkpointedSeq = seq;
+            }
+        }
+    }
+
+    // Recounts every account and checkpoints the result, called holding the snapshot gate exclusively
+    private void recountAll() {
+        stale.clear();
+        long generation = flushGeneration.get();
+        long seq = changeWatermark();
+        Map<Integer, AccountStats> counted = AccountStatsDAO.computeAll();
+        for (Integer accountId : statsByAccount.keySet()) {
+            if (!counted.containsKey(accountId)) {
+                counted.put(accountId, new AccountStats(accountId));
+            }
+        }
+        statsByAccount.putAll(counted);
+        for (Integer accountId : counted.keySet()) {
+            countedGeneration.put(accountId, generation);
+        }
+        AccountStatsDAO.saveAll(counted.values());
+        if (!shared && seq >= 0) {
+            AccountStatsDAO.saveCheckpointSequence(seq);
+            checkpointedSeq = seq;
+        }
+    }
+
+    // Change number every committed write is numbered at or below; -1 if it cannot be read
+    private static long changeWatermark() {
+        try {
+            return ChangeLogDAO.latestSequence();
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+            sqle.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Recounts a stale account, called under its lock; the recount already includes the write being applied
+    private boolean refresh(int accountId) {
+        long generation = flushGeneration.get();
+        boolean flushed = countedGeneration.getOrDefault(accountId, 0L) < generation;
+        if (!stale.remove(accountId) && !flushed) {
+            return false;
+        }
+        countedGeneration.put(accountId, generation);
+        statsByAccount.put(accountId, AccountStatsDAO.compute(accountId));
+        dirty.add(accountId);
+        return true;
+    }
+
+    private ReentrantLock lockFor(int accountId) {
+        return locks[Math.floorMod(accountId, STRIPES)];
+    }
+}
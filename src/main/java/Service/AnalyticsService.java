@@ -0,0 +1,252 @@
+package Service;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import DAO.ExportDAO;
+import Util.AppConfig;
+import Util.Span;
+import Util.Tracer;
+
+/**
+ * Reporting queries (posts per hour, top posters, text length distribution) answered from a
+ * periodically refreshed columnar snapshot of the message table instead of H2, so they never compete
+ * with user traffic for the database. Results are as old as the snapshot, which every response reports.
+ *
+ * Queries are parallel fork-join scans: the row range is split in halves until a leaf is small enough,
+ * each leaf counts into its own array, and the arrays are summed on the way back up, so no counter is
+ * shared between threads.
+ */
+public class AnalyticsService {
+
+    // Rows counted by one fork-join leaf; large enough that splitting costs nothing next to the scan
+    private static final int LEAF_ROWS = 1 << 16;
+
+    // Longest range posts-per-hour reports, one bucket per hour
+    public static final int MAX_HOUR_BUCKETS = 24 * 366;
+
+    private static final int MAX_TEXT_LENGTH = 255;
+
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private final Object refreshLock = new Object();
+    private volatile MessageColumns snapshot;
+    private ScheduledExecutorService scheduler;
+
+    /*
+     *                          ***** START / STOP THE SNAPSHOT REFRESH *****
+     */
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "analytics-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = AppConfig.analyticsRefreshMillis();
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Replaces the snapshot with a fresh copy of the message table. Queries keep using the old snapshot
+     * until the new one is complete.
+     * @return the new snapshot, or the old one if reading the table failed
+     */
+    public MessageColumns refresh() {
+        synchronized (refreshLock) {
+            MessageColumns previous = snapshot;
+            MessageColumns.Builder builder = new MessageColumns.Builder(previous == null ? 1024 : previous.rows);
+            try {
+                ExportDAO.streamMessageColumns(row -> builder.add(row.getInt(1), row.getInt(2), row.getLong(3), row.getInt(4)));
+            } catch (SQLException | IOException e) {
+                System.out.println("Error: could not refresh the analytics snapshot: " + e.getMessage());
+                return previous;
+            }
+            snapshot = builder.build();
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return the current snapshot, building the first one if the background refresh has not yet
+     */
+    public MessageColumns snapshot() {
+        MessageColumns current = snapshot;
+        return current != null ? current : refresh();
+    }
+
+    /**
+     * Installs a snapshot built elsewhere, e.g. from synthetic rows by a benchmark.
+     */
+    public void install(MessageColumns columns) {
+        snapshot = columns;
+    }
+
+    /*
+     *                          ***** POSTS PER HOUR *****
+     * Number of messages posted in every hour from the hour containing from to the hour containing to
+     * (epoch seconds, inclusive). Returns null if from is after to or the range spans more than MAX_HOUR_BUCKETS hours.
+     */
+    public Map<String, Object> postsPerHour(long from, long to) {
+        try (Span span = Tracer.start("AnalyticsService.postsPerHour")) {
+            long firstHour = Math.floorDiv(from, 3600);
+            long lastHour = Math.floorDiv(to, 3600);
+            if (from > to || lastHour - firstHour >= MAX_HOUR_BUCKETS) {
+                return null;
+            }
+            MessageColumns columns = snapshot();
+            long[] time = columns.timePosted;
+            long[] counts = scan(columns.rows, (int) (lastHour - firstHour + 1), (start, end, local) -> {
+                for (int i = start; i < end; i++) {
+                    long t = time[i];
+                    if (t >= from && t <= to) {
+                        local[(int) (Math.floorDiv(t, 3600) - firstHour)]++;
+                    }
+                }
+            });
+            List<Map<String, Long>> hours = new ArrayList<>(counts.length);
+            for (int i = 0; i < counts.length; i++) {
+                hours.add(Map.of("hour_start_epoch", (firstHour + i) * 3600, "messages", counts[i]));
+            }
+            return result(columns, "hours", hours);
+        }
+    }
+
+    /*
+     *                          ***** TOP POSTERS *****
+     * The limit accounts with the most messages, most first. Returns null if limit is not positive.
+     */
+    public Map<String, Object> topPosters(int limit) {
+        try (Span span = Tracer.start("AnalyticsService.topPosters")) {
+            if (limit < 1) {
+                return null;
+            }
+            MessageColumns columns = snapshot();
+            int[] postedBy = columns.postedBy;
+            long[] counts = scan(columns.rows, columns.maxPostedBy + 1, (start, end, local) -> {
+                for (int i = start; i < end; i++) {
+                    int by = postedBy[i];
+                    if (by >= 0) {
+                        local[by]++;
+                    }
+                }
+            });
+            // Min-heap of the best limit accounts seen so far
+            PriorityQueue<Integer> top = new PriorityQueue<>((a, b) -> counts[a] != counts[b] ? Long.compare(counts[a], counts[b]) : Integer.compare(b, a));
+            for (int account = 0; account < counts.length; account++) {
+                if (counts[account] == 0) {
+                    continue;
+                }
+                top.add(account);
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+            List<Map<String, Long>> posters = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                int account = top.poll();
+                posters.add(0, Map.of("account_id", (long) account, "messages", counts[account]));
+            }
+            return result(columns, "posters", posters);
+        }
+    }
+
+    /*
+     *                          ***** TEXT LENGTH DISTRIBUTION *****
+     * Number of messages per message_text length bucket of bucketWidth characters.
+     * Returns null if bucketWidth is outside 1 to 256.
+     */
+    public Map<String, Object> textLengths(int bucketWidth) {
+        try (Span span = Tracer.start("AnalyticsService.textLengths")) {
+            if (bucketWidth < 1 || bucketWidth > MAX_TEXT_LENGTH + 1) {
+                return null;
+            }
+            MessageColumns columns = snapshot();
+            short[] length = columns.textLength;
+            int buckets = MAX_TEXT_LENGTH / bucketWidth + 1;
+            long[] counts = scan(columns.rows, buckets, (start, end, local) -> {
+                for (int i = start; i < end; i++) {
+                    local[Math.min(length[i], MAX_TEXT_LENGTH) / bucketWidth]++;
+                }
+            });
+            List<Map<String, Long>> distribution = new ArrayList<>(buckets);
+            for (int i = 0; i < buckets; i++) {
+                distribution.add(Map.of("min_length", (long) i * bucketWidth, "max_length", Math.min((long) (i + 1) * bucketWidth - 1, MAX_TEXT_LENGTH),
+                        "messages", counts[i]));
+            }
+            return result(columns, "lengths", distribution);
+        }
+    }
+
+    private static Map<String, Object> result(MessageColumns columns, String name, Object rows) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("snapshot_epoch_millis", columns.builtEpochMillis);
+        result.put("snapshot_rows", columns.rows);
+        result.put(name, rows);
+        return result;
+    }
+
+    /**
+     * Counts rows [start, end) into local, an array owned by the calling leaf.
+     */
+    interface LeafScan {
+        void scan(int start, int end, long[] local);
+    }
+
+    /**
+     * Runs leaf over rows [0, rows) in parallel and returns the element-wise sum of the leaves' width-long arrays.
+     */
+    long[] scan(int rows, int width, LeafScan leaf) {
+        // Each leaf allocates width counters, so wide counts get bigger leaves to keep that cost proportionate
+        int leafRows = Math.max(LEAF_ROWS, width);
+        return pool.invoke(new CountTask(leaf, width, leafRows, 0, rows));
+    }
+
+    private static class CountTask extends RecursiveTask<long[]> {
+        private final LeafScan leaf;
+        private final int width;
+        private final int leafRows;
+        private final int start;
+        private final int end;
+
+        CountTask(LeafScan leaf, int width, int leafRows, int start, int end) {
+            this.leaf = leaf;
+            this.width = width;
+            this.leafRows = leafRows;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (end - start <= leafRows) {
+                long[] local = new long[width];
+                leaf.scan(start, end, local);
+                return local;
+            }
+            int middle = (start + end) >>> 1;
+            CountTask right = new CountTask(leaf, width, leafRows, middle, end);
+            right.fork();
+            long[] sum = new CountTask(leaf, width, leafRows, start, middle).compute();
+            long[] other = right.join();
+            for (int i = 0; i < width; i++) {
+                sum[i] += other[i];
+            }
+            return sum;
+        }
+    }
+}
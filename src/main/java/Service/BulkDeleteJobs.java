@@ -0,0 +1,177 @@
+package Service;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import DAO.BulkDeleteDAO;
+import Model.BulkDeleteJob;
+import Model.Message;
+import Util.AppConfig;
+
+/**
+ * Background jobs deleting every message that matches an author and/or a time range, for removing
+ * spam waves without one request per message. Jobs run one at a time on a minimum-priority thread, so
+ * two waves never compete for the database, in the order they were submitted.
+ *
+ * A job soft-deletes in batches of batchSize rows, each committed on its own, walking the matching
+ * messages in index order. It never runs ahead of its max_rows_per_second since it started: after a
+ * batch that would, it sleeps until the rate allows the next one.
+ *
+ * Each batch is handed to onDeleted once committed, which keeps the caches and counters in step. The
+ * batch and onDeleted run as one write of statsTracker, so a checkpoint or full recount never falls
+ * between them.
+ * At most maxPendingJobs jobs are queued or running at once; submitting more throws
+ * TooManyJobsException instead of growing the queue. The last MAX_KEPT_JOBS finished jobs stay
+ * available for polling.
+ */
+public class BulkDeleteJobs {
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String FINISHED = "finished";
+    public static final String FAILED = "failed";
+
+    private static final int MAX_KEPT_JOBS = 100;
+
+    private final int batchSize = AppConfig.bulkDeleteBatchSize();
+    private final int maxPendingJobs = AppConfig.bulkDeleteMaxPendingJobs();
+    private final AccountStatsTracker statsTracker;
+    private final Consumer<List<Message>> onDeleted;
+    private final AtomicLong nextJobId = new AtomicLong();
+    // Guarded by itself, in submission order
+    private final LinkedHashMap<Long, BulkDeleteJob> jobs = new LinkedHashMap<>();
+
+    private ExecutorService executor;
+
+    public BulkDeleteJobs(AccountStatsTracker statsTracker, Consumer<List<Message>> onDeleted) {
+        this.statsTracker = statsTracker;
+        this.onDeleted = onDeleted;
+    }
+
+    public void start() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulk-delete");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queues a job; null filters match everything.
+     * @return the queued job
+     * @throws TooManyJobsException if maxPendingJobs jobs are already queued or running
+     */
+    public BulkDeleteJob submit(Integer postedBy, Long from, Long to, int maxRowsPerSecond) {
+        BulkDeleteJob job;
+        synchronized (jobs) {
+            int pending = 0;
+            for (BulkDeleteJob queued : jobs.values()) {
+                if (queued.getFinished_epoch_millis() == 0) {
+                    pending++;
+                }
+            }
+            if (pending >= maxPendingJobs) {
+                throw new TooManyJobsException(pending);
+            }
+            job = new BulkDeleteJob(nextJobId.incrementAndGet(), postedBy, from, to, maxRowsPerSecond);
+            jobs.put(job.getJob_id(), job);
+            // Forget the oldest finished jobs; queued and running ones are always kept
+            Iterator<BulkDeleteJob> oldest = jobs.values().iterator();
+            while (jobs.size() > MAX_KEPT_JOBS && oldest.hasNext()) {
+                BulkDeleteJob kept = oldest.next();
+                if (kept.getFinished_epoch_millis() > 0) {
+                    oldest.remove();
+                }
+            }
+        }
+        executor.execute(() -> run(job));
+        return job;
+    }
+
+    /**
+     * The queue of bulk delete jobs is full.
+     */
+    public static class TooManyJobsException extends RuntimeException {
+        TooManyJobsException(int pending) {
+            super(pending + " bulk delete jobs are already queued or running");
+        }
+    }
+
+    /**
+     * @return the job, or null if there is no such job or it was forgotten
+     */
+    public BulkDeleteJob get(long jobId) {
+        synchronized (jobs) {
+            return jobs.get(jobId);
+        }
+    }
+
+    private void run(BulkDeleteJob job) {
+        job.started_epoch_millis = System.currentTimeMillis();
+        job.status = RUNNING;
+        long startNanos = System.nanoTime();
+        Integer postedBy = job.getPosted_by();
+        long from = job.getFrom() == null ? Long.MIN_VALUE : job.getFrom();
+        long to = job.getTo() == null ? Long.MAX_VALUE : job.getTo();
+        try {
+            int[] stores = BulkDeleteDAO.storesFor(postedBy);
+            long matched = 0;
+            for (int store : stores) {
+                matched += BulkDeleteDAO.countMatching(store, postedBy, from, to);
+            }
+            job.matched_at_start = matched;
+            for (int store : stores) {
+                long afterTime = from;
+                int afterId = Integer.MIN_VALUE;
+                List<Message> batch;
+                do {
+                    try (AccountStatsTracker.Write write = statsTracker.writingMany()) {
+                        batch = BulkDeleteDAO.deleteBatch(store, postedBy, afterTime, afterId, to, batchSize);
+                        if (!batch.isEmpty()) {
+                            onDeleted.accept(batch);
+                        }
+                    }
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    Message last = batch.get(batch.size() - 1);
+                    afterTime = last.getTime_posted_epoch();
+                    afterId = last.getMessage_id();
+                    job.messages_deleted += batch.size();
+                    job.batches++;
+                    long dueNanos = startNanos + job.messages_deleted * 1_000_000_000L / job.getMax_rows_per_second();
+                    long waitMillis = (dueNanos - System.nanoTime()) / 1_000_000;
+                    if (waitMillis > 0) {
+                        Thread.sleep(waitMillis);
+                    }
+                } while (batch.size() == batchSize);
+            }
+            job.status = FINISHED;
+        } catch (SQLException | RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            job.error = e.toString();
+            job.status = FAILED;
+        } catch (InterruptedException e) {
+            job.error = "interrupted by shutdown";
+            job.status = FAILED;
+            Thread.currentThread().interrupt();
+        } finally {
+            job.finished_epoch_millis = System.currentTimeMillis();
+        }
+    }
+}
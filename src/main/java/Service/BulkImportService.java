@@ -0,0 +1,363 @@
+package Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import DAO.BulkImportDAO;
+import Model.ImportResult;
+import Util.CachedClock;
+import Util.ShardRouter;
+
+/**
+ * Bulk import of messages from NDJSON or CSV files. The file is cut into chunks at line boundaries;
+ * each chunk is memory-mapped, parsed and validated, and inserted in JDBC batches by a fork-join
+ * task.
+ *
+ * Online imports (POST /import/messages) keep the message foreign key on, since normal traffic is
+ * running: a chunk whose account was deleted during the import fails on its own, and the other
+ * chunks still load. Only the offline BulkImportTool suspends the foreign key for the load and
+ * re-checks the whole table afterwards, which locks it.
+ *
+ * NDJSON lines and CSV rows use the message field names (posted_by, message_text, time_posted_epoch);
+ * other fields such as message_id are ignored, so exports can be imported again. CSV needs a header
+ * row, and quoted CSV fields may not contain line breaks.
+ */
+public class BulkImportService {
+
+    public enum Format { NDJSON, CSV }
+
+    private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_REPORTED_ERRORS = 10;
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final boolean offline;
+
+    /**
+     * An online import, run alongside normal traffic.
+     */
+    public BulkImportService() {
+        this(false);
+    }
+
+    /**
+     * @param offline true when the API is stopped, so the foreign key may be suspended for the load
+     */
+    public BulkImportService(boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * Imports every valid row of the file. Invalid rows are skipped and counted.
+     */
+    public ImportResult importMessages(Path file, Format format) throws IOException, SQLException {
+        if (ShardRouter.isEnabled()) {
+            throw new IllegalStateException("Bulk import is not supported in sharded mode");
+        }
+        long start = System.nanoTime();
+        BitSet accountIds = BulkImportDAO.retrieveAccountIds();
+        AtomicLong imported = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long bodyStart = 0;
+            String[] columns = null;
+            if (format == Format.CSV) {
+                long headerEnd = nextLineStart(channel, 0);
+                columns = parseCsvLine(readString(channel, 0, headerEnd));
+                bodyStart = headerEnd;
+            }
+            List<long[]> chunks = splitChunks(channel, bodyStart);
+
+            if (offline) {
+                BulkImportDAO.setReferentialIntegrity(false);
+            }
+            try {
+                ChunkLoader loader = new ChunkLoader(channel, format, columns, accountIds, imported, rejected, errors);
+                ForkJoinPool pool = new ForkJoinPool();
+                try {
+                    pool.invoke(new ChunkTask(loader, chunks, 0, chunks.size()));
+                } finally {
+                    pool.shutdown();
+                }
+            } finally {
+                if (offline) {
+                    BulkImportDAO.setReferentialIntegrity(true);
+                }
+            }
+        } finally {
+            channel.close();
+        }
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        ImportResult result = new ImportResult(imported.get(), rejected.get(), millis, new ArrayList<>(errors));
+        System.out.println("Bulk import finished: " + result);
+        return result;
+    }
+
+    /**
+     * Splits [start, size) into ranges of about CHUNK_BYTES that each end at a line break.
+     */
+    private static List<long[]> splitChunks(FileChannel channel, long start) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        long size = channel.size();
+        long chunkStart = start;
+        while (chunkStart < size) {
+            long chunkEnd = chunkStart + CHUNK_BYTES >= size ? size : nextLineStart(channel, chunkStart + CHUNK_BYTES);
+            chunks.add(new long[] {chunkStart, chunkEnd});
+            chunkStart = chunkEnd;
+        }
+        return chunks;
+    }
+
+    /**
+     * @return the offset just after the first '\n' at or after from, or the file size if there is none
+     */
+    private static long nextLineStart(FileChannel channel, long from) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = from;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    private static String readString(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        channel.read(buffer, start);
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    private static class ChunkTask extends RecursiveAction {
+        private final ChunkLoader loader;
+        private final List<long[]> chunks;
+        private final int from;
+        private final int to;
+
+        ChunkTask(ChunkLoader loader, List<long[]> chunks, int from, int to) {
+            this.loader = loader;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                loader.load(chunks.get(from));
+                return;
+            }
+            if (to <= from) {
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ChunkTask(loader, chunks, from, mid), new ChunkTask(loader, chunks, mid, to));
+        }
+    }
+
+    /**
+     * Parses, validates and inserts one chunk.
+     */
+    private static class ChunkLoader {
+        private final FileChannel channel;
+        private final Format format;
+        private final int postedByColumn;
+        private final int textColumn;
+        private final int timeColumn;
+        private final BitSet accountIds;
+        private final AtomicLong imported;
+        private final AtomicLong rejected;
+        private final List<String> errors;
+
+        ChunkLoader(FileChannel channel, Format format, String[] columns, BitSet accountIds,
+                    AtomicLong imported, AtomicLong rejected, List<String> errors) {
+            this.channel = channel;
+            this.format = format;
+            this.accountIds = accountIds;
+            this.imported = imported;
+            this.rejected = rejected;
+            this.errors = errors;
+            this.postedByColumn = indexOf(columns, "posted_by");
+            this.textColumn = indexOf(columns, "message_text");
+            this.timeColumn = indexOf(columns, "time_posted_epoch");
+        }
+
+        void load(long[] chunk) {
+            int length = (int) (chunk[1] - chunk[0]);
+            byte[] bytes = new byte[length];
+            try {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], length);
+                mapped.get(bytes);
+            } catch (IOException ioe) {
+                reject("chunk at byte " + chunk[0] + " could not be read: " + ioe.getMessage());
+                return;
+            }
+
+            // Rows are parsed into column arrays rather than Message objects
+            int capacity = 1024;
+            int[] postedBy = new int[capacity];
+            String[] text = new String[capacity];
+            long[] time = new long[capacity];
+            int count = 0;
+
+            int lineStart = 0;
+            for (int i = 0; i <= length; i++) {
+                if (i < length && bytes[i] != '\n') {
+                    continue;
+                }
+                int lineEnd = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+                if (lineEnd > lineStart) {
+                    if (count == capacity) {
+                        capacity *= 2;
+                        postedBy = Arrays.copyOf(postedBy, capacity);
+                        text = Arrays.copyOf(text, capacity);
+                        time = Arrays.copyOf(time, capacity);
+                    }
+                    if (parseRow(bytes, lineStart, lineEnd - lineStart, postedBy, text, time, count)) {
+                        count++;
+                    }
+                }
+                lineStart = i + 1;
+            }
+
+            try {
+                BulkImportDAO.insertMessages(postedBy, text, time, count);
+                imported.addAndGet(count);
+            } catch (SQLException sqle) {
+                rejected.addAndGet(count);
+                reject("chunk at byte " + chunk[0] + " failed to insert: " + sqle.getMessage());
+            }
+        }
+
+        private boolean parseRow(byte[] bytes, int offset, int length, int[] postedBy, String[] text, long[] time, int row) {
+            Integer account = null;
+            String messageText = null;
+            long timePosted = 0;
+            try {
+                if (format == Format.NDJSON) {
+                    JsonParser parser = jsonFactory.createParser(bytes, offset, length);
+                    if (parser.nextToken() != JsonToken.START_OBJECT) {
+                        return reject("not a JSON object: " + new String(bytes, offset, length, StandardCharsets.UTF_8));
+                    }
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.getCurrentName();
+                        parser.nextToken();
+                        if (field.equals("posted_by")) {
+                            account = parser.getIntValue();
+                        } else if (field.equals("message_text")) {
+                            messageText = parser.getValueAsString();
+                        } else if (field.equals("time_posted_epoch")) {
+                            timePosted = parser.getLongValue();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    String[] fields = parseCsvLine(new String(bytes, offset, length, StandardCharsets.UTF_8));
+                    if (postedByColumn >= 0 && postedByColumn < fields.length) {
+                        account = Integer.parseInt(fields[postedByColumn].trim());
+                    }
+                    if (textColumn >= 0 && textColumn < fields.length) {
+                        messageText = fields[textColumn];
+                    }
+                    if (timeColumn >= 0 && timeColumn < fields.length && !fields[timeColumn].isBlank()) {
+                        timePosted = Long.parseLong(fields[timeColumn].trim());
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                return reject("unparseable row: " + e.getMessage());
+            }
+
+            // Same rules as SocialMediaService.postMessage
+            if (account == null || account < 0 || !accountIds.get(account)) {
+                return reject("posted_by " + account + " is not an existing account");
+            }
+            if (messageText == null || messageText.isEmpty() || messageText.length() > 255) {
+                return reject("message_text must be 1 to 255 characters");
+            }
+            postedBy[row] = account;
+            text[row] = messageText;
+            time[row] = timePosted > 0 ? timePosted : CachedClock.nowSeconds();
+            return true;
+        }
+
+        private boolean reject(String reason) {
+            rejected.incrementAndGet();
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(reason);
+            }
+            return false;
+        }
+
+        private static int indexOf(String[] columns, String name) {
+            if (columns == null) {
+                return -1;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].trim().equalsIgnoreCase(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Splits a CSV line into fields, honoring double quoted fields with "" escapes.
+     */
+    static String[] parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c != '\r' && c != '\n') {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+}
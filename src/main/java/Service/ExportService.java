@@ -0,0 +1,115 @@
+package Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import DAO.ExportDAO;
+
+/**
+ * Bulk export of messages and accounts as NDJSON (one JSON object per line) or CSV. Rows are written
+ * to the output stream as the database cursor produces them, so memory use does not grow with the
+ * table size.
+ */
+public class ExportService {
+
+    public enum Format { NDJSON, CSV }
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    /*
+     *                          ***** EXPORT ALL MESSAGES *****
+     * Returns the number of rows written.
+     */
+    public long exportMessages(OutputStream out, Format format) throws IOException, SQLException {
+        long start = System.nanoTime();
+        long rows;
+        if (format == Format.CSV) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write("message_id,posted_by,message_text,time_posted_epoch\n");
+            rows = ExportDAO.streamMessages(row -> {
+                writer.write(Integer.toString(row.getInt(1)));
+                writer.write(',');
+                writer.write(Integer.toString(row.getInt(2)));
+                writer.write(',');
+                writeCsvField(writer, row.getString(3));
+                writer.write(',');
+                writer.write(Long.toString(row.getLong(4)));
+                writer.write('\n');
+            });
+            writer.flush();
+        } else {
+            JsonGenerator json = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+            rows = ExportDAO.streamMessages(row -> {
+                json.writeStartObject();
+                json.writeNumberField("message_id", row.getInt(1));
+                json.writeNumberField("posted_by", row.getInt(2));
+                json.writeStringField("message_text", row.getString(3));
+                json.writeNumberField("time_posted_epoch", row.getLong(4));
+                json.writeEndObject();
+                json.writeRaw('\n');
+            });
+            json.flush();
+        }
+        report("messages", rows, start);
+        return rows;
+    }
+
+    /*
+     *                          ***** EXPORT ALL ACCOUNTS *****
+     * Passwords are left out of the export.
+     */
+    public long exportAccounts(OutputStream out, Format format) throws IOException, SQLException {
+        long start = System.nanoTime();
+        long rows;
+        if (format == Format.CSV) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write("account_id,username\n");
+            rows = ExportDAO.streamAccounts(row -> {
+                writer.write(Integer.toString(row.getInt(1)));
+                writer.write(',');
+                writeCsvField(writer, row.getString(2));
+                writer.write('\n');
+            });
+            writer.flush();
+        } else {
+            JsonGenerator json = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+            rows = ExportDAO.streamAccounts(row -> {
+                json.writeStartObject();
+                json.writeNumberField("account_id", row.getInt(1));
+                json.writeStringField("username", row.getString(2));
+                json.writeEndObject();
+                json.writeRaw('\n');
+            });
+            json.flush();
+        }
+        report("accounts", rows, start);
+        return rows;
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static void report(String table, long rows, long startNanos) {
+        long millis = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+        System.out.printf("Exported %d %s in %d ms (%d rows/s)\n", rows, table, millis, rows * 1000 / millis);
+    }
+}
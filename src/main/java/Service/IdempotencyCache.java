@@ -0,0 +1,118 @@
+package Service;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, time-expiring map from idempotency key to the result of the first request that used it.
+ * The entry is created before the work starts, so a duplicate arriving while the first request is
+ * still in flight waits for that request's result instead of doing the work again.
+ *
+ * Null results and failures are not remembered: the next request with the key does the work itself.
+ * Every insert drops expired entries, and when the cache is over capacity the oldest finished keys are
+ * dropped first. Keys still in flight keep their place in line until they finish.
+ */
+public class IdempotencyCache<V> {
+
+    private static class Entry<V> {
+        final String key;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final long expiresAtNanos;
+
+        Entry(String key, long expiresAtNanos) {
+            this.key = key;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    // Entries rather than keys, so a queued key that was replaced since never evicts its replacement
+    private final Queue<Entry<V>> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    public IdempotencyCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000;
+    }
+
+    /**
+     * Returns the remembered result for key, waits for it if another thread is computing it, or else
+     * computes it on this thread.
+     */
+    public V getOrCompute(String key, Supplier<V> compute) {
+        while (true) {
+            long now = System.nanoTime();
+            Entry<V> existing = entries.get(key);
+            if (existing != null && existing.expiresAtNanos - now > 0) {
+                try {
+                    V value = existing.result.join();
+                    if (value != null) {
+                        return value;
+                    }
+                } catch (CompletionException failed) {
+                    // The first attempt failed; fall through and try again
+                }
+                entries.remove(key, existing);
+                continue;
+            }
+
+            Entry<V> mine = new Entry<>(key, now + ttlNanos);
+            boolean claimed = existing == null ? entries.putIfAbsent(key, mine) == null : entries.replace(key, existing, mine);
+            if (!claimed) {
+                continue;
+            }
+            insertionOrder.add(mine);
+            evictOverflow(now);
+            try {
+                V value = compute.get();
+                mine.result.complete(value);
+                if (value == null) {
+                    entries.remove(key, mine);
+                }
+                return value;
+            } catch (Throwable e) {
+                // Errors too, or the duplicates waiting on this entry would never wake up
+                entries.remove(key, mine);
+                mine.result.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Walks the queue from the oldest entry, dropping entries that have expired or were already removed,
+     * and finished entries while the cache is over capacity. Stops at the first live entry once the
+     * cache fits, as every entry behind it was inserted later and expires later.
+     */
+    private void evictOverflow(long now) {
+        Iterator<Entry<V>> oldestFirst = insertionOrder.iterator();
+        while (oldestFirst.hasNext()) {
+            Entry<V> entry = oldestFirst.next();
+            if (entries.get(entry.key) != entry) {
+                oldestFirst.remove();
+                continue;
+            }
+            boolean expired = entry.expiresAtNanos - now <= 0;
+            boolean overCapacity = entries.size() > maxEntries;
+            if (!expired && !overCapacity) {
+                return;
+            }
+            // In-flight entries stay queued where they are, so their duplicates stay coalesced
+            if (entry.result.isDone()) {
+                entries.remove(entry.key, entry);
+                oldestFirst.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import Model.Message;
+
+/**
+ * Least-recently-used cache of live messages by message_id. Every write path that changes or deletes a
+ * message invalidates it here.
+ *
+ * A read that misses takes a stamp(messageId) before querying the database and passes it to put(). If
+ * the message was invalidated in between, the put is dropped, so a read racing an update cannot store
+ * the old text after the update's invalidation. Invalidations are counted per stripe of message ids,
+ * so writes to other messages rarely drop a put.
+ */
+public class MessageCache {
+
+    private static final int STRIPES = 64;
+
+    private final int capacity;
+    private final AtomicLongArray stripeInvalidations = new AtomicLongArray(STRIPES);
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final LinkedHashMap<Integer, Message> entries;
+
+    public MessageCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Message> eldest) {
+                return size() > MessageCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return a copy of the cached message, or null if it is not cached
+     */
+    public Message get(int messageId) {
+        Message cached;
+        synchronized (entries) {
+            cached = entries.get(messageId);
+        }
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copy(cached);
+    }
+
+    /**
+     * @return the value to pass to put() for a database read of messageId that starts now
+     */
+    public long stamp(int messageId) {
+        return stripeInvalidations.get(stripe(messageId));
+    }
+
+    /**
+     * Caches message unless its stripe was invalidated since stamp was taken.
+     */
+    public void put(Message message, long stamp) {
+        if (capacity <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            if (stripeInvalidations.get(stripe(message.getMessage_id())) == stamp) {
+                entries.put(message.getMessage_id(), copy(message));
+            }
+        }
+    }
+
+    public void invalidate(int messageId) {
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            stripeInvalidations.incrementAndGet(stripe(messageId));
+            entries.remove(messageId);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                stripeInvalidations.incrementAndGet(stripe);
+            }
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return entry count, capacity and hit/miss totals
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (entries) {
+            metrics.put("size", entries.size());
+        }
+        metrics.put("capacity", capacity);
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("invalidations", invalidations.get());
+        return metrics;
+    }
+
+    private static int stripe(int messageId) {
+        return Math.floorMod(messageId, STRIPES);
+    }
+
+    // Callers may modify the messages they get back, so the cache never shares its instances
+    private static Message copy(Message message) {
+        return new Message(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+    }
+}
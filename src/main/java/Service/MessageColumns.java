@@ -0,0 +1,87 @@
+package Service;
+
+import java.util.Arrays;
+
+/**
+ * Immutable column-oriented copy of the live rows of the message table: one primitive array per
+ * column, with row i of the snapshot at index i of every array. Scans over a single column read
+ * contiguous memory, which is what lets the analytics queries run at memory bandwidth.
+ *
+ * Message text is not copied, only its length.
+ */
+public class MessageColumns {
+
+    final int[] messageId;
+    final int[] postedBy;
+    final long[] timePosted;
+    final short[] textLength;
+    final int rows;
+    final int maxPostedBy;
+    final long builtEpochMillis;
+    final long buildMillis;
+
+    private MessageColumns(Builder builder, long buildMillis) {
+        this.messageId = builder.messageId;
+        this.postedBy = builder.postedBy;
+        this.timePosted = builder.timePosted;
+        this.textLength = builder.textLength;
+        this.rows = builder.rows;
+        this.maxPostedBy = builder.maxPostedBy;
+        this.builtEpochMillis = System.currentTimeMillis();
+        this.buildMillis = buildMillis;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public long getBuiltEpochMillis() {
+        return builtEpochMillis;
+    }
+
+    public long getBuildMillis() {
+        return buildMillis;
+    }
+
+    /**
+     * Appends rows to growing column arrays.
+     */
+    public static class Builder {
+        private int[] messageId;
+        private int[] postedBy;
+        private long[] timePosted;
+        private short[] textLength;
+        private int rows;
+        private int maxPostedBy;
+        private final long startNanos = System.nanoTime();
+
+        public Builder(int expectedRows) {
+            int capacity = Math.max(16, expectedRows);
+            messageId = new int[capacity];
+            postedBy = new int[capacity];
+            timePosted = new long[capacity];
+            textLength = new short[capacity];
+        }
+
+        public void add(int id, int by, long time, int length) {
+            if (rows == messageId.length) {
+                int capacity = messageId.length + (messageId.length >> 1);
+                messageId = Arrays.copyOf(messageId, capacity);
+                postedBy = Arrays.copyOf(postedBy, capacity);
+                timePosted = Arrays.copyOf(timePosted, capacity);
+                textLength = Arrays.copyOf(textLength, capacity);
+            }
+            messageId[rows] = id;
+            postedBy[rows] = by;
+            timePosted[rows] = time;
+            // message_text is at most 255 characters
+            textLength[rows] = (short) Math.min(length, Short.MAX_VALUE);
+            maxPostedBy = Math.max(maxPostedBy, by);
+            rows++;
+        }
+
+        public MessageColumns build() {
+            return new MessageColumns(this, (System.nanoTime() - startNanos) / 1_000_000);
+        }
+    }
+}
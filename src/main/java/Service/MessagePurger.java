@@ -0,0 +1,113 @@
+package Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import DAO.MessagePurgeDAO;
+import Util.AppConfig;
+import Util.CachedClock;
+
+/**
+ * Background purge of soft-deleted messages. Deletes only mark a tombstone, so request threads never
+ * pay for index maintenance; this job removes the tombstoned rows later, on a minimum-priority thread
+ * and in bounded batches so it never holds the message table for long.
+ *
+ * Throttling: each run purges at most maxBatchesPerRun batches of batchSize rows per store, pausing
+ * pauseMillis between batches, and runs are intervalMillis apart.
+ */
+public class MessagePurger {
+
+    private final int batchSize = AppConfig.purgeBatchSize();
+    private final int maxBatchesPerRun = AppConfig.purgeMaxBatchesPerRun();
+    private final long pauseMillis = AppConfig.purgePauseMillis();
+
+    private final AtomicLong purged = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+    private volatile long backlog;
+    private volatile long oldestTombstoneEpoch;
+    private volatile long lastRunMillis;
+
+    private ScheduledExecutorService scheduler;
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-purge");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        long interval = AppConfig.purgeIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::purge, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs one throttled purge pass over every store, then refreshes the backlog metrics.
+     */
+    public void purge() {
+        long start = System.nanoTime();
+        try {
+            for (int store = 0; store < MessagePurgeDAO.storeCount(); store++) {
+                for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+                    int removed = MessagePurgeDAO.purgeBatch(store, batchSize);
+                    if (removed > 0) {
+                        purged.addAndGet(removed);
+                        batches.incrementAndGet();
+                    }
+                    if (removed < batchSize) {
+                        break;
+                    }
+                    Thread.sleep(pauseMillis);
+                }
+            }
+            refreshBacklog();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            runs.incrementAndGet();
+            lastRunMillis = (System.nanoTime() - start) / 1_000_000;
+        }
+    }
+
+    private void refreshBacklog() {
+        long count = 0;
+        long oldest = 0;
+        for (int store = 0; store < MessagePurgeDAO.storeCount(); store++) {
+            long[] storeBacklog = MessagePurgeDAO.backlog(store);
+            count += storeBacklog[0];
+            if (storeBacklog[1] > 0 && (oldest == 0 || storeBacklog[1] < oldest)) {
+                oldest = storeBacklog[1];
+            }
+        }
+        backlog = count;
+        oldestTombstoneEpoch = oldest;
+    }
+
+    /**
+     * @return purge totals, the backlog left after the last run and the age of its oldest tombstone
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long oldest = oldestTombstoneEpoch;
+        metrics.put("backlog", backlog);
+        metrics.put("oldest_tombstone_age_seconds", oldest == 0 ? 0 : Math.max(0, CachedClock.nowSeconds() - oldest));
+        metrics.put("purged", purged.get());
+        metrics.put("batches", batches.get());
+        metrics.put("runs", runs.get());
+        metrics.put("last_run_millis", lastRunMillis);
+        metrics.put("batch_size", batchSize);
+        metrics.put("max_batches_per_run", maxBatchesPerRun);
+        metrics.put("pause_millis", pauseMillis);
+        return metrics;
+    }
+}
@@ -0,0 +1,109 @@
+package Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import Util.ConnectionUtil;
+
+/**
+ * Coalesces concurrent identical reads: the first caller for a key runs the query and every caller
+ * that asks for the same key while it is running waits for that result instead of running its own.
+ * Nothing is kept once the query finishes, so this never serves a result older than the query
+ * that produced it.
+ *
+ * Callers pass the cache version or stamp they took before missing, and only join a query started at
+ * the same version. Writes on this instance and invalidations from peers both move the version, so a
+ * caller never gets a result read before a change it has already seen. Clients whose writes have not
+ * reached every replica yet always query themselves, as their reads need a caught-up database.
+ *
+ * Waiting is capped at maxWaitMillis; a caller that times out runs the query itself. If the query
+ * throws, every caller waiting on it gets the same exception and the next caller starts a new query.
+ * Results are shared between callers and must be treated as read-only.
+ */
+public class SingleFlight<V> {
+
+    private final Map<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final long maxWaitMillis;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public SingleFlight(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public V run(String key, long version, Supplier<V> query) {
+        if (ConnectionUtil.hasUnreplicatedWrites()) {
+            return runAlone(query);
+        }
+        String flightKey = key + "@" + version;
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(flightKey, mine);
+        if (running == null) {
+            try {
+                V result = runAlone(query);
+                mine.complete(result);
+                return result;
+            } catch (RuntimeException | Error e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(flightKey, mine);
+            }
+        }
+
+        try {
+            V result = running.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+            shared.incrementAndGet();
+            return result;
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            return runAlone(query);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return runAlone(query);
+        }
+    }
+
+    private V runAlone(Supplier<V> query) {
+        queries.incrementAndGet();
+        try {
+            return query.get();
+        } catch (RuntimeException | Error e) {
+            failures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return queries run, queries saved by sharing a running one, waits that timed out and failed queries
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("queries", queries.get());
+        metrics.put("shared", shared.get());
+        metrics.put("timeouts", timeouts.get());
+        metrics.put("failures", failures.get());
+        metrics.put("in_flight", inFlight.size());
+        metrics.put("max_wait_millis", maxWaitMillis);
+        return metrics;
+    }
+}
@@ -1,15 +1,87 @@
 package Service;
 
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import DAO.ChangeLogDAO;
+import DAO.IdempotencyDAO;
 import DAO.SocialMediaDAO;
 import Model.Account;
+import Model.AccountDeletion;
+import Model.AccountStats;
+import Model.BulkDeleteJob;
+import Model.ImportResult;
 import Model.Message;
+import Model.MessageChange;
+import Util.AppConfig;
+import Util.CachedClock;
+import Util.InvalidationBus;
+import Util.Span;
+import Util.Tracer;
 
 public class SocialMediaService {
     // DAO instance variable
     SocialMediaDAO smDAO;
 
+    // Largest number of messages a single time range or latest-N query may return
+    public static final int MAX_PAGE_SIZE = 10000;
+
+    // Largest number of ids a single multi-get may ask for
+    public static final int MAX_IDS_PER_LOOKUP = 1000;
+
+    // Live messages by id, for the single and multi-get reads
+    MessageCache messageCache = new MessageCache(AppConfig.messageCacheSize());
+
+    // Concurrent identical reads by message id or by account share one query
+    SingleFlight<Message> messageReads = new SingleFlight<>(AppConfig.singleFlightMaxWaitMillis());
+    SingleFlight<List<Message>> timelineReads = new SingleFlight<>(AppConfig.singleFlightMaxWaitMillis());
+
+    // Serialized message lists per account, invalidated by bumping the account's version on every write
+    TimelineCache timelineCache = new TimelineCache(AppConfig.timelineCacheBytes());
+
+    // Per-account message counters kept current by the message write paths
+    AccountStatsTracker statsTracker = new AccountStatsTracker();
+
+    // Background work such as checkpointing the counters
+    ScheduledExecutorService scheduler;
+
+    // Removes soft-deleted messages in throttled batches
+    MessagePurger purger = new MessagePurger();
+
+    // Messages created per "posted_by:Idempotency-Key:request hash", so retried creations return the original message
+    IdempotencyCache<Message> idempotentPosts = new IdempotencyCache<>(AppConfig.idempotencyMaxEntries(),
+            AppConfig.idempotencyTtlSeconds() * 1000);
+
+    // Background deletes of messages by author and time range
+    BulkDeleteJobs bulkDeletes = new BulkDeleteJobs(statsTracker, this::onBulkDeleted);
+
+    // Account deletions in progress, by account id
+    Map<Integer, AccountDeletion> accountDeletions = new ConcurrentHashMap<>();
+
+    // Rounds of emptying an account before its deletion gives up on messages that keep arriving
+    private static final int MAX_ACCOUNT_DELETE_ROUNDS = 5;
+
+    // How long a duplicate waits for a reservation held by another instance, and when such a reservation counts as abandoned
+    private static final long RESERVATION_WAIT_MILLIS = 5000;
+    private static final long ABANDONED_RESERVATION_SECONDS = 60;
+
     // No args constructor for initializing DAO
     public SocialMediaService() {
         smDAO = new SocialMediaDAO();
@@ -20,6 +92,88 @@ public class SocialMediaService {
         this.smDAO = smDAO;
     }
 
+    /*
+     *                          ***** START / STOP BACKGROUND WORK *****
+     */
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "service-background");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Loading the counters can scan every message, so it runs in the background instead of delaying startup
+        scheduler.execute(statsTracker::load);
+        long checkpointMillis = AppConfig.statsCheckpointMillis();
+        scheduler.scheduleWithFixedDelay(statsTracker::checkpoint, checkpointMillis, checkpointMillis, TimeUnit.MILLISECONDS);
+        purger.start();
+        bulkDeletes.start();
+        long ttlSeconds = AppConfig.idempotencyTtlSeconds();
+        scheduler.scheduleWithFixedDelay(() -> IdempotencyDAO.deleteOlderThan(CachedClock.nowSeconds() - ttlSeconds),
+                1, 60, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        purger.stop();
+        bulkDeletes.stop();
+        statsTracker.checkpoint();
+    }
+
+    /**
+     * @return metrics of the soft-delete purge, including the backlog of tombstoned messages
+     */
+    public Map<String, Object> purgeMetrics() {
+        return purger.metrics();
+    }
+
+    /**
+     * @return size and hit/miss counters of the message cache
+     */
+    public Map<String, Object> messageCacheMetrics() {
+        return messageCache.metrics();
+    }
+
+    /**
+     * @return counters of the coalesced reads, per read
+     */
+    public Map<String, Object> singleFlightMetrics() {
+        return Map.of("retrieveMessageById", messageReads.metrics(),
+                "retrieveSerializedMessagesByUser", timelineReads.metrics());
+    }
+
+    /**
+     * @return size and hit/miss/eviction counters of the timeline cache
+     */
+    public Map<String, Object> timelineCacheMetrics() {
+        return timelineCache.metrics();
+    }
+
+    /**
+     * @return applies the writes of other instances sharing the database to this instance's caches and counters
+     */
+    public InvalidationBus.Listener invalidationListener() {
+        return new InvalidationBus.Listener() {
+            @Override
+            public void invalidate(byte entity, int id, long version) {
+                if (entity == InvalidationBus.MESSAGE) {
+                    messageCache.invalidate(id);
+                } else if (entity == InvalidationBus.ACCOUNT) {
+                    timelineCache.bump(id);
+                    statsTracker.invalidate(id);
+                }
+            }
+
+            @Override
+            public void invalidateAll() {
+                messageCache.clear();
+                timelineCache.clear();
+                statsTracker.invalidateAll();
+            }
+        };
+    }
+
     /*
      *                          ***** REGISTER NEW ACCOUNT *****
      * The registration will be successful if and only if:
@@ -29,16 +183,18 @@ public class SocialMediaService {
        - The response body should contain a JSON of the Account, including its account_id. 
      */
     public Account addAccount(Account account) {
-        // List of current usernames
-        List<String> userNames = retrieveAllUsernames();        
+        try (Span span = Tracer.start("SocialMediaService.addAccount")) {
+            // List of current usernames
+            List<String> userNames = retrieveAllUsernames();        
 
-        // Verify username, password, and account before attempting to add account
-        if (account.password.length() >= 4 && account.username.length() > 0 && !(userNames.contains(account.getUsername()))) {
-            return SocialMediaDAO.addAccount(account);
-        } else {
-            return null;
-        }
+            // Verify username, password, and account before attempting to add account
+            if (account.password.length() >= 4 && account.username.length() > 0 && !(userNames.contains(account.getUsername()))) {
+                return SocialMediaDAO.addAccount(account);
+            } else {
+                return null;
+            }
         
+        }
     }
  
     /*
@@ -48,11 +204,13 @@ public class SocialMediaService {
          - If successful, the response body should contain a JSON of the account in the response body, including its account_id. 
      */    
     public Account userLogin (Account account) {
-        //Check if password and username fields are valid lengths
-        if (account.getUsername().length() < 1 || account.getPassword().length() < 4) {
-            return null;
-        } else {
-            return SocialMediaDAO.userLogin(account);
+        try (Span span = Tracer.start("SocialMediaService.userLogin")) {
+            //Check if password and username fields are valid lengths
+            if (account.getUsername().length() < 1 || account.getPassword().length() < 4) {
+                return null;
+            } else {
+                return SocialMediaDAO.userLogin(account);
+            }
         }
     }
 
@@ -64,48 +222,286 @@ public class SocialMediaService {
          - Posted_by refers to a real, existing user. 
          - If successful, the response body should contain a JSON of the message, including its message_id. 
      */    
-    public Message postMessage (Message message) {        
+    public Message postMessage (Message message) {
+        try (Span span = Tracer.start("SocialMediaService.postMessage")) {
+            return createMessage(message, null);
+        }
+    }
+
+    private Message createMessage(Message message, String idempotencyKey) {
         // Verify message_text and posted_by user before attempting to post message
         if (retrieveAccountById(message.getPosted_by()) == null || message.getMessage_text().length() > 255 || message.getMessage_text() == "") {
             return null;
         } else {
-            return SocialMediaDAO.postMessage(message);
+            try (AccountStatsTracker.Write write = statsTracker.writing(message.getPosted_by())) {
+                Message postedMessage = SocialMediaDAO.postMessage(message, idempotencyKey);
+                if (postedMessage != null) {
+                    timelineCache.bump(postedMessage.getPosted_by());
+                    statsTracker.onPost(postedMessage);
+                }
+                return postedMessage;
+            }
         }
     }
 
+    /*
+     *                          ***** POST NEW MESSAGE WITH AN IDEMPOTENCY KEY *****
+     * A retry carrying the same key and body as an earlier successful post returns that post's message
+     * instead of creating another; the key is recorded in the same transaction as the message, so a
+     * crash cannot leave a message without it. Reusing a key with a different body throws
+     * IdempotencyKeyReusedException. Duplicates arriving concurrently wait for the first one; across
+     * instances and restarts the idempotency_key table decides which request creates the message.
+     */
+    public Message postMessage(Message message, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return postMessage(message);
+        }
+        try (Span span = Tracer.start("SocialMediaService.postMessageIdempotent")) {
+            int postedBy = message.getPosted_by();
+            String requestHash = requestHash(message);
+            // The hash is part of the key, so a reuse with another body never gets the cached original
+            return idempotentPosts.getOrCompute(postedBy + ":" + idempotencyKey + ":" + requestHash, () -> {
+                IdempotencyDAO.Record original = IdempotencyDAO.find(postedBy, idempotencyKey);
+                if (original == null && !IdempotencyDAO.reserve(postedBy, idempotencyKey, requestHash)) {
+                    original = awaitReservation(postedBy, idempotencyKey);
+                    if (original == null && !IdempotencyDAO.reserve(postedBy, idempotencyKey, requestHash)) {
+                        return null;
+                    }
+                }
+                if (original != null) {
+                    // Keys recorded before request hashes were kept have none and are taken as matching
+                    if (original.getRequestHash() != null && !requestHash.equals(original.getRequestHash())) {
+                        throw new IdempotencyKeyReusedException(idempotencyKey);
+                    }
+                    return original.getMessage();
+                }
+                Message postedMessage = createMessage(message, idempotencyKey);
+                if (postedMessage == null) {
+                    IdempotencyDAO.release(postedBy, idempotencyKey, 0);
+                }
+                return postedMessage;
+            });
+        }
+    }
+
+    /**
+     * An Idempotency-Key was sent again with a different request body than the one it first created a message with.
+     */
+    public static class IdempotencyKeyReusedException extends RuntimeException {
+        IdempotencyKeyReusedException(String idempotencyKey) {
+            super("Idempotency-Key " + idempotencyKey + " was already used with a different request");
+        }
+    }
+
+    // SHA-256 of the fields the request set, as hex
+    private static String requestHash(Message message) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String body = message.getPosted_by() + "\n" + message.getTime_posted_epoch() + "\n" + message.getMessage_text();
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest(body.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Waits for the request holding the reservation elsewhere to finish. If it does not, a reservation older
+     * than ABANDONED_RESERVATION_SECONDS is released so the caller can take it over.
+     */
+    private IdempotencyDAO.Record awaitReservation(int postedBy, String idempotencyKey) {
+        long deadline = System.currentTimeMillis() + RESERVATION_WAIT_MILLIS;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+                IdempotencyDAO.Record original = IdempotencyDAO.find(postedBy, idempotencyKey);
+                if (original != null) {
+                    return original;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        IdempotencyDAO.release(postedBy, idempotencyKey, CachedClock.nowSeconds() - ABANDONED_RESERVATION_SECONDS);
+        return null;
+    }
+
     /*
      *                          ***** RETRIEVE ALL MESSAGES *****
      */
     public List<Message> retrieveAllMessages() {
-        return SocialMediaDAO.retrieveAllMessages();
+        try (Span span = Tracer.start("SocialMediaService.retrieveAllMessages")) {
+            return SocialMediaDAO.retrieveAllMessages();
+        }
     }
     
     /*
      *                          ***** RETRIEVE ACCOUNT BY ID *****
      */
-    public Account retrieveAccountById(int accountId) {        
-        return SocialMediaDAO.retrieveAccountById(accountId);
+    public Account retrieveAccountById(int accountId) {
+        try (Span span = Tracer.start("SocialMediaService.retrieveAccountById")) {
+            return SocialMediaDAO.retrieveAccountById(accountId);
+        }
     }
 
     /*
      *                          ***** RETRIEVE ALL USERNAMES *****
      */
     public List<String> retrieveAllUsernames() {
-        return SocialMediaDAO.retrieveAllUsernames();
+        try (Span span = Tracer.start("SocialMediaService.retrieveAllUsernames")) {
+            return SocialMediaDAO.retrieveAllUsernames();
+        }
     }
 
     /*
      *                          ***** DELETE MESSAGE BY ID *****
+     * Returns the deleted message, or null if there was no such message.
+     */
+    public Message deleteMessagebyId(int messageId) {
+        try (Span span = Tracer.start("SocialMediaService.deleteMessagebyId")) {
+            // Only finds the author; the message itself is read again under a row lock by the delete
+            Message message = SocialMediaDAO.retrieveMessageById(messageId);
+            if (message == null) {
+                return null;
+            }
+            try (AccountStatsTracker.Write write = statsTracker.writing(message.getPosted_by())) {
+                // A concurrent delete of the same message may win; only the call that tombstoned it reports it
+                Message deletedMessage = SocialMediaDAO.deleteMessageById(messageId);
+                if (deletedMessage == null) {
+                    return null;
+                }
+                messageCache.invalidate(messageId);
+                timelineCache.bump(deletedMessage.getPosted_by());
+                statsTracker.onDelete(deletedMessage);
+                return deletedMessage;
+            }
+        }
+    }
+
+    /*
+     *                          ***** DELETE ACCOUNT BY ID *****
+     * Deletes the account's messages in chunks of AppConfig.accountDeleteChunkSize(), each committed on
+     * its own, then the account row. Progress is recorded as it goes and can be read with
+     * retrieveAccountDeletion while it runs. Returns the finished deletion, the one already running if
+     * another request started it, or null if there is no such account.
+     */
+    public AccountDeletion deleteAccountById(int accountId) {
+        try (Span span = Tracer.start("SocialMediaService.deleteAccountById")) {
+            Account account = retrieveAccountById(accountId);
+            if (account == null) {
+                return null;
+            }
+            AccountStats stats = statsTracker.get(accountId);
+            AccountDeletion deletion = new AccountDeletion(accountId, account.getUsername(), stats == null ? 0 : stats.getMessage_count());
+            AccountDeletion running = accountDeletions.putIfAbsent(accountId, deletion);
+            if (running != null) {
+                return running;
+            }
+            try {
+                int chunkSize = AppConfig.accountDeleteChunkSize();
+                for (int round = 0; round < MAX_ACCOUNT_DELETE_ROUNDS; round++) {
+                    List<Message> chunk;
+                    while (!(chunk = SocialMediaDAO.deleteMessagesByUser(accountId, chunkSize)).isEmpty()) {
+                        for (Message message : chunk) {
+                            messageCache.invalidate(message.getMessage_id());
+                        }
+                        timelineCache.bump(accountId);
+                        deletion.messages_deleted += chunk.size();
+                        deletion.chunks++;
+                    }
+                    // Fails if a message was posted after the last chunk; that one is deleted next round
+                    if (SocialMediaDAO.deleteAccountById(accountId) != null) {
+                        statsTracker.onAccountDeleted(accountId);
+                        timelineCache.bump(accountId);
+                        deletion.finished_epoch_millis = System.currentTimeMillis();
+                        return deletion;
+                    }
+                    if (retrieveAccountById(accountId) == null) {
+                        return null;
+                    }
+                }
+                throw new IllegalStateException("Account " + accountId + " still has messages after "
+                        + MAX_ACCOUNT_DELETE_ROUNDS + " rounds of deleting them");
+            } finally {
+                accountDeletions.remove(accountId, deletion);
+            }
+        }
+    }
+
+    /**
+     * @return the progress of the account's deletion, or null if it is not being deleted
      */
-    public void deleteMessagebyId(int messageId) {
-        SocialMediaDAO.deleteMessageById(messageId);
+    public AccountDeletion retrieveAccountDeletion(int accountId) {
+        return accountDeletions.get(accountId);
     }
 
     /*
      *                          ***** RETRIEVE MESSAGE BY ID *****
+     * Served from the message cache when possible; a miss is read from the primary and cached.
      */
-    public Message retrieveMessageById(int messageId) {        
-        return SocialMediaDAO.retrieveMessageById(messageId);    
+    public Message retrieveMessageById(int messageId) {
+        try (Span span = Tracer.start("SocialMediaService.retrieveMessageById")) {
+            Message cached = messageCache.get(messageId);
+            if (cached != null) {
+                return cached;
+            }
+            long stamp = messageCache.stamp(messageId);
+            return messageReads.run(Integer.toString(messageId), stamp, () -> {
+                Message message = SocialMediaDAO.retrieveMessageById(messageId, true);
+                if (message != null) {
+                    messageCache.put(message, stamp);
+                }
+                return message;
+            });
+        }
+    }
+
+    /*
+     *                          ***** RETRIEVE MESSAGES BY A LIST OF IDS *****
+     * Ids found in the message cache are served from it and the rest are fetched with a single query.
+     * Messages are returned in the order their ids were first requested; unknown ids are left out.
+     * Returns null if the list is empty or longer than MAX_IDS_PER_LOOKUP.
+     */
+    public List<Message> retrieveMessagesByIds(List<Integer> messageIds) {
+        try (Span span = Tracer.start("SocialMediaService.retrieveMessagesByIds")) {
+            if (messageIds.isEmpty() || messageIds.size() > MAX_IDS_PER_LOOKUP) {
+                return null;
+            }
+            LinkedHashSet<Integer> requested = new LinkedHashSet<>(messageIds);
+            Map<Integer, Message> found = new HashMap<>();
+            List<Integer> missing = new ArrayList<>();
+            for (Integer messageId : requested) {
+                Message cached = messageCache.get(messageId);
+                if (cached != null) {
+                    found.put(messageId, cached);
+                } else {
+                    missing.add(messageId);
+                }
+            }
+            if (!missing.isEmpty()) {
+                Map<Integer, Long> stamps = new HashMap<>();
+                for (Integer messageId : missing) {
+                    stamps.put(messageId, messageCache.stamp(messageId));
+                }
+                for (Message message : SocialMediaDAO.retrieveMessagesByIds(missing.toArray(new Integer[0]))) {
+                    found.put(message.getMessage_id(), message);
+                    messageCache.put(message, stamps.get(message.getMessage_id()));
+                }
+            }
+            List<Message> messageList = new ArrayList<>(found.size());
+            for (Integer messageId : requested) {
+                Message message = found.get(messageId);
+                if (message != null) {
+                    messageList.add(message);
+                }
+            }
+            return messageList;
+        }
     }
 
     /*
@@ -114,20 +510,177 @@ public class SocialMediaService {
        - The message id already exists
        - The new message_text is not blank and is not over 255 characters. 
      */
-    public Message updateMessageById(String newMessageText, int messageId) {        
-        // Check for message existence and proper length. 
-        if (SocialMediaDAO.retrieveMessageById(messageId) == null || newMessageText.length() == 0 || newMessageText.length() > 255) {            
-            return null;        
-        } else {                        
-            return SocialMediaDAO.updateMessageById(newMessageText, messageId);
+    public Message updateMessageById(String newMessageText, int messageId) {
+        try (Span span = Tracer.start("SocialMediaService.updateMessageById")) {
+            // Check for message existence and proper length. 
+            Message existingMessage = SocialMediaDAO.retrieveMessageById(messageId);
+            if (existingMessage == null || newMessageText.length() == 0 || newMessageText.length() > 255) {            
+                return null;        
+            } else {                        
+                try (AccountStatsTracker.Write write = statsTracker.writing(existingMessage.getPosted_by())) {
+                    // The text being replaced, read under a row lock, not existingMessage that may be out of date
+                    Message previousMessage = SocialMediaDAO.updateMessageById(newMessageText, messageId);
+                    messageCache.invalidate(messageId);
+                    timelineCache.bump(existingMessage.getPosted_by());
+                    if (previousMessage == null) {
+                        return null;
+                    }
+                    statsTracker.onUpdate(previousMessage, newMessageText);
+                    return new Message(messageId, previousMessage.getPosted_by(), newMessageText, previousMessage.getTime_posted_epoch());
+                }
+            }
         }
     }
 
+    /**
+     * Turns a message list into response bytes in one format.
+     */
+    public interface MessageListEncoder {
+        byte[] encode(List<Message> messages) throws IOException;
+    }
+
     /*
-     *                          ***** RETRIEVE ALL MESSAGES FROM A SINGLE USER *****     
+     *                          ***** RETRIEVE ALL MESSAGES FROM A SINGLE USER, SERIALIZED *****
+     * The account's list as encoded by encoder, served from the timeline cache while no message of the
+     * account has been posted, updated or deleted since it was cached. format names the encoding, so
+     * each format is cached separately. Misses read from the primary.
      */
-    public List<Message> retrieveMessagesByUser(int accountID) {
-        return SocialMediaDAO.retrieveMessagesByUser(accountID);
+    public byte[] retrieveSerializedMessagesByUser(int accountID, String format, MessageListEncoder encoder) throws IOException {
+        try (Span span = Tracer.start("SocialMediaService.retrieveSerializedMessagesByUser")) {
+            // Taken before the read, so a write landing during it leaves the entry out of date
+            long version = timelineCache.version(accountID);
+            byte[] body = timelineCache.get(accountID, format, version);
+            if (body != null) {
+                return body;
+            }
+            List<Message> messageList = timelineReads.run(Integer.toString(accountID), version, () -> SocialMediaDAO.retrieveMessagesByUser(accountID, true));
+            body = encoder.encode(messageList);
+            timelineCache.put(accountID, format, version, body);
+            return body;
+        }
+    }
+
+    /*
+     *                          ***** RETRIEVE MESSAGES POSTED IN A TIME RANGE *****
+     * The query is valid if and only if:
+       - from is not after to
+       - limit is between 1 and MAX_PAGE_SIZE
+     */
+    public List<Message> retrieveMessagesInTimeRange(long from, long to, int limit) {
+        try (Span span = Tracer.start("SocialMediaService.retrieveMessagesInTimeRange")) {
+            if (from > to || limit < 1 || limit > MAX_PAGE_SIZE) {
+                return null;
+            }
+            return SocialMediaDAO.retrieveMessagesInTimeRange(from, to, limit);
+        }
+    }
+
+    /*
+     *                          ***** RETRIEVE THE LATEST N MESSAGES *****
+     */
+    public List<Message> retrieveLatestMessages(int limit) {
+        try (Span span = Tracer.start("SocialMediaService.retrieveLatestMessages")) {
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                return null;
+            }
+            return SocialMediaDAO.retrieveLatestMessages(limit);
+        }
+    }
+
+    /*
+     *                          ***** RETRIEVE MESSAGE STATISTICS FOR AN ACCOUNT *****
+     * Served from the in-memory counters. Accounts that never posted get zeroed statistics;
+     * returns null if the account does not exist.
+     */
+    public AccountStats retrieveAccountStats(int accountId) {
+        try (Span span = Tracer.start("SocialMediaService.retrieveAccountStats")) {
+            AccountStats stats = statsTracker.get(accountId);
+            if (stats != null) {
+                return stats;
+            }
+            return retrieveAccountById(accountId) == null ? null : new AccountStats(accountId);
+        }
+    }
+
+    /*
+     *                          ***** RETRIEVE MESSAGE CHANGES SINCE A SEQUENCE NUMBER *****
+     * The changes numbered above since, oldest first, with the cursor to pass as since next time and
+     * whether more changes are waiting. Returns null if since is negative or limit is outside 1 to MAX_PAGE_SIZE.
+     */
+    public Map<String, Object> retrieveChanges(long since, int limit) {
+        try (Span span = Tracer.start("SocialMediaService.retrieveChanges")) {
+            if (since < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+                return null;
+            }
+            // One extra change tells whether there are more
+            List<MessageChange> changes = ChangeLogDAO.retrieveChanges(since, limit + 1);
+            boolean hasMore = changes.size() > limit;
+            if (hasMore) {
+                changes = changes.subList(0, limit);
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("changes", changes);
+            result.put("next_since", changes.isEmpty() ? since : changes.get(changes.size() - 1).getChange_seq());
+            result.put("has_more", hasMore);
+            return result;
+        }
+    }
+
+    /*
+     *                          ***** BULK DELETE MESSAGES BY AUTHOR AND TIME RANGE *****
+     * Queues a background job deleting every live message posted by postedBy with a time_posted_epoch from
+     * from to to (inclusive); a null filter matches everything, but at least one must be given. The job
+     * deletes at most maxRowsPerSecond messages per second, AppConfig.bulkDeleteRowsPerSecond() if null.
+     * Returns the queued job, or null if no filter was given, from is after to or the rate is not positive.
+     * Throws BulkDeleteJobs.TooManyJobsException if the job queue is full.
+     */
+    public BulkDeleteJob startBulkDelete(Integer postedBy, Long from, Long to, Integer maxRowsPerSecond) {
+        try (Span span = Tracer.start("SocialMediaService.startBulkDelete")) {
+            int rate = maxRowsPerSecond == null ? AppConfig.bulkDeleteRowsPerSecond() : maxRowsPerSecond;
+            if ((postedBy == null && from == null && to == null) || (from != null && to != null && from > to) || rate < 1) {
+                return null;
+            }
+            return bulkDeletes.submit(postedBy, from, to, rate);
+        }
+    }
+
+    /**
+     * @return the bulk delete job, or null if there is no such job
+     */
+    public BulkDeleteJob retrieveBulkDeleteJob(long jobId) {
+        return bulkDeletes.get(jobId);
+    }
+
+    // A committed batch of a bulk delete: drop the messages from the caches and recount their authors once each
+    private void onBulkDeleted(List<Message> batch) {
+        Set<Integer> authors = new HashSet<>();
+        for (Message message : batch) {
+            messageCache.invalidate(message.getMessage_id());
+            authors.add(message.getPosted_by());
+        }
+        for (Integer author : authors) {
+            timelineCache.bump(author);
+        }
+        statsTracker.recount(authors);
+    }
+
+    /*
+     *                          ***** BULK IMPORT MESSAGES FROM A FILE *****
+     * Rows get the same validation as postMessage. The import bypasses the per-message counters,
+     * so they are recounted afterwards.
+     */
+    public ImportResult importMessages(Path file, BulkImportService.Format format) throws IOException, SQLException {
+        try (Span span = Tracer.start("SocialMediaService.importMessages")) {
+            ImportResult result;
+            try {
+                result = new BulkImportService().importMessages(file, format);
+            } finally {
+                // Rows may belong to any account, and a failed import may have committed some batches
+                timelineCache.bumpAll();
+            }
+            statsTracker.rebuild();
+            return result;
+        }
     }
 
 }
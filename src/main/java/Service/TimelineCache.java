@@ -0,0 +1,193 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import Util.CachedClock;
+
+/**
+ * Serialized message lists per account, so GET /accounts/{account_id}/messages can answer with bytes
+ * that were already encoded instead of querying and serializing the whole list again. An account's
+ * list is cached once per response format (the variant).
+ *
+ * Entries are tagged with the account's version when the read started. Writes bump the version of the
+ * account they touch and nothing else, so a cached list is served only while no message of its account
+ * has been posted, changed or deleted since it was read. Versions live in a fixed array of stripes;
+ * accounts sharing a stripe also share bumps, which costs a miss now and then but no memory per account.
+ *
+ * Memory is capped by the bytes held rather than the entry count, since one busy account's list can be
+ * as large as thousands of quiet ones. Past the cap, the entries with the largest size times idle time
+ * are evicted until the cache is back under 90% of it: big lists nobody has asked for lately go first,
+ * small or hot ones stay.
+ */
+public class TimelineCache {
+
+    private static final int VERSION_STRIPES = 1 << 12;
+
+    // Rough cost of an entry besides its bytes: the entry, its key and the map node
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long maxBytes;
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    // Bumped when many accounts change at once, e.g. by a bulk import; part of every account's version
+    private final AtomicLong epoch = new AtomicLong();
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static final class Entry {
+        final long version;
+        final byte[] body;
+        volatile long lastAccessMillis;
+
+        Entry(long version, byte[] body) {
+            this.version = version;
+            this.body = body;
+            this.lastAccessMillis = CachedClock.nowMillis();
+        }
+
+        long size() {
+            return body.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    public TimelineCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the account's current version; take it before reading the list that will be passed to put()
+     */
+    public long version(int accountId) {
+        // Both parts only grow, so the sum changes whenever either is bumped
+        return epoch.get() + versions.get(stripe(accountId));
+    }
+
+    /**
+     * Marks every cached list of the account as out of date. Call after the write has committed.
+     */
+    public void bump(int accountId) {
+        versions.incrementAndGet(stripe(accountId));
+    }
+
+    /**
+     * Marks every cached list as out of date.
+     */
+    public void bumpAll() {
+        epoch.incrementAndGet();
+    }
+
+    /**
+     * @return the cached bytes of the account's list in variant, or null unless they were read at version
+     */
+    public byte[] get(int accountId, String variant, long version) {
+        String key = key(accountId, variant);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (entry.version != version) {
+            if (entries.remove(key, entry)) {
+                bytes.addAndGet(-entry.size());
+            }
+            stale.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.lastAccessMillis = CachedClock.nowMillis();
+        hits.incrementAndGet();
+        return entry.body;
+    }
+
+    /**
+     * Caches body as the account's list in variant, unless the account was bumped since version was
+     * taken. Lists over a quarter of the cap are not cached, so a single account cannot flush the rest.
+     */
+    public void put(int accountId, String variant, long version, byte[] body) {
+        if (body.length + ENTRY_OVERHEAD > maxBytes / 4 || version(accountId) != version) {
+            return;
+        }
+        Entry entry = new Entry(version, body);
+        Entry previous = entries.put(key(accountId, variant), entry);
+        bytes.addAndGet(entry.size() - (previous == null ? 0 : previous.size()));
+        if (bytes.get() > maxBytes) {
+            evict();
+        }
+    }
+
+    public void clear() {
+        bumpAll();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entries.remove(entry.getKey(), entry.getValue())) {
+                bytes.addAndGet(-entry.getValue().size());
+            }
+        }
+    }
+
+    /**
+     * Evicts the entries with the largest size times idle time until the cache holds at most 90% of the
+     * cap. One thread evicts at a time; the others carry on, the cache being briefly over the cap.
+     */
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            long now = CachedClock.nowMillis();
+            List<Map.Entry<String, Entry>> candidates = new ArrayList<>(entries.entrySet());
+            long[] scores = new long[candidates.size()];
+            Integer[] order = new Integer[candidates.size()];
+            for (int i = 0; i < scores.length; i++) {
+                Entry entry = candidates.get(i).getValue();
+                scores[i] = entry.size() * (Math.max(0, now - entry.lastAccessMillis) + 1);
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(scores[b], scores[a]));
+            long target = maxBytes / 10 * 9;
+            for (int i = 0; i < order.length && bytes.get() > target; i++) {
+                Map.Entry<String, Entry> candidate = candidates.get(order[i]);
+                if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                    bytes.addAndGet(-candidate.getValue().size());
+                    evictions.incrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return entry count, bytes held against the cap, and hit/miss/stale/eviction totals
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("entries", entries.size());
+        metrics.put("bytes", bytes.get());
+        metrics.put("max_bytes", maxBytes);
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("stale", stale.get());
+        metrics.put("evictions", evictions.get());
+        return metrics;
+    }
+
+    private static String key(int accountId, String variant) {
+        return accountId + " " + variant;
+    }
+
+    private static int stripe(int accountId) {
+        return (accountId * 0x9E3779B9 >>> 20) & (VERSION_STRIPES - 1);
+    }
+}
@@ -0,0 +1,322 @@
+package Util;
+
+/**
+ * Runtime settings for the API. Every value is read from a JVM system property (for example
+ * -Dsocialmedia.replicas=2) so the defaults keep the single-database behavior the tests rely on.
+ */
+public class AppConfig {
+
+	/**
+	 * @return true when the API runs under the test suite; startup then wipes the database and reseeds it.
+	 * Otherwise startup only applies pending schema migrations and keeps the data.
+	 */
+	public static boolean testMode() {
+		return Boolean.getBoolean("socialmedia.testMode");
+	}
+
+	/**
+	 * @return JDBC url of the primary database. The default is an embedded file database only this process can open;
+	 * instances sharing one database point this at an H2 server, e.g. jdbc:h2:tcp://dbhost:9092/./h2/db.
+	 */
+	public static String databaseUrl() {
+		return System.getProperty("socialmedia.db.url", "jdbc:h2:./h2/db;");
+	}
+
+	/**
+	 * @return TCP port this instance serves its primary database on to other instances (H2 mixed mode). 0 serves nothing.
+	 */
+	public static int databaseServerPort() {
+		return Integer.getInteger("socialmedia.db.serverPort", 0);
+	}
+
+	/**
+	 * @return HTTP port Main opens the API on.
+	 */
+	public static int httpPort() {
+		return Integer.getInteger("socialmedia.port", 8080);
+	}
+
+	/**
+	 * @return number of read-only replica databases to route reads to. 0 disables read/write splitting.
+	 */
+	public static int replicaCount() {
+		return Integer.getInteger("socialmedia.replicas", 0);
+	}
+
+	/**
+	 * @return how often the built-in replicator copies the primary into the replicas, in milliseconds.
+	 */
+	public static long replicationIntervalMillis() {
+		return Long.getLong("socialmedia.replication.intervalMillis", 500L);
+	}
+
+	/**
+	 * @return comma separated list of tables the replicator copies, parents before children.
+	 */
+	public static String[] replicatedTables() {
+		return System.getProperty("socialmedia.replication.tables", "account,message").split(",");
+	}
+
+	/**
+	 * @return number of H2 databases messages are sharded across by posted_by. 0 keeps messages in the primary database.
+	 */
+	public static int shardCount() {
+		return Integer.getInteger("socialmedia.shards", 0);
+	}
+
+	/**
+	 * @return JDBC url prefix for shard databases; the shard index is appended (shard 0 is jdbc:h2:./h2/shard0).
+	 */
+	public static String shardUrlPrefix() {
+		return System.getProperty("socialmedia.shards.urlPrefix", "jdbc:h2:./h2/shard");
+	}
+
+	/**
+	 * @return how often changed per-account message statistics are written to the account_stats table, in milliseconds.
+	 */
+	public static long statsCheckpointMillis() {
+		return Long.getLong("socialmedia.stats.checkpointMillis", 5000L);
+	}
+
+	/**
+	 * @return rows fetched per round trip by the streaming export endpoints.
+	 */
+	public static int exportFetchSize() {
+		return Integer.getInteger("socialmedia.export.fetchSize", 1000);
+	}
+
+	/**
+	 * @return starting concurrency limit of a route bulkhead ("read", "write" or "bulk").
+	 */
+	public static int admissionInitialLimit(String bulkhead) {
+		return Integer.getInteger("socialmedia.admission." + bulkhead + ".initialLimit", bulkhead.equals("bulk") ? 2 : 32);
+	}
+
+	/**
+	 * @return largest concurrency limit the adaptive limiter may grow a bulkhead to.
+	 */
+	public static int admissionMaxLimit(String bulkhead) {
+		return Integer.getInteger("socialmedia.admission." + bulkhead + ".maxLimit", bulkhead.equals("bulk") ? 2 : 256);
+	}
+
+	/**
+	 * @return request latency above which the adaptive limiter of a bulkhead backs off, in milliseconds. 0 keeps the
+	 * bulkhead at its initial limit; the default for "bulk", whose exports and imports are slow by design.
+	 */
+	public static long admissionTargetLatencyMillis(String bulkhead) {
+		return Long.getLong("socialmedia.admission." + bulkhead + ".targetLatencyMillis",
+				bulkhead.equals("bulk") ? 0L : Long.getLong("socialmedia.admission.targetLatencyMillis", 100L));
+	}
+
+	/**
+	 * @return longest a request may wait for a slot before it is rejected with 503, in milliseconds.
+	 */
+	public static long admissionQueueBudgetMillis() {
+		return Long.getLong("socialmedia.admission.queueBudgetMillis", 50L);
+	}
+
+	/**
+	 * @return rounds of synthetic serialization and read-only DAO calls Main runs before opening the port. 0 skips the warm-up.
+	 */
+	public static int warmupIterations() {
+		return Integer.getInteger("socialmedia.warmup.iterations", 0);
+	}
+
+	/**
+	 * @return fraction of requests traced at startup, 0 to 1. Can be changed at runtime through /debug/traces/sampling.
+	 */
+	public static double traceSampleRate() {
+		return Double.parseDouble(System.getProperty("socialmedia.trace.sampleRate", "0"));
+	}
+
+	/**
+	 * @return number of finished request traces kept in memory for /debug/traces.
+	 */
+	public static int traceBufferSize() {
+		return Integer.getInteger("socialmedia.trace.bufferSize", 1024);
+	}
+
+	/**
+	 * @return statements running longer than this are written to the slow-query log, in milliseconds. Negative turns the log off.
+	 */
+	public static long slowQueryThresholdMillis() {
+		return Long.getLong("socialmedia.slowQuery.thresholdMillis", 100L);
+	}
+
+	/**
+	 * @return pause between runs of the soft-delete purge, in milliseconds.
+	 */
+	public static long purgeIntervalMillis() {
+		return Long.getLong("socialmedia.purge.intervalMillis", 1000L);
+	}
+
+	/**
+	 * @return tombstoned messages removed per purge statement.
+	 */
+	public static int purgeBatchSize() {
+		return Integer.getInteger("socialmedia.purge.batchSize", 500);
+	}
+
+	/**
+	 * @return most purge batches per database in one run; together with the interval this caps the purge rate.
+	 */
+	public static int purgeMaxBatchesPerRun() {
+		return Integer.getInteger("socialmedia.purge.maxBatchesPerRun", 20);
+	}
+
+	/**
+	 * @return pause between purge batches within a run, giving request traffic room, in milliseconds.
+	 */
+	public static long purgePauseMillis() {
+		return Long.getLong("socialmedia.purge.pauseMillis", 50L);
+	}
+
+	/**
+	 * @return how long an Idempotency-Key of POST /messages is remembered, in seconds.
+	 */
+	public static long idempotencyTtlSeconds() {
+		return Long.getLong("socialmedia.idempotency.ttlSeconds", 86400L);
+	}
+
+	/**
+	 * @return most idempotency keys held in memory; older keys are still found in the idempotency_key table.
+	 */
+	public static int idempotencyMaxEntries() {
+		return Integer.getInteger("socialmedia.idempotency.maxEntries", 10000);
+	}
+
+	/**
+	 * @return most messages kept in the by-id message cache. 0 turns the cache off.
+	 */
+	public static int messageCacheSize() {
+		return Integer.getInteger("socialmedia.messageCache.size", 10000);
+	}
+
+	/**
+	 * @return longest a read waits for an identical read already running before it queries the database itself, in milliseconds.
+	 */
+	public static long singleFlightMaxWaitMillis() {
+		return Long.getLong("socialmedia.singleFlight.maxWaitMillis", 1000L);
+	}
+
+	/**
+	 * @return pause between rebuilds of the columnar analytics snapshot of the message table, in milliseconds.
+	 */
+	public static long analyticsRefreshMillis() {
+		return Long.getLong("socialmedia.analytics.refreshMillis", 60000L);
+	}
+
+	/**
+	 * @return counters per row of the hot-key Count-Min Sketches; wider sketches overcount less.
+	 */
+	public static int hotKeysSketchWidth() {
+		return Integer.getInteger("socialmedia.hotKeys.sketchWidth", 2048);
+	}
+
+	/**
+	 * @return heavy-hitter candidates tracked per hot-key sub-window, the most /debug/hotkeys can report.
+	 */
+	public static int hotKeysCandidates() {
+		return Integer.getInteger("socialmedia.hotKeys.candidates", 32);
+	}
+
+	/**
+	 * @return length of one hot-key sub-window, in milliseconds. The sliding window is six of them.
+	 */
+	public static long hotKeysWindowMillis() {
+		return Long.getLong("socialmedia.hotKeys.windowMillis", 10000L);
+	}
+
+	/**
+	 * @return largest body accepted by POST /messages and PATCH /messages/{message_id}, in bytes. Enough for
+	 * 255 characters written entirely as JSON escapes.
+	 */
+	public static int maxMessageBodyBytes() {
+		return Integer.getInteger("socialmedia.maxBody.messageBytes", 4096);
+	}
+
+	/**
+	 * @return most memory the serialized per-account timelines may take, in bytes. 0 turns the cache off.
+	 */
+	public static long timelineCacheBytes() {
+		return Long.getLong("socialmedia.timelineCache.bytes", 32L * 1024 * 1024);
+	}
+
+	/**
+	 * @return loopback port the primary streams committed changes on for follower nodes. 0 turns the stream off.
+	 */
+	public static int replicationStreamPort() {
+		return Integer.getInteger("socialmedia.replication.streamPort", 0);
+	}
+
+	/**
+	 * @return host of the primary's change stream, as seen by a follower.
+	 */
+	public static String replicationPrimaryHost() {
+		return System.getProperty("socialmedia.replication.primaryHost", "127.0.0.1");
+	}
+
+	/**
+	 * @return JDBC url of a follower node's own database.
+	 */
+	public static String followerUrl() {
+		return System.getProperty("socialmedia.follower.url", "jdbc:h2:./h2/follower");
+	}
+
+	/**
+	 * @return loopback UDP port this instance receives cache invalidations from its peers on. 0 turns the invalidation bus off.
+	 */
+	public static int invalidationPort() {
+		return Integer.getInteger("socialmedia.invalidation.port", 0);
+	}
+
+	/**
+	 * @return comma separated host:port list of the other instances' invalidation ports.
+	 */
+	public static String invalidationPeers() {
+		return System.getProperty("socialmedia.invalidation.peers", "");
+	}
+
+	/**
+	 * @return how long invalidations collect before they are sent to the peers, in milliseconds.
+	 */
+	public static long invalidationBatchMillis() {
+		return Long.getLong("socialmedia.invalidation.batchMillis", 2L);
+	}
+
+	/**
+	 * @return message rows DELETE /accounts/{account_id} removes per transaction.
+	 */
+	public static int accountDeleteChunkSize() {
+		return Integer.getInteger("socialmedia.accountDelete.chunkSize", 1000);
+	}
+
+	/**
+	 * @return messages a bulk delete job removes per transaction.
+	 */
+	public static int bulkDeleteBatchSize() {
+		return Integer.getInteger("socialmedia.bulkDelete.batchSize", 500);
+	}
+
+	/**
+	 * @return most messages a bulk delete job removes per second, unless the request asks for less or more.
+	 */
+	public static int bulkDeleteRowsPerSecond() {
+		return Integer.getInteger("socialmedia.bulkDelete.rowsPerSecond", 2000);
+	}
+
+	/**
+	 * @return most bulk delete jobs queued or running at once; further submissions are refused until one finishes.
+	 */
+	public static int bulkDeleteMaxPendingJobs() {
+		return Integer.getInteger("socialmedia.bulkDelete.maxPendingJobs", 8);
+	}
+
+	/**
+	 * @return how long change numbers reserved by a commit hold back change readers before they are given up
+	 * as belonging to a crashed instance, in seconds.
+	 */
+	public static long changeReservationTimeoutSeconds() {
+		return Long.getLong("socialmedia.changeLog.reservationTimeoutSeconds", 60L);
+	}
+}
@@ -0,0 +1,27 @@
+package Util;
+
+import java.nio.file.Path;
+
+import DAO.BulkImportDAO;
+import Service.BulkImportService;
+
+/**
+ * Offline bulk import of messages, for seeding or migrating a database while the API is stopped:
+ *
+ *   java -cp ... Util.BulkImportTool <file> <ndjson|csv>
+ *
+ * The message foreign key is suspended for the load and re-checked afterwards. The checkpointed
+ * per-account statistics are cleared so the next startup recounts them.
+ */
+public class BulkImportTool {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.out.println("Usage: BulkImportTool <file> <ndjson|csv>");
+            return;
+        }
+        BulkImportService.Format format = BulkImportService.Format.valueOf(args[1].toUpperCase());
+        new BulkImportService(true).importMessages(Path.of(args[0]), format);
+        BulkImportDAO.clearAccountStats();
+    }
+}
@@ -0,0 +1,44 @@
+package Util;
+
+/**
+ * Coarse wall clock for stamping messages and bucketing counters. A daemon thread refreshes the current epoch second
+ * every few milliseconds, so reading it is a single volatile load instead of a clock call.
+ */
+public class CachedClock {
+
+	private static final long TICK_MILLIS = 10;
+
+	private static volatile long epochSeconds = System.currentTimeMillis() / 1000;
+	private static volatile long epochMillis = System.currentTimeMillis();
+
+	static {
+		Thread ticker = new Thread(() -> {
+			while (true) {
+				long now = System.currentTimeMillis();
+				epochMillis = now;
+				epochSeconds = now / 1000;
+				try {
+					Thread.sleep(TICK_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "cached-clock");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	/**
+	 * @return the current time in seconds since Jan 1, 1970, accurate to about TICK_MILLIS
+	 */
+	public static long nowSeconds() {
+		return epochSeconds;
+	}
+
+	/**
+	 * @return the current time in milliseconds since Jan 1, 1970, accurate to about TICK_MILLIS
+	 */
+	public static long nowMillis() {
+		return epochMillis;
+	}
+}
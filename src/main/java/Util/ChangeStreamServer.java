@@ -0,0 +1,268 @@
+package Util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import DAO.ChangeLogDAO;
+import DAO.ReplicationDAO;
+import Model.AccountChange;
+import Model.MessageChange;
+
+/**
+ * Primary side of change-data-capture replication: streams committed account and message changes to
+ * follower nodes (see ReplicationFollower) over a loopback socket, one JSON record per line.
+ *
+ * A follower opens with {"type":"hello","position":P}, the last change it applied. A follower without
+ * a position, or with one the log does not have, first gets a snapshot of both tables as of a log
+ * position. From then on it gets every change after its position in log order, in batches, and acks
+ * each batch once it has committed it; with nothing to send, a heartbeat carries the primary's
+ * position so the follower can tell how far behind it is.
+ */
+public class ChangeStreamServer {
+
+    // Most changes of one table read per batch
+    private static final int BATCH = 1000;
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    private final int port;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * What the primary knows about one connected follower.
+     */
+    private static final class Follower {
+        final String address;
+        final long connectedMillis = System.currentTimeMillis();
+        volatile long snapshotsSent;
+        volatile long sentPosition = -1;
+        volatile long ackedPosition = -1;
+
+        Follower(String address) {
+            this.address = address;
+        }
+    }
+
+    public ChangeStreamServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Starts accepting followers on the loopback interface.
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "change-stream-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread session = new Thread(() -> serve(socket), "change-stream-" + socket.getPort());
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.out.println("Change stream error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Follower follower = new Follower(socket.getRemoteSocketAddress().toString());
+        followers.add(follower);
+        try (Socket session = socket) {
+            session.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(session.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = new BufferedOutputStream(session.getOutputStream(), 1 << 16);
+            JsonNode hello = mapper.readTree(in.readLine());
+            long position = hello.get("position").asLong();
+            if (position < 0 || position > ChangeLogDAO.latestSequence()) {
+                position = sendSnapshot(out);
+                follower.snapshotsSent++;
+            }
+            follower.sentPosition = position;
+            readAcks(in, follower, session);
+            while (!serverSocket.isClosed()) {
+                long latest = ChangeLogDAO.awaitCommit(position, HEARTBEAT_MILLIS);
+                if (latest > position) {
+                    position = sendChanges(out, position, latest);
+                    follower.sentPosition = position;
+                } else {
+                    ObjectNode heartbeat = record("heartbeat");
+                    heartbeat.put("primary_position", latest);
+                    write(out, heartbeat);
+                    out.flush();
+                }
+            }
+        } catch (IOException | SQLException e) {
+            System.out.println("Change stream to " + follower.address + " ended: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(follower);
+        }
+    }
+
+    // Acks arrive independently of what is being sent, so they are read on their own thread
+    private void readAcks(BufferedReader in, Follower follower, Socket session) {
+        Thread reader = new Thread(() -> {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    JsonNode ack = mapper.readTree(line);
+                    follower.ackedPosition = ack.get("position").asLong();
+                }
+                session.close();
+            } catch (IOException e) {
+                // The session thread notices the closed socket on its next write
+            }
+        }, "change-stream-acks-" + session.getPort());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends both tables as of a log position.
+     * @return the snapshot's position
+     */
+    private long sendSnapshot(OutputStream out) throws SQLException, IOException {
+        ReplicationDAO.Snapshot snapshot = ReplicationDAO.openSnapshot();
+        try {
+            ObjectNode start = record("snapshot");
+            start.put("position", snapshot.getPosition());
+            write(out, start);
+            ReplicationDAO.streamAccounts(snapshot, row -> {
+                ObjectNode account = record("account");
+                account.put("account_id", row.getInt(1));
+                account.put("username", row.getString(2));
+                account.put("password", row.getString(3));
+                write(out, account);
+            });
+            ReplicationDAO.streamMessages(snapshot, row -> {
+                ObjectNode message = record("message");
+                message.put("message_id", row.getInt(1));
+                message.put("posted_by", row.getInt(2));
+                message.put("message_text", row.getString(3));
+                message.put("time_posted_epoch", row.getLong(4));
+                write(out, message);
+            });
+            ObjectNode end = record("snapshot_end");
+            end.put("position", snapshot.getPosition());
+            write(out, end);
+            out.flush();
+            return snapshot.getPosition();
+        } finally {
+            ReplicationDAO.closeSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * Sends the next batch of changes after position, up to latest, merged into log order.
+     * @return the position the follower is at once it applies the batch
+     */
+    private long sendChanges(OutputStream out, long position, long latest) throws IOException {
+        List<AccountChange> accounts = ChangeLogDAO.retrieveAccountChanges(position, latest, BATCH);
+        List<MessageChange> messages = ChangeLogDAO.retrieveChanges(position, latest, BATCH);
+        // A full batch from one table may stop short of changes the other table returned, so the batch
+        // ends at the lower of the full batches' last changes
+        long upTo = latest;
+        if (accounts.size() == BATCH) {
+            upTo = Math.min(upTo, accounts.get(BATCH - 1).getChange_seq());
+        }
+        if (messages.size() == BATCH) {
+            upTo = Math.min(upTo, messages.get(BATCH - 1).getChange_seq());
+        }
+        List<ObjectNode> changes = new ArrayList<>(accounts.size() + messages.size());
+        int a = 0;
+        int m = 0;
+        while (a < accounts.size() || m < messages.size()) {
+            boolean takeAccount = m == messages.size()
+                    || (a < accounts.size() && accounts.get(a).getChange_seq() < messages.get(m).getChange_seq());
+            ObjectNode change = takeAccount ? mapper.valueToTree(accounts.get(a++)) : mapper.valueToTree(messages.get(m++));
+            if (change.get("change_seq").asLong() > upTo) {
+                break;
+            }
+            change.put("table", takeAccount ? "account" : "message");
+            changes.add(change);
+        }
+        ObjectNode batch = record("changes");
+        batch.put("position", upTo);
+        batch.put("primary_position", latest);
+        batch.putArray("changes").addAll(changes);
+        write(out, batch);
+        out.flush();
+        return upTo;
+    }
+
+    private ObjectNode record(String type) {
+        ObjectNode record = mapper.createObjectNode();
+        record.put("type", type);
+        return record;
+    }
+
+    private void write(OutputStream out, JsonNode record) throws IOException {
+        out.write(mapper.writeValueAsBytes(record));
+        out.write('\n');
+    }
+
+    /**
+     * @return the primary's log position and, per connected follower, what was sent and acked
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long latest = -1;
+        try {
+            latest = ChangeLogDAO.latestSequence();
+        } catch (SQLException sqle) {
+            System.out.println("Error: " + sqle.getMessage());
+        }
+        metrics.put("port", port);
+        metrics.put("position", latest);
+        List<Map<String, Object>> connected = new ArrayList<>();
+        for (Follower follower : followers) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("address", follower.address);
+            entry.put("connected_epoch_millis", follower.connectedMillis);
+            entry.put("snapshots_sent", follower.snapshotsSent);
+            entry.put("sent_position", follower.sentPosition);
+            entry.put("acked_position", follower.ackedPosition);
+            entry.put("lag_changes", follower.ackedPosition < 0 ? -1 : Math.max(0, latest - follower.ackedPosition));
+            connected.add(entry);
+        }
+        metrics.put("followers", connected);
+        return metrics;
+    }
+}
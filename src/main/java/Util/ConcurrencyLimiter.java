@@ -0,0 +1,90 @@
+package Util;
+
+/**
+ * Adaptive concurrency limit (AIMD) for one bulkhead of routes. Requests run while fewer than
+ * limit are in flight; beyond that they may wait up to the queue-time budget for a slot and are
+ * then rejected, so an overloaded database sheds load instead of collecting a growing queue.
+ *
+ * Every completed request reports its latency: under the target the limit grows by 1/limit
+ * (about +1 per limit's worth of requests), above it the limit is cut by BACKOFF. Without a target
+ * the limit stays where it started, for routes whose latency says nothing about database load.
+ */
+public class ConcurrencyLimiter {
+
+    private static final double BACKOFF = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final long queueBudgetNanos;
+
+    private double limit;
+    private int inFlight;
+    private long accepted;
+    private long rejected;
+
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, long targetLatencyMillis, long queueBudgetMillis) {
+        this.name = name;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = targetLatencyMillis * 1_000_000;
+        this.queueBudgetNanos = queueBudgetMillis * 1_000_000;
+    }
+
+    /**
+     * Takes a slot, waiting at most the queue-time budget for one to free up.
+     * @return false if the request should be rejected
+     */
+    public synchronized boolean acquire() throws InterruptedException {
+        long deadline = System.nanoTime() + queueBudgetNanos;
+        while (inFlight >= (int) limit) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                rejected++;
+                return false;
+            }
+            wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+        }
+        inFlight++;
+        accepted++;
+        return true;
+    }
+
+    /**
+     * Returns a slot and adjusts the limit from the request's latency.
+     */
+    public synchronized void release(long latencyNanos) {
+        inFlight--;
+        if (targetLatencyNanos <= 0) {
+            // Fixed limit
+        } else if (latencyNanos > targetLatencyNanos) {
+            limit = Math.max(minLimit, limit * BACKOFF);
+        } else if (inFlight + 1 >= (int) limit) {
+            // Only grow while the limit is actually what holds requests back
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getAccepted() {
+        return accepted;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
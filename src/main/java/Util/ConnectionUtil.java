@@ -4,8 +4,14 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.h2.jdbcx.JdbcDataSource;
+import org.h2.tools.Server;
 import org.h2.tools.RunScript;
 
 /**
@@ -13,15 +19,19 @@ import org.h2.tools.RunScript;
  * our database. This class utilizes the singleton design pattern. We will be
  * utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * The data source behind getConnection() is the primary and takes every write. When
+ * read replicas are configured, getReadConnection() spreads reads across them
+ * round-robin while keeping each client on the primary until its own writes have
+ * been replicated (read-your-writes).
  */
 public class ConnectionUtil {
 
 	/**
-	 * url will represent our connection string. Since this is an in-memory db, we
-	 * will represent a file location to store the data
+	 * url will represent our connection string. By default this is an embedded
+	 * database stored at a file location; instances sharing one database set
+	 * socialmedia.db.url to an H2 server instead.
 	 */
-	private static String url = "jdbc:h2:./h2/db;";
+	private static String url = AppConfig.databaseUrl();
 	/**
 	 * Default username for connecting to h2
 	 */
@@ -36,6 +46,36 @@ public class ConnectionUtil {
 	 */
 	private static JdbcDataSource pool = new JdbcDataSource();
 
+	/**
+	 * Read-only replicas, empty unless configureReplicas() was called with a count above 0.
+	 */
+	private static JdbcDataSource[] replicas = new JdbcDataSource[0];
+
+	/**
+	 * Highest write sequence number each replica has applied, indexed like replicas.
+	 */
+	private static AtomicLongArray replicaAppliedSeq = new AtomicLongArray(0);
+
+	/**
+	 * Incremented on every write to the primary.
+	 */
+	private static final AtomicLong writeSequence = new AtomicLong();
+
+	/**
+	 * Round-robin cursor for replica selection.
+	 */
+	private static final AtomicInteger nextReplica = new AtomicInteger();
+
+	/**
+	 * Write sequence of the last write made by each client, used for read-your-writes stickiness.
+	 */
+	private static final Map<String, Long> lastWriteByClient = new ConcurrentHashMap<>();
+
+	/**
+	 * Client identity of the request being served on the current thread.
+	 */
+	private static final ThreadLocal<String> currentClient = new ThreadLocal<>();
+
 	/**
 	 * static initialization block to establish credentials for DataSoure Pool
 	 */
@@ -50,7 +90,64 @@ public class ConnectionUtil {
 	 */
 	public static Connection getConnection() {
 		try {
-			return pool.getConnection();
+			return open(pool);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Opens a connection from source. Unless both the slow-query log and tracing are off, the connection
+	 * is wrapped so its statements are timed and, while the current thread is tracing a request, recorded
+	 * as spans together with the time taken to open it.
+	 */
+	static Connection open(JdbcDataSource source) throws SQLException {
+		if (!Tracer.isActive() && !SlowQueryLog.isEnabled()) {
+			return source.getConnection();
+		}
+		long start = System.nanoTime();
+		Connection conn = source.getConnection();
+		return InstrumentedJdbc.wrap(conn, source, System.nanoTime() - start);
+	}
+
+	/**
+	 * Replaces the replica set with count in-memory H2 databases. Each replica starts empty
+	 * and is only used for reads once the Replicator has copied the primary into it.
+	 * @param count number of replicas, 0 routes every read to the primary
+	 */
+	public static synchronized void configureReplicas(int count) {
+		JdbcDataSource[] newReplicas = new JdbcDataSource[count];
+		for (int i = 0; i < count; i++) {
+			newReplicas[i] = new JdbcDataSource();
+			newReplicas[i].setURL("jdbc:h2:mem:replica" + i + ";DB_CLOSE_DELAY=-1");
+			newReplicas[i].setUser(username);
+			newReplicas[i].setPassword(password);
+		}
+		AtomicLongArray applied = new AtomicLongArray(count);
+		for (int i = 0; i < count; i++) {
+			applied.set(i, -1);
+		}
+		replicaAppliedSeq = applied;
+		replicas = newReplicas;
+		lastWriteByClient.clear();
+	}
+
+	/**
+	 * @return number of configured replicas
+	 */
+	public static int getReplicaCount() {
+		return replicas.length;
+	}
+
+	/**
+	 * @param index replica index
+	 * @return a connection to that replica, used by the Replicator to apply changes
+	 */
+	public static Connection getReplicaConnection(int index) {
+		try {
+			return replicas[index].getConnection();
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -58,15 +155,128 @@ public class ConnectionUtil {
 		return null;
 	}
 
+	/**
+	 * @return a connection suitable for reads. A replica is chosen round-robin among those that
+	 * have caught up with the current client's last write; if none has, the primary is used.
+	 */
+	public static Connection getReadConnection() {
+		JdbcDataSource[] current = replicas;
+		AtomicLongArray applied = replicaAppliedSeq;
+		if (current.length == 0) {
+			return getConnection();
+		}
+		Long lastWrite = lastWriteByClient.get(clientKey());
+		long required = lastWrite == null ? 0 : lastWrite;
+		int start = Math.floorMod(nextReplica.getAndIncrement(), current.length);
+		for (int i = 0; i < current.length; i++) {
+			int index = (start + i) % current.length;
+			if (applied.get(index) >= required) {
+				try {
+					return open(current[index]);
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return getConnection();
+	}
+
+	/**
+	 * Records a write against the primary. Must be called after every successful insert, update or delete
+	 * so replicas know what they have to catch up with and the writing client stays on the primary.
+	 */
+	public static void markWrite() {
+		long seq = writeSequence.incrementAndGet();
+		if (replicas.length > 0) {
+			lastWriteByClient.put(clientKey(), seq);
+		}
+	}
+
+	/**
+	 * @return the sequence number of the most recent write to the primary
+	 */
+	public static long currentWriteSequence() {
+		return writeSequence.get();
+	}
+
+	/**
+	 * Called by the Replicator once a replica holds every write up to seq. Stickiness entries that
+	 * every replica has caught up with are dropped.
+	 */
+	public static void replicaCaughtUp(int index, long seq) {
+		AtomicLongArray applied = replicaAppliedSeq;
+		if (index >= applied.length()) {
+			return;
+		}
+		applied.set(index, seq);
+		long minApplied = Long.MAX_VALUE;
+		for (int i = 0; i < applied.length(); i++) {
+			minApplied = Math.min(minApplied, applied.get(i));
+		}
+		final long caughtUp = minApplied;
+		lastWriteByClient.values().removeIf(lastWrite -> lastWrite <= caughtUp);
+	}
+
+	/**
+	 * @return true if the current client has written something that not every replica holds yet,
+	 * so its reads must not be answered with data read on behalf of another client
+	 */
+	public static boolean hasUnreplicatedWrites() {
+		return replicas.length > 0 && lastWriteByClient.containsKey(clientKey());
+	}
+
+	/**
+	 * Associates the current thread with a client, e.g. the remote address of an HTTP request.
+	 * @param client client identity, or null to clear it
+	 */
+	public static void setCurrentClient(String client) {
+		if (client == null) {
+			currentClient.remove();
+		} else {
+			currentClient.set(client);
+		}
+	}
+
+	private static String clientKey() {
+		String client = currentClient.get();
+		return client != null ? client : Thread.currentThread().getName();
+	}
+
+	/**
+	 * Serves the primary database to other instances over TCP (H2 mixed mode), for a deployment without a
+	 * separate database server: this instance keeps its embedded connections, the others set
+	 * socialmedia.db.url to jdbc:h2:tcp://host:port/ followed by this instance's database path.
+	 * @return the started server, to be stopped with the API
+	 */
+	public static Server startDatabaseServer(int port) throws SQLException {
+		return Server.createTcpServer("-tcpPort", Integer.toString(port), "-tcpAllowOthers").start();
+	}
+
+	/**
+	 * Brings the database schema up to date by applying any migrations that have not run yet.
+	 * Called on every startup; on an up-to-date database it only reads the schema_version table.
+	 */
+	public static void migrateDatabase() {
+		try {
+			SchemaMigrator.migrate(getConnection());
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * For the purpose of testing, we will need to drop and recreate our database
-	 * tables to keep it consistent across all tests. The method will read the sql
-	 * file in resources. This will be performed before every test.
+	 * tables to keep it consistent across all tests. Everything is dropped, the
+	 * migrations rebuild the schema, and the sql file in resources adds the seed
+	 * data. This will be performed before every test.
 	 */
 	public static void resetTestDatabase() {
 		try {
+			Connection conn = getConnection();
+			conn.createStatement().execute("DROP ALL OBJECTS;");
+			SchemaMigrator.migrate(conn);
 			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");			
-			RunScript.execute(getConnection(), sqlReader);
+			RunScript.execute(conn, sqlReader);
 		} catch (SQLException | FileNotFoundException e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,235 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Approximate request counts per key (a message id, an account id) over a sliding window, in fixed
+ * memory, for finding the keys that drive the read load.
+ *
+ * The window is a ring of sub-windows. Each holds a Count-Min Sketch, depth rows of width counters
+ * updated with atomic increments, so counting takes no lock. A key's count is the sum of its sketch
+ * estimates over the live sub-windows. Sketch estimates never undercount and overcount by at most
+ * about e/width of the sub-window's total.
+ *
+ * Each sub-window also keeps a fixed set of candidate heavy hitters, maintained Space-Saving style:
+ * when the set is full, a key whose estimate beats the set's minimum replaces the candidate with the
+ * lowest estimate. Most keys never get past the volatile read of that minimum, and keys past 16 requests
+ * in the sub-window are only offered on every 16th, so hot keys rarely touch the set. When another thread
+ * is updating the set, the update is skipped rather than waited for; the key is still counted in
+ * the sketch and gets another chance on its next request.
+ */
+public class HotKeyTracker {
+
+    // Keys past this many requests in a sub-window are offered to the candidates on every OFFER_EVERY-th request
+    private static final long OFFER_EVERY = 16;
+
+    private final int width;
+    private final int depth;
+    private final int candidates;
+    private final long windowMillis;
+    private final Window[] windows;
+    private final LongAdder recorded = new LongAdder();
+
+    private final class Window {
+        final AtomicIntegerArray counts = new AtomicIntegerArray(depth * width);
+        final AtomicLong epoch = new AtomicLong(-1);
+        final ReentrantLock candidateLock = new ReentrantLock();
+        final int[] keys = new int[candidates];
+        int size;
+        volatile long floor;
+
+        /**
+         * Makes this sub-window the one for epoch, clearing the counts of the epoch it held before.
+         * Increments racing the reset may be lost; the counts are estimates anyway.
+         */
+        void roll(long current) {
+            long previous = epoch.get();
+            if (previous != current && epoch.compareAndSet(previous, current)) {
+                for (int i = 0; i < counts.length(); i++) {
+                    counts.set(i, 0);
+                }
+                candidateLock.lock();
+                try {
+                    size = 0;
+                    floor = 0;
+                } finally {
+                    candidateLock.unlock();
+                }
+            }
+        }
+
+        long estimate(int key) {
+            long hash = hash(key);
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < depth; row++) {
+                estimate = Math.min(estimate, counts.get(slot(hash, row)));
+            }
+            return estimate;
+        }
+    }
+
+    /**
+     * @param width counters per sketch row, rounded up to a power of two
+     * @param depth sketch rows; the chance an estimate is far off falls exponentially with depth
+     * @param candidates heavy-hitter candidates kept per sub-window
+     * @param windowMillis length of one sub-window
+     * @param windowCount sub-windows in the sliding window
+     */
+    public HotKeyTracker(int width, int depth, int candidates, long windowMillis, int windowCount) {
+        this.width = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.depth = depth;
+        this.candidates = candidates;
+        this.windowMillis = windowMillis;
+        this.windows = new Window[windowCount];
+        for (int i = 0; i < windowCount; i++) {
+            windows[i] = new Window();
+        }
+    }
+
+    /**
+     * Counts one request for key.
+     */
+    public void record(int key) {
+        long current = CachedClock.nowMillis() / windowMillis;
+        Window window = windows[(int) (current % windows.length)];
+        if (window.epoch.get() != current) {
+            window.roll(current);
+        }
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, window.counts.incrementAndGet(slot(hash, row)));
+        }
+        recorded.increment();
+        // A key that is already hot only needs to be offered now and then to keep its place
+        boolean offer = estimate <= OFFER_EVERY || (estimate & (OFFER_EVERY - 1)) == 0;
+        if (offer && estimate > window.floor && window.candidateLock.tryLock()) {
+            try {
+                offer(window, key, estimate);
+            } finally {
+                window.candidateLock.unlock();
+            }
+        }
+    }
+
+    private void offer(Window window, int key, long estimate) {
+        for (int i = 0; i < window.size; i++) {
+            if (window.keys[i] == key) {
+                return;
+            }
+        }
+        if (window.size < candidates) {
+            window.keys[window.size++] = key;
+            if (window.size == candidates) {
+                window.floor = minimumEstimate(window)[1];
+            }
+            return;
+        }
+        long[] minimum = minimumEstimate(window);
+        if (estimate > minimum[1]) {
+            window.keys[(int) minimum[0]] = key;
+            window.floor = minimumEstimate(window)[1];
+        }
+    }
+
+    /**
+     * @return {index, estimate} of the candidate with the lowest estimate
+     */
+    private long[] minimumEstimate(Window window) {
+        long[] minimum = {0, Long.MAX_VALUE};
+        for (int i = 0; i < window.size; i++) {
+            long estimate = window.estimate(window.keys[i]);
+            if (estimate < minimum[1]) {
+                minimum[0] = i;
+                minimum[1] = estimate;
+            }
+        }
+        return minimum;
+    }
+
+    /**
+     * @return up to limit keys with the most requests in the sliding window, most first, each with its
+     * estimated request count and rate per second over the window
+     */
+    public List<Map<String, Object>> top(int limit) {
+        long current = CachedClock.nowMillis() / windowMillis;
+        List<Window> live = new ArrayList<>();
+        Set<Integer> keys = new HashSet<>();
+        for (Window window : windows) {
+            if (current - window.epoch.get() < windows.length) {
+                live.add(window);
+                window.candidateLock.lock();
+                try {
+                    for (int i = 0; i < window.size; i++) {
+                        keys.add(window.keys[i]);
+                    }
+                } finally {
+                    window.candidateLock.unlock();
+                }
+            }
+        }
+        List<long[]> counted = new ArrayList<>(keys.size());
+        for (int key : keys) {
+            long requests = 0;
+            for (Window window : live) {
+                requests += window.estimate(key);
+            }
+            counted.add(new long[] {key, requests});
+        }
+        counted.sort((a, b) -> Long.compare(b[1], a[1]));
+        double seconds = windowMillis * windows.length / 1000.0;
+        List<Map<String, Object>> top = new ArrayList<>();
+        for (long[] entry : counted.subList(0, Math.min(limit, counted.size()))) {
+            Map<String, Object> hotKey = new LinkedHashMap<>();
+            hotKey.put("key", (int) entry[0]);
+            hotKey.put("requests", entry[1]);
+            hotKey.put("per_second", Math.round(entry[1] / seconds * 100) / 100.0);
+            top.add(hotKey);
+        }
+        return top;
+    }
+
+    /**
+     * @return requests counted since startup
+     */
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    /**
+     * @return length of the sliding window in seconds
+     */
+    public double getWindowSeconds() {
+        return windowMillis * windows.length / 1000.0;
+    }
+
+    /**
+     * @return bytes taken by the sketch counters of all sub-windows
+     */
+    public long getSketchBytes() {
+        return (long) windows.length * depth * width * Integer.BYTES;
+    }
+
+    // 64-bit mix (SplitMix64 finalizer); the two halves give the row hashes h1 + row * h2
+    private static long hash(int key) {
+        long z = key * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private int slot(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return row * width + ((h1 + row * h2) & (width - 1));
+    }
+}
@@ -0,0 +1,168 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * JDBC wrappers that time every statement for the slow-query log and, while a request is being traced,
+ * record each statement as a span. A span is named after the DAO method that ran the statement and
+ * carries the SQL text, the number of rows returned (counted as the result set is read) or changed,
+ * and for the connection's first statement the time it took to obtain the connection.
+ *
+ * Bind parameters are remembered per prepared statement so a slow statement can be logged and
+ * explained with the values it actually ran with.
+ */
+class InstrumentedJdbc {
+
+    /**
+     * @param source where conn came from, used to EXPLAIN slow statements on the same database
+     * @param waitNanos time spent obtaining conn, reported on its first traced statement
+     */
+    static Connection wrap(Connection conn, JdbcDataSource source, long waitNanos) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                new ConnectionHandler(conn, source, waitNanos));
+    }
+
+    private static class ConnectionHandler implements InvocationHandler {
+        private final Connection conn;
+        private final JdbcDataSource source;
+        private long pendingWaitNanos;
+
+        ConnectionHandler(Connection conn, JdbcDataSource source, long waitNanos) {
+            this.conn = conn;
+            this.source = source;
+            this.pendingWaitNanos = waitNanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = call(conn, method, args);
+            if (result instanceof PreparedStatement) {
+                return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {PreparedStatement.class},
+                        new StatementHandler((Statement) result, (String) args[0], this));
+            } else if (result instanceof Statement) {
+                return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Statement.class},
+                        new StatementHandler((Statement) result, null, this));
+            }
+            return result;
+        }
+
+        long takeWaitNanos() {
+            long wait = pendingWaitNanos;
+            pendingWaitNanos = 0;
+            return wait;
+        }
+    }
+
+    private static class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String preparedSql;
+        private final ConnectionHandler connection;
+        private Object[] parameters = new Object[0];
+
+        StatementHandler(Statement statement, String preparedSql, ConnectionHandler connection) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                bind((Integer) args[0], args[1]);
+                return call(statement, method, args);
+            } else if (name.equals("clearParameters")) {
+                parameters = new Object[0];
+                return call(statement, method, args);
+            } else if (!name.startsWith("execute")) {
+                return call(statement, method, args);
+            }
+
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+            Span span = Tracer.isActive() ? Tracer.start(daoMethod()) : null;
+            long start = System.nanoTime();
+            try {
+                if (span != null) {
+                    span.setSql(sql);
+                    span.setConnectionWaitNanos(connection.takeWaitNanos());
+                }
+                Object result = call(statement, method, args);
+                if (span != null) {
+                    if (result instanceof ResultSet) {
+                        return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+                                new ResultSetHandler((ResultSet) result, span));
+                    } else if (result instanceof Integer || result instanceof Long) {
+                        span.addRows(((Number) result).longValue());
+                    } else if (result instanceof int[]) {
+                        for (int count : (int[]) result) {
+                            span.addRows(Math.max(0, count));
+                        }
+                    }
+                }
+                return result;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                Tracer.end(span);
+                if (SlowQueryLog.isSlow(elapsed)) {
+                    SlowQueryLog.record(sql, parameters.clone(), elapsed, connection.source);
+                }
+            }
+        }
+
+        private void bind(int index, Object value) {
+            if (index > parameters.length) {
+                parameters = Arrays.copyOf(parameters, index);
+            }
+            parameters[index - 1] = value;
+        }
+    }
+
+    private static class ResultSetHandler implements InvocationHandler {
+        private final ResultSet rs;
+        private final Span span;
+
+        ResultSetHandler(ResultSet rs, Span span) {
+            this.rs = rs;
+            this.span = span;
+            span.addRows(0);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = call(rs, method, args);
+            if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+                span.addRows(1);
+            }
+            return result;
+        }
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return Class.method of the innermost DAO frame on the stack, or "sql" if there is none
+     */
+    private static String daoMethod() {
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(frame -> frame.getClassName().startsWith("DAO."))
+                .findFirst()
+                .map(frame -> frame.getClassName().substring(4) + "." + frame.getMethodName())
+                .orElse("sql"));
+    }
+}
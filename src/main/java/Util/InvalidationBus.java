@@ -0,0 +1,309 @@
+package Util;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cross-instance cache invalidation. Several instances of the API can share one database, and each
+ * keeps its own in-process caches; when one instance writes, the others have to drop what they cached
+ * about the written rows. Writes publish compact events (entity, id, version) to this bus, which
+ * sends them to every peer as UDP datagrams on the loopback interface.
+ *
+ * Events are not sent one by one: they collect for a few milliseconds, an event for a key already
+ * waiting replaces it with the higher version, and what is left goes out in as few datagrams as fit.
+ * Too many waiting events are dropped in favour of a single flush, which is cheaper for the peers too.
+ *
+ * Every datagram carries its sender's id and a sequence number, so a peer applies datagrams in the
+ * order they were sent, and with it each key's events in order. A datagram that arrives after a later
+ * one is dropped. A missing one (lost, or the peer fell behind and its socket buffer overflowed)
+ * cannot be recovered, so the peer flushes its caches instead, as it does the first time it hears from
+ * a sender. An idle sender sends a heartbeat with its last sequence number every second, so a lost
+ * last datagram is noticed too.
+ */
+public class InvalidationBus {
+
+    /** A message changed or was deleted; the id is its message_id. */
+    public static final byte MESSAGE = 'm';
+    /** An account or its list of messages changed; the id is its account_id. */
+    public static final byte ACCOUNT = 'a';
+
+    // Datagram layout: sender (8), sequence (8), flags (1), event count (2), then per event
+    // entity (1), id (4) and version (8)
+    private static final int HEADER_BYTES = 19;
+    private static final int EVENT_BYTES = 13;
+    private static final int MAX_EVENTS_PER_DATAGRAM = 500;
+    private static final byte FLAG_FLUSH = 1;
+    private static final byte FLAG_HEARTBEAT = 2;
+
+    // Waiting events past this many keys become one flush
+    private static final int MAX_PENDING = 10000;
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    /**
+     * Applies the events of the other instances to the local caches.
+     */
+    public interface Listener {
+        void invalidate(byte entity, int id, long version);
+
+        void invalidateAll();
+    }
+
+    private final int port;
+    private final List<InetSocketAddress> peers;
+    private final long batchMillis;
+    private final Listener listener;
+    private final long senderId = ThreadLocalRandom.current().nextLong();
+    private volatile DatagramSocket socket;
+    private volatile boolean running;
+
+    // Guarded by pending: the waiting events by key, and whether a flush is waiting
+    private final LinkedHashMap<Long, Long> pending = new LinkedHashMap<>();
+    private boolean flushPending;
+    // Last sequence number sent; only touched by the sending thread
+    private long lastSeq;
+
+    // Last sequence number applied per sender; only touched by the receiving thread
+    private final Map<Long, Long> appliedSeq = new LinkedHashMap<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong datagramsSent = new AtomicLong();
+    private final AtomicLong datagramsReceived = new AtomicLong();
+    private final AtomicLong eventsApplied = new AtomicLong();
+    private final AtomicLong outOfOrder = new AtomicLong();
+    private final AtomicLong gaps = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    /**
+     * @param port loopback port to receive on
+     * @param peers where the other instances receive
+     * @param batchMillis how long events collect before they are sent
+     */
+    public InvalidationBus(int port, List<InetSocketAddress> peers, long batchMillis, Listener listener) {
+        this.port = port;
+        this.peers = peers;
+        this.batchMillis = batchMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * @param peers comma separated host:port pairs; blank entries are skipped
+     */
+    public static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            if (!peer.isEmpty()) {
+                int colon = peer.lastIndexOf(':');
+                addresses.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+            }
+        }
+        return addresses;
+    }
+
+    public void start() throws SocketException {
+        socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        running = true;
+        Thread sender = new Thread(this::sendLoop, "invalidation-send");
+        sender.setDaemon(true);
+        sender.start();
+        Thread receiver = new Thread(this::receiveLoop, "invalidation-receive");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    public void stop() {
+        running = false;
+        synchronized (pending) {
+            pending.notifyAll();
+        }
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Queues an event for the peers. Call after the write has committed.
+     */
+    public void publish(byte entity, int id, long version) {
+        published.incrementAndGet();
+        synchronized (pending) {
+            Long previous = pending.get(key(entity, id));
+            if (previous != null) {
+                coalesced.incrementAndGet();
+                pending.put(key(entity, id), Math.max(previous, version));
+                return;
+            }
+            if (pending.size() >= MAX_PENDING) {
+                // The flush covers what was waiting; events published after it still go out
+                pending.clear();
+                flushPending = true;
+                overflows.incrementAndGet();
+            }
+            pending.put(key(entity, id), version);
+            if (pending.size() == 1) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    private void sendLoop() {
+        long lastSentMillis = System.currentTimeMillis();
+        while (running) {
+            try {
+                boolean idle;
+                synchronized (pending) {
+                    long wait = HEARTBEAT_MILLIS - (System.currentTimeMillis() - lastSentMillis);
+                    if (pending.isEmpty() && !flushPending && wait > 0) {
+                        pending.wait(wait);
+                    }
+                    idle = pending.isEmpty() && !flushPending;
+                }
+                if (!running) {
+                    return;
+                }
+                if (idle) {
+                    if (System.currentTimeMillis() - lastSentMillis >= HEARTBEAT_MILLIS) {
+                        sendHeartbeat();
+                        lastSentMillis = System.currentTimeMillis();
+                    }
+                    continue;
+                }
+                // Let the rest of a burst arrive, so it goes out coalesced and in full datagrams
+                Thread.sleep(batchMillis);
+                sendPending();
+                lastSentMillis = System.currentTimeMillis();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("Invalidation bus error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void sendPending() throws IOException {
+        List<long[]> events;
+        boolean flush;
+        synchronized (pending) {
+            events = new ArrayList<>(pending.size());
+            for (Map.Entry<Long, Long> entry : pending.entrySet()) {
+                events.add(new long[] { entry.getKey(), entry.getValue() });
+            }
+            pending.clear();
+            flush = flushPending;
+            flushPending = false;
+        }
+        int from = 0;
+        do {
+            int to = Math.min(events.size(), from + MAX_EVENTS_PER_DATAGRAM);
+            ByteBuffer datagram = ByteBuffer.allocate(HEADER_BYTES + (to - from) * EVENT_BYTES);
+            datagram.putLong(senderId).putLong(++lastSeq).put(flush && from == 0 ? FLAG_FLUSH : 0).putShort((short) (to - from));
+            for (long[] event : events.subList(from, to)) {
+                datagram.put((byte) (event[0] >>> 32)).putInt((int) event[0]).putLong(event[1]);
+            }
+            send(datagram.array());
+            from = to;
+        } while (from < events.size());
+    }
+
+    private void sendHeartbeat() throws IOException {
+        ByteBuffer datagram = ByteBuffer.allocate(HEADER_BYTES);
+        datagram.putLong(senderId).putLong(lastSeq).put(FLAG_HEARTBEAT).putShort((short) 0);
+        send(datagram.array());
+    }
+
+    private void send(byte[] datagram) throws IOException {
+        for (InetSocketAddress peer : peers) {
+            socket.send(new DatagramPacket(datagram, datagram.length, peer));
+        }
+        datagramsSent.incrementAndGet();
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[HEADER_BYTES + MAX_EVENTS_PER_DATAGRAM * EVENT_BYTES];
+        while (running) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                datagramsReceived.incrementAndGet();
+                receive(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("Invalidation bus error: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                // A malformed datagram must not stop the receiver
+                System.out.println("Invalidation bus error: " + e);
+            }
+        }
+    }
+
+    private void receive(ByteBuffer datagram) {
+        long sender = datagram.getLong();
+        long seq = datagram.getLong();
+        byte flags = datagram.get();
+        int count = datagram.getShort();
+        if (sender == senderId) {
+            return;
+        }
+        Long applied = appliedSeq.get(sender);
+        // A heartbeat repeats the last sequence number sent; a datagram with events takes the next one
+        long expected = applied == null ? -1 : (flags & FLAG_HEARTBEAT) != 0 ? applied : applied + 1;
+        if (applied != null && seq < expected) {
+            outOfOrder.incrementAndGet();
+            return;
+        }
+        appliedSeq.put(sender, seq);
+        if (seq != expected || (flags & FLAG_FLUSH) != 0) {
+            if (applied != null && seq != expected) {
+                gaps.incrementAndGet();
+            }
+            flushes.incrementAndGet();
+            listener.invalidateAll();
+        }
+        for (int i = 0; i < count; i++) {
+            byte entity = datagram.get();
+            int id = datagram.getInt();
+            long version = datagram.getLong();
+            listener.invalidate(entity, id, version);
+            eventsApplied.incrementAndGet();
+        }
+    }
+
+    private static long key(byte entity, int id) {
+        return ((long) entity << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return publish, send and receive counters, and how often the caches were flushed for a gap
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("port", port);
+        metrics.put("peers", peers.size());
+        metrics.put("published", published.get());
+        metrics.put("coalesced", coalesced.get());
+        metrics.put("overflows", overflows.get());
+        metrics.put("datagrams_sent", datagramsSent.get());
+        metrics.put("datagrams_received", datagramsReceived.get());
+        metrics.put("events_applied", eventsApplied.get());
+        metrics.put("out_of_order", outOfOrder.get());
+        metrics.put("gaps", gaps.get());
+        metrics.put("flushes", flushes.get());
+        return metrics;
+    }
+}
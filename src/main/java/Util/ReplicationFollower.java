@@ -0,0 +1,215 @@
+package Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import DAO.ReplicationDAO;
+import Model.AccountChange;
+import Model.MessageChange;
+
+/**
+ * Follower side of change-data-capture replication: keeps a copy of the account and message tables in
+ * its own H2 database by applying the primary's change stream (see ChangeStreamServer). Run it as a
+ * separate process next to a primary started with -Dsocialmedia.replication.streamPort:
+ *
+ *   java -cp ... -Dsocialmedia.replication.streamPort=7070 -Dsocialmedia.follower.url=jdbc:h2:./h2/follower Util.ReplicationFollower
+ *
+ * Every snapshot and every batch of changes is applied in one transaction together with the log
+ * position it brings the follower to, so after a crash or restart the follower resumes from its own
+ * position and only needs a new snapshot if the primary's log no longer has it. A lost connection is
+ * retried every second.
+ *
+ * Lag is reported in log positions (how far the primary's log is ahead of the last applied change)
+ * and in milliseconds since the follower was last caught up, 0 while it is.
+ */
+public class ReplicationFollower {
+
+    private static final long RETRY_MILLIS = 1000;
+
+    private final JdbcDataSource database = new JdbcDataSource();
+    private final String host;
+    private final int port;
+    // Changes carry a "table" field the models do not have
+    private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private volatile boolean running;
+    private volatile Socket socket;
+    private volatile boolean connected;
+    private volatile long position = -1;
+    private volatile long primaryPosition = -1;
+    private volatile long caughtUpMillis = System.currentTimeMillis();
+    private volatile long snapshotsApplied;
+    private volatile long changesApplied;
+
+    public ReplicationFollower(String url, String host, int port) {
+        database.setURL(url);
+        database.setUser("sa");
+        database.setPassword("sa");
+        this.host = host;
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ReplicationFollower follower = new ReplicationFollower(AppConfig.followerUrl(), AppConfig.replicationPrimaryHost(),
+                AppConfig.replicationStreamPort());
+        follower.start();
+        while (true) {
+            Thread.sleep(5000);
+            System.out.println("Replication: " + follower.metrics());
+        }
+    }
+
+    /**
+     * Starts following the primary on a background thread.
+     */
+    public void start() {
+        running = true;
+        Thread thread = new Thread(this::followLoop, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    private void followLoop() {
+        while (running) {
+            try {
+                follow();
+            } catch (IOException | SQLException e) {
+                if (running) {
+                    System.out.println("Replication from " + host + ":" + port + " interrupted: " + e.getMessage());
+                }
+            }
+            connected = false;
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow() throws IOException, SQLException {
+        Connection conn = database.getConnection();
+        try (Socket session = new Socket(host, port)) {
+            socket = session;
+            session.setTcpNoDelay(true);
+            SchemaMigrator.migrate(conn);
+            ReplicationDAO.prepareFollower(conn);
+            conn.setAutoCommit(false);
+            position = ReplicationDAO.readPosition(conn);
+            conn.commit();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(session.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = session.getOutputStream();
+            send(out, "hello", position);
+            connected = true;
+            String line;
+            while ((line = in.readLine()) != null) {
+                apply(conn, out, mapper.readTree(line));
+            }
+        } finally {
+            conn.rollback();
+            conn.close();
+        }
+    }
+
+    private void apply(Connection conn, OutputStream out, JsonNode record) throws IOException, SQLException {
+        switch (record.get("type").asText()) {
+            case "snapshot":
+                ReplicationDAO.clearTables(conn);
+                break;
+            case "account":
+                ReplicationDAO.upsertAccount(conn, record.get("account_id").asInt(), record.get("username").textValue(),
+                        record.get("password").textValue());
+                break;
+            case "message":
+                ReplicationDAO.upsertMessage(conn, record.get("message_id").asInt(), record.get("posted_by").asInt(),
+                        record.get("message_text").textValue(), record.get("time_posted_epoch").asLong());
+                break;
+            case "snapshot_end":
+                commit(conn, out, record.get("position").asLong());
+                snapshotsApplied++;
+                break;
+            case "changes":
+                primaryPosition = Math.max(primaryPosition, record.get("primary_position").asLong());
+                for (JsonNode change : record.get("changes")) {
+                    if (change.get("table").asText().equals("account")) {
+                        ReplicationDAO.applyAccountChange(conn, mapper.treeToValue(change, AccountChange.class));
+                    } else {
+                        ReplicationDAO.applyMessageChange(conn, mapper.treeToValue(change, MessageChange.class));
+                    }
+                }
+                commit(conn, out, record.get("position").asLong());
+                changesApplied += record.get("changes").size();
+                break;
+            case "heartbeat":
+                primaryPosition = Math.max(primaryPosition, record.get("primary_position").asLong());
+                if (position >= primaryPosition) {
+                    caughtUpMillis = System.currentTimeMillis();
+                }
+                break;
+            default:
+                throw new IOException("unknown record " + record.get("type"));
+        }
+    }
+
+    private void commit(Connection conn, OutputStream out, long newPosition) throws IOException, SQLException {
+        ReplicationDAO.savePosition(conn, newPosition);
+        conn.commit();
+        position = newPosition;
+        primaryPosition = Math.max(primaryPosition, newPosition);
+        if (position >= primaryPosition) {
+            caughtUpMillis = System.currentTimeMillis();
+        }
+        send(out, "ack", newPosition);
+    }
+
+    private void send(OutputStream out, String type, long at) throws IOException {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", type);
+        record.put("position", at);
+        out.write(mapper.writeValueAsBytes(record));
+        out.write('\n');
+        out.flush();
+    }
+
+    /**
+     * @return the last applied position, the primary's last known position and the lag between them
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long applied = position;
+        long primary = primaryPosition;
+        metrics.put("connected", connected);
+        metrics.put("position", applied);
+        metrics.put("primary_position", primary);
+        metrics.put("lag_changes", Math.max(0, primary - applied));
+        metrics.put("lag_millis", applied >= primary ? 0 : System.currentTimeMillis() - caughtUpMillis);
+        metrics.put("snapshots_applied", snapshotsApplied);
+        metrics.put("changes_applied", changesApplied);
+        return metrics;
+    }
+}
@@ -0,0 +1,136 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Built-in replicator that keeps the in-memory replicas configured in ConnectionUtil in sync with
+ * the primary. Meant for running read/write splitting locally: on every tick each replica gets the
+ * primary's schema (only when it changed) and a full copy of the replicated tables, applied in a
+ * single transaction so readers never see a half-copied replica.
+ */
+public class Replicator {
+
+    private final ScheduledExecutorService scheduler;
+    private final String[] lastSchema;
+
+    public Replicator() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replicator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lastSchema = new String[ConnectionUtil.getReplicaCount()];
+    }
+
+    /**
+     * Starts copying the primary into every replica at the configured interval.
+     */
+    public void start() {
+        long interval = AppConfig.replicationIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::syncAll, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Copies the primary into every replica once.
+     */
+    public void syncAll() {
+        for (int i = 0; i < lastSchema.length; i++) {
+            try {
+                syncReplica(i);
+            } catch (SQLException sqle) {
+                System.out.println("Replication error: " + sqle.getMessage());
+            }
+        }
+    }
+
+    private void syncReplica(int index) throws SQLException {
+        // Capture the sequence before reading so the replica never claims writes it has not copied
+        long seq = ConnectionUtil.currentWriteSequence();
+        Connection primary = ConnectionUtil.getConnection();
+        Connection replica = ConnectionUtil.getReplicaConnection(index);
+        String[] tables = AppConfig.replicatedTables();
+        try {
+            String schema = readSchema(primary, tables);
+            if (!schema.equals(lastSchema[index])) {
+                Statement st = replica.createStatement();
+                st.execute("DROP ALL OBJECTS;");
+                for (String ddl : schema.split("\n")) {
+                    st.execute(ddl);
+                }
+                lastSchema[index] = schema;
+            }
+
+            replica.setAutoCommit(false);
+            Statement st = replica.createStatement();
+            for (int i = tables.length - 1; i >= 0; i--) {
+                st.executeUpdate("DELETE FROM " + tables[i] + ";");
+            }
+            for (String table : tables) {
+                copyTable(primary, replica, table);
+            }
+            replica.commit();
+            ConnectionUtil.replicaCaughtUp(index, seq);
+        } catch (SQLException sqle) {
+            replica.rollback();
+            // Force the schema to be recreated on the next tick
+            lastSchema[index] = null;
+            throw sqle;
+        } finally {
+            replica.setAutoCommit(true);
+            primary.close();
+            replica.close();
+        }
+    }
+
+    private String readSchema(Connection primary, String[] tables) throws SQLException {
+        StringBuilder schema = new StringBuilder();
+        Statement st = primary.createStatement();
+        ResultSet rs = st.executeQuery("SCRIPT NODATA NOPASSWORDS NOSETTINGS TABLE " + String.join(", ", tables) + ";");
+        while (rs.next()) {
+            String ddl = rs.getString(1);
+            // Users and roles exist on the replica already
+            if (!ddl.startsWith("CREATE USER")) {
+                schema.append(ddl.replace('\n', ' ')).append('\n');
+            }
+        }
+        return schema.toString();
+    }
+
+    private void copyTable(Connection primary, Connection replica, String table) throws SQLException {
+        Statement select = primary.createStatement();
+        ResultSet rs = select.executeQuery("SELECT * FROM " + table + ";");
+        ResultSetMetaData meta = rs.getMetaData();
+        int columns = meta.getColumnCount();
+
+        StringBuilder sql = new StringBuilder("INSERT INTO " + table + " VALUES (");
+        for (int i = 1; i <= columns; i++) {
+            sql.append(i == 1 ? "?" : ", ?");
+        }
+        sql.append(");");
+
+        PreparedStatement insert = replica.prepareStatement(sql.toString());
+        int batched = 0;
+        while (rs.next()) {
+            for (int i = 1; i <= columns; i++) {
+                insert.setObject(i, rs.getObject(i));
+            }
+            insert.addBatch();
+            if (++batched % 1000 == 0) {
+                insert.executeBatch();
+            }
+        }
+        insert.executeBatch();
+    }
+}
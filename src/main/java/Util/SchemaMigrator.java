@@ -0,0 +1,85 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.h2.tools.RunScript;
+
+/**
+ * Versioned schema migrations. The scripts are the classpath resources db/migration/V1.sql,
+ * V2.sql, ... and each one runs exactly once per database: the highest applied version is kept in
+ * the schema_version table, so startup only reads that table and applies whatever is newer, no
+ * matter how much data the database holds.
+ *
+ * A script's first line is a "-- description" comment. Scripts are never edited once released;
+ * schema changes go into a new script with the next version number.
+ */
+public class SchemaMigrator {
+
+    private static final String LOCATION = "/db/migration/V";
+
+    /**
+     * Applies every migration newer than the database's current version, each in its own transaction
+     * (H2 commits DDL implicitly, so scripts use IF NOT EXISTS and can safely be rerun after a failure).
+     * @return the schema version after migrating
+     */
+    public static int migrate(Connection conn) throws SQLException {
+        conn.createStatement().execute("CREATE TABLE IF NOT EXISTS schema_version ("
+                + "version INT PRIMARY KEY, description VARCHAR(255), applied_epoch BIGINT);");
+        int current = currentVersion(conn);
+        int version = current + 1;
+        InputStream script = SchemaMigrator.class.getResourceAsStream(LOCATION + version + ".sql");
+        while (script != null) {
+            apply(conn, version, script);
+            version++;
+            script = SchemaMigrator.class.getResourceAsStream(LOCATION + version + ".sql");
+        }
+        if (version - 1 > current) {
+            System.out.println("Schema migrated from version " + current + " to " + (version - 1));
+        }
+        return version - 1;
+    }
+
+    /**
+     * @return the highest applied migration, 0 for a database that has none
+     */
+    public static int currentVersion(Connection conn) throws SQLException {
+        ResultSet rs = conn.createStatement().executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version;");
+        rs.next();
+        return rs.getInt(1);
+    }
+
+    private static void apply(Connection conn, int version, InputStream script) throws SQLException {
+        String sql;
+        try (InputStream in = script) {
+            sql = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException ioe) {
+            throw new SQLException("Could not read migration V" + version, ioe);
+        }
+        String description = sql.startsWith("--") ? sql.substring(2, Math.max(2, sql.indexOf('\n'))).trim() : "";
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            RunScript.execute(conn, new StringReader(sql));
+            PreparedStatement ps = conn.prepareStatement("INSERT INTO schema_version (version, description, applied_epoch) VALUES (?, ?, ?);");
+            ps.setInt(1, version);
+            ps.setString(2, description);
+            ps.setLong(3, System.currentTimeMillis() / 1000);
+            ps.executeUpdate();
+            conn.commit();
+        } catch (SQLException sqle) {
+            conn.rollback();
+            throw sqle;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        System.out.println("Applied migration V" + version + ": " + description);
+    }
+}
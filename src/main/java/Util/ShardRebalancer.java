@@ -0,0 +1,124 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * Offline tool for moving a sharded message store to a new shard count. Run it with the API stopped:
+ *
+ *   java -cp ... Util.ShardRebalancer <oldCount> <oldUrlPrefix> <newCount> <newUrlPrefix>
+ *
+ * then restart with -Dsocialmedia.shards=<newCount> -Dsocialmedia.shards.urlPrefix=<newUrlPrefix>.
+ * Rows keep their message_id, so ids handed out to clients stay valid. Every new shard's sequence
+ * restarts above the highest sequence value used on any old shard, which keeps new ids unique.
+ * The change log moves along with the messages, each change to the shard of its posted_by, so
+ * /changes clients and followers holding a position neither miss nor repeat a change; numbering
+ * continues from the primary's counter.
+ */
+public class ShardRebalancer {
+
+    public static void main(String[] args) throws SQLException {
+        if (args.length != 4) {
+            System.out.println("Usage: ShardRebalancer <oldCount> <oldUrlPrefix> <newCount> <newUrlPrefix>");
+            return;
+        }
+        rebalance(Integer.parseInt(args[0]), args[1], Integer.parseInt(args[2]), args[3]);
+    }
+
+    /**
+     * Copies every message and logged change from the old shards to the shard it maps to under the new count.
+     * @return number of message rows copied
+     */
+    public static long rebalance(int oldCount, String oldUrlPrefix, int newCount, String newUrlPrefix) throws SQLException {
+        if (newCount < 1 || newCount > ShardRouter.MAX_SHARDS) {
+            throw new IllegalArgumentException("New shard count must be between 1 and " + ShardRouter.MAX_SHARDS);
+        }
+        if (oldUrlPrefix.equals(newUrlPrefix)) {
+            throw new IllegalArgumentException("Rebalance into a new url prefix, then switch the API over");
+        }
+
+        Connection[] targets = new Connection[newCount];
+        PreparedStatement[] inserts = new PreparedStatement[newCount];
+        PreparedStatement[] changeInserts = new PreparedStatement[newCount];
+        int[] pending = new int[newCount];
+        for (int i = 0; i < newCount; i++) {
+            targets[i] = open(newUrlPrefix + i);
+            ShardRouter.createSchema(targets[i]);
+            targets[i].setAutoCommit(false);
+            inserts[i] = targets[i].prepareStatement(
+                    "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?);");
+            changeInserts[i] = targets[i].prepareStatement("INSERT INTO message_change " +
+                    "(change_seq, operation, message_id, posted_by, message_text, time_posted_epoch, changed_epoch) VALUES (?, ?, ?, ?, ?, ?, ?);");
+        }
+
+        long copied = 0;
+        long nextSequence = 1;
+        for (int i = 0; i < oldCount; i++) {
+            Connection source = open(oldUrlPrefix + i);
+            ResultSet seq = source.createStatement().executeQuery("SELECT NEXT VALUE FOR message_seq;");
+            seq.next();
+            nextSequence = Math.max(nextSequence, seq.getLong(1) + 1);
+
+            ResultSet rs = source.createStatement().executeQuery("SELECT message_id, posted_by, message_text, time_posted_epoch FROM message WHERE deleted_epoch IS NULL;");
+            while (rs.next()) {
+                int target = ShardRouter.shardFor(rs.getInt(2), newCount);
+                inserts[target].setInt(1, rs.getInt(1));
+                inserts[target].setInt(2, rs.getInt(2));
+                inserts[target].setString(3, rs.getString(3));
+                inserts[target].setLong(4, rs.getLong(4));
+                inserts[target].addBatch();
+                if (++pending[target] == 1000) {
+                    inserts[target].executeBatch();
+                    targets[target].commit();
+                    pending[target] = 0;
+                }
+                copied++;
+            }
+
+            long changes = 0;
+            rs = source.createStatement().executeQuery("SELECT change_seq, operation, message_id, posted_by, message_text, time_posted_epoch, changed_epoch FROM message_change;");
+            while (rs.next()) {
+                int target = ShardRouter.shardFor(rs.getInt(4), newCount);
+                changeInserts[target].setLong(1, rs.getLong(1));
+                changeInserts[target].setString(2, rs.getString(2));
+                changeInserts[target].setInt(3, rs.getInt(3));
+                changeInserts[target].setInt(4, rs.getInt(4));
+                changeInserts[target].setString(5, rs.getString(5));
+                changeInserts[target].setLong(6, rs.getLong(6));
+                changeInserts[target].setLong(7, rs.getLong(7));
+                changeInserts[target].addBatch();
+                if (++pending[target] == 1000) {
+                    inserts[target].executeBatch();
+                    changeInserts[target].executeBatch();
+                    targets[target].commit();
+                    pending[target] = 0;
+                }
+                changes++;
+            }
+            source.close();
+            System.out.printf("Shard %d copied, %d rows so far, %d logged changes\n", i, copied, changes);
+        }
+
+        for (int i = 0; i < newCount; i++) {
+            inserts[i].executeBatch();
+            changeInserts[i].executeBatch();
+            targets[i].createStatement().execute("ALTER SEQUENCE message_seq RESTART WITH " + nextSequence + ";");
+            targets[i].commit();
+            targets[i].close();
+        }
+        System.out.printf("Rebalanced %d rows from %d to %d shards\n", copied, oldCount, newCount);
+        return copied;
+    }
+
+    private static Connection open(String url) throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(url + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        return dataSource.getConnection();
+    }
+}
@@ -0,0 +1,178 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * Routing for the optional sharded mode, where message rows are split across several H2 databases
+ * by a hash of posted_by. Accounts stay in the primary database.
+ *
+ * Message ids stay globally unique by carrying the shard they were created on in their low SHARD_BITS
+ * bits: id = (shard-local sequence << SHARD_BITS) | shard. After a rebalance a row may live on a
+ * different shard than its id says, so id lookups fall back to asking every shard.
+ */
+public class ShardRouter {
+
+	/**
+	 * Bits of a message id reserved for the shard number, which caps the shard count at 16.
+	 */
+	public static final int SHARD_BITS = 4;
+	public static final int MAX_SHARDS = 1 << SHARD_BITS;
+	/**
+	 * Largest shard-local sequence value that still encodes to a positive int id.
+	 */
+	public static final long MAX_LOCAL_ID = Integer.MAX_VALUE >> SHARD_BITS;
+
+	private static final String SHARD_SCHEMA =
+			"create table if not exists message (" +
+			" message_id int primary key," +
+			" posted_by int," +
+			" message_text varchar(255)," +
+			" time_posted_epoch bigint," +
+			" deleted_epoch bigint);" +
+			"alter table message add column if not exists deleted_epoch bigint;" +
+			"create index if not exists message_posted_by_idx on message(posted_by);" +
+			"create index if not exists message_posted_by_time_idx on message(posted_by, time_posted_epoch);" +
+			"create index if not exists message_deleted_idx on message(deleted_epoch);" +
+			"create index if not exists message_time_idx on message(time_posted_epoch desc);" +
+			"create sequence if not exists message_seq start with 1;" +
+			"create table if not exists message_change (" +
+			" change_seq bigint primary key," +
+			" operation varchar(6) not null," +
+			" message_id int not null," +
+			" posted_by int," +
+			" message_text varchar(255)," +
+			" time_posted_epoch bigint," +
+			" changed_epoch bigint);" +
+			"create table if not exists idempotency_key (" +
+			" posted_by int," +
+			" idempotency_key varchar(255)," +
+			" message_id int," +
+			" message_text varchar(255)," +
+			" time_posted_epoch bigint," +
+			" created_epoch bigint," +
+			" request_hash varchar(64)," +
+			" primary key (posted_by, idempotency_key));" +
+			"create index if not exists idempotency_key_created_idx on idempotency_key(created_epoch);";
+
+	private static JdbcDataSource[] shards = new JdbcDataSource[0];
+
+	/**
+	 * Opens count shard databases under the given url prefix and creates the shard schema where missing.
+	 * @param count number of shards, 0 disables sharding
+	 */
+	public static synchronized void configure(int count, String urlPrefix) {
+		if (count > MAX_SHARDS) {
+			throw new IllegalArgumentException("At most " + MAX_SHARDS + " shards are supported, got " + count);
+		}
+		JdbcDataSource[] newShards = new JdbcDataSource[count];
+		for (int i = 0; i < count; i++) {
+			newShards[i] = new JdbcDataSource();
+			newShards[i].setURL(urlPrefix + i + ";DB_CLOSE_DELAY=-1");
+			newShards[i].setUser("sa");
+			newShards[i].setPassword("sa");
+		}
+		shards = newShards;
+		for (int i = 0; i < count; i++) {
+			try {
+				Connection conn = getConnection(i);
+				createSchema(conn);
+				conn.close();
+			} catch (SQLException sqle) {
+				System.out.println("Error: " + sqle.getMessage());
+				sqle.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Creates the shard message table, its indexes, change log and idempotency keys, and the id sequence if they do not exist yet.
+	 */
+	public static void createSchema(Connection conn) throws SQLException {
+		conn.createStatement().execute(SHARD_SCHEMA);
+	}
+
+	/**
+	 * @return true when messages are stored in shard databases rather than the primary
+	 */
+	public static boolean isEnabled() {
+		return shards.length > 0;
+	}
+
+	public static int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @return the shard that owns every message posted by this account
+	 */
+	public static int shardFor(int postedBy) {
+		return shardFor(postedBy, shards.length);
+	}
+
+	/**
+	 * @return the shard an account maps to for an arbitrary shard count, used when rebalancing
+	 */
+	public static int shardFor(int postedBy, int shardCount) {
+		// Spread sequential account ids evenly (murmur3 finalizer)
+		int h = postedBy;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return Math.floorMod(h, shardCount);
+	}
+
+	/**
+	 * @return a global message id for a shard-local sequence value
+	 * @throws SQLException when the shard has used up its id space, instead of wrapping to an id that
+	 * is negative or already taken
+	 */
+	public static int encodeId(long localId, int shard) throws SQLException {
+		if (localId < 1 || localId > MAX_LOCAL_ID) {
+			throw new SQLException("Shard " + shard + " is out of message ids: sequence value " + localId + " exceeds " + MAX_LOCAL_ID);
+		}
+		return (int) ((localId << SHARD_BITS) | shard);
+	}
+
+	/**
+	 * @return the shard a message id was created on
+	 */
+	public static int shardOfId(int messageId) {
+		return messageId & (MAX_SHARDS - 1);
+	}
+
+	/**
+	 * @return an active connection to a shard database
+	 */
+	public static Connection getConnection(int shard) {
+		try {
+			return ConnectionUtil.open(shards[shard]);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Empties every shard and restarts its id sequence. Only for tests.
+	 */
+	public static void resetShards() {
+		for (int i = 0; i < shards.length; i++) {
+			try {
+				Connection conn = getConnection(i);
+				Statement st = conn.createStatement();
+				st.execute("drop table if exists message; drop table if exists message_change; drop table if exists idempotency_key; drop sequence if exists message_seq;");
+				createSchema(conn);
+				conn.close();
+			} catch (SQLException sqle) {
+				System.out.println("Error: " + sqle.getMessage());
+				sqle.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import Model.SlowQuery;
+
+/**
+ * Log of statements slower than the configured threshold. Every statement run through
+ * ConnectionUtil is timed by InstrumentedJdbc; slow ones are printed with their bind parameters
+ * (values bound to password columns are redacted) and counted per statement shape, so one query
+ * that is slow a thousand times is one entry rather than a thousand lines to search through.
+ *
+ * When a shape records a new worst execution, its plan is captured on a background thread with
+ * H2's EXPLAIN ANALYZE (plain EXPLAIN for statements that change data, since ANALYZE would run them
+ * again). Plans are best effort: when the queue of pending plans is full they are skipped.
+ */
+public class SlowQueryLog {
+
+    private static final int MAX_SHAPES = 500;
+    private static final int MAX_PARAMETER_LENGTH = 100;
+    private static final String REDACTED = "***";
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern OPERATOR = Pattern.compile("\\s*(<>|!=|<=|>=|=|<|>)\\s*");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern INSERT = Pattern.compile("(?is)insert\\s+into\\s+[\\w.]+\\s*\\(([^)]*)\\)\\s*values\\s*\\(([^)]*)\\)");
+
+    private static volatile long thresholdNanos = toNanos(AppConfig.slowQueryThresholdMillis());
+
+    private static final Map<String, SlowQuery> byShape = new ConcurrentHashMap<>();
+
+    private static final ThreadPoolExecutor explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(100), runnable -> {
+                Thread thread = new Thread(runnable, "slow-query-explain");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    /**
+     * @return true unless the log has been turned off with a negative threshold
+     */
+    public static boolean isEnabled() {
+        return thresholdNanos >= 0;
+    }
+
+    static boolean isSlow(long elapsedNanos) {
+        long threshold = thresholdNanos;
+        return threshold >= 0 && elapsedNanos >= threshold;
+    }
+
+    /**
+     * @param millis new threshold, negative turns the log off. Connections already open keep timing their statements.
+     */
+    public static void setThresholdMillis(long millis) {
+        thresholdNanos = toNanos(millis);
+    }
+
+    private static long toNanos(long millis) {
+        return millis < 0 ? -1 : millis * 1_000_000;
+    }
+
+    /**
+     * Logs one slow execution and counts it against its statement shape.
+     * @param parameters bind parameters by index (index 0 is parameter 1)
+     * @param source database the statement ran on, where its plan is captured
+     */
+    static void record(String sql, Object[] parameters, long elapsedNanos, JdbcDataSource source) {
+        if (sql == null) {
+            return;
+        }
+        String shape = shape(sql);
+        List<String> redacted = redact(sql, parameters);
+        // Unparameterized SQL that mentions a password may carry it as a literal; only the shape is safe to show
+        String shown = sql.toLowerCase(Locale.ROOT).contains("password") ? shape : sql;
+        double millis = elapsedNanos / 1e6;
+        System.out.printf("Slow query (%.1f ms): %s %s%n", millis, shown, redacted);
+
+        SlowQuery entry = byShape.get(shape);
+        if (entry == null) {
+            if (byShape.size() >= MAX_SHAPES) {
+                return;
+            }
+            entry = byShape.computeIfAbsent(shape, SlowQuery::new);
+        }
+        boolean slowest;
+        synchronized (entry) {
+            entry.count++;
+            entry.total_millis += millis;
+            entry.last_seen_epoch_millis = System.currentTimeMillis();
+            slowest = millis > entry.max_millis;
+            if (slowest) {
+                entry.max_millis = millis;
+                entry.sql = shown;
+                entry.parameters = redacted;
+            }
+        }
+        if (slowest) {
+            SlowQuery target = entry;
+            explainer.execute(() -> explain(target, sql, parameters, source));
+        }
+    }
+
+    /**
+     * @return up to limit statement shapes, the ones with the most total slow time first
+     */
+    public static List<SlowQuery> top(int limit) {
+        List<SlowQuery> entries = new ArrayList<>();
+        for (SlowQuery entry : byShape.values()) {
+            synchronized (entry) {
+                entries.add(entry.copy());
+            }
+        }
+        entries.sort(Comparator.comparingDouble(SlowQuery::getTotal_millis).reversed());
+        return entries.subList(0, Math.min(limit, entries.size()));
+    }
+
+    /**
+     * Forgets every logged statement.
+     */
+    public static void clear() {
+        byShape.clear();
+    }
+
+    private static void explain(SlowQuery entry, String sql, Object[] parameters, JdbcDataSource source) {
+        String statement = sql.trim();
+        String keyword = statement.split("\\s+", 2)[0].toLowerCase(Locale.ROOT);
+        String explain;
+        if (keyword.equals("select") || keyword.equals("with")) {
+            explain = "EXPLAIN ANALYZE " + statement;
+        } else if (keyword.equals("insert") || keyword.equals("update") || keyword.equals("delete") || keyword.equals("merge")) {
+            explain = "EXPLAIN " + statement;
+        } else {
+            return;
+        }
+        try (Connection conn = source.getConnection()) {
+            PreparedStatement ps = conn.prepareStatement(explain);
+            for (int i = 0; i < parameters.length; i++) {
+                ps.setObject(i + 1, parameters[i]);
+            }
+            StringBuilder plan = new StringBuilder();
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                plan.append(rs.getString(1)).append('\n');
+            }
+            synchronized (entry) {
+                entry.plan = plan.toString().trim();
+            }
+            System.out.println("Plan for slow query " + entry.shape + ":\n" + entry.plan);
+        } catch (SQLException sqle) {
+            System.out.println("Error: could not explain slow query: " + sqle.getMessage());
+        }
+    }
+
+    /**
+     * @return sql with literals replaced by ?, lists of placeholders collapsed and whitespace and case normalized
+     */
+    static String shape(String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = PLACEHOLDER_LIST.matcher(shape).replaceAll("(?, ...)");
+        shape = OPERATOR.matcher(shape).replaceAll(" $1 ");
+        shape = shape.replaceAll("\\s+", " ").trim();
+        if (shape.endsWith(";")) {
+            shape = shape.substring(0, shape.length() - 1).trim();
+        }
+        return shape.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the parameters as text, with values bound to a password column replaced by ***. If the statement
+     * mentions a password but a placeholder's column cannot be determined, that value is redacted too.
+     */
+    static List<String> redact(String sql, Object[] parameters) {
+        String[] columns = placeholderColumns(sql, parameters.length);
+        boolean mentionsPassword = sql.toLowerCase(Locale.ROOT).contains("password");
+        List<String> redacted = new ArrayList<>(parameters.length);
+        for (int i = 0; i < parameters.length; i++) {
+            String column = columns[i];
+            if (column == null ? mentionsPassword : column.contains("password")) {
+                redacted.add(REDACTED);
+            } else {
+                String value = String.valueOf(parameters[i]);
+                redacted.add(value.length() > MAX_PARAMETER_LENGTH ? value.substring(0, MAX_PARAMETER_LENGTH) + "..." : value);
+            }
+        }
+        return redacted;
+    }
+
+    /**
+     * @return the lower case column each ? is bound to, by position: from the column list of an INSERT, otherwise
+     * the identifier in front of the comparison or assignment before the ?. Null where it cannot be told.
+     */
+    private static String[] placeholderColumns(String sql, int count) {
+        String[] columns = new String[count];
+        Matcher insert = INSERT.matcher(sql);
+        if (insert.find()) {
+            String[] names = insert.group(1).split(",");
+            String[] values = insert.group(2).split(",");
+            int placeholder = 0;
+            for (int i = 0; i < values.length && placeholder < count; i++) {
+                if (values[i].trim().equals("?")) {
+                    columns[placeholder++] = i < names.length ? names[i].trim().toLowerCase(Locale.ROOT) : null;
+                }
+            }
+            return columns;
+        }
+        int placeholder = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sql.length() && placeholder < count; i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == '?' && !quoted) {
+                columns[placeholder++] = identifierBefore(sql, i);
+            }
+        }
+        return columns;
+    }
+
+    private static String identifierBefore(String sql, int position) {
+        int i = position - 1;
+        while (i >= 0 && (Character.isWhitespace(sql.charAt(i)) || "=<>!".indexOf(sql.charAt(i)) >= 0)) {
+            i--;
+        }
+        int end = i + 1;
+        while (i >= 0 && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '.')) {
+            i--;
+        }
+        return end > i + 1 ? sql.substring(i + 1, end).toLowerCase(Locale.ROOT) : null;
+    }
+}
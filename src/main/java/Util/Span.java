@@ -0,0 +1,107 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One timed step of a traced request: the request itself, a service call, a JSON (de)serialization or
+ * a SQL statement. SQL spans also carry the statement text, the rows it returned or changed, and how
+ * long it took to get the connection it ran on. Closing a span ends it, so try-with-resources works
+ * (and skips spans that are null because the request is not sampled).
+ */
+public class Span implements AutoCloseable {
+
+    private final String name;
+    private final Span parent;
+    private final long startNanos;
+    private final long startEpochMillis;
+    private long durationNanos = -1;
+    private String sql;
+    private long rows = -1;
+    private long connectionWaitNanos;
+    private final List<Span> children = new ArrayList<>();
+
+    Span(String name, Span parent) {
+        this.name = name;
+        this.parent = parent;
+        this.startNanos = System.nanoTime();
+        this.startEpochMillis = parent == null ? System.currentTimeMillis() : parent.startEpochMillis;
+        if (parent != null) {
+            parent.children.add(this);
+        }
+    }
+
+    void end() {
+        durationNanos = System.nanoTime() - startNanos;
+    }
+
+    @Override
+    public void close() {
+        Tracer.end(this);
+    }
+
+    Span getParentSpan() {
+        return parent;
+    }
+
+    void setSql(String sql) {
+        this.sql = sql;
+    }
+
+    void addRows(long count) {
+        rows = rows < 0 ? count : rows + count;
+    }
+
+    void setConnectionWaitNanos(long connectionWaitNanos) {
+        this.connectionWaitNanos = connectionWaitNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return wall-clock start of the request this span belongs to, in epoch milliseconds
+     */
+    public long getStart_epoch_millis() {
+        return startEpochMillis;
+    }
+
+    /**
+     * @return offset of this span from the start of its request, in microseconds
+     */
+    public long getOffset_micros() {
+        Span root = this;
+        while (root.parent != null) {
+            root = root.parent;
+        }
+        return (startNanos - root.startNanos) / 1000;
+    }
+
+    public long getDuration_micros() {
+        return durationNanos / 1000;
+    }
+
+    long durationNanos() {
+        return durationNanos;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return rows returned by a query or changed by an update, -1 for spans that ran no SQL
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public long getConnection_wait_micros() {
+        return connectionWaitNanos / 1000;
+    }
+
+    public List<Span> getChildren() {
+        return children;
+    }
+}
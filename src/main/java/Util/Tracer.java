@@ -0,0 +1,129 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lightweight request tracing. A sampled request gets a root span on its thread; service calls,
+ * payload (de)serialization and SQL statements opened while it runs become child spans. Finished
+ * requests go into a fixed-size lock-free ring buffer that keeps the most recent traces.
+ *
+ * When a request is not sampled the thread has no current span, so start() returns null after a
+ * single ThreadLocal lookup and the JDBC layer hands out unwrapped connections.
+ */
+public class Tracer {
+
+    private static final ThreadLocal<Span> current = new ThreadLocal<>();
+
+    private static volatile double sampleRate = AppConfig.traceSampleRate();
+
+    private static final AtomicReferenceArray<Span> ring = new AtomicReferenceArray<>(AppConfig.traceBufferSize());
+    private static final AtomicLong nextSlot = new AtomicLong();
+
+    /**
+     * Starts tracing a request on the current thread if it is sampled.
+     * @param force trace regardless of the sample rate, e.g. when the client asked for it
+     * @return the root span, or null if the request is not traced
+     */
+    public static Span startRequest(String name, boolean force) {
+        double rate = sampleRate;
+        if (!force && (rate <= 0 || (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate))) {
+            // Server threads are pooled; never let a request inherit a trace that was not finished
+            current.remove();
+            return null;
+        }
+        Span root = new Span(name, null);
+        current.set(root);
+        return root;
+    }
+
+    /**
+     * Ends a request's root span and publishes the trace to the ring buffer.
+     */
+    public static void finishRequest(Span root) {
+        if (root == null) {
+            return;
+        }
+        root.end();
+        current.remove();
+        int slot = (int) (nextSlot.getAndIncrement() % ring.length());
+        ring.set(slot, root);
+    }
+
+    /**
+     * @return a child of the current span, or null when the thread is not tracing a request
+     */
+    public static Span start(String name) {
+        Span parent = current.get();
+        if (parent == null) {
+            return null;
+        }
+        Span span = new Span(name, parent);
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * Ends a span started by start(); null spans are ignored.
+     */
+    public static void end(Span span) {
+        if (span == null) {
+            return;
+        }
+        span.end();
+        if (span.getParentSpan() != null) {
+            current.set(span.getParentSpan());
+        }
+    }
+
+    /**
+     * @return true when the current thread is tracing a request
+     */
+    public static boolean isActive() {
+        return current.get() != null;
+    }
+
+    public static double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param rate fraction of requests to trace, 0 turns sampling off and 1 traces everything
+     */
+    public static void setSampleRate(double rate) {
+        sampleRate = Math.max(0, Math.min(1, rate));
+    }
+
+    /**
+     * @return up to limit traces from the ring buffer, newest first
+     */
+    public static List<Span> recent(int limit) {
+        List<Span> traces = snapshot();
+        traces.sort(Comparator.comparingLong(Span::getStart_epoch_millis).reversed());
+        return traces.subList(0, Math.min(limit, traces.size()));
+    }
+
+    /**
+     * @return up to limit traces from the ring buffer, slowest first
+     */
+    public static List<Span> slowest(int limit) {
+        List<Span> traces = snapshot();
+        traces.sort(Comparator.comparingLong(Span::durationNanos).reversed());
+        return traces.subList(0, Math.min(limit, traces.size()));
+    }
+
+    private static List<Span> snapshot() {
+        List<Span> traces = new ArrayList<>(ring.length());
+        for (int i = 0; i < ring.length(); i++) {
+            Span span = ring.get(i);
+            if (span != null) {
+                traces.add(span);
+            }
+        }
+        return traces;
+    }
+}
@@ -0,0 +1,2 @@
+-- hash of the request body each idempotency key was first used with, so a reuse with another body is refused
+alter table idempotency_key add column if not exists request_hash varchar(64);
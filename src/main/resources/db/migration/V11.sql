@@ -0,0 +1,5 @@
+-- change number the account_stats checkpoint is complete up to; startup recounts when the change log has moved past it
+create table if not exists stats_checkpoint (
+    id int primary key,
+    change_seq bigint not null
+);
@@ -0,0 +1,2 @@
+-- index for newest-first and time range message queries
+create index if not exists message_time_idx on message(time_posted_epoch desc);
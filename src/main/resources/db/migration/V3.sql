@@ -0,0 +1,8 @@
+-- checkpointed per-account message statistics
+create table if not exists account_stats (
+    account_id int primary key,
+    message_count bigint,
+    first_post_epoch bigint,
+    last_post_epoch bigint,
+    total_characters bigint
+);
@@ -0,0 +1,3 @@
+-- tombstone column for soft-deleted messages, purged in the background
+alter table message add column if not exists deleted_epoch bigint;
+create index if not exists message_deleted_idx on message(deleted_epoch);
@@ -0,0 +1,11 @@
+-- idempotency keys of POST /messages, mapped to the message each key created
+create table if not exists idempotency_key (
+    posted_by int,
+    idempotency_key varchar(255),
+    message_id int,
+    message_text varchar(255),
+    time_posted_epoch bigint,
+    created_epoch bigint,
+    primary key (posted_by, idempotency_key)
+);
+create index if not exists idempotency_key_created_idx on idempotency_key(created_epoch);
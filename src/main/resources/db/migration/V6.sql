@@ -0,0 +1,10 @@
+-- change log of message inserts, updates and deletes, read by GET /changes for incremental sync
+create table if not exists message_change (
+    change_seq bigint primary key,
+    operation varchar(6) not null,
+    message_id int not null,
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint,
+    changed_epoch bigint
+);
@@ -0,0 +1,9 @@
+-- change log of account inserts, numbered together with message_change, for replicating to followers
+create table if not exists account_change (
+    change_seq bigint primary key,
+    operation varchar(6) not null,
+    account_id int not null,
+    username varchar(255),
+    password varchar(255),
+    changed_epoch bigint
+);
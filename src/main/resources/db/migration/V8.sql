@@ -0,0 +1,2 @@
+-- index for bulk deletes and other queries by author within a time range
+create index if not exists message_posted_by_time_idx on message(posted_by, time_posted_epoch);
@@ -0,0 +1,13 @@
+-- change numbers handed out by the database, and the reservations of commits still in flight
+create table if not exists change_counter (
+    id int primary key,
+    last_seq bigint not null
+);
+insert into change_counter (id, last_seq)
+    select 0, greatest(coalesce((select max(change_seq) from message_change), 0), coalesce((select max(change_seq) from account_change), 0))
+    where not exists (select 1 from change_counter);
+create table if not exists change_reservation (
+    first_seq bigint primary key,
+    reserved_epoch bigint not null
+);
+create index if not exists change_reservation_epoch_idx on change_reservation(reserved_epoch);
@@ -0,0 +1,50 @@
+import java.util.Random;
+
+import Service.AnalyticsService;
+import Service.MessageColumns;
+
+/**
+ * Manual benchmark for the analytics scans. Not run by the test suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.mainClass=AnalyticsScanBenchmark -Dexec.classpathScope=test -Dbench.rows=50000000
+ *
+ * It builds a synthetic snapshot of bench.rows messages (default 10M; 50M needs about 1 GB of heap)
+ * from 100,000 accounts over one year, then times each report and prints the scan rate in rows and
+ * bytes of column data per second.
+ */
+public class AnalyticsScanBenchmark {
+
+    private static final long START = 1669947792L;
+    private static final long YEAR = 365L * 24 * 3600;
+
+    public static void main(String[] args) {
+        int rows = Integer.getInteger("bench.rows", 10_000_000);
+        Random random = new Random(42);
+        MessageColumns.Builder builder = new MessageColumns.Builder(rows);
+        for (int i = 0; i < rows; i++) {
+            builder.add(i + 1, 1 + random.nextInt(100_000), START + (long) (random.nextDouble() * YEAR), random.nextInt(256));
+        }
+        AnalyticsService analytics = new AnalyticsService();
+        analytics.install(builder.build());
+        System.out.println(rows + " rows on " + Runtime.getRuntime().availableProcessors() + " cores");
+
+        time("posts per hour, last 30 days", rows, Long.BYTES, () -> analytics.postsPerHour(START + YEAR - 30 * 24 * 3600, START + YEAR));
+        time("top 10 posters", rows, Integer.BYTES, () -> analytics.topPosters(10));
+        time("text lengths by 16", rows, Short.BYTES, () -> analytics.textLengths(16));
+    }
+
+    private static void time(String name, int rows, int bytesPerRow, Runnable report) {
+        // Warm up the JIT before measuring
+        for (int i = 0; i < 5; i++) {
+            report.run();
+        }
+        int runs = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            report.run();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9 / runs;
+        System.out.printf("%-30s %8.2f ms  %7.0f M rows/s  %6.2f GB/s%n", name, seconds * 1000, rows / seconds / 1e6,
+                (double) rows * bytesPerRow / seconds / 1e9);
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Service.AnalyticsService;
+import Service.MessageColumns;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class AnalyticsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private JsonNode get(String path) throws IOException, InterruptedException {
+        HttpResponse<String> response = send("GET", path, null);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    private void post(int postedBy, String text, long time) throws IOException, InterruptedException {
+        String body = "{\"posted_by\":" + postedBy + ",\"message_text\":\"" + text + "\",\"time_posted_epoch\":" + time + "}";
+        Assert.assertEquals(200, send("POST", "/messages", body).statusCode());
+    }
+
+    /**
+     * The reports reflect the table as of the last refresh.
+     */
+    @Test
+    public void reportsComeFromRefreshedSnapshot() throws IOException, InterruptedException {
+        // The seeded message 1 of account 1 was posted at 1669947792, in the hour starting 1669946400
+        send("POST", "/register", "{\"username\":\"user2\",\"password\":\"password\"}");
+        post(2, "a", 1669947800);
+        post(2, "bb", 1669950000);
+        post(2, "ccc", 1669950001);
+        JsonNode refreshed = objectMapper.readTree(send("POST", "/analytics/refresh", null).body());
+        Assert.assertEquals(4, refreshed.get("snapshot_rows").asInt());
+
+        JsonNode hours = get("/analytics/posts-per-hour?from=1669946400&to=1669953599").get("hours");
+        Assert.assertEquals(2, hours.size());
+        Assert.assertEquals(1669946400L, hours.get(0).get("hour_start_epoch").asLong());
+        Assert.assertEquals(2, hours.get(0).get("messages").asLong());
+        Assert.assertEquals(2, hours.get(1).get("messages").asLong());
+
+        JsonNode posters = get("/analytics/top-posters?limit=1").get("posters");
+        Assert.assertEquals(1, posters.size());
+        Assert.assertEquals(2, posters.get(0).get("account_id").asInt());
+        Assert.assertEquals(3, posters.get(0).get("messages").asLong());
+
+        JsonNode lengths = get("/analytics/text-lengths?bucket=2").get("lengths");
+        Assert.assertEquals(128, lengths.size());
+        Assert.assertEquals(1, lengths.get(0).get("messages").asLong());
+        Assert.assertEquals(2, lengths.get(1).get("messages").asLong());
+        Assert.assertEquals(1, lengths.get(7).get("messages").asLong());
+
+        // Deleted messages leave the snapshot on the next refresh
+        send("DELETE", "/messages/1", null);
+        send("POST", "/analytics/refresh", null);
+        Assert.assertEquals(3, get("/analytics/top-posters").get("snapshot_rows").asInt());
+    }
+
+    /**
+     * Report reads are served from memory, so they go through the read bulkhead and never queue behind exports.
+     */
+    @Test
+    public void reportsAreAdmittedAsReads() throws IOException, InterruptedException {
+        long bulkBefore = get("/debug/admission").get("bulk").get("accepted").asLong();
+        for (int i = 0; i < 5; i++) {
+            get("/analytics/top-posters");
+        }
+        Assert.assertEquals(bulkBefore, get("/debug/admission").get("bulk").get("accepted").asLong());
+    }
+
+    @Test
+    public void invalidParametersReturn400() throws IOException, InterruptedException {
+        Assert.assertEquals(400, send("GET", "/analytics/posts-per-hour?from=10&to=5", null).statusCode());
+        Assert.assertEquals(400, send("GET", "/analytics/posts-per-hour?from=0&to=100000000", null).statusCode());
+        Assert.assertEquals(400, send("GET", "/analytics/top-posters?limit=0", null).statusCode());
+        Assert.assertEquals(400, send("GET", "/analytics/text-lengths?bucket=x", null).statusCode());
+    }
+
+    /**
+     * Parallel scans over many fork-join leaves agree with a sequential count.
+     */
+    @Test
+    public void parallelScansMatchSequentialCounts() {
+        int rows = 1_000_000;
+        Random random = new Random(42);
+        MessageColumns.Builder builder = new MessageColumns.Builder(rows);
+        long[] perHour = new long[24];
+        long[] perAccount = new long[101];
+        for (int i = 0; i < rows; i++) {
+            int postedBy = 1 + random.nextInt(100);
+            long time = random.nextInt(24 * 3600);
+            builder.add(i + 1, postedBy, time, random.nextInt(256));
+            perHour[(int) (time / 3600)]++;
+            perAccount[postedBy]++;
+        }
+        AnalyticsService analytics = new AnalyticsService();
+        analytics.install(builder.build());
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Long>> hours = (List<Map<String, Long>>) analytics.postsPerHour(0, 24 * 3600 - 1).get("hours");
+        for (int hour = 0; hour < 24; hour++) {
+            Assert.assertEquals(perHour[hour], (long) hours.get(hour).get("messages"));
+        }
+        @SuppressWarnings("unchecked")
+        List<Map<String, Long>> posters = (List<Map<String, Long>>) analytics.topPosters(100).get("posters");
+        Assert.assertEquals(100, posters.size());
+        for (Map<String, Long> poster : posters) {
+            Assert.assertEquals(perAccount[poster.get("account_id").intValue()], (long) poster.get("messages"));
+        }
+        Assert.assertTrue(posters.get(0).get("messages") >= posters.get(99).get("messages"));
+    }
+}
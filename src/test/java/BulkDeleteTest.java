@@ -0,0 +1,208 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class BulkDeleteTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app with small bulk delete batches, and create
+     * a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("socialmedia.bulkDelete.batchSize", "50");
+        System.setProperty("socialmedia.bulkDelete.maxPendingJobs", "2");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.bulkDelete.batchSize");
+        System.clearProperty("socialmedia.bulkDelete.maxPendingJobs");
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    // count messages by account for times 1000, 1001, ... written straight to the table
+    private void seed(int account, int count) throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);");
+        for (int i = 0; i < count; i++) {
+            ps.setInt(1, account);
+            ps.setString(2, "spam " + i);
+            ps.setLong(3, 1000L + i);
+            ps.addBatch();
+        }
+        ps.executeBatch();
+    }
+
+    private long count(String sql) throws SQLException {
+        ResultSet rs = ConnectionUtil.getConnection().createStatement().executeQuery(sql);
+        rs.next();
+        return rs.getLong(1);
+    }
+
+    private JsonNode runJob(String filters) throws Exception {
+        HttpResponse<String> response = send("POST", "/messages/bulk-delete", filters);
+        Assert.assertEquals(202, response.statusCode());
+        long jobId = objectMapper.readTree(response.body()).get("job_id").asLong();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            JsonNode job = objectMapper.readTree(send("GET", "/messages/bulk-delete/" + jobId, null).body());
+            if (job.get("finished_epoch_millis").asLong() > 0) {
+                return job;
+            }
+            Thread.sleep(20);
+        }
+        Assert.fail("Bulk delete job " + jobId + " did not finish");
+        return null;
+    }
+
+    /**
+     * Only the author's messages inside the window go, in batches, each logged as a delete, and the author's
+     * counters are recounted to what is left.
+     */
+    @Test
+    public void deleteByAuthorAndTimeRange() throws Exception {
+        send("POST", "/register", "{\"username\":\"spammer\",\"password\":\"password\"}");
+        seed(2, 500);
+        seed(1, 20);
+
+        JsonNode job = runJob("{\"posted_by\":2,\"from\":1100,\"to\":1399}");
+        Assert.assertEquals("finished", job.get("status").asText());
+        Assert.assertEquals(300, job.get("matched_at_start").asInt());
+        Assert.assertEquals(300, job.get("messages_deleted").asInt());
+        Assert.assertEquals(6, job.get("batches").asInt());
+
+        Assert.assertEquals(200, count("SELECT COUNT(*) FROM message WHERE posted_by = 2 AND deleted_epoch IS NULL;"));
+        Assert.assertEquals(0, count("SELECT COUNT(*) FROM message WHERE posted_by = 2 AND deleted_epoch IS NULL AND time_posted_epoch BETWEEN 1100 AND 1399;"));
+        Assert.assertEquals(21, count("SELECT COUNT(*) FROM message WHERE posted_by = 1 AND deleted_epoch IS NULL;"));
+        Assert.assertEquals(300, count("SELECT COUNT(*) FROM message_change WHERE operation = 'delete';"));
+
+        JsonNode stats = objectMapper.readTree(send("GET", "/accounts/2/stats", null).body());
+        Assert.assertEquals(200, stats.get("message_count").asInt());
+        Assert.assertEquals(1000, stats.get("first_post_epoch").asLong());
+        Assert.assertEquals(1499, stats.get("last_post_epoch").asLong());
+    }
+
+    /**
+     * A time range alone matches every author; cached timelines and messages of the deleted rows are dropped.
+     */
+    @Test
+    public void deleteByTimeRangeInvalidatesCaches() throws Exception {
+        seed(1, 100);
+        Assert.assertEquals(101, objectMapper.readTree(send("GET", "/accounts/1/messages", null).body()).size());
+        Assert.assertEquals(2, objectMapper.readTree(send("POST", "/messages/lookup", "[1,2]").body()).size());
+
+        JsonNode job = runJob("{\"to\":1049}");
+        Assert.assertEquals(50, job.get("messages_deleted").asInt());
+
+        Assert.assertEquals(51, objectMapper.readTree(send("GET", "/accounts/1/messages", null).body()).size());
+        // Message 1 (1669947792) is outside the range, message 2 (1000) inside it
+        JsonNode lookup = objectMapper.readTree(send("POST", "/messages/lookup", "[1,2]").body());
+        Assert.assertEquals(1, lookup.size());
+        Assert.assertEquals(1, lookup.get(0).get("message_id").asInt());
+        Assert.assertEquals(51, objectMapper.readTree(send("GET", "/accounts/1/stats", null).body()).get("message_count").asInt());
+    }
+
+    /**
+     * The job never deletes faster than its max_rows_per_second.
+     */
+    @Test
+    public void deleteIsRateLimited() throws Exception {
+        seed(1, 300);
+        JsonNode job = runJob("{\"posted_by\":1,\"from\":1000,\"to\":1299,\"max_rows_per_second\":500}");
+        Assert.assertEquals(300, job.get("messages_deleted").asInt());
+        long elapsed = job.get("finished_epoch_millis").asLong() - job.get("started_epoch_millis").asLong();
+        Assert.assertTrue("took " + elapsed + " ms", elapsed >= 550);
+    }
+
+    /**
+     * Posts by the author arriving while the job deletes their older messages are counted once each.
+     */
+    @Test
+    public void postsDuringDeleteKeepCounters() throws Exception {
+        send("POST", "/register", "{\"username\":\"spammer\",\"password\":\"password\"}");
+        seed(2, 300);
+        HttpResponse<String> response = send("POST", "/messages/bulk-delete", "{\"posted_by\":2,\"to\":1299,\"max_rows_per_second\":500}");
+        Assert.assertEquals(202, response.statusCode());
+        long jobId = objectMapper.readTree(response.body()).get("job_id").asLong();
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(200, send("POST", "/messages", "{\"posted_by\":2,\"message_text\":\"new\",\"time_posted_epoch\":" + (5000 + i) + "}").statusCode());
+            Thread.sleep(20);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (objectMapper.readTree(send("GET", "/messages/bulk-delete/" + jobId, null).body()).get("finished_epoch_millis").asLong() == 0) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+
+        JsonNode stats = objectMapper.readTree(send("GET", "/accounts/2/stats", null).body());
+        Assert.assertEquals(20, stats.get("message_count").asInt());
+        Assert.assertEquals(20, count("SELECT COUNT(*) FROM message WHERE posted_by = 2 AND deleted_epoch IS NULL;"));
+    }
+
+    /**
+     * Once maxPendingJobs jobs are queued or running, further jobs are refused with 429 and nothing is queued.
+     */
+    @Test
+    public void fullQueueIsRejected() throws Exception {
+        seed(1, 300);
+        String slow = "{\"posted_by\":1,\"max_rows_per_second\":50}";
+        Assert.assertEquals(202, send("POST", "/messages/bulk-delete", slow).statusCode());
+        Assert.assertEquals(202, send("POST", "/messages/bulk-delete", slow).statusCode());
+
+        HttpResponse<String> rejected = send("POST", "/messages/bulk-delete", slow);
+        Assert.assertEquals(429, rejected.statusCode());
+        Assert.assertEquals("1", rejected.headers().firstValue("Retry-After").orElse(null));
+        Assert.assertEquals(404, send("GET", "/messages/bulk-delete/3", null).statusCode());
+    }
+
+    @Test
+    public void invalidRequestsAreRejected() throws Exception {
+        Assert.assertEquals(400, send("POST", "/messages/bulk-delete", "{}").statusCode());
+        Assert.assertEquals(400, send("POST", "/messages/bulk-delete", "{\"from\":10,\"to\":5}").statusCode());
+        Assert.assertEquals(400, send("POST", "/messages/bulk-delete", "{\"posted_by\":\"1\"}").statusCode());
+        Assert.assertEquals(400, send("POST", "/messages/bulk-delete", "{\"posted_by\":1,\"text\":\"spam\"}").statusCode());
+        Assert.assertEquals(400, send("POST", "/messages/bulk-delete", "{\"posted_by\":1,\"max_rows_per_second\":0}").statusCode());
+        Assert.assertEquals(404, send("GET", "/messages/bulk-delete/999", null).statusCode());
+        Assert.assertEquals(1, count("SELECT COUNT(*) FROM message WHERE deleted_epoch IS NULL;"));
+    }
+}
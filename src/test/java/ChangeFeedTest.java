@@ -0,0 +1,149 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ChangeFeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private JsonNode changes(long since, int limit) throws IOException, InterruptedException {
+        HttpResponse<String> response = send("GET", "/changes?since=" + since + "&limit=" + limit, null);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    /**
+     * Inserts, updates and deletes come back in order, and paging with next_since visits each exactly once.
+     */
+    @Test
+    public void changesArePagedInOrder() throws IOException, InterruptedException {
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"second\",\"time_posted_epoch\":1669947793}");
+        send("PATCH", "/messages/2", "{\"message_text\":\"edited\"}");
+        send("DELETE", "/messages/1", null);
+        // Failed writes log nothing
+        send("PATCH", "/messages/99", "{\"message_text\":\"nothing\"}");
+        send("DELETE", "/messages/1", null);
+
+        JsonNode all = changes(0, 100);
+        Assert.assertFalse(all.get("has_more").asBoolean());
+        JsonNode list = all.get("changes");
+        Assert.assertEquals(3, list.size());
+        Assert.assertEquals("insert", list.get(0).get("operation").asText());
+        Assert.assertEquals(2, list.get(0).get("message_id").asInt());
+        Assert.assertEquals("update", list.get(1).get("operation").asText());
+        Assert.assertEquals("edited", list.get(1).get("message_text").asText());
+        Assert.assertEquals("delete", list.get(2).get("operation").asText());
+        Assert.assertEquals(1, list.get(2).get("message_id").asInt());
+        Assert.assertEquals(1, list.get(2).get("posted_by").asInt());
+        Assert.assertTrue(list.get(2).get("message_text").isNull());
+
+        long since = 0;
+        for (int i = 0; i < 3; i++) {
+            JsonNode page = changes(since, 1);
+            Assert.assertEquals(1, page.get("changes").size());
+            Assert.assertEquals(list.get(i), page.get("changes").get(0));
+            Assert.assertEquals(i < 2, page.get("has_more").asBoolean());
+            since = page.get("next_since").asLong();
+        }
+        JsonNode caughtUp = changes(since, 1);
+        Assert.assertEquals(0, caughtUp.get("changes").size());
+        Assert.assertEquals(since, caughtUp.get("next_since").asLong());
+    }
+
+    /**
+     * Every message of a bulk import is logged.
+     */
+    @Test
+    public void importedMessagesAreLogged() throws IOException, InterruptedException {
+        String rows = "{\"posted_by\":1,\"message_text\":\"a\",\"time_posted_epoch\":1}\n{\"posted_by\":1,\"message_text\":\"b\",\"time_posted_epoch\":2}\n";
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/import/messages?format=ndjson"))
+                .POST(HttpRequest.BodyPublishers.ofString(rows))
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        JsonNode list = changes(0, 100).get("changes");
+        Assert.assertEquals(2, list.size());
+        Assert.assertEquals("a", list.get(0).get("message_text").asText());
+        Assert.assertEquals("b", list.get(1).get("message_text").asText());
+    }
+
+    /**
+     * Numbers come from the shared database, so numbers another instance took are never handed out again, and
+     * a change committed behind another instance's unfinished commit stays hidden until that commit resolves.
+     */
+    @Test
+    public void numbersAreSharedWithOtherInstances() throws IOException, InterruptedException, SQLException {
+        Statement otherInstance = ConnectionUtil.getConnection().createStatement();
+        // Another instance reserves numbers 1 to 5 and is still committing
+        otherInstance.executeUpdate("UPDATE change_counter SET last_seq = last_seq + 5 WHERE id = 0;");
+        otherInstance.executeUpdate("INSERT INTO change_reservation (first_seq, reserved_epoch) VALUES (1, " + System.currentTimeMillis() / 1000 + ");");
+
+        Assert.assertEquals(200, send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"mine\",\"time_posted_epoch\":1669947793}").statusCode());
+        JsonNode held = changes(0, 100);
+        Assert.assertEquals(0, held.get("changes").size());
+        Assert.assertEquals(0, held.get("next_since").asLong());
+
+        otherInstance.executeUpdate("DELETE FROM change_reservation WHERE first_seq = 1;");
+        JsonNode list = changes(0, 100).get("changes");
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(6, list.get(0).get("change_seq").asLong());
+        Assert.assertEquals("mine", list.get(0).get("message_text").asText());
+    }
+
+    @Test
+    public void invalidParametersReturn400() throws IOException, InterruptedException {
+        Assert.assertEquals(400, send("GET", "/changes?since=-1", null).statusCode());
+        Assert.assertEquals(400, send("GET", "/changes?limit=0", null).statusCode());
+        Assert.assertEquals(400, send("GET", "/changes?limit=10001", null).statusCode());
+        Assert.assertEquals(400, send("GET", "/changes?since=x", null).statusCode());
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Replication to a follower running in a second JVM, over loopback. The follower's database is opened
+ * with AUTO_SERVER so this JVM can read it while the follower has it open.
+ */
+public class ChangeStreamReplicationTest {
+    private static final int STREAM_PORT = 7071;
+    private static final Path FOLLOWER_DIR = Path.of("target", "replication-test");
+    private static final String FOLLOWER_URL = "jdbc:h2:./target/replication-test/follower;AUTO_SERVER=TRUE";
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    Process follower;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app with the change stream open, and
+     * remove the follower database of earlier runs.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        System.setProperty("socialmedia.replication.streamPort", Integer.toString(STREAM_PORT));
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        if (Files.exists(FOLLOWER_DIR)) {
+            try (Stream<Path> files = Files.walk(FOLLOWER_DIR)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (follower != null) {
+            follower.destroyForcibly();
+        }
+        app.stop();
+        System.clearProperty("socialmedia.replication.streamPort");
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void startFollower() throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        follower = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "-Dsocialmedia.replication.streamPort=" + STREAM_PORT,
+                "-Dsocialmedia.follower.url=" + FOLLOWER_URL,
+                "Util.ReplicationFollower")
+                .redirectErrorStream(true)
+                .redirectOutput(FOLLOWER_DIR.resolveSibling("replication-follower.log").toFile())
+                .start();
+    }
+
+    private String followerQuery(String sql) throws SQLException {
+        // IFEXISTS, so polling never creates the database before the follower does
+        try (Connection conn = DriverManager.getConnection(FOLLOWER_URL + ";IFEXISTS=TRUE", "sa", "sa")) {
+            ResultSet rs = conn.createStatement().executeQuery(sql);
+            StringBuilder rows = new StringBuilder();
+            while (rs.next()) {
+                rows.append(rs.getString(1)).append(';');
+            }
+            return rows.toString();
+        }
+    }
+
+    // Polls until the follower's copy matches, or fails after 20 seconds
+    private void awaitFollower(String sql, String expected) throws Exception {
+        awaitTrue(() -> expected.equals(followerQuery(sql)));
+        Assert.assertEquals(expected, followerQuery(sql));
+    }
+
+    private void awaitTrue(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                if (condition.call()) {
+                    return;
+                }
+            } catch (SQLException e) {
+                // The follower has not created its database yet
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private JsonNode streamMetrics() throws IOException, InterruptedException {
+        return objectMapper.readTree(send("GET", "/debug/replication-stream", null).body());
+    }
+
+    /**
+     * The follower starts from a snapshot, then applies every insert, update and delete as it commits,
+     * and after a restart resumes from its own position without a second snapshot.
+     */
+    @Test
+    public void followerReplicatesSnapshotAndChanges() throws Exception {
+        send("POST", "/register", "{\"username\":\"user2\",\"password\":\"password\"}");
+        send("POST", "/messages", "{\"posted_by\":2,\"message_text\":\"before snapshot\",\"time_posted_epoch\":1669947793}");
+        startFollower();
+        awaitFollower("SELECT username FROM account ORDER BY account_id", "testuser1;user2;");
+        awaitFollower("SELECT message_text FROM message ORDER BY message_id", "test message 1;before snapshot;");
+
+        send("POST", "/register", "{\"username\":\"user3\",\"password\":\"password\"}");
+        send("POST", "/messages", "{\"posted_by\":3,\"message_text\":\"streamed\",\"time_posted_epoch\":1669947794}");
+        send("PATCH", "/messages/2", "{\"message_text\":\"edited\"}");
+        send("DELETE", "/messages/1", null);
+        awaitFollower("SELECT message_text FROM message ORDER BY message_id", "edited;streamed;");
+        awaitFollower("SELECT username FROM account WHERE account_id = 3", "user3;");
+
+        awaitTrue(() -> streamMetrics().get("followers").get(0).get("lag_changes").asLong() == 0);
+        JsonNode connected = streamMetrics().get("followers").get(0);
+        Assert.assertEquals(0, connected.get("lag_changes").asLong());
+        Assert.assertEquals(streamMetrics().get("position").asLong(), connected.get("acked_position").asLong());
+
+        // Changes made while the follower is down are caught up from its saved position
+        follower.destroy();
+        follower.waitFor();
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"while down\",\"time_posted_epoch\":1669947795}");
+        startFollower();
+        awaitFollower("SELECT message_text FROM message ORDER BY message_id", "edited;streamed;while down;");
+        awaitTrue(() -> streamMetrics().get("followers").size() == 1);
+        Assert.assertEquals(0, streamMetrics().get("followers").get(0).get("snapshots_sent").asInt());
+    }
+}
@@ -0,0 +1,79 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.ConcurrencyLimiter;
+
+public class ConcurrencyLimiterTest {
+
+    /**
+     * Once the limit is reached, a request waits out its queue-time budget and is rejected.
+     */
+    @Test
+    public void rejectsBeyondLimitAfterQueueBudget() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 10, 100, 20);
+        Assert.assertTrue(limiter.acquire());
+
+        long start = System.nanoTime();
+        Assert.assertFalse(limiter.acquire());
+        Assert.assertTrue(System.nanoTime() - start >= 20_000_000L);
+        Assert.assertEquals(1, limiter.getRejected());
+
+        limiter.release(1_000_000);
+        Assert.assertTrue(limiter.acquire());
+    }
+
+    /**
+     * A queued request gets the slot as soon as it is released.
+     */
+    @Test
+    public void queuedRequestGetsReleasedSlot() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 10, 100, 2_000);
+        Assert.assertTrue(limiter.acquire());
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            limiter.release(1_000_000);
+        }).start();
+        Assert.assertTrue(limiter.acquire());
+    }
+
+    /**
+     * Slow requests shrink the limit multiplicatively, fast requests at the limit grow it additively.
+     */
+    @Test
+    public void limitFollowsLatency() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 10, 1, 20, 100, 0);
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.release(500_000_000L);
+        }
+        Assert.assertTrue(limiter.getLimit() < 10);
+
+        int reduced = limiter.getLimit();
+        for (int round = 0; round < 50; round++) {
+            int slots = limiter.getLimit();
+            for (int i = 0; i < slots; i++) {
+                Assert.assertTrue(limiter.acquire());
+            }
+            for (int i = 0; i < slots; i++) {
+                limiter.release(1_000_000L);
+            }
+        }
+        Assert.assertTrue(limiter.getLimit() > reduced);
+    }
+
+    /**
+     * Without a latency target the limit stays fixed, however slow the requests are.
+     */
+    @Test
+    public void limitWithoutTargetIsFixed() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2, 1, 2, 0, 0);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(limiter.acquire());
+            limiter.release(60_000_000_000L);
+        }
+        Assert.assertEquals(2, limiter.getLimit());
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ContentNegotiationTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages with Accept: application/x-jackson-smile
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: Smile encoded list of message objects
+     */
+    @Test
+    public void getAllMessagesAsSmile() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .header("Accept", "application/x-jackson-smile")
+                .build();
+        HttpResponse<byte[]> response = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("application/x-jackson-smile", response.headers().firstValue("Content-Type").orElse(""));
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        List<Message> actualResult = smileMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages with a CBOR body and Accept: application/cbor
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: CBOR encoded message including its message_id
+     */
+    @Test
+    public void createMessageWithCbor() throws IOException, InterruptedException {
+        byte[] body = cborMapper.writeValueAsBytes(new Message(1, "cbor message", 1669947792));
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .header("Content-Type", "application/cbor")
+                .header("Accept", "application/cbor")
+                .build();
+        HttpResponse<byte[]> response = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(new Message(2, 1, "cbor message", 1669947792), cborMapper.readValue(response.body(), Message.class));
+    }
+}
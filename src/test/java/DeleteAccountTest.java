@@ -0,0 +1,153 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class DeleteAccountTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app with small deletion chunks, and create a
+     * new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("socialmedia.accountDelete.chunkSize", "100");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.accountDelete.chunkSize");
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    // Account 2 with count messages written straight to the table, the first one already tombstoned
+    private void seedAccount(int count) throws SQLException, IOException, InterruptedException {
+        Assert.assertEquals(200, send("POST", "/register", "{\"username\":\"user2\",\"password\":\"password\"}").statusCode());
+        Connection conn = ConnectionUtil.getConnection();
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO message (posted_by, message_text, time_posted_epoch, deleted_epoch) VALUES (2, ?, ?, ?);");
+        for (int i = 0; i < count; i++) {
+            ps.setString(1, "message " + i);
+            ps.setLong(2, 1669947792L + i);
+            ps.setObject(3, i == 0 ? 1669947792L : null);
+            ps.addBatch();
+        }
+        ps.executeBatch();
+    }
+
+    private long count(String sql) throws SQLException {
+        ResultSet rs = ConnectionUtil.getConnection().createStatement().executeQuery(sql);
+        rs.next();
+        return rs.getLong(1);
+    }
+
+    /**
+     * The messages go in chunks, live ones logged as deleted, then the account; other accounts keep theirs.
+     */
+    @Test
+    public void deleteAccountRemovesMessagesInChunks() throws Exception {
+        seedAccount(250);
+
+        HttpResponse<String> response = send("DELETE", "/accounts/2", null);
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode deletion = objectMapper.readTree(response.body());
+        Assert.assertEquals(2, deletion.get("account_id").asInt());
+        Assert.assertEquals("user2", deletion.get("username").asText());
+        Assert.assertEquals(250, deletion.get("messages_deleted").asInt());
+        Assert.assertEquals(3, deletion.get("chunks").asInt());
+        Assert.assertTrue(deletion.get("finished_epoch_millis").asLong() >= deletion.get("started_epoch_millis").asLong());
+
+        Assert.assertEquals(0, count("SELECT COUNT(*) FROM message WHERE posted_by = 2;"));
+        Assert.assertEquals(0, count("SELECT COUNT(*) FROM account WHERE account_id = 2;"));
+        Assert.assertEquals(1, count("SELECT COUNT(*) FROM message WHERE posted_by = 1;"));
+        Assert.assertEquals(249, count("SELECT COUNT(*) FROM message_change WHERE operation = 'delete' AND posted_by = 2;"));
+        Assert.assertEquals(1, count("SELECT COUNT(*) FROM account_change WHERE operation = 'delete' AND account_id = 2;"));
+
+        Assert.assertEquals(401, send("POST", "/login", "{\"username\":\"user2\",\"password\":\"password\"}").statusCode());
+        Assert.assertEquals("", send("GET", "/accounts/2/stats", null).body());
+        Assert.assertEquals(404, send("DELETE", "/accounts/2", null).statusCode());
+    }
+
+    /**
+     * Cached messages and timelines of the account are dropped along with it.
+     */
+    @Test
+    public void deleteAccountInvalidatesCaches() throws Exception {
+        Message posted = objectMapper.readValue(send("POST", "/messages",
+                "{\"posted_by\":1,\"message_text\":\"cached\",\"time_posted_epoch\":1669947800}").body(), Message.class);
+        Assert.assertEquals(2, objectMapper.readTree(send("GET", "/accounts/1/messages", null).body()).size());
+        Assert.assertEquals(1, objectMapper.readTree(send("POST", "/messages/lookup", "[" + posted.getMessage_id() + "]").body()).size());
+
+        Assert.assertEquals(200, send("DELETE", "/accounts/1", null).statusCode());
+
+        Assert.assertEquals(0, objectMapper.readTree(send("GET", "/accounts/1/messages", null).body()).size());
+        Assert.assertEquals(0, objectMapper.readTree(send("POST", "/messages/lookup", "[" + posted.getMessage_id() + "]").body()).size());
+        Assert.assertEquals("", send("GET", "/messages/" + posted.getMessage_id(), null).body());
+    }
+
+    /**
+     * A running deletion reports its progress, and a second DELETE of the same account answers 202 with it.
+     */
+    @Test
+    public void deletionProgressIsReportedWhileRunning() throws Exception {
+        System.setProperty("socialmedia.accountDelete.chunkSize", "1");
+        seedAccount(300);
+        Assert.assertEquals(404, send("GET", "/accounts/2/deletion", null).statusCode());
+
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/accounts/2")).DELETE().build();
+        CompletableFuture<HttpResponse<String>> running = webClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        JsonNode progress = null;
+        while (progress == null && !running.isDone()) {
+            HttpResponse<String> response = send("GET", "/accounts/2/deletion", null);
+            if (response.statusCode() == 200) {
+                progress = objectMapper.readTree(response.body());
+            }
+        }
+        Assert.assertNotNull("no progress seen while the deletion ran", progress);
+        Assert.assertEquals(0, progress.get("finished_epoch_millis").asLong());
+        Assert.assertTrue(progress.get("messages_deleted").asLong() < 300);
+        Assert.assertEquals(202, send("DELETE", "/accounts/2", null).statusCode());
+
+        Assert.assertEquals(300, objectMapper.readTree(running.get().body()).get("messages_deleted").asInt());
+        Assert.assertEquals(404, send("GET", "/accounts/2/deletion", null).statusCode());
+    }
+}
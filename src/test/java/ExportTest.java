@@ -0,0 +1,118 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ExportTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/export/messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: one JSON message per line
+     */
+    @Test
+    public void exportMessagesAsNdjson() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/export/messages");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("{\"message_id\":1,\"posted_by\":1,\"message_text\":\"test message 1\",\"time_posted_epoch\":1669947792}\n",
+                response.body());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/export/messages?format=csv with text that needs quoting
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: CSV with a header row
+     */
+    @Test
+    public void exportMessagesAsCsv() throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"hello, \\\"world\\\"\", \"time_posted_epoch\": 1700000000}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<String> response = get("/export/messages?format=csv");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("message_id,posted_by,message_text,time_posted_epoch\n" +
+                "1,1,test message 1,1669947792\n" +
+                "2,1,\"hello, \"\"world\"\"\",1700000000\n", response.body());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/export/accounts?gzip=true
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: gzip compressed NDJSON without passwords
+     */
+    @Test
+    public void exportAccountsGzipped() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/export/accounts?gzip=true")).build();
+        HttpResponse<byte[]> response = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(""));
+        String body = new String(new GZIPInputStream(new ByteArrayInputStream(response.body())).readAllBytes(), StandardCharsets.UTF_8);
+        Assert.assertEquals("{\"account_id\":1,\"username\":\"testuser1\"}\n", body);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/export/messages with an unknown format
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void exportUnknownFormat() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/export/messages?format=xml").statusCode());
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.Random;
+
+import Util.HotKeyTracker;
+
+/**
+ * Manual benchmark for the cost of counting a request in HotKeyTracker. Not run by the test suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.mainClass=HotKeyBenchmark -Dexec.classpathScope=test -Dbench.threads=4
+ *
+ * Every thread records keys drawn from a skewed distribution (a few hot keys, a long cold tail), as the
+ * read endpoints would, and the average time per record() call is printed.
+ */
+public class HotKeyBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = Integer.getInteger("bench.threads", Runtime.getRuntime().availableProcessors());
+        int perThread = 20_000_000;
+        HotKeyTracker tracker = new HotKeyTracker(2048, 4, 32, 10_000, 6);
+
+        for (int round = 0; round < 3; round++) {
+            Thread[] workers = new Thread[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                workers[t] = new Thread(() -> {
+                    Random random = new Random(seed);
+                    int[] keys = new int[4096];
+                    for (int i = 0; i < keys.length; i++) {
+                        // A fifth of the requests go to 10 hot keys
+                        keys[i] = random.nextInt(5) == 0 ? random.nextInt(10) : 10 + random.nextInt(1_000_000);
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        tracker.record(keys[i & 4095]);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double nanos = (double) (System.nanoTime() - start) / perThread;
+            System.out.printf("%d threads: %.1f ns per record() per thread%n", threads, nanos);
+        }
+        System.out.println("Top keys: " + tracker.top(10));
+    }
+}
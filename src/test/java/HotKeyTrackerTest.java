@@ -0,0 +1,52 @@
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.HotKeyTracker;
+
+public class HotKeyTrackerTest {
+
+    /**
+     * Keys requested far more often than the rest come out on top, never undercounted.
+     */
+    @Test
+    public void findsHeavyHittersAmongColdKeys() {
+        HotKeyTracker tracker = new HotKeyTracker(1024, 4, 16, 60_000, 6);
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            tracker.record(1000 + random.nextInt(50_000));
+            if (i % 10 == 0) {
+                tracker.record(7);
+            }
+            if (i % 20 == 0) {
+                tracker.record(8);
+            }
+        }
+
+        List<Map<String, Object>> top = tracker.top(2);
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals(7, top.get(0).get("key"));
+        Assert.assertEquals(8, top.get(1).get("key"));
+        Assert.assertTrue((long) top.get(0).get("requests") >= 2_000);
+        Assert.assertTrue((long) top.get(1).get("requests") >= 1_000);
+        Assert.assertEquals(23_000, tracker.getRecorded());
+    }
+
+    /**
+     * Requests older than the sliding window no longer count.
+     */
+    @Test
+    public void requestsExpireWithTheWindow() throws InterruptedException {
+        HotKeyTracker tracker = new HotKeyTracker(256, 4, 8, 20, 3);
+        for (int i = 0; i < 100; i++) {
+            tracker.record(42);
+        }
+        Assert.assertEquals(42, tracker.top(1).get(0).get("key"));
+
+        Thread.sleep(100);
+        Assert.assertTrue(tracker.top(1).isEmpty());
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import Service.IdempotencyCache;
+
+public class IdempotencyCacheTest {
+    ExecutorService pool = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * A key skipped by eviction while in flight is evicted once it finishes, so the cache returns to its bound.
+     */
+    @Test
+    public void inFlightKeyIsEvictedAfterItFinishes() throws Exception {
+        IdempotencyCache<String> cache = new IdempotencyCache<>(2, 60_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> cache.getOrCompute("slow", () -> {
+            started.countDown();
+            await(release);
+            return "slow";
+        }), pool);
+        started.await();
+        cache.getOrCompute("a", () -> "a");
+        cache.getOrCompute("b", () -> "b");
+        Assert.assertEquals(2, cache.size());
+
+        release.countDown();
+        Assert.assertEquals("slow", slow.get());
+        cache.getOrCompute("c", () -> "c");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals("recomputed", cache.getOrCompute("slow", () -> "recomputed"));
+    }
+
+    /**
+     * Expired entries are dropped by the next insert even when the cache is under capacity.
+     */
+    @Test
+    public void expiredEntriesAreSwept() throws Exception {
+        IdempotencyCache<String> cache = new IdempotencyCache<>(100, 50);
+        for (int i = 0; i < 10; i++) {
+            String key = "old-" + i;
+            cache.getOrCompute(key, () -> key);
+        }
+        Thread.sleep(100);
+        cache.getOrCompute("new", () -> "new");
+        Assert.assertEquals(1, cache.size());
+    }
+
+    /**
+     * An Error thrown by the first request wakes its duplicates, which then do the work themselves.
+     */
+    @Test
+    public void errorReleasesWaitingDuplicates() throws Exception {
+        IdempotencyCache<String> cache = new IdempotencyCache<>(10, 60_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> cache.getOrCompute("k", () -> {
+            started.countDown();
+            await(release);
+            throw new AssertionError("out of memory");
+        }), pool);
+        started.await();
+        CompletableFuture<String> duplicate = CompletableFuture.supplyAsync(() -> cache.getOrCompute("k", () -> "retried"), pool);
+        Thread.sleep(100);
+        release.countDown();
+
+        Assert.assertEquals("retried", duplicate.get(5, TimeUnit.SECONDS));
+        try {
+            first.get();
+            Assert.fail("expected the first request's error");
+        } catch (Exception e) {
+            Assert.assertEquals("out of memory", e.getCause().getMessage());
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class IdempotencyKeyTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpRequest post(String body, String idempotencyKey) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", idempotencyKey)
+                .build();
+    }
+
+    private long messageRows() throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM message;");
+        rs.next();
+        return rs.getLong(1);
+    }
+
+    /**
+     * Retrying a post with the same key returns the original message and creates no second row.
+     */
+    @Test
+    public void retryWithSameKeyReturnsOriginalMessage() throws IOException, InterruptedException, SQLException {
+        String body = "{\"posted_by\":1,\"message_text\":\"hello message\",\"time_posted_epoch\":1669947792}";
+        HttpResponse<String> first = webClient.send(post(body, "retry-1"), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> retry = webClient.send(post(body, "retry-1"), HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals(200, retry.statusCode());
+        Message original = objectMapper.readValue(first.body(), Message.class);
+        Assert.assertEquals(original, objectMapper.readValue(retry.body(), Message.class));
+        Assert.assertEquals(2, messageRows());
+
+        // A different key is a different post
+        HttpResponse<String> other = webClient.send(post(body, "retry-2"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertNotEquals(original.getMessage_id(), objectMapper.readValue(other.body(), Message.class).getMessage_id());
+        Assert.assertEquals(3, messageRows());
+    }
+
+    /**
+     * Duplicates sent at the same time are coalesced into one message.
+     */
+    @Test
+    public void concurrentDuplicatesCreateOneMessage() throws Exception {
+        String body = "{\"posted_by\":1,\"message_text\":\"concurrent message\",\"time_posted_epoch\":1669947792}";
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            responses.add(webClient.sendAsync(post(body, "concurrent-1"), HttpResponse.BodyHandlers.ofString()));
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            Assert.assertEquals(200, response.get().statusCode());
+            ids.add(objectMapper.readValue(response.get().body(), Message.class).getMessage_id());
+        }
+        Assert.assertEquals(1, ids.size());
+        Assert.assertEquals(2, messageRows());
+    }
+
+    /**
+     * A failed post does not consume its key, so a corrected retry succeeds.
+     */
+    @Test
+    public void failedPostDoesNotConsumeKey() throws IOException, InterruptedException {
+        HttpResponse<String> failed = webClient.send(post("{\"posted_by\":1,\"message_text\":\"\",\"time_posted_epoch\":1669947792}", "fix-1"),
+                HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(400, failed.statusCode());
+
+        HttpResponse<String> fixed = webClient.send(post("{\"posted_by\":1,\"message_text\":\"fixed\",\"time_posted_epoch\":1669947792}", "fix-1"),
+                HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, fixed.statusCode());
+        Assert.assertEquals("fixed", objectMapper.readValue(fixed.body(), Message.class).getMessage_text());
+    }
+
+    /**
+     * Reusing a key with a different body is refused with 422 and creates nothing; the original body still
+     * gets the original message, which was recorded against the key with the insert.
+     */
+    @Test
+    public void reuseWithDifferentBodyIsRejected() throws IOException, InterruptedException, SQLException {
+        String body = "{\"posted_by\":1,\"message_text\":\"first body\",\"time_posted_epoch\":1669947792}";
+        HttpResponse<String> first = webClient.send(post(body, "reuse-1"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, first.statusCode());
+        Message original = objectMapper.readValue(first.body(), Message.class);
+
+        HttpResponse<String> reused = webClient.send(post("{\"posted_by\":1,\"message_text\":\"second body\",\"time_posted_epoch\":1669947792}", "reuse-1"),
+                HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(422, reused.statusCode());
+        Assert.assertEquals(2, messageRows());
+
+        HttpResponse<String> retry = webClient.send(post(body, "reuse-1"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(original, objectMapper.readValue(retry.body(), Message.class));
+
+        ResultSet rs = ConnectionUtil.getConnection().createStatement()
+                .executeQuery("SELECT message_id FROM idempotency_key WHERE idempotency_key = 'reuse-1';");
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(original.getMessage_id(), rs.getInt(1));
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.AccountStats;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ImportMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> importBody(String format, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/import/messages?format=" + format))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private <T> T get(String path, TypeReference<T> type) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return objectMapper.readValue(webClient.send(request, HttpResponse.BodyHandlers.ofString()).body(), type);
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/import/messages with NDJSON containing one invalid row
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: 2 imported, 1 rejected; the messages and account statistics include the imported rows
+     */
+    @Test
+    public void importNdjson() throws IOException, InterruptedException {
+        HttpResponse<String> response = importBody("ndjson",
+                "{\"posted_by\":1,\"message_text\":\"imported 1\",\"time_posted_epoch\":1700000000}\n" +
+                "{\"posted_by\":99,\"message_text\":\"unknown account\",\"time_posted_epoch\":1700000001}\n" +
+                "{\"posted_by\":1,\"message_text\":\"imported 2\",\"time_posted_epoch\":1700000002}\n");
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode result = objectMapper.readTree(response.body());
+        Assert.assertEquals(2, result.get("imported").asInt());
+        Assert.assertEquals(1, result.get("rejected").asInt());
+
+        List<Message> messages = get("/messages", new TypeReference<List<Message>>(){});
+        Assert.assertEquals(3, messages.size());
+        AccountStats stats = get("/accounts/1/stats", new TypeReference<AccountStats>(){});
+        Assert.assertEquals(3, stats.getMessage_count());
+        Assert.assertEquals(1700000002, stats.getLast_post_epoch());
+    }
+
+    /**
+     * An export in CSV format can be imported again; message_id columns are ignored and quoting is preserved.
+     */
+    @Test
+    public void importCsvExport() throws IOException, InterruptedException {
+        HttpResponse<String> response = importBody("csv",
+                "message_id,posted_by,message_text,time_posted_epoch\n" +
+                "7,1,\"hello, \"\"csv\"\"\",1700000000\n");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(1, objectMapper.readTree(response.body()).get("imported").asInt());
+
+        Message imported = get("/messages/2", new TypeReference<Message>(){});
+        Assert.assertEquals(new Message(2, 1, "hello, \"csv\"", 1700000000), imported);
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/import/messages with an unknown format
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void importUnknownFormat() throws IOException, InterruptedException {
+        Assert.assertEquals(400, importBody("xml", "<messages/>").statusCode());
+    }
+}
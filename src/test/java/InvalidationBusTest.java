@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.InvalidationBus;
+import io.javalin.Javalin;
+
+public class InvalidationBusTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    // Stands in for a second instance sharing the database
+    InvalidationBus peer;
+    RecordingListener peerCaches = new RecordingListener();
+
+    private static final int APP_PORT = 7093;
+    private static final int PEER_PORT = 7094;
+
+    /**
+     * Records what a bus applied, as "entity id version" lines.
+     */
+    static class RecordingListener implements InvalidationBus.Listener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger flushes = new AtomicInteger();
+
+        @Override
+        public void invalidate(byte entity, int id, long version) {
+            events.add((char) entity + " " + id + " " + version);
+        }
+
+        @Override
+        public void invalidateAll() {
+            flushes.incrementAndGet();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty("socialmedia.invalidation.port", Integer.toString(APP_PORT));
+        System.setProperty("socialmedia.invalidation.peers", "127.0.0.1:" + PEER_PORT);
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        peer = new InvalidationBus(PEER_PORT, InvalidationBus.parsePeers("127.0.0.1:" + APP_PORT), 2, peerCaches);
+        peer.start();
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        peer.stop();
+        app.stop();
+        System.clearProperty("socialmedia.invalidation.port");
+        System.clearProperty("socialmedia.invalidation.peers");
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private JsonNode busMetrics() throws IOException, InterruptedException {
+        return objectMapper.readTree(send("GET", "/debug/invalidation-bus", null).body());
+    }
+
+    private String cachedText() throws IOException, InterruptedException {
+        return objectMapper.readTree(send("POST", "/messages/lookup", "[1]").body()).get(0).get("message_text").asText();
+    }
+
+    private String timelineText() throws IOException, InterruptedException {
+        return objectMapper.readTree(send("GET", "/accounts/1/messages", null).body()).get(0).get("message_text").asText();
+    }
+
+    // A write made by the other instance: the database changes, this instance's caches do not
+    private void updateBehindTheCache(String text) throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        PreparedStatement ps = conn.prepareStatement("UPDATE message SET message_text = ? WHERE message_id = 1;");
+        ps.setString(1, text);
+        ps.executeUpdate();
+    }
+
+    private static void awaitTrue(String what, Check check) throws Exception {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!check.holds()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    interface Check {
+        boolean holds() throws Exception;
+    }
+
+    /**
+     * Every committed write is published with its change number as the version: the message and the
+     * account whose list it changed.
+     */
+    @Test
+    public void writesArePublishedToPeers() throws Exception {
+        Assert.assertEquals(200, send("PATCH", "/messages/1", "{\"message_text\":\"updated\"}").statusCode());
+        awaitTrue("the update's events", () -> peerCaches.events.size() >= 2);
+        long version = objectMapper.readTree(send("GET", "/changes", null).body()).get("next_since").asLong();
+        Assert.assertEquals(List.of("m 1 " + version, "a 1 " + version), peerCaches.events);
+
+        Assert.assertEquals(200, send("DELETE", "/messages/1", null).statusCode());
+        awaitTrue("the delete's events", () -> peerCaches.events.size() >= 4);
+        Assert.assertEquals(List.of("m 1 " + (version + 1), "a 1 " + (version + 1)), peerCaches.events.subList(2, 4));
+        Assert.assertEquals(1, peerCaches.flushes.get());
+    }
+
+    /**
+     * An event from a peer removes the one cached message or timeline it names; the first datagram from a
+     * peer flushes everything, since earlier ones may have been missed.
+     */
+    @Test
+    public void peerEventsInvalidateLocalCaches() throws Exception {
+        peer.publish(InvalidationBus.MESSAGE, 999, 1);
+        awaitTrue("the first contact flush", () -> busMetrics().get("flushes").asInt() == 1);
+
+        Assert.assertEquals("test message 1", cachedText());
+        Assert.assertEquals("test message 1", timelineText());
+        updateBehindTheCache("written elsewhere");
+        Assert.assertEquals("test message 1", cachedText());
+        Assert.assertEquals("test message 1", timelineText());
+
+        peer.publish(InvalidationBus.MESSAGE, 1, 2);
+        awaitTrue("the message to be invalidated", () -> cachedText().equals("written elsewhere"));
+        Assert.assertEquals("test message 1", timelineText());
+        peer.publish(InvalidationBus.ACCOUNT, 1, 2);
+        awaitTrue("the timeline to be invalidated", () -> timelineText().equals("written elsewhere"));
+
+        JsonNode metrics = busMetrics();
+        Assert.assertEquals(1, metrics.get("flushes").asInt());
+        Assert.assertEquals(0, metrics.get("gaps").asInt());
+        Assert.assertEquals(3, metrics.get("events_applied").asInt());
+    }
+
+    /**
+     * Events for one key waiting together collapse into the highest version; a backlog past the
+     * bus's limit is sent as a single flush.
+     */
+    @Test
+    public void burstsAreCoalescedAndOverflowBecomesFlush() throws Exception {
+        RecordingListener received = new RecordingListener();
+        InvalidationBus receiver = new InvalidationBus(7095, new ArrayList<>(), 2, received);
+        InvalidationBus sender = new InvalidationBus(7096, InvalidationBus.parsePeers("127.0.0.1:7095"), 500, new RecordingListener());
+        receiver.start();
+        sender.start();
+        try {
+            for (int version = 1; version <= 100; version++) {
+                sender.publish(InvalidationBus.MESSAGE, 7, version);
+            }
+            awaitTrue("the coalesced event", () -> received.events.size() == 1);
+            Assert.assertEquals("m 7 100", received.events.get(0));
+            Assert.assertEquals(1, received.flushes.get());
+
+            received.events.clear();
+            for (int id = 0; id < 20000; id++) {
+                sender.publish(InvalidationBus.MESSAGE, id, id);
+            }
+            awaitTrue("the overflow flush", () -> received.flushes.get() == 2);
+            Assert.assertEquals(1L, sender.metrics().get("overflows"));
+            awaitTrue("the events after the flush", () -> received.events.size() == 10000);
+            Assert.assertEquals("m 10000 10000", received.events.get(0));
+        } finally {
+            sender.stop();
+            receiver.stop();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import Model.Message;
+
+/**
+ * Manual benchmark comparing JSON, Smile and CBOR for message lists of 1k and 100k entries. Not run by
+ * the test suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.mainClass=PayloadFormatBenchmark -Dexec.classpathScope=test
+ *
+ * For each format it prints the encoded size and the average time to serialize and to deserialize the list.
+ */
+public class PayloadFormatBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        ObjectMapper[] mappers = {new ObjectMapper(), new ObjectMapper(new SmileFactory()), new ObjectMapper(new CBORFactory())};
+        String[] names = {"json", "smile", "cbor"};
+
+        for (int size : new int[] {1_000, 100_000}) {
+            List<Message> messages = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                messages.add(new Message(i + 1, i % 500 + 1, "message number " + i + " posted to the timeline", 1669947792L + i));
+            }
+            int iterations = size >= 100_000 ? 20 : 2_000;
+            System.out.printf("%d messages%n", size);
+            for (int m = 0; m < mappers.length; m++) {
+                ObjectMapper mapper = mappers[m];
+                byte[] encoded = mapper.writeValueAsBytes(messages);
+                for (int i = 0; i < iterations; i++) {
+                    mapper.readValue(mapper.writeValueAsBytes(messages), new TypeReference<List<Message>>(){});
+                }
+
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    mapper.writeValueAsBytes(messages);
+                }
+                long writeMicros = (System.nanoTime() - start) / 1000 / iterations;
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    mapper.readValue(encoded, new TypeReference<List<Message>>(){});
+                }
+                long readMicros = (System.nanoTime() - start) / 1000 / iterations;
+
+                System.out.printf("  %-6s %10d bytes %8d us write %8d us read%n", names[m], encoded.length, writeMicros, readMicros);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class PayloadValidationTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(String method, String path, HttpRequest.BodyPublisher body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body)
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private int status(String method, String path, String body) throws IOException, InterruptedException {
+        return send(method, path, HttpRequest.BodyPublishers.ofString(body)).statusCode();
+    }
+
+    /**
+     * Bodies over the cap are rejected with 413, whether or not they declare their length.
+     */
+    @Test
+    public void oversizedBodiesAreRejected() throws IOException, InterruptedException {
+        String padding = " ".repeat(10_000);
+        String body = "{\"posted_by\":1," + padding + "\"message_text\":\"hi\"}";
+        Assert.assertEquals(413, status("POST", "/messages", body));
+        Assert.assertEquals(413, status("PATCH", "/messages/1", body));
+
+        // Without a Content-Length the cap applies while the body streams in
+        byte[] bytes = body.getBytes();
+        HttpResponse<String> chunked = send("POST", "/messages",
+                HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(bytes)));
+        Assert.assertEquals(413, chunked.statusCode());
+    }
+
+    /**
+     * Invalid fields fail with 400 and nothing is written.
+     */
+    @Test
+    public void invalidMessagesAreRejected() throws IOException, InterruptedException {
+        String longText = "x".repeat(256);
+        Assert.assertEquals(400, status("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"" + longText + "\"}"));
+        Assert.assertEquals(400, status("POST", "/messages", "{\"posted_by\":1}"));
+        Assert.assertEquals(400, status("POST", "/messages", "{\"message_text\":\"hi\"}"));
+        Assert.assertEquals(400, status("POST", "/messages", "{\"posted_by\":\"one\",\"message_text\":\"hi\"}"));
+        Assert.assertEquals(400, status("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"hi\",\"extra\":{}}"));
+        Assert.assertEquals(400, status("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"hi\"} {}"));
+        Assert.assertEquals(400, status("POST", "/messages", "{\"posted_by\":1,\"message_text\":"));
+        Assert.assertEquals(400, status("POST", "/messages", "[1,2]"));
+        Assert.assertEquals(400, status("PATCH", "/messages/1", "{\"message_text\":\"" + longText + "\"}"));
+        Assert.assertEquals(400, status("PATCH", "/messages/1", "{\"message_text\":42}"));
+
+        Assert.assertEquals(1, objectMapper.readValue(send("GET", "/messages", HttpRequest.BodyPublishers.noBody()).body(), Message[].class).length);
+    }
+
+    /**
+     * Escaped text is counted in characters after unescaping, and PATCH ignores fields other than message_text.
+     */
+    @Test
+    public void validBodiesAreAccepted() throws IOException, InterruptedException {
+        String escaped = "\\u00e9".repeat(255);
+        HttpResponse<String> created = send("POST", "/messages",
+                HttpRequest.BodyPublishers.ofString("{\"posted_by\":1,\"message_text\":\"" + escaped + "\",\"time_posted_epoch\":1669947800}"));
+        Assert.assertEquals(200, created.statusCode());
+        Assert.assertEquals(255, objectMapper.readValue(created.body(), Message.class).getMessage_text().length());
+
+        HttpResponse<String> updated = send("PATCH", "/messages/1",
+                HttpRequest.BodyPublishers.ofString("{\"message_id\":1,\"posted_by\":1,\"nested\":{\"a\":[1,2]},\"message_text\":\"updated\"}"));
+        Assert.assertEquals(200, updated.statusCode());
+        Assert.assertEquals("updated", objectMapper.readValue(updated.body(), Message.class).getMessage_text());
+    }
+}
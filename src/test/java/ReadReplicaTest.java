@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ReadReplicaTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and restart the Javalin app with one read replica.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("socialmedia.replicas", "1");
+        System.setProperty("socialmedia.replication.intervalMillis", "100");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.replicas");
+        System.clearProperty("socialmedia.replication.intervalMillis");
+        ConnectionUtil.configureReplicas(0);
+    }
+
+    private HttpResponse<String> postMessage(String clientId) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"replicated message\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("X-Client-Id", clientId)
+                .build();
+        return webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * The client that wrote a message must be able to read it back right away, even before the replica caught up.
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of the new message
+     */
+    @Test
+    public void writerReadsOwnWrite() throws IOException, InterruptedException {
+        Assert.assertEquals(200, postMessage("writer").statusCode());
+
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .header("X-Client-Id", "writer")
+                .build();
+        HttpResponse<String> response = webClient.send(getRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Message actualResult = objectMapper.readValue(response.body(), Message.class);
+        Assert.assertEquals(2, actualResult.getMessage_id());
+        Assert.assertEquals("replicated message", actualResult.getMessage_text());
+    }
+
+    /**
+     * The replicator copies new messages into the replica, where other clients read them.
+     */
+    @Test
+    public void replicaReceivesWrites() throws IOException, InterruptedException, SQLException {
+        Assert.assertEquals(200, postMessage("writer").statusCode());
+
+        int replicated = 0;
+        for (int attempt = 0; attempt < 50 && replicated < 2; attempt++) {
+            Thread.sleep(100);
+            Connection replica = ConnectionUtil.getReplicaConnection(0);
+            try {
+                ResultSet rs = replica.createStatement().executeQuery("SELECT COUNT(*) FROM message;");
+                rs.next();
+                replicated = rs.getInt(1);
+            } catch (SQLException notCreatedYet) {
+                replicated = 0;
+            } finally {
+                replica.close();
+            }
+        }
+        Assert.assertEquals(2, replicated);
+
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .header("X-Client-Id", "reader")
+                .build();
+        HttpResponse<String> response = webClient.send(getRequest, HttpResponse.BodyHandlers.ofString());
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(2, actualResult.size());
+    }
+
+    /**
+     * A cache miss is filled from the primary, so a replica's out-of-date row never lands in the message cache.
+     */
+    @Test
+    public void cachedMessageComesFromPrimary() throws IOException, InterruptedException, SQLException {
+        // Restart with a replica that is copied once at startup and then lags behind
+        app.stop();
+        System.setProperty("socialmedia.replication.intervalMillis", "60000");
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        boolean replicated = false;
+        for (int attempt = 0; attempt < 50 && !replicated; attempt++) {
+            Thread.sleep(100);
+            Connection replica = ConnectionUtil.getReplicaConnection(0);
+            try {
+                // Stands in for a replica that has not caught up with an edit yet
+                replicated = replica.createStatement().executeUpdate("UPDATE message SET message_text = 'lagging text' WHERE message_id = 1;") == 1;
+            } catch (SQLException notCreatedYet) {
+                replicated = false;
+            } finally {
+                replica.close();
+            }
+        }
+        Assert.assertTrue(replicated);
+
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .header("X-Client-Id", "reader")
+                .build();
+        for (int i = 0; i < 2; i++) {
+            HttpResponse<String> response = webClient.send(getRequest, HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals("test message 1", objectMapper.readValue(response.body(), Message.class).getMessage_text());
+        }
+    }
+}
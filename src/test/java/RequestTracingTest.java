@@ -0,0 +1,111 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.Tracer;
+import io.javalin.Javalin;
+
+public class RequestTracingTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        Tracer.setSampleRate(0);
+        app.stop();
+    }
+
+    private JsonNode get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    private JsonNode findSpan(JsonNode span, String name) {
+        if (span.get("name").asText().equals(name)) {
+            return span;
+        }
+        for (JsonNode child : span.get("children")) {
+            JsonNode found = findSpan(child, name);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A request sent with X-Trace: true is traced through the service and down to its SQL statement.
+     */
+    @Test
+    public void forcedTraceRecordsServiceAndSqlSpans() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .header("X-Trace", "true")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        JsonNode trace = get("/debug/traces?limit=1").get(0);
+        Assert.assertEquals("GET /messages/1", trace.get("name").asText());
+        Assert.assertNotNull(findSpan(trace, "SocialMediaService.retrieveMessageById"));
+        JsonNode sql = findSpan(trace, "SocialMediaDAO.retrieveMessageById");
+        Assert.assertNotNull(sql);
+        Assert.assertTrue(sql.get("sql").asText().toLowerCase().contains("from message"));
+        Assert.assertEquals(1, sql.get("rows").asLong());
+        Assert.assertNotNull(findSpan(trace, "PayloadCodec.write"));
+    }
+
+    /**
+     * With sampling off nothing is recorded; setting the rate to 1 traces every request.
+     */
+    @Test
+    public void samplingRateControlsTracing() throws IOException, InterruptedException {
+        int before = get("/debug/traces").size();
+        get("/messages");
+        Assert.assertEquals(before, get("/debug/traces").size());
+
+        HttpRequest sampling = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/debug/traces/sampling?rate=1"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        HttpResponse<String> response = webClient.send(sampling, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(1.0, objectMapper.readTree(response.body()).get("sample_rate").asDouble(), 0);
+
+        get("/messages");
+        get("/accounts/1/messages");
+        JsonNode slowest = get("/debug/traces?slowest=10");
+        Assert.assertTrue(slowest.size() >= 2);
+        Assert.assertTrue(slowest.get(0).get("duration_micros").asLong() >= slowest.get(1).get("duration_micros").asLong());
+    }
+}
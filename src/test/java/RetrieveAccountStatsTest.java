@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.SocialMediaDAO;
+import Model.AccountStats;
+import Model.Message;
+import Service.AccountStatsTracker;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveAccountStatsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder builder) throws IOException, InterruptedException {
+        return webClient.send(builder.header("Content-Type", "application/json").build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private AccountStats stats(int accountId) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/accounts/" + accountId + "/stats")));
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), AccountStats.class);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/stats
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: statistics of the seeded message
+     */
+    @Test
+    public void getStatsForSeededAccount() throws IOException, InterruptedException {
+        Assert.assertEquals(new AccountStats(1, 1, 1669947792, 1669947792, 14), stats(1));
+    }
+
+    /**
+     * Posting, updating and deleting messages keeps the statistics current.
+     */
+    @Test
+    public void statsFollowMessageWrites() throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"hello\", \"time_posted_epoch\": 1700000000}")));
+        Assert.assertEquals(new AccountStats(1, 2, 1669947792, 1700000000, 19), stats(1));
+
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"hello again\"}")));
+        Assert.assertEquals(new AccountStats(1, 2, 1669947792, 1700000000, 25), stats(1));
+
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/2")).DELETE());
+        Assert.assertEquals(new AccountStats(1, 1, 1669947792, 1669947792, 14), stats(1));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/{account_id}/stats for an account that does not exist
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: empty
+     */
+    @Test
+    public void getStatsForMissingAccount() throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/accounts/99/stats")));
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+    /**
+     * Counters checkpointed before a crash are not trusted: a write made after the last checkpoint is counted
+     * on the next start.
+     */
+    @Test
+    public void statsAreRecountedAfterUncleanShutdown() {
+        // The app's own tracker checkpoints on stop; from here on only the trackers below use the database
+        app.stop();
+        AccountStatsTracker crashed = new AccountStatsTracker();
+        crashed.checkpoint();
+        try (AccountStatsTracker.Write write = crashed.writing(1)) {
+            crashed.onPost(SocialMediaDAO.postMessage(new Message(1, "never checkpointed", 1700000000), null));
+        }
+
+        AccountStatsTracker restarted = new AccountStatsTracker();
+        Assert.assertEquals(new AccountStats(1, 2, 1669947792, 1700000000, 32), restarted.get(1));
+
+        // After a clean checkpoint the next start loads the same counters
+        restarted.checkpoint();
+        Assert.assertEquals(restarted.get(1), new AccountStatsTracker().get(1));
+    }
+
+    /**
+     * A recount running while a write is between its commit and onPost waits for it, so the post is
+     * counted once.
+     */
+    @Test
+    public void recountDuringWriteCountsPostOnce() throws InterruptedException {
+        app.stop();
+        AccountStatsTracker tracker = new AccountStatsTracker();
+        tracker.load();
+        CountDownLatch committed = new CountDownLatch(1);
+        CountDownLatch apply = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            try (AccountStatsTracker.Write write = tracker.writing(1)) {
+                Message posted = SocialMediaDAO.postMessage(new Message(1, "raced", 1700000000), null);
+                committed.countDown();
+                apply.await();
+                tracker.onPost(posted);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        writer.start();
+        committed.await();
+        Thread recount = new Thread(tracker::rebuild);
+        recount.start();
+        Thread.sleep(200);
+        apply.countDown();
+        writer.join();
+        recount.join();
+
+        Assert.assertEquals(2, tracker.get(1).getMessage_count());
+    }
+
+    /**
+     * Concurrent edits of one message each replace the text the previous one left, so the character total
+     * ends up matching the final text.
+     */
+    @Test
+    public void concurrentUpdatesKeepCharacterTotal() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1"))
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"" + "x".repeat(i * 10) + "\"}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            responses.add(webClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            Assert.assertEquals(200, response.get().statusCode());
+        }
+        HttpResponse<String> message = send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1")));
+        long length = objectMapper.readValue(message.body(), Message.class).getMessage_text().length();
+        Assert.assertEquals(length, stats(1).getTotal_characters());
+    }
+
+    /**
+     * A recount of one account waits for a post by that account that has committed but not been applied yet.
+     */
+    @Test
+    public void accountRecountDuringWriteCountsPostOnce() throws InterruptedException {
+        app.stop();
+        AccountStatsTracker tracker = new AccountStatsTracker();
+        tracker.load();
+        CountDownLatch committed = new CountDownLatch(1);
+        CountDownLatch apply = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            try (AccountStatsTracker.Write write = tracker.writing(1)) {
+                Message posted = SocialMediaDAO.postMessage(new Message(1, "raced", 1700000000), null);
+                committed.countDown();
+                apply.await();
+                tracker.onPost(posted);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        writer.start();
+        committed.await();
+        Thread recount = new Thread(() -> tracker.recount(List.of(1)));
+        recount.start();
+        Thread.sleep(200);
+        apply.countDown();
+        writer.join();
+        recount.join();
+
+        Assert.assertEquals(2, tracker.get(1).getMessage_count());
+    }
+
+    /**
+     * A flush of the invalidation bus returns at once, even while a write holds the counters, and every
+     * account is recounted when it is next read.
+     */
+    @Test
+    public void invalidateAllRecountsLazily() throws Exception {
+        app.stop();
+        AccountStatsTracker tracker = new AccountStatsTracker();
+        tracker.load();
+        // Another instance's post, whose invalidation was lost
+        SocialMediaDAO.postMessage(new Message(1, "from a peer", 1700000000), null);
+
+        try (AccountStatsTracker.Write write = tracker.writing(2)) {
+            CompletableFuture.runAsync(tracker::invalidateAll).get(1, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(2, tracker.get(1).getMessage_count());
+    }
+}
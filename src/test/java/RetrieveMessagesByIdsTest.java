@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageCache;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesByIdsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Two more messages are posted, giving ids 1 to 3.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"second\",\"time_posted_epoch\":1669947793}");
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"third\",\"time_posted_epoch\":1669947794}");
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> messages(HttpResponse<String> response) throws IOException {
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    /**
+     * Messages come back in the requested order, without unknown ids or repeats.
+     */
+    @Test
+    public void getByIdsKeepsRequestedOrder() throws IOException, InterruptedException {
+        List<Message> found = messages(send("GET", "/messages?ids=3,99,1,3", null));
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals(new Message(3, 1, "third", 1669947794), found.get(0));
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), found.get(1));
+    }
+
+    /**
+     * The POST form takes a JSON array; repeated lookups are served from the cache.
+     */
+    @Test
+    public void postLookupUsesCache() throws IOException, InterruptedException {
+        List<Message> first = messages(send("POST", "/messages/lookup", "[2,1]"));
+        List<Message> second = messages(send("POST", "/messages/lookup", "[2,1]"));
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(2, second.get(0).getMessage_id());
+
+        JsonNode metrics = objectMapper.readTree(send("GET", "/debug/message-cache", null).body());
+        Assert.assertEquals(2, metrics.get("hits").asLong());
+        Assert.assertEquals(2, metrics.get("size").asLong());
+    }
+
+    /**
+     * A single-message read fills the cache too, so a repeated GET /messages/{message_id} is a hit.
+     */
+    @Test
+    public void singleGetFillsCache() throws IOException, InterruptedException {
+        send("GET", "/messages/1", null);
+        Assert.assertEquals("test message 1", objectMapper.readValue(send("GET", "/messages/1", null).body(), Message.class).getMessage_text());
+
+        JsonNode metrics = objectMapper.readTree(send("GET", "/debug/message-cache", null).body());
+        Assert.assertEquals(1, metrics.get("hits").asLong());
+        Assert.assertEquals(1, metrics.get("size").asLong());
+    }
+
+    /**
+     * A read's put is dropped only when its own message was invalidated meanwhile, not any other.
+     */
+    @Test
+    public void putIsDroppedOnlyForInvalidatedMessage() {
+        MessageCache cache = new MessageCache(10);
+        long stamp = cache.stamp(1);
+        cache.invalidate(2);
+        cache.put(new Message(1, 1, "one", 1669947792), stamp);
+        Assert.assertNotNull(cache.get(1));
+
+        stamp = cache.stamp(3);
+        cache.invalidate(3);
+        cache.put(new Message(3, 1, "stale", 1669947794), stamp);
+        Assert.assertNull(cache.get(3));
+    }
+
+    /**
+     * Updated and deleted messages are not served stale from the cache.
+     */
+    @Test
+    public void writesInvalidateCachedMessages() throws IOException, InterruptedException {
+        messages(send("GET", "/messages?ids=1,2", null));
+        Assert.assertEquals(200, send("PATCH", "/messages/1", "{\"message_text\":\"edited\"}").statusCode());
+        Assert.assertEquals(200, send("DELETE", "/messages/2", null).statusCode());
+
+        List<Message> found = messages(send("GET", "/messages?ids=1,2", null));
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals("edited", found.get(0).getMessage_text());
+        Assert.assertEquals("edited", objectMapper.readValue(send("GET", "/messages/1", null).body(), Message.class).getMessage_text());
+        Assert.assertEquals("", send("GET", "/messages/2", null).body());
+    }
+
+    /**
+     * Malformed, empty and oversized lists are rejected.
+     */
+    @Test
+    public void invalidIdListsReturn400() throws IOException, InterruptedException {
+        Assert.assertEquals(400, send("GET", "/messages?ids=1,abc", null).statusCode());
+        Assert.assertEquals(400, send("POST", "/messages/lookup", "[]").statusCode());
+        Assert.assertEquals(400, send("POST", "/messages/lookup", "{\"ids\":[1]}").statusCode());
+        StringBuilder tooMany = new StringBuilder("1");
+        for (int i = 2; i <= 1001; i++) {
+            tooMany.append(',').append(i);
+        }
+        Assert.assertEquals(400, send("POST", "/messages/lookup", "[" + tooMany + "]").statusCode());
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesByTimeTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private Message post(String body) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?from=&to=
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages posted inside the range, newest first
+     */
+    @Test
+    public void getMessagesInTimeRange() throws IOException, InterruptedException {
+        post("{\"posted_by\":1, \"message_text\": \"first\", \"time_posted_epoch\": 1700000000}");
+        post("{\"posted_by\":1, \"message_text\": \"second\", \"time_posted_epoch\": 1700000100}");
+        post("{\"posted_by\":1, \"message_text\": \"third\", \"time_posted_epoch\": 1700000200}");
+
+        HttpResponse<String> response = get("/messages?from=1700000050&to=1700000200");
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(4, 1, "third", 1700000200));
+        expectedResult.add(new Message(3, 1, "second", 1700000100));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?latest=2
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the two most recent messages, newest first
+     */
+    @Test
+    public void getLatestMessages() throws IOException, InterruptedException {
+        post("{\"posted_by\":1, \"message_text\": \"older\", \"time_posted_epoch\": 1700000000}");
+        post("{\"posted_by\":1, \"message_text\": \"newer\", \"time_posted_epoch\": 1700000100}");
+
+        HttpResponse<String> response = get("/messages?latest=2");
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(2, actualResult.size());
+        Assert.assertEquals("newer", actualResult.get(0).getMessage_text());
+        Assert.assertEquals("older", actualResult.get(1).getMessage_text());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages with from after to
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getMessagesInvalidRange() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages?from=20&to=10").statusCode());
+        Assert.assertEquals(400, get("/messages?latest=abc").statusCode());
+    }
+
+    /**
+     * A message posted without time_posted_epoch is stamped by the server and stored with that time.
+     */
+    @Test
+    public void messageWithoutTimeGetsServerTimestamp() throws IOException, InterruptedException {
+        long before = Instant.now().getEpochSecond();
+        Message posted = post("{\"posted_by\":1, \"message_text\": \"stamped\"}");
+        Assert.assertTrue(Math.abs(posted.getTime_posted_epoch() - before) <= 2);
+
+        Message stored = objectMapper.readValue(get("/messages/" + posted.getMessage_id()).body(), Message.class);
+        Assert.assertEquals(posted, stored);
+    }
+}
@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.SchemaMigrator;
+import io.javalin.Javalin;
+
+public class SchemaMigrationTest {
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database. The app is started by the tests themselves, outside test mode.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+    }
+
+    @After
+    public void tearDown() {
+        if (app != null) {
+            app.stop();
+        }
+        System.setProperty("socialmedia.testMode", "true");
+    }
+
+    /**
+     * A freshly reset database has every migration recorded, and migrating again applies nothing.
+     */
+    @Test
+    public void migrateIsIdempotent() throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        int version = SchemaMigrator.currentVersion(conn);
+        Assert.assertTrue(version >= 3);
+
+        Assert.assertEquals(version, SchemaMigrator.migrate(conn));
+        ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM schema_version;");
+        rs.next();
+        Assert.assertEquals(version, rs.getInt(1));
+    }
+
+    /**
+     * Outside test mode, startup keeps existing data instead of recreating the tables.
+     */
+    @Test
+    public void startupOutsideTestModeKeepsData() throws SQLException, IOException, InterruptedException {
+        Connection conn = ConnectionUtil.getConnection();
+        conn.createStatement().executeUpdate("INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (1, 'kept', 1669947793);");
+
+        System.setProperty("socialmedia.testMode", "false");
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/2")).build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Message actual = objectMapper.readValue(response.body(), Message.class);
+        Assert.assertEquals("kept", actual.getMessage_text());
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.ShardRebalancer;
+import Util.ShardRouter;
+import io.javalin.Javalin;
+
+public class ShardedMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and restart the Javalin app with messages sharded across 3 in-memory databases.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("socialmedia.shards", "3");
+        System.setProperty("socialmedia.shards.urlPrefix", "jdbc:h2:mem:shardtest");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        ShardRouter.resetShards();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.shards");
+        System.clearProperty("socialmedia.shards.urlPrefix");
+        ShardRouter.configure(0, "");
+    }
+
+    private void register(String username) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private Message post(int postedBy, String text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + postedBy + ", \"message_text\": \"" + text + "\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    private <T> T get(String path, TypeReference<T> type) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), type);
+    }
+
+    /**
+     * Messages from several accounts land on different shards; GET /messages merges them in message_id order,
+     * GET /messages?ids= finds them on any shard and GET /accounts/{account_id}/messages only returns that account's messages.
+     */
+    @Test
+    public void messagesMergedAcrossShards() throws IOException, InterruptedException {
+        register("user2");
+        register("user3");
+        List<Message> posted = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            for (int account = 1; account <= 3; account++) {
+                posted.add(post(account, "message " + i + " from " + account));
+            }
+        }
+
+        List<Message> all = get("/messages", new TypeReference<List<Message>>(){});
+        Assert.assertEquals(posted.size(), all.size());
+        for (int i = 1; i < all.size(); i++) {
+            Assert.assertTrue(all.get(i - 1).getMessage_id() < all.get(i).getMessage_id());
+        }
+
+        // A multi-get spans every shard and keeps the requested order
+        List<Message> byIds = get("/messages?ids=" + posted.get(5).getMessage_id() + "," + posted.get(0).getMessage_id() + "," + posted.get(4).getMessage_id(),
+                new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(posted.get(5), posted.get(0), posted.get(4)), byIds);
+
+        List<Message> byUser = get("/accounts/2/messages", new TypeReference<List<Message>>(){});
+        Assert.assertEquals(3, byUser.size());
+        for (Message message : byUser) {
+            Assert.assertEquals(2, message.getPosted_by());
+        }
+
+        // The change feed merges the shards' logs in commit order
+        JsonNode changes = get("/changes", new TypeReference<JsonNode>(){}).get("changes");
+        Assert.assertEquals(posted.size(), changes.size());
+        for (int i = 0; i < posted.size(); i++) {
+            Assert.assertEquals(posted.get(i).getMessage_id(), changes.get(i).get("message_id").asInt());
+        }
+    }
+
+    /**
+     * After rebalancing to a different shard count every message is still found by its original id, and
+     * the change log is still complete.
+     */
+    @Test
+    public void rebalanceKeepsMessageIds() throws IOException, InterruptedException, SQLException {
+        register("user2");
+        register("user3");
+        List<Message> posted = new ArrayList<>();
+        for (int account = 1; account <= 3; account++) {
+            posted.add(post(account, "before rebalance " + account));
+        }
+
+        ShardRebalancer.rebalance(3, "jdbc:h2:mem:shardtest", 2, "jdbc:h2:mem:shardtest-rebalanced");
+        ShardRouter.configure(2, "jdbc:h2:mem:shardtest-rebalanced");
+
+        for (Message message : posted) {
+            Message found = get("/messages/" + message.getMessage_id(), new TypeReference<Message>(){});
+            Assert.assertEquals(message.getMessage_text(), found.getMessage_text());
+        }
+        Message after = post(1, "after rebalance");
+        for (Message message : posted) {
+            Assert.assertNotEquals(message.getMessage_id(), after.getMessage_id());
+        }
+
+        // The change log moved too, and numbering continues above it
+        JsonNode changes = get("/changes", new TypeReference<JsonNode>(){}).get("changes");
+        Assert.assertEquals(4, changes.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(posted.get(i).getMessage_id(), changes.get(i).get("message_id").asInt());
+            Assert.assertTrue(changes.get(i).get("change_seq").asLong() < changes.get(i + 1).get("change_seq").asLong());
+        }
+        Assert.assertEquals(after.getMessage_id(), changes.get(3).get("message_id").asInt());
+    }
+
+    /**
+     * Deleting an account empties its shard of the account's rows, tombstoned ones included, and leaves other
+     * accounts alone.
+     */
+    @Test
+    public void deleteAccountRemovesItsMessagesFromItsShard() throws IOException, InterruptedException {
+        register("user2");
+        Message kept = post(1, "kept");
+        List<Message> posted = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            posted.add(post(2, "message " + i));
+        }
+        HttpRequest deleteMessage = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + posted.get(0).getMessage_id())).DELETE().build();
+        Assert.assertEquals(200, webClient.send(deleteMessage, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpRequest deleteAccount = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/accounts/2")).DELETE().build();
+        HttpResponse<String> response = webClient.send(deleteAccount, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(3, objectMapper.readTree(response.body()).get("messages_deleted").asInt());
+
+        Assert.assertTrue(get("/accounts/2/messages", new TypeReference<List<Message>>(){}).isEmpty());
+        Assert.assertEquals(List.of(kept), get("/messages", new TypeReference<List<Message>>(){}));
+        Assert.assertEquals(404, webClient.send(deleteAccount, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * A post on a shard whose id sequence has run past what fits in an int id fails instead of storing a
+     * wrapped, negative id.
+     */
+    @Test
+    public void postFailsWhenShardIdsRunOut() throws IOException, InterruptedException, SQLException {
+        Message before = post(1, "before");
+        Connection conn = ShardRouter.getConnection(ShardRouter.shardFor(1));
+        conn.createStatement().execute("ALTER SEQUENCE message_seq RESTART WITH " + (ShardRouter.MAX_LOCAL_ID + 1) + ";");
+        conn.close();
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"wrapped\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(400, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(List.of(before), get("/accounts/1/messages", new TypeReference<List<Message>>(){}));
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Two instances of the API sharing one database: this JVM's instance serves its embedded database over
+ * TCP, and a second instance runs in its own JVM against it, the two keeping each other's caches and
+ * counters current over the invalidation bus.
+ */
+public class SharedDatabaseTest {
+    private static final int DB_PORT = 9101;
+    private static final int OTHER_HTTP_PORT = 8081;
+    private static final int BUS_PORT = 7101;
+    private static final int OTHER_BUS_PORT = 7102;
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    Process other;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app serving its database and bus, and start
+     * the second instance.
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty("socialmedia.db.serverPort", Integer.toString(DB_PORT));
+        System.setProperty("socialmedia.invalidation.port", Integer.toString(BUS_PORT));
+        System.setProperty("socialmedia.invalidation.peers", "127.0.0.1:" + OTHER_BUS_PORT);
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        other = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "-Dsocialmedia.db.url=jdbc:h2:tcp://localhost:" + DB_PORT + "/./h2/db",
+                "-Dsocialmedia.port=" + OTHER_HTTP_PORT,
+                "-Dsocialmedia.invalidation.port=" + OTHER_BUS_PORT,
+                "-Dsocialmedia.invalidation.peers=127.0.0.1:" + BUS_PORT,
+                "Main")
+                .redirectErrorStream(true)
+                .redirectOutput(Path.of("target", "shared-database-instance.log").toFile())
+                .start();
+        awaitTrue("the second instance to start", () -> {
+            try {
+                return send(OTHER_HTTP_PORT, "GET", "/messages/1", null).statusCode() == 200;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (other != null) {
+            other.destroy();
+            other.waitFor();
+        }
+        app.stop();
+        System.clearProperty("socialmedia.db.serverPort");
+        System.clearProperty("socialmedia.invalidation.port");
+        System.clearProperty("socialmedia.invalidation.peers");
+    }
+
+    private HttpResponse<String> send(int port, String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + port + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private JsonNode get(int port, String path) throws IOException, InterruptedException {
+        return objectMapper.readTree(send(port, "GET", path, null).body());
+    }
+
+    private static void awaitTrue(String what, Check check) throws Exception {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (!check.holds()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    interface Check {
+        boolean holds() throws Exception;
+    }
+
+    /**
+     * Writes alternate between the instances without clashing change numbers, each instance's cached
+     * message, timeline and counters pick up the other's writes, and both read the same change log.
+     */
+    @Test
+    public void instancesShareWritesCachesAndCounters() throws Exception {
+        int port = 8080;
+        Assert.assertEquals("test message 1", get(port, "/messages/1").get("message_text").asText());
+        Assert.assertEquals(1, get(port, "/accounts/1/messages").size());
+        Assert.assertEquals(1, get(port, "/accounts/1/stats").get("message_count").asInt());
+
+        Assert.assertEquals(200, send(OTHER_HTTP_PORT, "PATCH", "/messages/1", "{\"message_text\":\"edited elsewhere\"}").statusCode());
+        awaitTrue("the edit to reach the cache", () -> get(port, "/messages/1").get("message_text").asText().equals("edited elsewhere"));
+
+        for (int i = 0; i < 20; i++) {
+            for (int instance : new int[] {port, OTHER_HTTP_PORT}) {
+                HttpResponse<String> response = send(instance, "POST", "/messages",
+                        "{\"posted_by\":1,\"message_text\":\"from " + instance + "\",\"time_posted_epoch\":" + (1669947800 + i) + "}");
+                Assert.assertEquals(200, response.statusCode());
+            }
+        }
+
+        for (int instance : new int[] {port, OTHER_HTTP_PORT}) {
+            awaitTrue("the timeline to show every post", () -> get(instance, "/accounts/1/messages").size() == 41);
+            awaitTrue("the counters to include every post", () -> get(instance, "/accounts/1/stats").get("message_count").asInt() == 41);
+            JsonNode changes = get(instance, "/changes?limit=100").get("changes");
+            Assert.assertEquals(41, changes.size());
+            for (int i = 1; i < changes.size(); i++) {
+                Assert.assertTrue(changes.get(i - 1).get("change_seq").asLong() < changes.get(i).get("change_seq").asLong());
+            }
+        }
+    }
+}
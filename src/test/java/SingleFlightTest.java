@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import Service.SingleFlight;
+
+public class SingleFlightTest {
+    ExecutorService pool = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Callers arriving while a query for their key runs share its result; one query runs in total.
+     */
+    @Test
+    public void concurrentCallersShareOneQuery() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>(5_000);
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> flight.run("1", 0, () -> {
+            executions.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "result";
+        }), pool);
+        started.await();
+        List<CompletableFuture<String>> followers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            followers.add(CompletableFuture.supplyAsync(() -> flight.run("1", 0, () -> {
+                executions.incrementAndGet();
+                return "own query";
+            }), pool));
+        }
+        Thread.sleep(200);
+        release.countDown();
+
+        Assert.assertEquals("result", leader.get());
+        for (CompletableFuture<String> follower : followers) {
+            Assert.assertEquals("result", follower.get());
+        }
+        Assert.assertEquals(1, executions.get());
+        Assert.assertEquals(5L, flight.metrics().get("shared"));
+        Assert.assertEquals(0, flight.metrics().get("in_flight"));
+    }
+
+    /**
+     * A failed query fails every caller waiting on it, and is not remembered.
+     */
+    @Test
+    public void failureIsSharedButNotKept() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>(5_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> flight.run("1", 0, () -> {
+            started.countDown();
+            await(release);
+            throw new IllegalStateException("database down");
+        }), pool);
+        started.await();
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> flight.run("1", 0, () -> "own query"), pool);
+        Thread.sleep(100);
+        release.countDown();
+
+        for (CompletableFuture<String> caller : List.of(leader, follower)) {
+            try {
+                caller.get();
+                Assert.fail("expected the query's exception");
+            } catch (Exception e) {
+                Assert.assertEquals("database down", e.getCause().getMessage());
+            }
+        }
+        Assert.assertEquals("fresh", flight.run("1", 0, () -> "fresh"));
+    }
+
+    /**
+     * A caller that waits longer than the maximum wait runs its own query.
+     */
+    @Test
+    public void waitIsCapped() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>(50);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> flight.run("1", 0, () -> {
+            started.countDown();
+            await(release);
+            return "slow";
+        }), pool);
+        started.await();
+        Assert.assertEquals("own query", flight.run("1", 0, () -> "own query"));
+        Assert.assertEquals(1L, flight.metrics().get("timeouts"));
+        release.countDown();
+        Assert.assertEquals("slow", leader.get());
+    }
+
+    /**
+     * A caller that took a newer version than a running query's, e.g. after a peer's invalidation,
+     * runs its own query instead of sharing the older one.
+     */
+    @Test
+    public void newerVersionDoesNotJoinOlderQuery() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>(5_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> flight.run("1", 0, () -> {
+            started.countDown();
+            await(release);
+            return "before invalidation";
+        }), pool);
+        started.await();
+        Assert.assertEquals("after invalidation", flight.run("1", 1, () -> "after invalidation"));
+        Assert.assertEquals(0L, flight.metrics().get("shared"));
+        release.countDown();
+        Assert.assertEquals("before invalidation", leader.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
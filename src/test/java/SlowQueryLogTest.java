@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.SlowQueryLog;
+import io.javalin.Javalin;
+
+public class SlowQueryLogTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Every statement counts as slow for these tests.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        SlowQueryLog.clear();
+        SlowQueryLog.setThresholdMillis(0);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        SlowQueryLog.setThresholdMillis(AppConfig.slowQueryThresholdMillis());
+        app.stop();
+    }
+
+    private JsonNode findEntry(String fragment) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/debug/slow-queries?limit=500")).build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        for (JsonNode entry : objectMapper.readTree(response.body())) {
+            if (entry.get("shape").asText().contains(fragment)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A login query is logged with its username but not its password, and gets a query plan.
+     */
+    @Test
+    public void slowStatementIsLoggedWithRedactedPasswordAndPlan() throws IOException, InterruptedException {
+        HttpRequest login = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"testuser1\",\"password\":\"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(login, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        JsonNode entry = findEntry("password = ?");
+        Assert.assertNotNull(entry);
+        Assert.assertTrue(entry.get("parameters").toString().contains("testuser1"));
+        Assert.assertTrue(entry.get("parameters").toString().contains("***"));
+        Assert.assertFalse(entry.toString().contains("\"password\""));
+
+        for (int i = 0; i < 50 && (entry.get("plan") == null || entry.get("plan").isNull()); i++) {
+            Thread.sleep(100);
+            entry = findEntry("password = ?");
+        }
+        Assert.assertTrue(entry.get("plan").asText().toUpperCase().contains("SELECT"));
+    }
+
+    /**
+     * Repeated executions of the same statement with different values share one entry.
+     */
+    @Test
+    public void executionsAreGroupedByShape() throws IOException, InterruptedException {
+        for (int id = 1; id <= 3; id++) {
+            HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/" + id)).build();
+            webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        }
+        JsonNode entry = findEntry("from message where message_id = ?");
+        Assert.assertNotNull(entry);
+        Assert.assertTrue(entry.get("count").asLong() >= 3);
+    }
+}
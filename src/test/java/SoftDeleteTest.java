@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SoftDeleteTest {
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database. Each test starts the app with its own purge interval.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("socialmedia.purge.intervalMillis");
+        if (app != null) {
+            app.stop();
+        }
+    }
+
+    private void startApp(long purgeIntervalMillis) throws InterruptedException {
+        System.setProperty("socialmedia.purge.intervalMillis", Long.toString(purgeIntervalMillis));
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    private HttpResponse<String> send(String method, String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private long messageRows() throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM message;");
+        rs.next();
+        return rs.getLong(1);
+    }
+
+    /**
+     * A deleted message is tombstoned rather than removed, and no read returns it.
+     */
+    @Test
+    public void deletedMessageIsTombstonedAndHidden() throws IOException, InterruptedException, SQLException {
+        startApp(600_000);
+
+        HttpResponse<String> delete = send("DELETE", "/messages/1");
+        Assert.assertEquals(200, delete.statusCode());
+        Assert.assertEquals(1, objectMapper.readValue(delete.body(), Message.class).getMessage_id());
+        Assert.assertEquals(1, messageRows());
+
+        Assert.assertEquals("", send("GET", "/messages/1").body());
+        List<Message> all = objectMapper.readValue(send("GET", "/messages").body(), new TypeReference<List<Message>>(){});
+        Assert.assertTrue(all.isEmpty());
+        List<Message> byUser = objectMapper.readValue(send("GET", "/accounts/1/messages").body(), new TypeReference<List<Message>>(){});
+        Assert.assertTrue(byUser.isEmpty());
+
+        // Deleting again finds nothing, and a tombstoned message cannot be updated
+        Assert.assertEquals("", send("DELETE", "/messages/1").body());
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"updated\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(400, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * The background purge removes tombstoned rows and reports its progress.
+     */
+    @Test
+    public void purgeRemovesTombstonedRows() throws IOException, InterruptedException, SQLException {
+        startApp(100);
+
+        Assert.assertEquals(200, send("DELETE", "/messages/1").statusCode());
+        for (int attempt = 0; attempt < 50 && messageRows() > 0; attempt++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(0, messageRows());
+
+        Thread.sleep(300);
+        JsonNode metrics = objectMapper.readTree(send("GET", "/debug/purge").body());
+        Assert.assertEquals(1, metrics.get("purged").asLong());
+        Assert.assertEquals(0, metrics.get("backlog").asLong());
+    }
+}
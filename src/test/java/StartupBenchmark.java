@@ -0,0 +1,89 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures time to first successful response: each run starts a fresh JVM with the runnable jar built by
+ * the fast-startup profile and polls GET /messages/1 until it answers 200. The plain JVM is compared with
+ * the class-data sharing archive built by fast-start.sh, with and without the pre-listen warm-up.
+ * Not a unit test; build first with ./fast-start.sh archive, then run ./fast-start.sh bench [runs].
+ */
+public class StartupBenchmark {
+
+    private static final String JAR = "target/Challenges-1.1.jar";
+    private static final String ARCHIVE = "target/app-cds.jsa";
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        if (!new File(JAR).exists()) {
+            System.out.println(JAR + " not found; run ./fast-start.sh archive first");
+            return;
+        }
+        measure("plain JVM", runs);
+        if (new File(ARCHIVE).exists()) {
+            measure("AppCDS", runs, "-XX:SharedArchiveFile=" + ARCHIVE);
+            measure("AppCDS + warm-up", runs, "-XX:SharedArchiveFile=" + ARCHIVE, "-Dsocialmedia.warmup.iterations=20");
+        } else {
+            System.out.println(ARCHIVE + " not found; skipping the AppCDS runs");
+        }
+    }
+
+    private static void measure(String label, int runs, String... jvmArgs) throws Exception {
+        long[] firstResponse = new long[runs];
+        long[] secondResponse = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long[] result = startOnce(jvmArgs);
+            firstResponse[i] = result[0];
+            secondResponse[i] = result[1];
+        }
+        Arrays.sort(firstResponse);
+        Arrays.sort(secondResponse);
+        System.out.printf("%-18s time to first response: median %5d ms, best %5d ms | next request: median %6.2f ms%n",
+                label, firstResponse[runs / 2] / 1_000_000, firstResponse[0] / 1_000_000, secondResponse[runs / 2] / 1e6);
+    }
+
+    /**
+     * @return nanoseconds from process launch to the first 200, and the latency of the request after it
+     */
+    private static long[] startOnce(String... jvmArgs) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + "/bin/java");
+        command.addAll(Arrays.asList(jvmArgs));
+        command.add("-jar");
+        command.add(JAR);
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(200)).build();
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1")).build();
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            while (true) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("API process exited with " + process.exitValue());
+                }
+                try {
+                    if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        break;
+                    }
+                } catch (IOException notListeningYet) {
+                    Thread.sleep(5);
+                }
+            }
+            long firstResponse = System.nanoTime() - start;
+            long next = System.nanoTime();
+            client.send(request, HttpResponse.BodyHandlers.discarding());
+            return new long[] {firstResponse, System.nanoTime() - next};
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+}
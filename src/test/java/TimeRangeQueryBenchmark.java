@@ -0,0 +1,75 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * Manual benchmark for time range and latest-N queries. Not run by the test suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.mainClass=TimeRangeQueryBenchmark -Dexec.classpathScope=test -Dbench.rows=10000000
+ *
+ * It resets the test database, loads bench.rows messages (default 10M) spread over one year, prints the
+ * query plans to show the time_posted_epoch index is used, and times range queries of several widths.
+ */
+public class TimeRangeQueryBenchmark {
+
+    private static final long START = 1669947792L;
+    private static final long YEAR = 365L * 24 * 3600;
+
+    public static void main(String[] args) throws SQLException {
+        int rows = Integer.getInteger("bench.rows", 10_000_000);
+        ConnectionUtil.resetTestDatabase();
+        load(rows);
+
+        Connection conn = ConnectionUtil.getConnection();
+        printPlan(conn, "EXPLAIN SELECT * FROM message WHERE time_posted_epoch BETWEEN 1 AND 2 ORDER BY time_posted_epoch DESC LIMIT 10;");
+        printPlan(conn, "EXPLAIN SELECT * FROM message ORDER BY time_posted_epoch DESC LIMIT 10;");
+
+        long[] widths = {60, 3600, 24 * 3600, 7 * 24 * 3600};
+        for (long width : widths) {
+            time("range " + width + "s", () -> {
+                long from = START + (long) (Math.random() * (YEAR - width));
+                return SocialMediaDAO.retrieveMessagesInTimeRange(from, from + width, 1000);
+            });
+        }
+        time("latest 100", () -> SocialMediaDAO.retrieveLatestMessages(100));
+    }
+
+    private static void load(int rows) throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        long start = System.nanoTime();
+        // Generate rows inside H2 so loading is not limited by JDBC round trips
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO message (posted_by, message_text, time_posted_epoch) " +
+                "SELECT 1, 'benchmark message ' || X, ? + MOD(X * 7919, ?) FROM SYSTEM_RANGE(1, ?);");
+        ps.setLong(1, START);
+        ps.setLong(2, YEAR);
+        ps.setInt(3, rows);
+        ps.executeUpdate();
+        System.out.printf("Loaded %d rows in %d ms%n", rows, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static void printPlan(Connection conn, String sql) throws SQLException {
+        ResultSet rs = conn.createStatement().executeQuery(sql);
+        rs.next();
+        System.out.println(rs.getString(1));
+    }
+
+    private static void time(String label, java.util.function.Supplier<List<Message>> query) {
+        int iterations = 200;
+        for (int i = 0; i < 20; i++) {
+            query.get();
+        }
+        long rowsReturned = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            rowsReturned += query.get().size();
+        }
+        long micros = (System.nanoTime() - start) / 1000 / iterations;
+        System.out.printf("%-16s %8d us/query %8d rows/query%n", label, micros, rowsReturned / iterations);
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.TimelineCache;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class TimelineCacheTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> timeline(int accountId) throws IOException, InterruptedException {
+        HttpResponse<String> response = send("GET", "/accounts/" + accountId + "/messages", null);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {});
+    }
+
+    private JsonNode metrics() throws IOException, InterruptedException {
+        return objectMapper.readTree(send("GET", "/debug/timeline-cache", null).body());
+    }
+
+    /**
+     * Repeated reads are served from the cache, and every write to the account is visible on the next read.
+     */
+    @Test
+    public void writesToAnAccountInvalidateItsTimeline() throws IOException, InterruptedException {
+        Assert.assertEquals(1, timeline(1).size());
+        Assert.assertEquals(1, timeline(1).size());
+        Assert.assertEquals(1, metrics().get("hits").asInt());
+
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"second\",\"time_posted_epoch\":1669947793}");
+        List<Message> messages = timeline(1);
+        Assert.assertEquals(2, messages.size());
+
+        send("PATCH", "/messages/2", "{\"message_text\":\"edited\"}");
+        Assert.assertEquals("edited", timeline(1).get(1).getMessage_text());
+
+        send("DELETE", "/messages/1", null);
+        messages = timeline(1);
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals(2, messages.get(0).getMessage_id());
+        Assert.assertEquals(3, metrics().get("stale").asInt());
+    }
+
+    /**
+     * Each response format is cached on its own.
+     */
+    @Test
+    public void formatsAreCachedSeparately() throws IOException, InterruptedException {
+        timeline(1);
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages"))
+                .header("Accept", "application/cbor")
+                .build();
+        HttpResponse<byte[]> response = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals("application/cbor", response.headers().firstValue("Content-Type").orElse(""));
+        Assert.assertEquals(2, metrics().get("entries").asInt());
+    }
+
+    /**
+     * Past the byte cap, a large list nobody has read lately goes before a small one that was just read.
+     */
+    @Test
+    public void evictionPrefersLargeColdEntries() throws InterruptedException {
+        TimelineCache cache = new TimelineCache(10_000);
+        cache.put(1, "json", cache.version(1), new byte[2000]);
+        cache.put(2, "json", cache.version(2), new byte[200]);
+        Thread.sleep(100);
+        Assert.assertNotNull(cache.get(2, "json", cache.version(2)));
+        for (int account = 3; account <= 6; account++) {
+            cache.put(account, "json", cache.version(account), new byte[2000]);
+        }
+        Assert.assertNull(cache.get(1, "json", cache.version(1)));
+        Assert.assertNotNull(cache.get(2, "json", cache.version(2)));
+        Assert.assertNotNull(cache.get(6, "json", cache.version(6)));
+        Assert.assertTrue((long) cache.metrics().get("bytes") <= 10_000);
+
+        // A list read before a write to its account is not cached under the old version
+        long version = cache.version(7);
+        cache.bump(7);
+        cache.put(7, "json", version, new byte[10]);
+        Assert.assertNull(cache.get(7, "json", cache.version(7)));
+    }
+}